@@ -0,0 +1,56 @@
+package simpledb;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.storage.*;
+import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Full scans with an empty BufferPool, reading every page through a fresh
+ * file handle (the old HeapFile.readPage) and through the persistent
+ * channel, and through the whole stack: a cold BufferPool and a HeapFile
+ * iterator. The OS page cache is warm in all cases, so this measures the
+ * per-miss overhead of the two approaches.
+ * <p>
+ * Run with: ant runbench -Dbench=ColdScanBench
+ */
+public class ColdScanBench {
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+        int numPages = hf.numPages();
+        int pageSize = BufferPool.getPageSize();
+        int rounds = 20;
+
+        long begin = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (int i = 0; i < numPages; i++)
+                new HeapPage(new HeapPageId(hf.getId(), i),
+                        DbFileChannelTest.readWithFreshHandle(hf.getFile(), i, pageSize));
+        }
+        double before = rounds * numPages / ((System.nanoTime() - begin) / 1e9);
+
+        begin = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (int i = 0; i < numPages; i++)
+                hf.readPage(new HeapPageId(hf.getId(), i));
+        }
+        double after = rounds * numPages / ((System.nanoTime() - begin) / 1e9);
+
+        begin = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            DbFileIterator it = hf.iterator(new TransactionId());
+            it.open();
+            while (it.hasNext())
+                it.next();
+            it.close();
+        }
+        double scan = rounds * numPages / ((System.nanoTime() - begin) / 1e9);
+
+        System.out.println(String.format("Cold scan of %d pages, pages/sec: "
+                + "fresh handle %.0f, persistent channel %.0f, iterator %.0f",
+                numPages, before, after, scan));
+    }
+}
@@ -0,0 +1,69 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+import java.util.function.IntUnaryOperator;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.Utility;
+import jav.simpledb.storage.*;
+import jav.simpledb.transaction.TransactionId;
+
+/**
+ * The pages each of the ColumnCompressionTest datasets takes as a HeapFile,
+ * an uncompressed ColumnarFile and a compressed one, and the best of three
+ * times to sum a column of each from the BufferPool.
+ * <p>
+ * Run with: ant runbench -Dbench=CompressionReport
+ */
+public class CompressionReport {
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        int rows = 200000;
+        for (Map.Entry<String, IntUnaryOperator[]> d : ColumnCompressionTest.DATASETS.entrySet()) {
+            List<List<Integer>> tuples = ColumnCompressionTest.tuples(d.getValue(), rows);
+            File in = ColumnCompressionTest.csv(tuples);
+            File heapOut = ColumnCompressionTest.dat();
+            HeapFileEncoder.convert(in, heapOut, BufferPool.getPageSize(), 3);
+            HeapFile heap = Utility.openHeapFile(3, heapOut);
+            File plainOut = ColumnCompressionTest.dat();
+            ColumnarFileEncoder.convert(in, plainOut, BufferPool.getPageSize(), 3);
+            ColumnarFile plain = ColumnCompressionTest.open(plainOut, Utility.getTypes(3));
+            File out = ColumnCompressionTest.dat();
+            ColumnarFileEncoder.convert(in, out, BufferPool.getPageSize(), Utility.getTypes(3), ',', true);
+            ColumnarFile compressed = ColumnCompressionTest.open(out, Utility.getTypes(3));
+            Database.resetBufferPool(heap.numPages() + plain.numPages() + compressed.numPages() + 10);
+
+            long expected = 0;
+            for (List<Integer> t : tuples) {
+                expected += t.get(0);
+            }
+            BitSet first = new BitSet();
+            first.set(0);
+            double[] ms = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+            DbFile[] files = {heap, plain, compressed};
+            for (int round = 0; round < 3; round++) {
+                for (int f = 0; f < files.length; f++) {
+                    long begin = System.nanoTime();
+                    DbFileIterator it = files[f].iterator(new TransactionId(), first);
+                    it.open();
+                    long sum = 0;
+                    while (it.hasNext()) {
+                        sum += ((IntField) it.next().getField(0)).getValue();
+                    }
+                    it.close();
+                    if (sum != expected) {
+                        throw new IllegalStateException(d.getKey() + ": " + files[f].getClass().getSimpleName()
+                                + " summed to " + sum + ", expected " + expected);
+                    }
+                    ms[f] = Math.min(ms[f], (System.nanoTime() - begin) / 1e6);
+                }
+            }
+            System.out.println(String.format(
+                    "%s: HeapFile %d pages %.1f ms, columnar %d pages %.1f ms, compressed %d pages %.1f ms",
+                    d.getKey(), heap.numPages(), ms[0], plain.numPages(), ms[1],
+                    compressed.numPages(), ms[2]));
+        }
+    }
+}
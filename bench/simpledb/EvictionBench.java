@@ -0,0 +1,29 @@
+package simpledb;
+
+import java.util.Random;
+
+import jav.simpledb.storage.EvictionPolicy;
+
+/**
+ * Hit ratios of the eviction policies on a point-lookup and a scan-heavy
+ * workload. The number of frames is set with the simpledb.bench.frames
+ * system property.
+ * <p>
+ * Run with: ant runbench -Dbench=EvictionBench
+ */
+public class EvictionBench {
+
+    public static void main(String[] args) {
+        int frames = Integer.getInteger("simpledb.bench.frames", 100);
+        int[] point = EvictionPolicyTest.pointLookupTrace(new Random(1), 2000, 60, 200000);
+        int[] scan = EvictionPolicyTest.scanHeavyTrace(new Random(2), 80, 5000, 200000);
+
+        System.out.println("Hit ratios (" + frames + " frames)");
+        System.out.println(String.format("%-8s %12s %12s", "policy", "point", "scan-heavy"));
+        for (EvictionPolicy.Kind kind : EvictionPolicy.Kind.values()) {
+            System.out.println(String.format("%-8s %12.3f %12.3f", kind,
+                    EvictionPolicyTest.hitRatio(kind, frames, point),
+                    EvictionPolicyTest.hitRatio(kind, frames, scan)));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.Permissions;
+import jav.simpledb.common.Utility;
+import jav.simpledb.storage.*;
+import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Garbage collections while a full pool is resident and a query churns
+ * through its tuples, with an on-heap and an off-heap BufferPool. The pool
+ * size in MB is set with the simpledb.bench.poolmb system property and
+ * defaults to 1 GB, so the JVM needs a heap and direct memory to match:
+ * <p>
+ * ant runbench -Dbench=OffHeapGcBench -Dbench.jvmargs="-Xmx6g -XX:MaxDirectMemorySize=2g"
+ */
+public class OffHeapGcBench {
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        int poolMb = Integer.getInteger("simpledb.bench.poolmb", 1024);
+        int numPages = (int) ((long) poolMb * 1024 * 1024 / BufferPool.getPageSize());
+
+        // a table exactly the size of the pool, made of copies of real pages
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+        File f = File.createTempFile("offheap", ".dat");
+        f.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            for (int i = 0; i < numPages; i++)
+                out.write(hf.readPage(new HeapPageId(hf.getId(), i % hf.numPages())).getPageData());
+        }
+        HeapFile big = Utility.openHeapFile(2, f);
+        Database.getCatalog().addTable(big, "big");
+
+        for (boolean offHeap : new boolean[] {false, true}) {
+            BufferPool bp = Database.resetBufferPool(numPages, BufferPool.DEFAULT_POLICY, offHeap);
+            TransactionId tid = new TransactionId();
+            System.gc();
+            long[] before = gcStats();
+            long begin = System.nanoTime();
+            long count = 0;
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < numPages; i++) {
+                    Iterator<Tuple> it = ((HeapPage) bp.getPage(tid, new HeapPageId(big.getId(), i),
+                            Permissions.READ_ONLY)).iterator();
+                    while (it.hasNext()) {
+                        it.next();
+                        count++;
+                    }
+                }
+            }
+            long elapsed = (System.nanoTime() - begin) / 1000000;
+            long[] after = gcStats();
+            System.out.println(String.format(
+                    "%s pool of %d MB: %d tuples in %d ms, %d collections, %d ms in GC",
+                    offHeap ? "off-heap" : "on-heap", poolMb, count, elapsed,
+                    after[0] - before[0], after[1] - before[1]));
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        }
+    }
+
+    private static long[] gcStats() {
+        long count = 0, time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[] {count, time};
+    }
+}
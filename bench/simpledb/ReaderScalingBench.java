@@ -0,0 +1,27 @@
+package simpledb;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.storage.BufferPool;
+
+/**
+ * Throughput of random page lookups on a table twice the size of the
+ * BufferPool, from an increasing number of reader threads.
+ * <p>
+ * Run with: ant runbench -Dbench=ReaderScalingBench
+ */
+public class ReaderScalingBench {
+
+    private static final int TABLE = 3;
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        int pagesInTable = 2 * BufferPool.DEFAULT_PAGES;
+        Database.getCatalog().addTable(new TestUtil.StubPageFile(TABLE, pagesInTable), "stub");
+        System.out.println("Lookups/sec");
+        for (int threads : new int[] {1, 2, 4, 8}) {
+            BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            double ops = BufferPoolConcurrencyTest.readers(bp, TABLE, threads, pagesInTable, 50000);
+            System.out.println(String.format("%2d threads %12.0f", threads, ops));
+        }
+    }
+}
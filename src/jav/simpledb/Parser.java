@@ -7,6 +7,10 @@ import java.nio.charset.StandardCharsets;
 
 import jav.simpledb.common.Database;
 import jav.simpledb.optimizer.TableStats;
+import jav.simpledb.storage.BulkLoader;
+import jav.simpledb.storage.DbFile;
+import jav.simpledb.storage.FreeSpaceMap;
+import jav.simpledb.storage.HeapFile;
 import jav.simpledb.storage.IntField;
 import jav.simpledb.storage.StringField;
 import jav.simpledb.storage.Tuple;
@@ -14,6 +18,8 @@ import jav.simpledb.storage.TupleDesc;
 import jav.simpledb.transaction.Transaction;
 import jav.simpledb.transaction.TransactionId;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jav.simpledb.common.DbException;
 import jav.simpledb.common.Type;
@@ -362,7 +368,7 @@ public class Parser {
                     IntField f = new IntField(new Integer(zc.getValue()));
                     t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (!td.getFieldType(i).isString()) {
                         throw new ParsingException("Value "
                                 + zc.getValue()
                                 + " is a string, expected an integer.");
@@ -424,6 +430,115 @@ public class Parser {
 
     }
 
+    /**
+     * LOAD 'file' INTO table [(name type, ...)] [DELIMITER 'c'], which Zql
+     * does not know about.
+     */
+    static final Pattern LOAD_STATEMENT = Pattern.compile(
+            "\\s*LOAD\\s+'([^']*)'\\s+INTO\\s+(\\w+)\\s*(?:\\(([^)]*)\\))?"
+                    + "\\s*(?:DELIMITER\\s+'(.)')?\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    /**
+     * Bulk load a text file into a table. If a schema is given, the table is
+     * created next to the text file and added to the catalog once the load
+     * succeeds; if it fails, the new file is deleted again. Otherwise the
+     * rows are appended to an existing table.
+     *
+     * @see BulkLoader
+     */
+    public void handleLoadStatement(String s, TransactionId tId)
+            throws DbException, IOException, ParsingException {
+        Matcher m = LOAD_STATEMENT.matcher(s);
+        if (!m.matches())
+            throw new ParsingException("Expected LOAD 'file' INTO table [(name type, ...)] [DELIMITER 'c']");
+        File input = new File(m.group(1));
+        String name = m.group(2);
+        char delimiter = m.group(4) == null ? ',' : m.group(4).charAt(0);
+
+        HeapFile hf;
+        File created = null;
+        if (m.group(3) != null) {
+            try {
+                Database.getCatalog().getTableId(name);
+                throw new ParsingException("Table " + name + " already exists");
+            } catch (NoSuchElementException e) {
+                // expected: the table is created here
+            }
+            List<Type> types = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            for (String column : m.group(3).split(",")) {
+                String[] parts = column.trim().split("\\s+");
+                if (parts.length != 2)
+                    throw new ParsingException("Bad column definition " + column);
+                names.add(parts[0]);
+                if (parts[1].equalsIgnoreCase("int"))
+                    types.add(Type.INT_TYPE);
+                else if (parts[1].equalsIgnoreCase("string"))
+                    types.add(Type.STRING_TYPE);
+                else if (parts[1].equalsIgnoreCase("varchar"))
+                    types.add(Type.VARCHAR_TYPE);
+                else
+                    throw new ParsingException("Unknown type " + parts[1]);
+            }
+            File dataFile = new File(input.getAbsoluteFile().getParentFile(), name + ".dat");
+            if (!dataFile.createNewFile())
+                throw new ParsingException("File " + dataFile + " already exists");
+            created = dataFile;
+            hf = new HeapFile(dataFile, new TupleDesc(
+                    types.toArray(new Type[0]), names.toArray(new String[0])));
+        } else {
+            DbFile file;
+            try {
+                file = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+            } catch (NoSuchElementException e) {
+                throw new ParsingException("Unknown table : " + name);
+            }
+            if (!(file instanceof HeapFile))
+                throw new ParsingException("Can only bulk load into heap files");
+            hf = (HeapFile) file;
+        }
+
+        long loaded;
+        try {
+            loaded = new BulkLoader(hf, delimiter,
+                    Runtime.getRuntime().availableProcessors()).load(tId, input);
+        } catch (IOException | DbException | RuntimeException e) {
+            // a table created for the load goes away with it
+            if (created != null) {
+                hf.close();
+                created.delete();
+                FreeSpaceMap.sidecarOf(created).delete();
+            }
+            throw e;
+        }
+        // a new table is only added to the catalog once it is loaded
+        if (created != null)
+            Database.getCatalog().addTable(hf, name);
+        TableStats.setTableStats(name, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        System.out.println(loaded + " rows loaded into " + name + ".");
+    }
+
+    /**
+     * @return the text of the statement in is if it is a LOAD statement, or
+     *   null, in which case is is left unread
+     */
+    private static String readLoadStatement(BufferedInputStream is) throws IOException {
+        byte[] head = new byte[64];
+        is.mark(head.length);
+        int n = is.read(head);
+        is.reset();
+        String start = n <= 0 ? "" : new String(head, 0, n, StandardCharsets.UTF_8).trim();
+        if (!start.regionMatches(true, 0, "load", 0, 4)
+                || start.length() > 4 && !Character.isWhitespace(start.charAt(4)))
+            return null;
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        while ((n = is.read(buf)) > 0)
+            all.write(buf, 0, n);
+        return new String(all.toByteArray(), StandardCharsets.UTF_8);
+    }
+
     public void handleTransactStatement(ZTransactStmt s)
             throws IOException,
             ParsingException {
@@ -496,8 +611,9 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
-            ZStatement s = p.readStatement();
+            BufferedInputStream in = new BufferedInputStream(is);
+            String load = readLoadStatement(in);
+            ZStatement s = load == null ? new ZqlParser(in).readStatement() : null;
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -510,7 +626,9 @@ public class Parser {
                             + curtrans.getId().getId());
                 }
                 try {
-                    if (s instanceof ZInsert)
+                    if (load != null)
+                        handleLoadStatement(load, curtrans.getId());
+                    else if (s instanceof ZInsert)
                         query = handleInsertStatement((ZInsert) s,
                                 curtrans.getId());
                     else if (s instanceof ZDelete)
@@ -568,7 +686,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "load" };
 
     public static void main(String[] argv) throws IOException {
 
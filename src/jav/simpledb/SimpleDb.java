@@ -4,10 +4,12 @@ import jav.simpledb.common.Type;
 import jav.simpledb.common.Utility;
 import jav.simpledb.storage.*;
 
+import jav.simpledb.transaction.Transaction;
 import jav.simpledb.transaction.TransactionAbortedException;
 import jav.simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.util.Arrays;
 
 public class SimpleDb {
     public static void main (String[] args)
@@ -16,6 +18,16 @@ public class SimpleDb {
         switch (args[0]) {
             case "convert":
                 try {
+                    // a trailing "columnar" writes a ColumnarFile instead of a HeapFile,
+                    // "compressed" a ColumnarFile with compressed int columns,
+                    // "dictionary" one that also dictionary-encodes its string columns,
+                    // a trailing "pax" a HeapFile of PAX pages
+                    boolean dictionary = args[args.length - 1].equalsIgnoreCase("dictionary");
+                    boolean compressed = dictionary || args[args.length - 1].equalsIgnoreCase("compressed");
+                    boolean columnar = compressed || args[args.length - 1].equalsIgnoreCase("columnar");
+                    boolean pax = args[args.length - 1].equalsIgnoreCase("pax");
+                    if (columnar || pax)
+                        args = Arrays.copyOf(args, args.length - 1);
                     if (args.length < 3 || args.length > 5) {
                         System.err.println("Unexpected number of arguments to convert ");
                         return;
@@ -42,6 +54,8 @@ public class SimpleDb {
                                 ts[index++] = Type.INT_TYPE;
                             else if (s.equalsIgnoreCase("string"))
                                 ts[index++] = Type.STRING_TYPE;
+                            else if (s.equalsIgnoreCase("varchar"))
+                                ts[index++] = Type.VARCHAR_TYPE;
                             else {
                                 System.err.println("Unknown type " + s);
                                 return;
@@ -51,13 +65,78 @@ public class SimpleDb {
                             fieldSeparator = args[4].charAt(0);
                     }
 
-                    HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    if (columnar)
+                        ColumnarFileEncoder.convert(sourceTxtFile, targetDatFile,
+                                BufferPool.getPageSize(), ts, fieldSeparator, compressed, dictionary);
+                    else
+                        HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
+                                BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator,
+                                Runtime.getRuntime().availableProcessors(), pax);
 
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
                 break;
+            case "load":
+                // append a text file to a table without going through the buffer pool
+                try {
+                    if (args.length < 3 || args.length > 5) {
+                        System.err.println("Unexpected number of arguments to load ");
+                        System.err.println("usage: load file.txt numColumns [type,type,... [separator]]");
+                        System.err.println("Appends the rows to file.dat, creating it if needed. The table is not");
+                        System.err.println("added to any catalog; to query it, list it in the catalog file given");
+                        System.err.println("to the parser, e.g. \"file (f0 int, f1 string)\".");
+                        return;
+                    }
+                    File sourceTxtFile = new File(args[1]);
+                    File targetDatFile = new File(args[1].replaceAll(".txt", ".dat"));
+                    int numOfAttributes = Integer.parseInt(args[2]);
+                    Type[] ts = new Type[numOfAttributes];
+                    char fieldSeparator = ',';
+
+                    if (args.length == 3)
+                        for (int i = 0; i < numOfAttributes; i++)
+                            ts[i] = Type.INT_TYPE;
+                    else {
+                        String[] typeStringAr = args[3].split(",");
+                        if (typeStringAr.length != numOfAttributes) {
+                            System.err.println("The number of types does not agree with the number of columns");
+                            return;
+                        }
+                        int index = 0;
+                        for (String s : typeStringAr) {
+                            if (s.equalsIgnoreCase("int"))
+                                ts[index++] = Type.INT_TYPE;
+                            else if (s.equalsIgnoreCase("string"))
+                                ts[index++] = Type.STRING_TYPE;
+                            else if (s.equalsIgnoreCase("varchar"))
+                                ts[index++] = Type.VARCHAR_TYPE;
+                            else {
+                                System.err.println("Unknown type " + s);
+                                return;
+                            }
+                        }
+                        if (args.length == 5)
+                            fieldSeparator = args[4].charAt(0);
+                    }
+
+                    // the table is only opened for this load and is not added to
+                    // any catalog file; see the usage text above
+                    targetDatFile.createNewFile();
+                    String name = targetDatFile.getName().replaceAll(".dat", "");
+                    HeapFile hf = new HeapFile(targetDatFile, new TupleDesc(ts));
+
+                    Transaction t = new Transaction();
+                    t.start();
+                    long loaded = new BulkLoader(hf, fieldSeparator,
+                            Runtime.getRuntime().availableProcessors()).load(t.getId(), sourceTxtFile);
+                    t.commit();
+                    System.out.println(loaded + " rows loaded into " + name + ".");
+                    System.out.println("To query " + name + ", list it in a catalog file in the same directory.");
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                break;
             case "print":
                 File tableFile = new File(args[1]);
                 int columns = Integer.parseInt(args[2]);
@@ -1,5 +1,6 @@
 package jav.simpledb.common;
 
+import jav.simpledb.storage.ColumnarFile;
 import jav.simpledb.storage.DbFile;
 import jav.simpledb.storage.HeapFile;
 import jav.simpledb.storage.TupleDesc;
@@ -154,6 +155,12 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes one table as
+     * <pre>name (field type [pk], field type, ...) [mmap] [pax] [columnar]</pre>
+     * where the optional mmap option opens the table's HeapFile in
+     * memory-mapped read mode, the pax option opens it with PAX pages, and
+     * the columnar option opens the table as a read-only
+     * {@link ColumnarFile} written by ColumnarFileEncoder.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -163,7 +170,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(catalogFile));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [option ...]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -178,6 +185,8 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().equalsIgnoreCase("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().equalsIgnoreCase("varchar"))
+                        types.add(Type.VARCHAR_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -191,10 +200,29 @@ public class Catalog {
                         }
                     }
                 }
+                boolean mmap = false;
+                boolean columnar = false;
+                boolean pax = false;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                if (!options.isEmpty()) {
+                    for (String o : options.split("\\s+")) {
+                        if (o.equalsIgnoreCase("mmap"))
+                            mmap = true;
+                        else if (o.equalsIgnoreCase("columnar"))
+                            columnar = true;
+                        else if (o.equalsIgnoreCase("pax"))
+                            pax = true;
+                        else {
+                            System.out.println("Unknown table option " + o);
+                            System.exit(0);
+                        }
+                    }
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf = columnar ? new ColumnarFile(dataFile, t) : new HeapFile(dataFile, t, mmap, pax);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -1,6 +1,7 @@
 package jav.simpledb.common;
 
 import jav.simpledb.storage.BufferPool;
+import jav.simpledb.storage.EvictionPolicy;
 import jav.simpledb.storage.LogFile;
 
 import java.io.*;
@@ -58,11 +59,28 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, BufferPool.DEFAULT_POLICY);
+    }
+
+    /**
+     * Create a new instance of the buffer pool that replaces pages with the
+     * given policy, install it in this Database and return it
+     */
+    public static BufferPool resetBufferPool(int pages, EvictionPolicy.Kind policy) {
+        return resetBufferPool(pages, policy, BufferPool.DEFAULT_OFF_HEAP);
+    }
+
+    /**
+     * Create a new instance of the buffer pool that replaces pages with the
+     * given policy and keeps them on or off the heap, install it in this
+     * Database and return it
+     */
+    public static BufferPool resetBufferPool(int pages, EvictionPolicy.Kind policy, boolean offHeap) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), new BufferPool(pages, policy, offHeap));
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
@@ -6,6 +6,7 @@ import jav.simpledb.storage.StringField;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -28,6 +29,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -46,6 +52,41 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            int strLen = buf.getInt(offset);
+            byte[] bs = new byte[strLen];
+            for (int i = 0; i < strLen; i++) {
+                bs[i] = buf.get(offset + 4 + i);
+            }
+            return new StringField(new String(bs), STRING_LEN);
+        }
+    }, VARCHAR_TYPE() {
+        /**
+         * The widest a VARCHAR can be. Layouts that need fixed-width fields,
+         * such as B+ tree pages and tuple streams, store a VARCHAR padded
+         * like a STRING_TYPE; slotted heap pages store only its bytes.
+         */
+        @Override
+        public int getLen() {
+            return STRING_LEN+4;
+        }
+
+        @Override
+        public boolean isVariableLength() {
+            return true;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            return new StringField(((StringField) STRING_TYPE.parse(dis)).getValue(), STRING_LEN, this);
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new StringField(((StringField) STRING_TYPE.parse(buf, offset)).getValue(), STRING_LEN, this);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -55,6 +96,22 @@ public enum Type implements Serializable {
    */
     public abstract int getLen();
 
+  /**
+   * @return true if fields of this type are stored in only as many bytes as
+   *   their value needs on pages that allow it (see HeapPage), in which case
+   *   getLen() is their largest size.
+   */
+    public boolean isVariableLength() {
+        return false;
+    }
+
+  /**
+   * @return true if fields of this type hold StringFields
+   */
+    public boolean isString() {
+        return this != INT_TYPE;
+    }
+
   /**
    * @return a Field object of the same type as this object that has contents
    *   read from the specified DataInputStream.
@@ -64,4 +121,13 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from buf at the given absolute offset, without moving the buffer's
+   *   position.
+   * @param buf The buffer holding the serialized field
+   * @param offset The position of the field in buf
+   */
+    public abstract Field parse(ByteBuffer buf, int offset);
+
 }
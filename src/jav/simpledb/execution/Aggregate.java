@@ -1,10 +1,14 @@
 package jav.simpledb.execution;
 
 import jav.simpledb.common.DbException;
+import jav.simpledb.common.Type;
 import jav.simpledb.storage.Tuple;
+import jav.simpledb.storage.TupleBatch;
 import jav.simpledb.storage.TupleDesc;
 import jav.simpledb.transaction.TransactionAbortedException;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 
@@ -12,11 +16,28 @@ import java.util.NoSuchElementException;
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
  * min). Note that we only support aggregates over a single column, grouped by a
  * single column.
+ * <p>
+ * The child is read a batch at a time, and each batch merged into the
+ * aggregate in one call (see {@link Aggregator#mergeBatchIntoGroups}).
+ * <p>
+ * An aggregate can also be computed in two stages, by {@link #partial}
+ * Aggregates over parts of the input, running in parallel, and one that
+ * {@link #merge}s their results.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
 
+    private OpIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    /** The name of the aggregate field, if not made from the child's. */
+    private String aggName;
+    private TupleDesc td;
+    private OpIterator results;
+    private transient BatchOpIterator resultBatches;
+
     /**
      * Constructor.
      * <p>
@@ -31,7 +52,73 @@ public class Aggregate extends Operator {
      * @param aop    The aggregation operator to use
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
-        // some code goes here
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        this.td = outputDesc();
+    }
+
+    private TupleDesc outputDesc() {
+        TupleDesc childTd = child.getTupleDesc();
+        List<Type> types = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        if (gfield != Aggregator.NO_GROUPING) {
+            types.add(childTd.getFieldType(gfield));
+            names.add(childTd.getFieldName(gfield));
+        }
+        String field = " (" + childTd.getFieldName(afield) + ")";
+        if (aop == Aggregator.Op.SUM_COUNT) {
+            types.add(Type.INT_TYPE);
+            names.add(nameOfAggregatorOp(Aggregator.Op.SUM) + field);
+            types.add(Type.INT_TYPE);
+            names.add(nameOfAggregatorOp(Aggregator.Op.COUNT) + field);
+        } else {
+            types.add(Type.INT_TYPE);
+            names.add(aggName != null ? aggName : nameOfAggregatorOp(aop) + field);
+        }
+        return new TupleDesc(types.toArray(new Type[0]), names.toArray(new String[0]));
+    }
+
+    /**
+     * An Aggregate computing the part of this one's result that comes from
+     * the tuples of child, which has the schema of this one's child. The
+     * results of such partial aggregates are combined by {@link #merge}.
+     *
+     * @param child the part of the input to aggregate
+     */
+    public Aggregate partial(OpIterator child) {
+        Aggregator.Op op = aop == Aggregator.Op.AVG ? Aggregator.Op.SUM_COUNT : aop;
+        return new Aggregate(child, afield, gfield, op);
+    }
+
+    /**
+     * An Aggregate combining the results of {@link #partial} aggregates into
+     * the results of this one: sums and counts are added up, minimums and
+     * maximums taken again, and averages computed from sums and counts. Its
+     * fields have the names of this one's.
+     *
+     * @param partials the results of partial aggregates of this one, or,
+     *   if this aggregate is grouped, any set of them containing all of the
+     *   partial results of each group they contain
+     */
+    public Aggregate merge(OpIterator partials) {
+        Aggregator.Op op;
+        switch (aop) {
+            case COUNT:
+                op = Aggregator.Op.SUM;
+                break;
+            case AVG:
+                op = Aggregator.Op.SC_AVG;
+                break;
+            default:
+                op = aop;
+        }
+        boolean grouped = gfield != Aggregator.NO_GROUPING;
+        Aggregate merged = new Aggregate(partials, grouped ? 1 : 0, grouped ? 0 : Aggregator.NO_GROUPING, op);
+        merged.aggName = aggregateFieldName();
+        merged.td = merged.outputDesc();
+        return merged;
     }
 
     /**
@@ -40,8 +127,7 @@ public class Aggregate extends Operator {
      * {@link Aggregator#NO_GROUPING}
      */
     public int groupField() {
-        // some code goes here
-        return -1;
+        return gfield;
     }
 
     /**
@@ -50,16 +136,14 @@ public class Aggregate extends Operator {
      * null;
      */
     public String groupFieldName() {
-        // some code goes here
-        return null;
+        return gfield == Aggregator.NO_GROUPING ? null : td.getFieldName(0);
     }
 
     /**
      * @return the aggregate field
      */
     public int aggregateField() {
-        // some code goes here
-        return -1;
+        return afield;
     }
 
     /**
@@ -67,25 +151,45 @@ public class Aggregate extends Operator {
      * tuples
      */
     public String aggregateFieldName() {
-        // some code goes here
-        return null;
+        return td.getFieldName(td.numFields() - 1);
     }
 
     /**
      * @return return the aggregate operator
      */
     public Aggregator.Op aggregateOp() {
-        // some code goes here
-        return null;
+        return aop;
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
         return aop.toString();
     }
 
+    /**
+     * @return an empty aggregator computing aop over field afield of tuples
+     *   of schema td, grouped by field gfield
+     */
+    static Aggregator aggregatorFor(TupleDesc td, int afield, int gfield, Aggregator.Op aop) {
+        Type gtype = gfield == Aggregator.NO_GROUPING ? null : td.getFieldType(gfield);
+        return td.getFieldType(afield) == Type.INT_TYPE
+                ? new IntegerAggregator(gfield, gtype, afield, aop)
+                : new StringAggregator(gfield, gtype, afield, aop);
+    }
+
     public void open() throws NoSuchElementException, DbException,
             TransactionAbortedException {
-        // some code goes here
+        Aggregator aggregator = aggregatorFor(child.getTupleDesc(), afield, gfield, aop);
+        child.open();
+        BatchOpIterator in = RowBatchAdapter.of(child);
+        TupleBatch batch;
+        while ((batch = in.nextBatch()) != null) {
+            aggregator.mergeBatchIntoGroups(batch);
+        }
+        child.close();
+        results = aggregator.iterator();
+        results.open();
+        resultBatches = RowBatchAdapter.of(results);
+        super.open();
     }
 
     /**
@@ -96,12 +200,15 @@ public class Aggregate extends Operator {
      * aggregate. Should return null if there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        // some code goes here
-        return null;
+        return results.hasNext() ? results.next() : null;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        return resultBatches.nextBatch();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        // some code goes here
+        results.rewind();
     }
 
     /**
@@ -116,23 +223,27 @@ public class Aggregate extends Operator {
      * iterator.
      */
     public TupleDesc getTupleDesc() {
-        // some code goes here
-        return null;
+        return td;
     }
 
     public void close() {
-        // some code goes here
+        super.close();
+        if (results != null) {
+            results.close();
+            results = null;
+            resultBatches = null;
+        }
     }
 
     @Override
     public OpIterator[] getChildren() {
-        // some code goes here
-        return null;
+        return new OpIterator[]{child};
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
-        // some code goes here
+        child = children[0];
+        td = outputDesc();
     }
 
 }
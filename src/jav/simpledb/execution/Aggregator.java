@@ -1,6 +1,7 @@
 package jav.simpledb.execution;
 
 import jav.simpledb.storage.Tuple;
+import jav.simpledb.storage.TupleBatch;
 import jav.simpledb.storage.TupleIterator;
 
 import java.io.Serializable;
@@ -79,6 +80,19 @@ public interface Aggregator extends Serializable {
      */
     void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge the selected rows of a batch into the aggregate. The default
+     * merges them one tuple at a time.
+     *
+     * @param batch the rows, with the schema of the tuples merged
+     */
+    default void mergeBatchIntoGroups(TupleBatch batch) {
+        int[] sel = batch.selection();
+        for (int k = 0; k < batch.numSelected(); k++) {
+            mergeTupleIntoGroup(batch.getTuple(sel[k]));
+        }
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see TupleIterator for a possible helper
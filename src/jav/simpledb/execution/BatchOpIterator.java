@@ -0,0 +1,31 @@
+package jav.simpledb.execution;
+
+import jav.simpledb.common.DbException;
+import jav.simpledb.storage.TupleBatch;
+import jav.simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchOpIterator is implemented by operators that can also hand out their
+ * results a {@link TupleBatch} at a time, so that the operator above them
+ * evaluates a predicate, a projection or an aggregate over a whole batch
+ * in one loop instead of calling hasNext and next for every row.
+ * <p>
+ * A BatchOpIterator is an OpIterator like any other, and row-at-a-time
+ * operators above it read it through next as before. Below a batch operator
+ * an operator that only produces rows is read through a
+ * {@link RowBatchAdapter}. An open iterator is read either by rows or by
+ * batches, not both. Batches do not carry RecordIds unless their rows were
+ * appended from tuples that do.
+ */
+public interface BatchOpIterator extends OpIterator {
+
+    /**
+     * Returns the next batch of results. The batch, and every array it
+     * hands out, may be reused by the next call; it always has at least
+     * one selected row.
+     *
+     * @return the next batch, or null if there are no more results
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
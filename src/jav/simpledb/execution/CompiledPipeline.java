@@ -0,0 +1,431 @@
+package jav.simpledb.execution;
+
+import jav.simpledb.common.DbException;
+import jav.simpledb.common.Type;
+import jav.simpledb.storage.IntField;
+import jav.simpledb.storage.Tuple;
+import jav.simpledb.storage.TupleBatch;
+import jav.simpledb.storage.TupleDesc;
+import jav.simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * A CompiledPipeline runs a chain of Filters and Projects over a SeqScan,
+ * optionally topped by an Aggregate, as one operator: each batch of the
+ * scan goes through every predicate of the chain in one tight loop per
+ * predicate, and then straight into the projection or the aggregate,
+ * rather than through an operator, a virtual call and a switch on the
+ * predicate's Op for every row.
+ * <p>
+ * {@link #compile} does the compiling once, when the plan is built: field
+ * numbers are resolved through the projections down to the columns of the
+ * scan; the comparisons of int columns with constants are folded into one
+ * range per column (so "a &gt;= 10 AND a &lt; 20" is a single unsigned
+ * comparison per row), and each range or inequality gets its own loop. Any
+ * other predicate, such as on a string, is evaluated by its
+ * {@link Predicate#filter(TupleBatch)}.
+ * <p>
+ * The interpreted operators the pipeline replaces are its only child, so a
+ * plan still prints and estimates the same way; if {@link #setChildren} is
+ * given a plan that cannot be compiled, the pipeline just runs it.
+ */
+public class CompiledPipeline extends Operator implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator plan;
+    private TupleDesc td;
+
+    /** The compiled pipeline, or null to run the plan as it is. */
+    private transient SeqScan scan;
+    private transient Kernel[] kernels;
+    /** The scan columns the output is made of, or null for all of them. */
+    private transient int[] columns;
+    private transient Aggregate aggregate;
+    private transient int afield;
+    private transient int gfield;
+
+    private transient boolean scanning;
+    private transient TupleBatch out;
+    private transient int pos;
+    private transient OpIterator results;
+    private transient BatchOpIterator resultBatches;
+    private transient BatchOpIterator planBatches;
+
+    private CompiledPipeline(OpIterator plan) {
+        setChildren(new OpIterator[]{plan});
+    }
+
+    /**
+     * Replace every chain of Filters and Projects over a SeqScan in plan,
+     * with or without an Aggregate on top, by a CompiledPipeline. Other
+     * operators stay as they are, with their children compiled.
+     *
+     * @param plan the plan to compile
+     * @return the compiled plan; plan itself unless it is compiled as a whole
+     */
+    public static OpIterator compile(OpIterator plan) {
+        if (!(plan instanceof Operator) || plan instanceof CompiledPipeline) {
+            return plan;
+        }
+        CompiledPipeline p = new CompiledPipeline(plan);
+        if (p.scan != null) {
+            return p;
+        }
+        Operator o = (Operator) plan;
+        OpIterator[] children = o.getChildren();
+        if (children == null) {
+            return plan;
+        }
+        OpIterator[] compiled = children.clone();
+        boolean changed = false;
+        for (int i = 0; i < children.length; i++) {
+            if (children[i] != null) {
+                compiled[i] = compile(children[i]);
+                changed |= compiled[i] != children[i];
+            }
+        }
+        if (changed) {
+            o.setChildren(compiled);
+        }
+        return plan;
+    }
+
+    /**
+     * Compile plan into this pipeline, or leave scan null if plan is not a
+     * chain of supported operators over a SeqScan.
+     */
+    private void compile() {
+        scan = null;
+        OpIterator node = plan;
+        Aggregate agg = null;
+        if (node instanceof Aggregate) {
+            agg = (Aggregate) node;
+            node = agg.getChildren()[0];
+        }
+        List<Operator> chain = new ArrayList<>();
+        while (node instanceof Filter || node instanceof Project) {
+            chain.add((Operator) node);
+            node = ((Operator) node).getChildren()[0];
+        }
+        if (!(node instanceof SeqScan) || (agg == null && chain.isEmpty())) {
+            return;
+        }
+        SeqScan source = (SeqScan) node;
+        TupleDesc scanTd = source.getTupleDesc();
+
+        int[] map = new int[scanTd.numFields()];
+        for (int i = 0; i < map.length; i++) {
+            map[i] = i;
+        }
+        Map<Integer, long[]> ranges = new TreeMap<>();
+        Map<Integer, List<Predicate>> rangePredicates = new HashMap<>();
+        List<Kernel> others = new ArrayList<>();
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            Operator o = chain.get(i);
+            if (o instanceof Project) {
+                List<Integer> fields = ((Project) o).getFieldList();
+                int[] next = new int[fields.size()];
+                for (int j = 0; j < next.length; j++) {
+                    next[j] = map[fields.get(j)];
+                }
+                map = next;
+                continue;
+            }
+            Predicate p = ((Filter) o).getPredicate();
+            int column = map[p.getField()];
+            Predicate onScan = new Predicate(column, p.getOp(), p.getOperand());
+            if (!(p.getOperand() instanceof IntField) || scanTd.getFieldType(column) != Type.INT_TYPE) {
+                others.add(new Generic(onScan));
+            } else if (p.getOp() == Predicate.Op.NOT_EQUALS) {
+                others.add(0, new IntNotEquals(onScan));
+            } else {
+                long[] range = ranges.computeIfAbsent(column,
+                        c -> new long[]{Integer.MIN_VALUE, Integer.MAX_VALUE});
+                narrow(range, p.getOp(), ((IntField) p.getOperand()).getValue());
+                rangePredicates.computeIfAbsent(column, c -> new ArrayList<>()).add(onScan);
+            }
+        }
+        List<Kernel> all = new ArrayList<>();
+        for (Map.Entry<Integer, long[]> r : ranges.entrySet()) {
+            int column = r.getKey();
+            all.add(new IntRange(column, r.getValue()[0], r.getValue()[1],
+                    rangePredicates.get(column).toArray(new Predicate[0])));
+        }
+        all.addAll(others);
+
+        boolean identity = map.length == scanTd.numFields();
+        for (int i = 0; identity && i < map.length; i++) {
+            identity = map[i] == i;
+        }
+        if (agg != null) {
+            afield = map[agg.aggregateField()];
+            gfield = agg.groupField() == Aggregator.NO_GROUPING ? Aggregator.NO_GROUPING : map[agg.groupField()];
+        }
+        this.kernels = all.toArray(new Kernel[0]);
+        this.columns = identity ? null : map;
+        this.aggregate = agg;
+        this.scan = source;
+    }
+
+    /** Intersect the range [range[0], range[1]] with the values v for which "v op value" holds. */
+    private static void narrow(long[] range, Predicate.Op op, long value) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                range[0] = Math.max(range[0], value);
+                range[1] = Math.min(range[1], value);
+                break;
+            case GREATER_THAN:
+                range[0] = Math.max(range[0], value + 1);
+                break;
+            case GREATER_THAN_OR_EQ:
+                range[0] = Math.max(range[0], value);
+                break;
+            case LESS_THAN:
+                range[1] = Math.min(range[1], value - 1);
+                break;
+            case LESS_THAN_OR_EQ:
+                range[1] = Math.min(range[1], value);
+                break;
+            default:
+                throw new IllegalArgumentException("not a range: " + op);
+        }
+    }
+
+    /**
+     * @return whether the plan runs compiled, rather than as it is
+     */
+    public boolean isCompiled() {
+        return scan != null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        if (scan == null) {
+            plan.open();
+        } else {
+            scan.open();
+            scanning = true;
+            out = null;
+            if (aggregate != null) {
+                Aggregator aggregator = Aggregate.aggregatorFor(scan.getTupleDesc(), afield, gfield,
+                        aggregate.aggregateOp());
+                TupleBatch batch;
+                while ((batch = fill()) != null) {
+                    aggregator.mergeBatchIntoGroups(batch);
+                }
+                scan.close();
+                scanning = false;
+                results = aggregator.iterator();
+                results.open();
+                resultBatches = RowBatchAdapter.of(results);
+            }
+        }
+        super.open();
+    }
+
+    /**
+     * @return the next batch of the scan with at least one row passing
+     *   every kernel, or null at the end of the scan
+     */
+    private TupleBatch fill() throws DbException, TransactionAbortedException {
+        TupleBatch batch;
+        while ((batch = scan.nextBatch()) != null) {
+            for (int i = 0; i < kernels.length && batch.numSelected() > 0; i++) {
+                kernels[i].apply(batch);
+            }
+            if (batch.numSelected() > 0) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (scan == null) {
+            return plan.hasNext() ? plan.next() : null;
+        }
+        if (aggregate != null) {
+            return results.hasNext() ? results.next() : null;
+        }
+        while (out == null || pos == out.numSelected()) {
+            out = nextBatch();
+            pos = 0;
+            if (out == null) {
+                return null;
+            }
+        }
+        return out.getTuple(out.selection()[pos++]);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (scan == null) {
+            if (planBatches == null) {
+                planBatches = RowBatchAdapter.of(plan);
+            }
+            return planBatches.nextBatch();
+        }
+        if (aggregate != null) {
+            return resultBatches.nextBatch();
+        }
+        TupleBatch batch = fill();
+        if (batch == null || columns == null) {
+            return batch;
+        }
+        return batch.project(td, columns);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (scan == null) {
+            plan.rewind();
+        } else if (aggregate != null) {
+            results.rewind();
+        } else {
+            close();
+            open();
+        }
+    }
+
+    public void close() {
+        super.close();
+        if (scan == null) {
+            plan.close();
+            return;
+        }
+        if (scanning) {
+            scan.close();
+            scanning = false;
+        }
+        out = null;
+        if (results != null) {
+            results.close();
+            results = null;
+            resultBatches = null;
+        }
+    }
+
+    /**
+     * @return the interpreted plan this pipeline runs
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{plan};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.plan = children[0];
+        this.td = plan.getTupleDesc();
+        this.planBatches = null;
+        compile();
+    }
+
+    /** A step of a pipeline, narrowing the selection of a batch of the scan. */
+    private interface Kernel {
+        void apply(TupleBatch batch);
+    }
+
+    /**
+     * Keeps the rows whose int column lies in [lo, hi], with a single
+     * comparison: v - lo, taken as unsigned, is at most hi - lo. Batches
+     * with nulls in the column go through the predicates themselves.
+     */
+    private static final class IntRange implements Kernel {
+        private final int column;
+        private final int shift;
+        private final int limit;
+        private final boolean empty;
+        private final Predicate[] predicates;
+
+        IntRange(int column, long lo, long hi, Predicate[] predicates) {
+            this.column = column;
+            this.empty = lo > hi;
+            // v - lo + MIN_VALUE <= hi - lo + MIN_VALUE, in signed ints
+            this.shift = (int) lo + Integer.MIN_VALUE;
+            this.limit = (int) (hi - lo) + Integer.MIN_VALUE;
+            this.predicates = predicates;
+        }
+
+        public void apply(TupleBatch batch) {
+            if (empty) {
+                batch.setNumSelected(0);
+                return;
+            }
+            if (batch.hasNulls(column)) {
+                for (Predicate p : predicates) {
+                    p.filter(batch);
+                }
+                return;
+            }
+            int[] values = batch.getInts(column);
+            int[] sel = batch.selection();
+            int n = batch.numSelected();
+            int kept = 0;
+            if (n == batch.size()) {
+                // every row is selected, in order
+                for (int row = 0; row < n; row++) {
+                    if (values[row] - shift <= limit) {
+                        sel[kept++] = row;
+                    }
+                }
+            } else {
+                for (int k = 0; k < n; k++) {
+                    int row = sel[k];
+                    if (values[row] - shift <= limit) {
+                        sel[kept++] = row;
+                    }
+                }
+            }
+            batch.setNumSelected(kept);
+        }
+    }
+
+    /** Keeps the rows whose int column is not a constant. */
+    private static final class IntNotEquals implements Kernel {
+        private final int column;
+        private final int value;
+        private final Predicate predicate;
+
+        IntNotEquals(Predicate predicate) {
+            this.column = predicate.getField();
+            this.value = ((IntField) predicate.getOperand()).getValue();
+            this.predicate = predicate;
+        }
+
+        public void apply(TupleBatch batch) {
+            if (batch.hasNulls(column)) {
+                predicate.filter(batch);
+                return;
+            }
+            int[] values = batch.getInts(column);
+            int[] sel = batch.selection();
+            int n = batch.numSelected();
+            int kept = 0;
+            for (int k = 0; k < n; k++) {
+                int row = sel[k];
+                if (values[row] != value) {
+                    sel[kept++] = row;
+                }
+            }
+            batch.setNumSelected(kept);
+        }
+    }
+
+    /** Evaluates any other predicate through the predicate itself. */
+    private static final class Generic implements Kernel {
+        private final Predicate predicate;
+
+        Generic(Predicate predicate) {
+            this.predicate = predicate;
+        }
+
+        public void apply(TupleBatch batch) {
+            predicate.filter(batch);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package jav.simpledb.execution;
+
+import jav.simpledb.common.DbException;
+import jav.simpledb.storage.Tuple;
+import jav.simpledb.storage.TupleBatch;
+import jav.simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * The receiving end of an Exchange: the operator above reads, on its own
+ * thread, the rows that the fragments below hand over through a
+ * {@link Exchange.Channel}. Opening a consumer sets its producers going;
+ * closing it, even before it has read every row, stops them and waits for
+ * them to finish.
+ */
+public abstract class Consumer extends Exchange implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient Channel channel;
+    private transient TupleBatch batch;
+
+    /**
+     * Start the producers of a run, if they are not running yet.
+     *
+     * @return the channel this consumer reads the run from
+     */
+    protected abstract Channel start() throws DbException, TransactionAbortedException;
+
+    /**
+     * Called when this consumer is done with the channel of a run, which it
+     * has cancelled.
+     */
+    protected abstract void stop();
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        channel = start();
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return channel.next();
+    }
+
+    /**
+     * Returns the next rows handed over, as a batch of at most CAPACITY
+     * rows.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (channel == null) {
+            throw new IllegalStateException("Operator not yet open");
+        }
+        if (batch == null) {
+            batch = new TupleBatch(getTupleDesc());
+        }
+        batch.clear();
+        Tuple t;
+        while (!batch.isFull() && (t = channel.next()) != null) {
+            batch.appendRow(t);
+        }
+        return batch.size() > 0 ? batch : null;
+    }
+
+    public void close() {
+        super.close();
+        if (channel != null) {
+            channel.cancel();
+            channel = null;
+            stop();
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package jav.simpledb.execution;
+
+import jav.simpledb.common.DbException;
+import jav.simpledb.common.Type;
+import jav.simpledb.storage.Tuple;
+import jav.simpledb.storage.TupleBatch;
+import jav.simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An Exchange is where a plan changes threads: the copies of a plan fragment
+ * below it each run on a worker thread, and hand their rows to the operator
+ * above through {@link Channel}s, a chunk of rows at a time. The operators
+ * of a fragment are the plain, single-threaded ones; only the leaves differ
+ * from copy to copy, typically the workers of a {@link ParallelSeqScan}.
+ * <p>
+ * The fragments run on a shared pool of daemon threads, which grows as
+ * needed, so that an Exchange whose fragments read from another Exchange
+ * never waits for a thread held by its own consumers.
+ *
+ * @see Gather
+ * @see Repartition
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of rows handed over at a time. */
+    static final int CHUNK = TupleBatch.CAPACITY;
+
+    /** The number of chunks a channel holds before its producers wait. */
+    static final int CHANNEL_CHUNKS = 16;
+
+    private static final ExecutorService WORKERS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "simpledb-exchange");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** The degree of parallelism, which can be set with the
+    simpledb.parallelism system property and defaults to the number of
+    cores. */
+    private static volatile int parallelism = Math.max(1,
+            Integer.getInteger("simpledb.parallelism", Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * @return the number of workers plans are split into
+     */
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the number of workers plans are split into; 1 runs every plan on
+     * the calling thread.
+     */
+    public static void setParallelism(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("need at least one worker");
+        }
+        parallelism = n;
+    }
+
+    /**
+     * @return the name the plan is printed with
+     */
+    public abstract String getName();
+
+    /**
+     * A stream of rows from a number of producer threads to one consumer.
+     * It ends once each producer has ended it, or as soon as one fails. A
+     * consumer that is done with it early cancels it: its producers then
+     * drop whatever they still have for it.
+     */
+    static final class Channel {
+        private static final Object END = new Object();
+
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(CHANNEL_CHUNKS);
+        private final int producers;
+        private volatile boolean cancelled;
+        private int ended;
+        private List<Tuple> chunk;
+        private int pos;
+
+        Channel(int producers) {
+            this.producers = producers;
+        }
+
+        /** @return false if the channel was cancelled, and the chunk dropped */
+        private boolean put(Object o) {
+            try {
+                while (!cancelled) {
+                    if (queue.offer(o, 10, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        boolean send(List<Tuple> rows) {
+            return put(rows);
+        }
+
+        void end() {
+            put(END);
+        }
+
+        void fail(Throwable t) {
+            put(t);
+        }
+
+        void cancel() {
+            cancelled = true;
+            queue.clear();
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return the next row, or null once every producer has ended
+         */
+        @SuppressWarnings("unchecked")
+        Tuple next() throws DbException, TransactionAbortedException {
+            while (chunk == null || pos == chunk.size()) {
+                if (ended == producers) {
+                    return null;
+                }
+                Object o;
+                try {
+                    o = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DbException("interrupted while waiting for rows");
+                }
+                if (o == END) {
+                    ended++;
+                } else if (o instanceof Throwable) {
+                    ended = producers;
+                    chunk = null;
+                    rethrow((Throwable) o);
+                } else {
+                    chunk = (List<Tuple>) o;
+                    pos = 0;
+                }
+            }
+            return chunk.get(pos++);
+        }
+
+        private static void rethrow(Throwable t) throws DbException, TransactionAbortedException {
+            if (t instanceof DbException) {
+                throw (DbException) t;
+            }
+            if (t instanceof TransactionAbortedException) {
+                throw (TransactionAbortedException) t;
+            }
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            }
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+            throw new DbException("worker failed: " + t);
+        }
+    }
+
+    /**
+     * Run plan on a worker thread, sending its rows to channels[0], or, if
+     * keyField is not -1, to the channel of the hash of their keyField.
+     * Every channel is ended when the plan is done, and failed if it fails.
+     */
+    static Future<?> produce(OpIterator plan, Channel[] channels, int keyField) {
+        return WORKERS.submit(() -> {
+            try {
+                try {
+                    plan.open();
+                    route(plan, channels, keyField);
+                } finally {
+                    plan.close();
+                }
+                for (Channel c : channels) {
+                    c.end();
+                }
+            } catch (Throwable t) {
+                for (Channel c : channels) {
+                    c.fail(t);
+                }
+            }
+        });
+    }
+
+    private static void route(OpIterator plan, Channel[] channels, int keyField)
+            throws DbException, TransactionAbortedException {
+        BatchOpIterator in = RowBatchAdapter.of(plan);
+        List<List<Tuple>> chunks = new ArrayList<>(channels.length);
+        for (int c = 0; c < channels.length; c++) {
+            chunks.add(new ArrayList<>(CHUNK));
+        }
+        TupleBatch batch;
+        while (!allCancelled(channels) && (batch = in.nextBatch()) != null) {
+            int[] sel = batch.selection();
+            int n = batch.numSelected();
+            boolean ints = keyField >= 0 && batch.getTupleDesc().getFieldType(keyField) == Type.INT_TYPE;
+            for (int k = 0; k < n; k++) {
+                int row = sel[k];
+                int c = 0;
+                if (keyField >= 0 && !batch.isNull(keyField, row)) {
+                    int h = ints ? Integer.hashCode(batch.getInt(keyField, row))
+                            : batch.getField(keyField, row).hashCode();
+                    c = partition(h, channels.length);
+                }
+                if (channels[c].isCancelled()) {
+                    continue;
+                }
+                List<Tuple> chunk = chunks.get(c);
+                chunk.add(batch.getTuple(row));
+                if (chunk.size() == CHUNK) {
+                    channels[c].send(chunk);
+                    chunks.set(c, new ArrayList<>(CHUNK));
+                }
+            }
+        }
+        for (int c = 0; c < channels.length; c++) {
+            if (!chunks.get(c).isEmpty()) {
+                channels[c].send(chunks.get(c));
+            }
+        }
+    }
+
+    private static boolean allCancelled(Channel[] channels) {
+        for (Channel c : channels) {
+            if (!c.isCancelled()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the partition, of n, of a row whose key hashes to h
+     */
+    static int partition(int h, int n) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return Math.floorMod(h, n);
+    }
+
+    /**
+     * Wait for the producers of a run to finish.
+     */
+    static void await(List<Future<?>> producers) {
+        for (Future<?> f : producers) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                // already handed to the consumer through its channel
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package jav.simpledb.execution;
+
+import jav.simpledb.common.DbException;
+import jav.simpledb.common.Type;
+import jav.simpledb.storage.StringField;
+import jav.simpledb.storage.Tuple;
+import jav.simpledb.storage.TupleBatch;
+import jav.simpledb.storage.TupleDesc;
+import jav.simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts the rows of its child in ascending order of a field, in at most
+ * RUN_SIZE rows of memory: a child that does not fit is read into sorted
+ * runs of RUN_SIZE rows, each written to a {@link SpillFile}, and the runs
+ * are merged, FAN_IN at a time, into a single ordered stream. Rows whose
+ * field is not set come first. Rewinding merges the runs again, without
+ * reading the child again.
+ */
+final class ExternalSort extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The rows sorted in memory at a time, the same budget as a hash join's. */
+    static final int RUN_SIZE = HashEquiJoin.MAP_SIZE;
+    /** The most runs merged at once. */
+    static final int FAN_IN = 64;
+
+    private OpIterator child;
+    private final int field;
+
+    /** The rows of a child that fits in memory, sorted; or its sorted runs. */
+    private transient List<Tuple> rows;
+    private transient List<SpillFile> runs;
+    private transient Iterator<Tuple> it;
+    private transient List<OpIterator> merging;
+    private transient PriorityQueue<Head> heads;
+
+    /** The next row of a run being merged. */
+    private static final class Head {
+        final Tuple row;
+        final OpIterator run;
+
+        Head(Tuple row, OpIterator run) {
+            this.row = row;
+            this.run = run;
+        }
+    }
+
+    ExternalSort(OpIterator child, int field) {
+        this.child = child;
+        this.field = field;
+    }
+
+    private int order(Tuple a, Tuple b) {
+        return compare(a, field, b, field);
+    }
+
+    /**
+     * Compare field fa of a with field fb of b: ints by value, strings
+     * lexicographically, as a B+ tree orders its keys, and fields that are
+     * not set before all others.
+     */
+    static int compare(Tuple a, int fa, Tuple b, int fb) {
+        boolean na = a.isNull(fa);
+        boolean nb = b.isNull(fb);
+        if (na || nb) {
+            return na == nb ? 0 : na ? -1 : 1;
+        }
+        if (a.getTupleDesc().getFieldType(fa) == Type.INT_TYPE) {
+            return Integer.compare(a.getInt(fa), b.getInt(fb));
+        }
+        return ((StringField) a.getField(fa)).getValue().compareTo(((StringField) b.getField(fb)).getValue());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child.open();
+        rows = new ArrayList<>();
+        runs = new ArrayList<>();
+        BatchOpIterator in = RowBatchAdapter.of(child);
+        TupleBatch b;
+        while ((b = in.nextBatch()) != null) {
+            int[] sel = b.selection();
+            for (int k = 0; k < b.numSelected(); k++) {
+                Tuple t = b.getTuple(sel[k]);
+                t.materialize();
+                rows.add(t);
+                if (rows.size() == RUN_SIZE) {
+                    runs.add(spill(rows));
+                    rows.clear();
+                }
+            }
+        }
+        rows.sort(this::order);
+        if (!runs.isEmpty()) {
+            if (!rows.isEmpty()) {
+                runs.add(spill(rows));
+            }
+            rows = null;
+            while (runs.size() > FAN_IN) {
+                List<SpillFile> group = new ArrayList<>(runs.subList(0, FAN_IN));
+                runs.subList(0, FAN_IN).clear();
+                runs.add(mergeInto(group));
+            }
+        }
+        start();
+        super.open();
+    }
+
+    /** Sort rows and write them to a new run. */
+    private SpillFile spill(List<Tuple> rows) throws DbException {
+        rows.sort(this::order);
+        SpillFile run = new SpillFile(getTupleDesc());
+        for (Tuple t : rows) {
+            run.add(t);
+        }
+        return run;
+    }
+
+    /** Merge the runs of group into one, which replaces them. */
+    private SpillFile mergeInto(List<SpillFile> group) throws DbException, TransactionAbortedException {
+        SpillFile merged = new SpillFile(getTupleDesc());
+        List<OpIterator> scans = new ArrayList<>(group.size());
+        PriorityQueue<Head> queue = openRuns(group, scans);
+        Tuple t;
+        while ((t = pop(queue)) != null) {
+            merged.add(t);
+        }
+        for (OpIterator scan : scans) {
+            scan.close();
+        }
+        for (SpillFile run : group) {
+            run.delete();
+        }
+        return merged;
+    }
+
+    private PriorityQueue<Head> openRuns(List<SpillFile> group, List<OpIterator> scans)
+            throws DbException, TransactionAbortedException {
+        PriorityQueue<Head> queue = new PriorityQueue<>(Math.max(1, group.size()), (x, y) -> order(x.row, y.row));
+        for (SpillFile run : group) {
+            OpIterator scan = run.scan();
+            scan.open();
+            scans.add(scan);
+            if (scan.hasNext()) {
+                queue.add(new Head(scan.next(), scan));
+            }
+        }
+        return queue;
+    }
+
+    /** @return the least row of the runs in queue, or null once they are all read */
+    private static Tuple pop(PriorityQueue<Head> queue) throws DbException, TransactionAbortedException {
+        Head h = queue.poll();
+        if (h == null) {
+            return null;
+        }
+        if (h.run.hasNext()) {
+            queue.add(new Head(h.run.next(), h.run));
+        }
+        return h.row;
+    }
+
+    /** Start returning the sorted rows from the first. */
+    private void start() throws DbException, TransactionAbortedException {
+        if (rows != null) {
+            it = rows.iterator();
+            return;
+        }
+        closeRuns();
+        merging = new ArrayList<>(runs.size());
+        heads = openRuns(runs, merging);
+    }
+
+    private void closeRuns() {
+        if (merging != null) {
+            for (OpIterator scan : merging) {
+                scan.close();
+            }
+            merging = null;
+        }
+        heads = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (it != null) {
+            return it.hasNext() ? it.next() : null;
+        }
+        return heads == null ? null : pop(heads);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // drop the row looked ahead, if any
+        super.close();
+        start();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        closeRuns();
+        if (runs != null) {
+            for (SpillFile run : runs) {
+                run.delete();
+            }
+            runs = null;
+        }
+        rows = null;
+        it = null;
+        child.close();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
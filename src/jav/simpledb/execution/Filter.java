@@ -2,6 +2,7 @@ package jav.simpledb.execution;
 
 import jav.simpledb.common.Database;
 import jav.simpledb.common.DbException;
+import jav.simpledb.storage.TupleBatch;
 import jav.simpledb.storage.TupleDesc;
 import jav.simpledb.transaction.TransactionAbortedException;
 import jav.simpledb.storage.Tuple;
@@ -11,13 +12,14 @@ import java.util.*;
 /**
  * Filter is an operator that implements a relational select.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
 
     private Predicate p;
 
     private OpIterator child;
+    private transient BatchOpIterator batchChild;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -80,6 +82,31 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Returns the child's next batch with any row that fails the predicate
+     * dropped from its selection vector.
+     *
+     * @see Predicate#filter(TupleBatch)
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        BatchOpIterator in = batchChild();
+        TupleBatch batch;
+        while ((batch = in.nextBatch()) != null) {
+            p.filter(batch);
+            if (batch.numSelected() > 0) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    private BatchOpIterator batchChild() {
+        if (batchChild == null) {
+            batchChild = RowBatchAdapter.of(child);
+        }
+        return batchChild;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{child};
@@ -88,6 +115,7 @@ public class Filter extends Operator {
     @Override
     public void setChildren(OpIterator[] children) {
         this.child = children[0];
+        this.batchChild = null;
     }
 
 }
@@ -0,0 +1,86 @@
+package jav.simpledb.execution;
+
+import jav.simpledb.common.DbException;
+import jav.simpledb.storage.TupleDesc;
+import jav.simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Gather runs each of its children, the copies of a plan fragment, on a
+ * worker thread and returns all of their rows, in no particular order.
+ * <p>
+ * Typically the children are the same chain of Filters, Projects and a
+ * partial Aggregate over the workers of a {@link ParallelSeqScan}, and the
+ * operator above Gather is the rest of the plan, such as the Aggregate
+ * merging the partial ones (see {@link Aggregate#merge}).
+ */
+public class Gather extends Consumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator[] children;
+    private transient List<Future<?>> producers;
+
+    /**
+     * @param children the fragments to run, which must all have the same
+     *   schema
+     */
+    public Gather(List<? extends OpIterator> children) {
+        this(children.toArray(new OpIterator[0]));
+    }
+
+    public Gather(OpIterator[] children) {
+        setChildren(children);
+    }
+
+    public String getName() {
+        return "gather(" + children.length + ")";
+    }
+
+    protected Channel start() {
+        Channel channel = new Channel(children.length);
+        producers = new ArrayList<>(children.length);
+        for (OpIterator child : children) {
+            producers.add(produce(child, new Channel[]{channel}, -1));
+        }
+        return channel;
+    }
+
+    protected void stop() {
+        await(producers);
+        producers = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return children[0].getTupleDesc();
+    }
+
+    /**
+     * @return the fragments, one per worker
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return children.clone();
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (children.length == 0) {
+            throw new IllegalArgumentException("nothing to gather");
+        }
+        for (OpIterator child : children) {
+            if (!child.getTupleDesc().equals(children[0].getTupleDesc())) {
+                throw new IllegalArgumentException("fragments of different schemas");
+            }
+        }
+        this.children = children.clone();
+    }
+}
@@ -0,0 +1,115 @@
+package jav.simpledb.execution;
+
+import jav.simpledb.storage.CompactTuple;
+import jav.simpledb.storage.Field;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Numbers the groups of an aggregate 0, 1, 2, ... in the order their
+ * group-by values are first seen, so an aggregator can keep the state of
+ * each group in arrays indexed by its number.
+ * <p>
+ * The values of an int group-by field are looked up by value in an open
+ * addressing table of ints, so numbering the group of a row creates no
+ * object; values of other types are looked up as Fields in a map.
+ */
+final class GroupTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean intKeys;
+
+    /** For int keys: per slot, the number of the group plus one, or 0 if empty; the key of each group. */
+    private int[] slots;
+    private int[] keys;
+
+    /** For other keys: the number of each key, and the key of each group. */
+    private Map<Field, Integer> numbers;
+    private List<Field> fields;
+
+    private int size;
+
+    /**
+     * @param intKeys whether the group-by field is an INT_TYPE field, to be
+     *   looked up with {@link #group(int)} rather than {@link #group(Field)}
+     */
+    GroupTable(boolean intKeys) {
+        this.intKeys = intKeys;
+        if (intKeys) {
+            slots = new int[16];
+            keys = new int[8];
+        } else {
+            numbers = new HashMap<>();
+            fields = new ArrayList<>();
+        }
+    }
+
+    /** @return the number of groups seen */
+    int size() {
+        return size;
+    }
+
+    /** @return the number of the group of an int key, numbering it if it is new */
+    int group(int key) {
+        int mask = slots.length - 1;
+        int i = mix(key) & mask;
+        for (int g; (g = slots[i]) != 0; i = (i + 1) & mask) {
+            if (keys[g - 1] == key) {
+                return g - 1;
+            }
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        keys[size] = key;
+        slots[i] = ++size;
+        if (size * 2 > slots.length) {
+            grow();
+        }
+        return size - 1;
+    }
+
+    /** @return the number of the group of a key, numbering it if it is new */
+    int group(Field key) {
+        Integer g = numbers.get(key);
+        if (g == null) {
+            g = size++;
+            numbers.put(key, g);
+            fields.add(key);
+        }
+        return g;
+    }
+
+    /** Set field i of t to the key of group g. */
+    void setKey(CompactTuple t, int i, int g) {
+        if (intKeys) {
+            t.setInt(i, keys[g]);
+        } else {
+            t.setField(i, fields.get(g));
+        }
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /** Double the slots, keeping the table at most half full. */
+    private void grow() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int g = 0; g < size; g++) {
+            int i = mix(keys[g]) & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = g + 1;
+        }
+    }
+}
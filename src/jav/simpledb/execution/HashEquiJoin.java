@@ -1,7 +1,14 @@
 package jav.simpledb.execution;
 
 import jav.simpledb.common.DbException;
+import jav.simpledb.common.Type;
+import jav.simpledb.storage.ColumnDictionary;
+import jav.simpledb.storage.CompactTuple;
+import jav.simpledb.storage.DictionaryField;
+import jav.simpledb.storage.Field;
+import jav.simpledb.storage.StringField;
 import jav.simpledb.storage.Tuple;
+import jav.simpledb.storage.TupleBatch;
 import jav.simpledb.storage.TupleDesc;
 import jav.simpledb.transaction.TransactionAbortedException;
 
@@ -9,8 +16,32 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * When the join field of the left child is dictionary-encoded, the hash
+ * table is keyed on codes of that dictionary: right tuples from the same
+ * dictionary are looked up by their code alone, and other strings are first
+ * translated into the dictionary's codes.
+ * <p>
+ * The left child is read a batch at a time to build the hash table. Read
+ * through {@link #nextBatch}, the join also probes with whole batches of
+ * the right child and writes the joined rows into batches.
+ * <p>
+ * The join is a hybrid hash join whose memory budget is MAP_SIZE rows of
+ * the left child: the rows of both children are hashed into FANOUT
+ * partitions, and while the left rows loaded exceed the budget, the largest
+ * partition still in memory is spilled to a temporary file, along with the
+ * rows of the right child that fall in it, once they are read. The right
+ * child is thus read exactly once, and never rewound, however large the left
+ * one is. Each spilled partition is then joined by a join of its own, which
+ * hashes its rows into partitions again, with another hash function, up to
+ * MAX_LEVELS times; past that, or once partitioning a spilled partition
+ * again leaves all of its rows in one partition, as it does the rows of a
+ * single key, which no hash can split, the left rows are loaded MAP_SIZE
+ * rows at a time, rereading the spilled right rows for each.
+ * <p>
+ * {@link #partitioned} joins partitions of both sides on worker threads.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private final JoinPredicate pred;
@@ -19,6 +50,20 @@ public class HashEquiJoin extends Operator {
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
+    /** The batch of the left child being loaded, and the next entry of its selection. */
+    transient private TupleBatch build = null;
+    transient private int buildPos = 0;
+    transient private BatchOpIterator batchChild1 = null;
+    transient private BatchOpIterator batchChild2 = null;
+
+    /** Probing by batches: the right batch, the next entry of its selection, the matches of the current row. */
+    transient private TupleBatch probe = null;
+    transient private int probePos = 0;
+    transient private int probeRow = 0;
+    transient private List<Tuple> matches = null;
+    transient private int matchPos = 0;
+    transient private TupleBatch out = null;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -55,20 +100,310 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
-    final Map<Object, List<Tuple>> map = new HashMap<>();
+    Map<Object, List<Tuple>> map = new HashMap<>();
     public final static int MAP_SIZE = 20000;
 
+    /** The number of partitions rows are hashed into, and the number of times they can be. */
+    static final int FANOUT = 16;
+    static final int MAX_LEVELS = 4;
+
+    /** The number of times the rows of the children have been partitioned already. */
+    private int level = 0;
+    /** The rows the left child is expected to return, or 0 if unknown. */
+    private int expectedBuildRows = 0;
+
+    /** Whether the hash table holds the last rows of the left child. */
+    transient private boolean buildDone = false;
+    /** Whether the right child has been read. */
+    transient private boolean probeDone = false;
+
+    /** The left rows read; the left rows in memory, in all and per partition. */
+    transient private int buildRows = 0;
+    transient private int inMemory = 0;
+    transient private int[] counts = null;
+    /** The spilled rows of each side, per partition; null for a partition in memory. */
+    transient private SpillFile[] buildSpills = null;
+    transient private SpillFile[] probeSpills = null;
+    transient private int spills = 0;
+    /** The join of the spilled partition being read, and the next partition to look at. */
+    transient private HashEquiJoin spilled = null;
+    transient private int spilledPart = 0;
+
+    /**
+     * Size the hash table for the rows the left child is expected to
+     * return, up to the memory budget.
+     *
+     * @param expectedRows the estimated number of rows, or 0 if unknown
+     */
+    public void setExpectedBuildRows(int expectedRows) {
+        this.expectedBuildRows = Math.max(0, expectedRows);
+    }
+
+    /**
+     * A hash join run in parallel: the rows of both sides are repartitioned
+     * by the hash of their join field, so that rows that join end up in the
+     * same partition, and each pair of partitions is joined on a worker
+     * thread, into a hash table of its own, and the joined rows gathered.
+     *
+     * @param p the predicate to join on, which must be an equality
+     * @param left the fragments returning the left rows, which are loaded
+     *   into the hash tables
+     * @param right the fragments returning the right rows
+     * @param partitions the number of partitions
+     * @param expectedLeftRows the estimated number of left rows, or 0 if
+     *   unknown
+     * @return the Gather returning the joined rows
+     */
+    public static Gather partitioned(JoinPredicate p, List<? extends OpIterator> left,
+                                     List<? extends OpIterator> right, int partitions, int expectedLeftRows) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("a hash join needs an equality, not " + p.getOperator());
+        }
+        List<Repartition> builds = Repartition.of(left, p.getField1(), partitions);
+        List<Repartition> probes = Repartition.of(right, p.getField2(), partitions);
+        List<OpIterator> joins = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            HashEquiJoin j = new HashEquiJoin(p, builds.get(i), probes.get(i));
+            j.setExpectedBuildRows(expectedLeftRows / partitions);
+            joins.add(j);
+        }
+        return new Gather(joins);
+    }
+
+    /** The dictionary the hash table is keyed on, if any. */
+    transient private ColumnDictionary dictionary = null;
+
+    /**
+     * @return the key of f in the hash table: its code if it is a string
+     *   in the join's dictionary, f itself otherwise
+     */
+    private Object key(Field f) {
+        if (dictionary != null && f instanceof StringField) {
+            int code = f instanceof DictionaryField && ((DictionaryField) f).getDictionary() == dictionary
+                    ? ((DictionaryField) f).getCode()
+                    : dictionary.code(((StringField) f).getValue());
+            if (code >= 0) {
+                return code;
+            }
+        }
+        return f;
+    }
+
+    private BatchOpIterator batchChild1() {
+        if (batchChild1 == null) {
+            batchChild1 = RowBatchAdapter.of(child1);
+        }
+        return batchChild1;
+    }
+
+    private BatchOpIterator batchChild2() {
+        if (batchChild2 == null) {
+            batchChild2 = RowBatchAdapter.of(child2);
+        }
+        return batchChild2;
+    }
+
+    /**
+     * @return the partition, at this join's level, of rows whose join field
+     *   is f
+     */
+    private int partition(Field f) {
+        int h = (f == null ? 0 : f.hashCode()) ^ 0x9e3779b9 * (level + 1);
+        h ^= h >>> 16;
+        h *= 0x7feb352d;
+        h ^= h >>> 15;
+        h *= 0x846ca68b;
+        h ^= h >>> 16;
+        return h & (FANOUT - 1);
+    }
+
+    /**
+     * Spill the largest partition of the hash table to a file, and make
+     * room for the right rows of that partition in another.
+     */
+    private void spillLargest() throws DbException {
+        int p = 0;
+        for (int i = 1; i < FANOUT; i++) {
+            if (counts[i] > counts[p]) {
+                p = i;
+            }
+        }
+        SpillFile file = new SpillFile(child1.getTupleDesc());
+        Iterator<List<Tuple>> it = map.values().iterator();
+        while (it.hasNext()) {
+            List<Tuple> l = it.next();
+            if (partition(l.get(0).getField(pred.getField1())) == p) {
+                for (Tuple t : l) {
+                    file.add(t);
+                }
+                it.remove();
+            }
+        }
+        buildSpills[p] = file;
+        probeSpills[p] = new SpillFile(child2.getTupleDesc());
+        spills++;
+        inMemory -= counts[p];
+        counts[p] = 0;
+    }
+
+    /**
+     * Start joining the next spilled partition that has right rows.
+     *
+     * @return false if there is none left
+     */
+    private boolean openSpilled() throws DbException, TransactionAbortedException {
+        for (; spilledPart < FANOUT; spilledPart++) {
+            SpillFile left = buildSpills[spilledPart];
+            if (left == null) {
+                continue;
+            }
+            if (probeSpills[spilledPart].size() == 0) {
+                closeSpilled();
+                continue;
+            }
+            spilled = new HashEquiJoin(pred, left.scan(), probeSpills[spilledPart].scan());
+            // a partition that partitioning it again did not split at all
+            // most likely holds a single key, and is loaded in chunks
+            spilled.level = level > 0 && left.size() == buildRows ? MAX_LEVELS : level + 1;
+            spilled.expectedBuildRows = left.size();
+            spilled.open();
+            return true;
+        }
+        return false;
+    }
+
+    /** Finish with the current spilled partition, and delete its files. */
+    private void closeSpilled() {
+        if (spilled != null) {
+            spilled.close();
+            spilled = null;
+        }
+        buildSpills[spilledPart].delete();
+        probeSpills[spilledPart].delete();
+        buildSpills[spilledPart] = null;
+        probeSpills[spilledPart] = null;
+    }
+
+    /** @return the next row of the spilled partitions, or null */
+    private Tuple fetchSpilled() throws DbException, TransactionAbortedException {
+        while (spills > 0) {
+            if (spilled != null) {
+                if (spilled.hasNext()) {
+                    return spilled.next();
+                }
+                closeSpilled();
+            }
+            if (!openSpilled()) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    /** @return the next batch of the spilled partitions, or null */
+    private TupleBatch nextSpilledBatch() throws DbException, TransactionAbortedException {
+        while (spills > 0) {
+            if (spilled != null) {
+                TupleBatch b = spilled.nextBatch();
+                if (b != null) {
+                    return b;
+                }
+                closeSpilled();
+            }
+            if (!openSpilled()) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    /** Delete the files of the partitions spilled, and forget them. */
+    private void resetSpills() {
+        if (spilled != null) {
+            spilled.close();
+            spilled = null;
+        }
+        if (buildSpills != null) {
+            for (int p = 0; p < FANOUT; p++) {
+                if (buildSpills[p] != null) {
+                    buildSpills[p].delete();
+                    probeSpills[p].delete();
+                }
+            }
+        }
+        buildSpills = null;
+        probeSpills = null;
+        counts = null;
+        spills = 0;
+        spilledPart = 0;
+        buildRows = 0;
+        inMemory = 0;
+        buildDone = false;
+        probeDone = false;
+    }
+
+    /** The end of the right child: the rows of the spilled partitions are joined next. */
+    private void probed() {
+        probeDone = true;
+        map.clear();
+    }
+
+    /**
+     * Load the left child into the hash table: below MAX_LEVELS, all of it,
+     * spilling partitions as needed, and MAP_SIZE rows of it otherwise.
+     *
+     * @return false if there were no left rows to load
+     */
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
+        boolean hybrid = level < MAX_LEVELS;
+        if (hybrid && counts == null) {
+            counts = new int[FANOUT];
+            buildSpills = new SpillFile[FANOUT];
+            probeSpills = new SpillFile[FANOUT];
+        }
+        if (expectedBuildRows > 0 && map.isEmpty()) {
+            map = new HashMap<>((int) (Math.min(expectedBuildRows, MAP_SIZE) / 0.75 + 1));
+        } else {
+            map.clear();
+        }
+        while (true) {
+            if (build == null || buildPos >= build.numSelected()) {
+                build = batchChild1().nextBatch();
+                buildPos = 0;
+                if (build == null) {
+                    buildDone = true;
+                    break;
+                }
+            }
+            int row = build.selection()[buildPos++];
+            t1 = build.getTuple(row);
+            Field f = build.getField(pred.getField1(), row);
+            int p = 0;
+            if (hybrid) {
+                buildRows++;
+                p = partition(f);
+                if (buildSpills[p] != null) {
+                    buildSpills[p].add(t1);
+                    continue;
+                }
+            }
+            if (dictionary == null && map.isEmpty() && f instanceof DictionaryField) {
+                dictionary = ((DictionaryField) f).getDictionary();
+            }
+            List<Tuple> list = map.computeIfAbsent(key(f), k -> new ArrayList<>());
+            t1.materialize();
             list.add(t1);
-            if (cnt++ == MAP_SIZE)
+            if (hybrid) {
+                counts[p]++;
+                if (++inMemory > MAP_SIZE) {
+                    spillLargest();
+                }
+            } else if (cnt++ == MAP_SIZE) {
                 return true;
+            }
         }
-        return cnt > 0;
+        return hybrid ? buildRows > 0 : cnt > 0;
 
     }
 
@@ -88,11 +423,27 @@ public class HashEquiJoin extends Operator {
         this.t2=null;
         this.listIt=null;
         this.map.clear();
+        this.dictionary = null;
+        resetSpills();
+        resetBatches();
+    }
+
+    private void resetBatches() {
+        build = null;
+        buildPos = 0;
+        probe = null;
+        probePos = 0;
+        matches = null;
+        matchPos = 0;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        listIt = null;
+        resetSpills();
+        resetBatches();
+        loadMap();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -122,11 +473,11 @@ public class HashEquiJoin extends Operator {
         int td2n = t2.getTupleDesc().numFields();
 
         // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
+        CompactTuple t = new CompactTuple(comboTD);
         for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
+            t.copyField(i, t1, i);
         for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
+            t.copyField(td1n + i, t2, i);
         return t;
 
     }
@@ -135,14 +486,25 @@ public class HashEquiJoin extends Operator {
         if (listIt != null && listIt.hasNext()) {
             return processList();
         }
+        if (probeDone) {
+            return fetchSpilled();
+        }
 
         // loop around child2
         while (child2.hasNext()) {
             t2 = child2.next();
+            Field f = t2.getField(pred.getField2());
+            if (spills > 0) {
+                int p = partition(f);
+                if (probeSpills[p] != null) {
+                    probeSpills[p].add(t2);
+                    continue;
+                }
+            }
 
             // if match, create a combined tuple and fill it with the values
             // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
+            List<Tuple> l = map.get(key(f));
             if (l == null)
                 continue;
             listIt = l.iterator();
@@ -151,7 +513,11 @@ public class HashEquiJoin extends Operator {
 
         }
 
-        // child2 is done: advance child1
+        // child2 is done: advance child1, unless all of it has been probed
+        if (buildDone) {
+            probed();
+            return fetchSpilled();
+        }
         child2.rewind();
         if (loadMap()) {
             return fetchNext();
@@ -160,6 +526,85 @@ public class HashEquiJoin extends Operator {
         return null;
     }
 
+    /**
+     * Returns the next batch of joined rows. Each batch of the right child
+     * is probed row by row against the hash table, and every match appended
+     * to the output batch, which is returned once full.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (probeDone) {
+            return nextSpilledBatch();
+        }
+        if (map.isEmpty() && spills == 0) {
+            return null;
+        }
+        if (out == null) {
+            out = new TupleBatch(comboTD);
+        }
+        out.clear();
+        while (!out.isFull()) {
+            if (matches != null && matchPos < matches.size()) {
+                append(matches.get(matchPos++));
+                continue;
+            }
+            matches = null;
+            if (probe != null && probePos < probe.numSelected()) {
+                probeRow = probe.selection()[probePos++];
+                Field f = probe.getField(pred.getField2(), probeRow);
+                if (spills > 0) {
+                    int p = partition(f);
+                    if (probeSpills[p] != null) {
+                        probeSpills[p].add(probe.getTuple(probeRow));
+                        continue;
+                    }
+                }
+                matches = map.get(key(f));
+                matchPos = 0;
+                continue;
+            }
+            probe = batchChild2().nextBatch();
+            probePos = 0;
+            if (probe != null) {
+                continue;
+            }
+            // child2 is done: advance child1, unless all of it has been probed
+            if (buildDone) {
+                probed();
+                break;
+            }
+            child2.rewind();
+            if (!loadMap()) {
+                break;
+            }
+        }
+        if (out.size() > 0) {
+            return out;
+        }
+        return probeDone ? nextSpilledBatch() : null;
+    }
+
+    /** Append left joined with the current row of the probe batch to out. */
+    private void append(Tuple left) {
+        int row = out.appendRows(1);
+        int td1n = left.getTupleDesc().numFields();
+        for (int i = 0; i < td1n; i++) {
+            if (left.isNull(i)) {
+                out.setNull(i, row, row + 1);
+            } else if (comboTD.getFieldType(i) == Type.INT_TYPE) {
+                out.getInts(i)[row] = left.getInt(i);
+            } else {
+                out.setField(i, row, left.getField(i));
+            }
+        }
+        for (int i = 0; i < probe.getTupleDesc().numFields(); i++) {
+            if (comboTD.getFieldType(td1n + i) == Type.INT_TYPE && !probe.isNull(i, probeRow)) {
+                out.getInts(td1n + i)[row] = probe.getInt(i, probeRow);
+            } else {
+                out.setField(td1n + i, row, probe.getField(i, probeRow));
+            }
+        }
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child1, this.child2};
@@ -169,6 +614,8 @@ public class HashEquiJoin extends Operator {
     public void setChildren(OpIterator[] children) {
         this.child1 = children[0];
         this.child2 = children[1];
+        this.batchChild1 = null;
+        this.batchChild2 = null;
     }
     
 }
@@ -1,15 +1,52 @@
 package jav.simpledb.execution;
 
 import jav.simpledb.common.Type;
+import jav.simpledb.storage.CompactTuple;
 import jav.simpledb.storage.Tuple;
+import jav.simpledb.storage.TupleBatch;
+import jav.simpledb.storage.TupleDesc;
+import jav.simpledb.storage.TupleIterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * The aggregate field, and an int group-by field, are read with
+ * {@link Tuple#getInt}, and the groups of an int group-by field are found
+ * in a {@link GroupTable} of ints, so merging a tuple creates no objects.
+ * The count, sum, minimum and maximum of every group are kept in one
+ * long[], by group number. A batch is merged in one loop over its int
+ * columns.
+ * <p>
+ * SUM_COUNT gives each group's sum and count, in two fields; SC_AVG merges
+ * such pairs, read from the aggregate field and the one after it, into an
+ * average. Together they compute an average in two stages, as the partial
+ * and merging Aggregates of a parallel plan do.
  */
 public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
+    private static final int COUNT = 0;
+    private static final int SUM = 1;
+    private static final int MIN = 2;
+    private static final int MAX = 3;
+
+    private final int gbfield;
+    private final Type gbfieldtype;
+    private final int afield;
+    private final Op what;
+
+    /** The number of each group, or null if there is no grouping. */
+    private final GroupTable groups;
+
+    /** The count, sum, minimum and maximum of each group, by group number. */
+    private long[] states = new long[4 * 16];
+    private int numGroups = 0;
+
     /**
      * Aggregate constructor
      * 
@@ -26,7 +63,14 @@ public class IntegerAggregator implements Aggregator {
      */
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-        // some code goes here
+        if (what == null) {
+            throw new IllegalArgumentException("no aggregate operator");
+        }
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+        this.afield = afield;
+        this.what = what;
+        this.groups = gbfield == NO_GROUPING ? null : new GroupTable(gbfieldtype == Type.INT_TYPE);
     }
 
     /**
@@ -37,7 +81,99 @@ public class IntegerAggregator implements Aggregator {
      *            the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        // some code goes here
+        int g = 0;
+        if (gbfield != NO_GROUPING) {
+            g = gbfieldtype == Type.INT_TYPE ? groups.group(tup.getInt(gbfield)) : groups.group(tup.getField(gbfield));
+        }
+        int s = state(g);
+        if (what == Op.SC_AVG) {
+            states[s + SUM] += tup.getInt(afield);
+            states[s + COUNT] += tup.getInt(afield + 1);
+            return;
+        }
+        merge(s, tup.getInt(afield));
+    }
+
+    /** @return the offset in states of the state of group g, starting it if g is new */
+    private int state(int g) {
+        int s = 4 * g;
+        if (g == numGroups) {
+            if (s + 4 > states.length) {
+                states = Arrays.copyOf(states, states.length * 2);
+            }
+            states[s + COUNT] = 0;
+            states[s + SUM] = 0;
+            states[s + MIN] = Long.MAX_VALUE;
+            states[s + MAX] = Long.MIN_VALUE;
+            numGroups++;
+        }
+        return s;
+    }
+
+    private void merge(int s, int v) {
+        states[s + COUNT]++;
+        states[s + SUM] += v;
+        states[s + MIN] = Math.min(states[s + MIN], v);
+        states[s + MAX] = Math.max(states[s + MAX], v);
+    }
+
+    /**
+     * Merge the selected rows of batch. Without grouping the whole batch
+     * folds into one state in a single loop.
+     */
+    @Override
+    public void mergeBatchIntoGroups(TupleBatch batch) {
+        if (what == Op.SC_AVG || batch.hasNulls(afield)
+                || (gbfieldtype == Type.INT_TYPE && batch.hasNulls(gbfield))) {
+            Aggregator.super.mergeBatchIntoGroups(batch);
+            return;
+        }
+        int[] sel = batch.selection();
+        int n = batch.numSelected();
+        int[] values = batch.getInts(afield);
+        if (gbfield == NO_GROUPING) {
+            int s = state(0);
+            long sum = 0;
+            long min = states[s + MIN];
+            long max = states[s + MAX];
+            for (int k = 0; k < n; k++) {
+                int v = values[sel[k]];
+                sum += v;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            states[s + COUNT] += n;
+            states[s + SUM] += sum;
+            states[s + MIN] = min;
+            states[s + MAX] = max;
+        } else if (gbfieldtype == Type.INT_TYPE) {
+            int[] keys = batch.getInts(gbfield);
+            for (int k = 0; k < n; k++) {
+                int row = sel[k];
+                merge(state(groups.group(keys[row])), values[row]);
+            }
+        } else {
+            for (int k = 0; k < n; k++) {
+                int row = sel[k];
+                merge(state(groups.group(batch.getField(gbfield, row))), values[row]);
+            }
+        }
+    }
+
+    private int result(int s) {
+        switch (what) {
+            case MIN:
+                return (int) states[s + MIN];
+            case MAX:
+                return (int) states[s + MAX];
+            case SUM:
+                return (int) states[s + SUM];
+            case AVG:
+            case SC_AVG:
+                return (int) (states[s + SUM] / states[s + COUNT]);
+            default:
+                return (int) states[s + COUNT];
+        }
     }
 
     /**
@@ -46,12 +182,32 @@ public class IntegerAggregator implements Aggregator {
      * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
      *         if using group, or a single (aggregateVal) if no grouping. The
      *         aggregateVal is determined by the type of aggregate specified in
-     *         the constructor.
+     *         the constructor. SUM_COUNT gives the sum and the count as two
+     *         aggregate values.
      */
     public OpIterator iterator() {
-        // some code goes here
-        throw new
-        UnsupportedOperationException("please implement me for lab2");
+        int first = gbfield == NO_GROUPING ? 0 : 1;
+        Type[] types = new Type[first + (what == Op.SUM_COUNT ? 2 : 1)];
+        Arrays.fill(types, Type.INT_TYPE);
+        if (first == 1) {
+            types[0] = gbfieldtype;
+        }
+        TupleDesc td = new TupleDesc(types);
+        List<Tuple> results = new ArrayList<>(numGroups);
+        for (int g = 0; g < numGroups; g++) {
+            CompactTuple t = new CompactTuple(td);
+            if (first == 1) {
+                groups.setKey(t, 0, g);
+            }
+            if (what == Op.SUM_COUNT) {
+                t.setInt(first, (int) states[4 * g + SUM]);
+                t.setInt(first + 1, (int) states[4 * g + COUNT]);
+            } else {
+                t.setInt(first, result(4 * g));
+            }
+            results.add(t);
+        }
+        return new TupleIterator(td, results);
     }
 
 }
@@ -1,6 +1,7 @@
 package jav.simpledb.execution;
 
 import jav.simpledb.common.DbException;
+import jav.simpledb.storage.CompactTuple;
 import jav.simpledb.storage.Tuple;
 import jav.simpledb.storage.TupleDesc;
 import jav.simpledb.transaction.TransactionAbortedException;
@@ -129,12 +130,12 @@ public class Join extends Operator {
             while (child2.hasNext()){
                 Tuple t2 = child2.next();
                 if(jp.filter(t1,t2)){
-                    Tuple res = new Tuple(getTupleDesc());
+                    CompactTuple res = new CompactTuple(getTupleDesc());
                     for (int i = 0; i < t1.getTupleDesc().numFields(); i++) {
-                        res.setField(i,t1.getField(i));
+                        res.copyField(i, t1, i);
                     }
                     for (int i = 0; i < t2.getTupleDesc().numFields(); i++) {
-                        res.setField(t1.getTupleDesc().numFields()+i,t2.getField(i));
+                        res.copyField(t1.getTupleDesc().numFields() + i, t2, i);
                     }
                     return res;
                 }
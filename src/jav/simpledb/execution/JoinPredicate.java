@@ -1,6 +1,8 @@
 package jav.simpledb.execution;
 
+import jav.simpledb.common.Type;
 import jav.simpledb.storage.Field;
+import jav.simpledb.storage.IntField;
 import jav.simpledb.storage.Tuple;
 
 import java.io.Serializable;
@@ -47,6 +49,11 @@ public class JoinPredicate implements Serializable {
      * @return true if the tuples satisfy the predicate.
      */
     public boolean filter(Tuple t1, Tuple t2) {
+        if (t1 != null && t2 != null && t1.getTupleDesc().getFieldType(field1) == Type.INT_TYPE
+                && t2.getTupleDesc().getFieldType(field2) == Type.INT_TYPE) {
+            return !t1.isNull(field1) && !t2.isNull(field2)
+                    && IntField.compare(op, t1.getInt(field1), t2.getInt(field2));
+        }
         Field f1, f2;
         if(t1 == null || t2 == null || (f1 = t1.getField(field1)) == null || (f2 = t2.getField(field2)) == null){
             return false;
@@ -0,0 +1,360 @@
+package jav.simpledb.execution;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.DbException;
+import jav.simpledb.index.BTreeFile;
+import jav.simpledb.index.BTreeScan;
+import jav.simpledb.storage.CompactTuple;
+import jav.simpledb.storage.DbFile;
+import jav.simpledb.storage.Tuple;
+import jav.simpledb.storage.TupleDesc;
+import jav.simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * MergeJoin joins two children on an equality or an inequality of a field
+ * of each by reading both in ascending order of their join field: a child
+ * that does not return its rows in that order already, as a
+ * {@link BTreeScan} of a B+ tree keyed on the field does, is sorted first,
+ * by an {@link ExternalSort}.
+ * <p>
+ * On an equality, the run of right rows with each key is kept, and each
+ * left row with that key is joined with it as the left row is read. On an
+ * inequality, each row of one child is joined with the rows of the other
+ * that precede it in key order, which are kept as they are read: for
+ * left &lt; right, each right row with the left rows of smaller keys, and
+ * for left &gt; right, each left row with the right rows of smaller keys.
+ * Either way, at most {@link HashEquiJoin#MAP_SIZE} of the kept rows are
+ * held in memory; the others are spilled to disk, MAP_SIZE rows to a
+ * {@link SpillFile}, and read back for each row they are joined with, so
+ * neither a skewed key nor a long run of preceding rows has to fit in
+ * memory. Neither child is read more than once.
+ * <p>
+ * Rows whose join field is not set join no row.
+ */
+public class MergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+
+    /** The children, in order of their join fields. */
+    transient private OpIterator left, right;
+
+    /** On an equality: the next row of each side, and the first right row of the run kept. */
+    transient private Tuple nextLeft, nextRight;
+    transient private Tuple runKey;
+
+    /**
+     * The row being joined with the rows kept, and those rows: on an
+     * equality the run of right rows with its key, on an inequality the
+     * rows before it. The first of them are spilled once there are more
+     * than MAP_SIZE; the spilled rows are returned first, then those in
+     * memory.
+     */
+    transient private Tuple current;
+    /** On an inequality: the next row of the child whose rows are kept. */
+    transient private Tuple nextBefore;
+    transient private List<Tuple> kept;
+    transient private int keptPos;
+    transient private List<SpillFile> spilled;
+    transient private int spilledPos;
+    transient private OpIterator spillScan;
+
+    /**
+     * @param p the predicate to join on: EQUALS, LESS_THAN,
+     *   LESS_THAN_OR_EQ, GREATER_THAN or GREATER_THAN_OR_EQ, on fields of
+     *   the same type
+     * @param child1 the left child
+     * @param child2 the right child
+     */
+    public MergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!supports(p.getOperator())) {
+            throw new IllegalArgumentException("cannot merge join on " + p.getOperator());
+        }
+        if (child1.getTupleDesc().getFieldType(p.getField1()) != child2.getTupleDesc().getFieldType(p.getField2())) {
+            throw new IllegalArgumentException("cannot merge join fields of different types");
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return whether a MergeJoin can join on op
+     */
+    public static boolean supports(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @return whether plan returns its rows in ascending order of field:
+     *   if it scans a B+ tree keyed on that field, by a BTreeScan or a
+     *   SeqScan, or sorts by it, or is a Filter or Project of such a plan,
+     *   or a MergeJoin on an equality of that field
+     */
+    public static boolean sortedOn(OpIterator plan, int field) {
+        if (plan instanceof BTreeScan) {
+            return keyedOn(((BTreeScan) plan).getTableName(), field);
+        }
+        if (plan instanceof SeqScan) {
+            return keyedOn(((SeqScan) plan).getTableName(), field);
+        }
+        if (plan instanceof OrderBy) {
+            OrderBy o = (OrderBy) plan;
+            return o.isASC() && o.getOrderByField() == field;
+        }
+        if (plan instanceof Filter) {
+            return sortedOn(((Filter) plan).getChildren()[0], field);
+        }
+        if (plan instanceof Project) {
+            Project p = (Project) plan;
+            return sortedOn(p.getChildren()[0], p.getFieldList().get(field));
+        }
+        if (plan instanceof MergeJoin) {
+            MergeJoin j = (MergeJoin) plan;
+            int leftFields = j.child1.getTupleDesc().numFields();
+            return j.pred.getOperator() == Predicate.Op.EQUALS
+                    && (field == j.pred.getField1() || field == leftFields + j.pred.getField2());
+        }
+        return false;
+    }
+
+    private static boolean keyedOn(String tableName, int field) {
+        DbFile f = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(tableName));
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        left = sortedOn(child1, pred.getField1()) ? child1 : new ExternalSort(child1, pred.getField1());
+        right = sortedOn(child2, pred.getField2()) ? child2 : new ExternalSort(child2, pred.getField2());
+        left.open();
+        right.open();
+        start();
+        super.open();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        runKey = null;
+        current = null;
+        kept = new ArrayList<>();
+        keptPos = 0;
+        deleteSpills();
+        spilled = new ArrayList<>();
+        switch (pred.getOperator()) {
+        case EQUALS:
+            nextLeft = read(left, pred.getField1());
+            nextRight = read(right, pred.getField2());
+            break;
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            nextBefore = read(left, pred.getField1());
+            break;
+        default:
+            nextBefore = read(right, pred.getField2());
+        }
+    }
+
+    public void close() {
+        super.close();
+        if (left != null) {
+            left.close();
+            right.close();
+            left = right = null;
+        }
+        nextLeft = nextRight = runKey = current = nextBefore = null;
+        kept = null;
+        deleteSpills();
+    }
+
+    private void deleteSpills() {
+        if (spillScan != null) {
+            spillScan.close();
+            spillScan = null;
+        }
+        if (spilled != null) {
+            for (SpillFile f : spilled) {
+                f.delete();
+            }
+            spilled = null;
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // drop the row looked ahead, if any
+        super.close();
+        left.rewind();
+        right.rewind();
+        start();
+        super.open();
+    }
+
+    /** @return the next row of it whose field is set, or null */
+    private static Tuple read(OpIterator it, int field) throws DbException, TransactionAbortedException {
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (!t.isNull(field)) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    private Tuple join(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        CompactTuple t = new CompactTuple(comboTD);
+        for (int i = 0; i < td1n; i++) {
+            t.copyField(i, t1, i);
+        }
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++) {
+            t.copyField(td1n + i, t2, i);
+        }
+        return t;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return pred.getOperator() == Predicate.Op.EQUALS ? nextEqual() : nextBefore();
+    }
+
+    private Tuple nextEqual() throws DbException, TransactionAbortedException {
+        int f1 = pred.getField1();
+        int f2 = pred.getField2();
+        Tuple r;
+        while (current == null || (r = nextKept()) == null) {
+            if (runKey == null || nextLeft == null || ExternalSort.compare(nextLeft, f1, runKey, f2) != 0) {
+                // skip to the next key on both sides and keep its run of right rows
+                runKey = current = null;
+                deleteSpills();
+                spilled = new ArrayList<>();
+                kept.clear();
+                while (nextLeft != null && nextRight != null) {
+                    int c = ExternalSort.compare(nextLeft, f1, nextRight, f2);
+                    if (c < 0) {
+                        nextLeft = read(left, f1);
+                    } else if (c > 0) {
+                        nextRight = read(right, f2);
+                    } else {
+                        break;
+                    }
+                }
+                if (nextLeft == null || nextRight == null) {
+                    return null;
+                }
+                runKey = nextRight;
+                do {
+                    keep(nextRight, right.getTupleDesc());
+                    nextRight = read(right, f2);
+                } while (nextRight != null && ExternalSort.compare(runKey, f2, nextRight, f2) == 0);
+            }
+            current = nextLeft;
+            nextLeft = read(left, f1);
+            spilledPos = keptPos = 0;
+        }
+        return join(current, r);
+    }
+
+    private Tuple nextBefore() throws DbException, TransactionAbortedException {
+        Predicate.Op op = pred.getOperator();
+        // the rows of the child read in full before each row of the other
+        boolean leftBefore = op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ;
+        boolean inclusive = op == Predicate.Op.LESS_THAN_OR_EQ || op == Predicate.Op.GREATER_THAN_OR_EQ;
+        OpIterator outer = leftBefore ? right : left;
+        int outerField = leftBefore ? pred.getField2() : pred.getField1();
+        OpIterator inner = leftBefore ? left : right;
+        int innerField = leftBefore ? pred.getField1() : pred.getField2();
+        Tuple b;
+        while (current == null || (b = nextKept()) == null) {
+            current = read(outer, outerField);
+            if (current == null) {
+                return null;
+            }
+            while (nextBefore != null) {
+                int c = ExternalSort.compare(nextBefore, innerField, current, outerField);
+                if (c > 0 || (c == 0 && !inclusive)) {
+                    break;
+                }
+                keep(nextBefore, inner.getTupleDesc());
+                nextBefore = read(inner, innerField);
+            }
+            spilledPos = keptPos = 0;
+        }
+        return leftBefore ? join(b, current) : join(current, b);
+    }
+
+    /**
+     * Keep a row the current one is joined with, spilling the rows in
+     * memory first if there are MAP_SIZE of them.
+     */
+    private void keep(Tuple t, TupleDesc td) throws DbException {
+        if (kept.size() == HashEquiJoin.MAP_SIZE) {
+            SpillFile file = new SpillFile(td);
+            spilled.add(file);
+            for (Tuple r : kept) {
+                file.add(r);
+            }
+            kept.clear();
+        }
+        t.materialize();
+        kept.add(t);
+    }
+
+    /**
+     * @return the next of the rows kept for the current one, or null once
+     *   every one of them was returned
+     */
+    private Tuple nextKept() throws DbException, TransactionAbortedException {
+        while (spilledPos < spilled.size()) {
+            if (spillScan == null) {
+                spillScan = spilled.get(spilledPos).scan();
+                spillScan.open();
+            }
+            if (spillScan.hasNext()) {
+                return spillScan.next();
+            }
+            spillScan.close();
+            spillScan = null;
+            spilledPos++;
+        }
+        return keptPos < kept.size() ? kept.get(keptPos++) : null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child1, child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+}
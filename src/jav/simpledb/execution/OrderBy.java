@@ -1,7 +1,9 @@
 package jav.simpledb.execution;
 
 import jav.simpledb.common.DbException;
+import jav.simpledb.common.Type;
 import jav.simpledb.storage.Field;
+import jav.simpledb.storage.TupleBatch;
 import jav.simpledb.storage.TupleDesc;
 import jav.simpledb.transaction.TransactionAbortedException;
 import jav.simpledb.storage.Tuple;
@@ -10,8 +12,11 @@ import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * The child is read a batch at a time; the rows kept for sorting are the
+ * tuples the batches were filled from where there are any.
  */
-public class OrderBy extends Operator {
+public class OrderBy extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
@@ -21,6 +26,7 @@ public class OrderBy extends Operator {
     private final String orderByFieldName;
     private Iterator<Tuple> it;
     private final boolean asc;
+    private transient TupleBatch batch;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -63,8 +69,16 @@ public class OrderBy extends Operator {
             TransactionAbortedException {
         child.open();
         // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
+        BatchOpIterator in = RowBatchAdapter.of(child);
+        TupleBatch b;
+        while ((b = in.nextBatch()) != null) {
+            int[] sel = b.selection();
+            for (int k = 0; k < b.numSelected(); k++) {
+                Tuple t = b.getTuple(sel[k]);
+                t.materialize();
+                childTups.add(t);
+            }
+        }
         childTups.sort(new TupleComparator(orderByField, asc));
         it = childTups.iterator();
         super.open();
@@ -93,6 +107,20 @@ public class OrderBy extends Operator {
             return null;
     }
 
+    public TupleBatch nextBatch() {
+        if (it == null || !it.hasNext()) {
+            return null;
+        }
+        if (batch == null) {
+            batch = new TupleBatch(td);
+        }
+        batch.clear();
+        while (!batch.isFull() && it.hasNext()) {
+            batch.appendRow(it.next());
+        }
+        return batch;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[] { this.child };
@@ -115,6 +143,10 @@ class TupleComparator implements Comparator<Tuple> {
     }
 
     public int compare(Tuple o1, Tuple o2) {
+        if (o1.getTupleDesc().getFieldType(field) == Type.INT_TYPE) {
+            int c = Integer.compare(o1.getInt(field), o2.getInt(field));
+            return asc ? c : -c;
+        }
         Field t1 = (o1).getField(field);
         Field t2 = (o2).getField(field);
         if (t1.compare(Predicate.Op.EQUALS, t2))
@@ -0,0 +1,198 @@
+package jav.simpledb.execution;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.DbException;
+import jav.simpledb.storage.BufferPool;
+import jav.simpledb.storage.BufferRing;
+import jav.simpledb.storage.DbFileIterator;
+import jav.simpledb.storage.HeapFile;
+import jav.simpledb.storage.Tuple;
+import jav.simpledb.storage.TupleBatch;
+import jav.simpledb.transaction.TransactionAbortedException;
+import jav.simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One worker of a morsel-driven parallel scan of a HeapFile. The workers of
+ * a scan, made by {@link #workers}, share a counter of pages, and each takes
+ * the next {@link #MORSEL_PAGES} pages (a morsel) whenever it is done with
+ * its current ones, so a worker that is held up, by a selective filter
+ * above it or by its thread not getting a core, simply takes fewer morsels
+ * and every worker finishes at about the same time. Every page is read by
+ * exactly one worker.
+ * <p>
+ * A worker is a SeqScan as far as the rest of the plan is concerned, with
+ * the schema of a SeqScan of the table, but only returns the tuples of its
+ * own morsels. The workers are meant to run the copies of a plan fragment
+ * below an {@link Exchange}, which opens and closes each of them once per
+ * run: once all of them are closed, the next run starts from the first page
+ * again.
+ */
+public class ParallelSeqScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of pages a worker takes at a time. */
+    public static final int MORSEL_PAGES = 16;
+
+    /** The pages of one run of a scan, shared by its workers. */
+    private static final class Morsels {
+        private final HeapFile file;
+        private final int workers;
+        private final AtomicInteger next = new AtomicInteger();
+        private volatile int numPages;
+        private int closed;
+
+        Morsels(HeapFile file, int workers) {
+            this.file = file;
+            this.workers = workers;
+            this.numPages = file.numPages();
+        }
+
+        /** @return the first page of the next morsel, or -1 if every page is taken */
+        int take() {
+            int first = next.getAndAdd(MORSEL_PAGES);
+            return first < numPages ? first : -1;
+        }
+
+        int end(int first) {
+            return Math.min(first + MORSEL_PAGES, numPages);
+        }
+
+        /** Called by each worker as it closes; the last one resets the scan. */
+        synchronized void closed() {
+            if (++closed == workers) {
+                closed = 0;
+                numPages = file.numPages();
+                next.set(0);
+            }
+        }
+    }
+
+    private final TransactionId tid;
+    private final HeapFile file;
+    private final Morsels morsels;
+
+    private transient boolean open;
+    private transient BufferRing ring;
+    private transient DbFileIterator iterator;
+    private transient TupleBatch batch;
+
+    private ParallelSeqScan(TransactionId tid, HeapFile file, String tableAlias, Morsels morsels) {
+        super(tid, file.getId(), tableAlias);
+        this.tid = tid;
+        this.file = file;
+        this.morsels = morsels;
+    }
+
+    /**
+     * Create the workers of a parallel scan of a HeapFile.
+     *
+     * @param tid the transaction the scan runs as a part of
+     * @param tableId the table to scan, which must be a HeapFile
+     * @param tableAlias the alias of the table, as for a SeqScan
+     * @param n the number of workers
+     * @return n workers, which together read every tuple of the table once
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     */
+    public static List<ParallelSeqScan> workers(TransactionId tid, int tableId, String tableAlias, int n) {
+        if (!(Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile)) {
+            throw new IllegalArgumentException("table " + tableId + " is not a heap file");
+        }
+        if (n < 1) {
+            throw new IllegalArgumentException("need at least one worker");
+        }
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        Morsels morsels = new Morsels(file, n);
+        List<ParallelSeqScan> workers = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            workers.add(new ParallelSeqScan(tid, file, tableAlias, morsels));
+        }
+        return workers;
+    }
+
+    /**
+     * Opens the worker. As for a SeqScan, a file larger than the
+     * BufferPool is read through a private {@link BufferRing}, one per
+     * worker.
+     */
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        int ringPages = Math.max(1, Math.min(BufferRing.DEFAULT_RING_PAGES, pool.getNumPages() / 4));
+        ring = file.numPages() > pool.getNumPages() ? new BufferRing(ringPages) : null;
+        iterator = null;
+        open = true;
+    }
+
+    /**
+     * @return false once this worker has taken the last morsel and read it
+     */
+    private boolean nextMorsel() throws DbException, TransactionAbortedException {
+        if (iterator != null) {
+            iterator.close();
+            iterator = null;
+        }
+        int first = morsels.take();
+        if (first < 0) {
+            return false;
+        }
+        iterator = file.iterator(tid, first, morsels.end(first), ring);
+        iterator.open();
+        return true;
+    }
+
+    @Override
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!open) {
+            throw new IllegalStateException("scan not open");
+        }
+        while (iterator == null || !iterator.hasNext()) {
+            if (!nextMorsel()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("This is the last element");
+        }
+        return iterator.next();
+    }
+
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!open) {
+            throw new IllegalStateException("scan not open");
+        }
+        if (batch == null) {
+            batch = new TupleBatch(getTupleDesc());
+        }
+        while (iterator == null || !iterator.nextBatch(batch)) {
+            if (!nextMorsel()) {
+                return null;
+            }
+        }
+        return batch;
+    }
+
+    @Override
+    public void close() {
+        if (!open) {
+            return;
+        }
+        if (iterator != null) {
+            iterator.close();
+            iterator = null;
+        }
+        open = false;
+        morsels.closed();
+    }
+}
@@ -1,9 +1,15 @@
 package jav.simpledb.execution;
 
+import jav.simpledb.storage.ColumnDictionary;
+import jav.simpledb.storage.DictionaryField;
 import jav.simpledb.storage.Field;
+import jav.simpledb.storage.IntField;
+import jav.simpledb.storage.StringField;
 import jav.simpledb.storage.Tuple;
+import jav.simpledb.storage.TupleBatch;
 
 import java.io.Serializable;
+import java.util.BitSet;
 
 /**
  * Predicate compares tuples to a specified Field value.
@@ -54,6 +60,14 @@ public class Predicate implements Serializable {
     private Op op;
 
     private Field operand;
+
+    /**
+     * For a dictionary-encoded field: the dictionary the predicate was last
+     * evaluated on, and the codes below matchLimit whose values satisfy it.
+     */
+    private transient ColumnDictionary matchDictionary;
+    private transient BitSet matchCodes;
+    private transient int matchLimit;
     
     /**
      * Constructor.
@@ -106,12 +120,76 @@ public class Predicate implements Serializable {
      * @return true if the comparison is true, false otherwise.
      */
     public boolean filter(Tuple t) {
+        if (t != null && operand instanceof IntField) {
+            return !t.isNull(this.field)
+                    && IntField.compare(this.op, t.getInt(this.field), ((IntField) operand).getValue());
+        }
         Field f;
         //judgement for null cases
         if(t == null || (f = t.getField(this.field)) == null)return false;
+        if (f instanceof DictionaryField && operand instanceof StringField) {
+            return matchesCode((DictionaryField) f);
+        }
         return f.compare(this.op, this.operand);
     }
 
+    /**
+     * Drop from the selection vector of batch every row that does not pass
+     * the predicate. Against an int operand the comparison runs in one loop
+     * over the int column; any other field is compared as in
+     * {@link #filter(Tuple)}.
+     *
+     * @param batch the rows to filter
+     */
+    public void filter(TupleBatch batch) {
+        int[] sel = batch.selection();
+        int n = batch.numSelected();
+        int kept = 0;
+        if (operand instanceof IntField && !batch.hasNulls(this.field)) {
+            int[] values = batch.getInts(this.field);
+            int value = ((IntField) operand).getValue();
+            for (int k = 0; k < n; k++) {
+                int row = sel[k];
+                if (IntField.compare(this.op, values[row], value)) {
+                    sel[kept++] = row;
+                }
+            }
+        } else {
+            for (int k = 0; k < n; k++) {
+                int row = sel[k];
+                Field f = batch.getField(this.field, row);
+                if (f == null) {
+                    continue;
+                }
+                boolean pass = f instanceof DictionaryField && operand instanceof StringField
+                        ? matchesCode((DictionaryField) f)
+                        : f.compare(this.op, this.operand);
+                if (pass) {
+                    sel[kept++] = row;
+                }
+            }
+        }
+        batch.setNumSelected(kept);
+    }
+
+    /**
+     * Evaluate the predicate on the code of a dictionary-encoded field. The
+     * predicate is evaluated once for each value of the dictionary, and then
+     * only the code of each row is looked up, so EQUALS, LIKE and the other
+     * operators cost the same per row however long the strings are.
+     */
+    private boolean matchesCode(DictionaryField f) {
+        ColumnDictionary d = f.getDictionary();
+        int code = f.getCode();
+        if (d != matchDictionary || code >= matchLimit) {
+            int limit = d.size();
+            matchCodes = d.matching(op, (StringField) operand, limit);
+            matchLimit = limit;
+            matchDictionary = d;
+        }
+        return matchCodes.get(code);
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
@@ -2,7 +2,9 @@ package jav.simpledb.execution;
 
 import jav.simpledb.common.DbException;
 import jav.simpledb.common.Type;
+import jav.simpledb.storage.CompactTuple;
 import jav.simpledb.storage.Tuple;
+import jav.simpledb.storage.TupleBatch;
 import jav.simpledb.storage.TupleDesc;
 import jav.simpledb.transaction.TransactionAbortedException;
 
@@ -11,10 +13,11 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
+    private transient BatchOpIterator batchChild;
     private final TupleDesc td;
     private final List<Integer> outFieldIds;
 
@@ -44,6 +47,13 @@ public class Project extends Operator {
         td = new TupleDesc(types, fieldAr);
     }
 
+    /**
+     * @return the ids of the child's fields projected out, in order
+     */
+    public List<Integer> getFieldList() {
+        return outFieldIds;
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
@@ -73,14 +83,37 @@ public class Project extends Operator {
             TransactionAbortedException, DbException {
         if (!child.hasNext()) return null;
         Tuple t = child.next();
-        Tuple newTuple = new Tuple(td);
-        newTuple.setRecordId(t.getRecordId());
+        CompactTuple newTuple = new CompactTuple(td);
+        newTuple.setRecordIdFrom(t);
         for (int i = 0; i < td.numFields(); i++) {
-            newTuple.setField(i, t.getField(outFieldIds.get(i)));
+            newTuple.copyField(i, t, outFieldIds.get(i));
         }
         return newTuple;
     }
 
+    /**
+     * Returns the child's next batch projected onto the output fields, as a
+     * view sharing the child batch's columns rather than a copy of them.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch batch = batchChild().nextBatch();
+        if (batch == null) {
+            return null;
+        }
+        int[] columns = new int[outFieldIds.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = outFieldIds.get(i);
+        }
+        return batch.project(td, columns);
+    }
+
+    private BatchOpIterator batchChild() {
+        if (batchChild == null) {
+            batchChild = RowBatchAdapter.of(child);
+        }
+        return batchChild;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child};
@@ -90,6 +123,7 @@ public class Project extends Operator {
     public void setChildren(OpIterator[] children) {
         if (this.child != children[0]) {
             this.child = children[0];
+            this.batchChild = null;
         }
     }
 
@@ -0,0 +1,153 @@
+package jav.simpledb.execution;
+
+import jav.simpledb.common.DbException;
+import jav.simpledb.storage.TupleDesc;
+import jav.simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * One partition of a hash repartitioning: the inputs, the copies of a plan
+ * fragment, each run on a worker thread and send every row to the partition
+ * of the hash of its key field, so that the rows with the same key, from
+ * whichever input, all end up in the same partition. {@link #of} makes the
+ * partitions; each is the leaf of a fragment one stage up, typically the
+ * Aggregate merging the partial aggregates of a group, or one side of a
+ * join, under a {@link Gather}.
+ * <p>
+ * The inputs start once the first partition is opened, and run until every
+ * partition is closed again, so each partition is opened and closed once
+ * per run. A partition cannot be rewound on its own.
+ */
+public class Repartition extends Consumer {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The inputs and runs shared by the partitions. */
+    private static final class Router implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private OpIterator[] inputs;
+        private final int keyField;
+        private final int partitions;
+        private transient Channel[] channels;
+        private transient List<Future<?>> producers;
+        private transient int closed;
+
+        Router(OpIterator[] inputs, int keyField, int partitions) {
+            this.inputs = inputs;
+            this.keyField = keyField;
+            this.partitions = partitions;
+        }
+
+        synchronized Channel open(int partition) {
+            if (channels == null) {
+                channels = new Channel[partitions];
+                for (int p = 0; p < partitions; p++) {
+                    channels[p] = new Channel(inputs.length);
+                }
+                producers = new ArrayList<>(inputs.length);
+                for (OpIterator input : inputs) {
+                    producers.add(produce(input, channels, keyField));
+                }
+            }
+            return channels[partition];
+        }
+
+        void closed() {
+            List<Future<?>> done;
+            synchronized (this) {
+                if (++closed < partitions) {
+                    return;
+                }
+                done = producers;
+                closed = 0;
+                channels = null;
+                producers = null;
+            }
+            await(done);
+        }
+    }
+
+    private final Router router;
+    private final int partition;
+
+    private Repartition(Router router, int partition) {
+        this.router = router;
+        this.partition = partition;
+    }
+
+    /**
+     * Repartition the rows of inputs by the hash of a field.
+     *
+     * @param inputs the fragments to run, which must all have the same
+     *   schema
+     * @param keyField the field to partition on
+     * @param partitions the number of partitions
+     * @return the partitions
+     */
+    public static List<Repartition> of(List<? extends OpIterator> inputs, int keyField, int partitions) {
+        if (inputs.isEmpty() || partitions < 1) {
+            throw new IllegalArgumentException("nothing to repartition");
+        }
+        TupleDesc td = inputs.get(0).getTupleDesc();
+        if (keyField < 0 || keyField >= td.numFields()) {
+            throw new IllegalArgumentException("no field " + keyField + " to partition on");
+        }
+        for (OpIterator input : inputs) {
+            if (!input.getTupleDesc().equals(td)) {
+                throw new IllegalArgumentException("fragments of different schemas");
+            }
+        }
+        Router router = new Router(inputs.toArray(new OpIterator[0]), keyField, partitions);
+        List<Repartition> out = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            out.add(new Repartition(router, p));
+        }
+        return out;
+    }
+
+    /**
+     * @return the field the rows are partitioned on
+     */
+    public int keyField() {
+        return router.keyField;
+    }
+
+    public String getName() {
+        return "repartition(" + getTupleDesc().getFieldName(router.keyField) + ", "
+                + (partition + 1) + "/" + router.partitions + ")";
+    }
+
+    protected Channel start() {
+        return router.open(partition);
+    }
+
+    protected void stop() {
+        router.closed();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        throw new DbException("a partition cannot be rewound on its own");
+    }
+
+    public TupleDesc getTupleDesc() {
+        return router.inputs[0].getTupleDesc();
+    }
+
+    /**
+     * @return the inputs, shared by every partition
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return router.inputs.clone();
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        router.inputs = children.clone();
+    }
+}
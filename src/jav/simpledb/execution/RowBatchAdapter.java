@@ -0,0 +1,76 @@
+package jav.simpledb.execution;
+
+import jav.simpledb.common.DbException;
+import jav.simpledb.storage.Tuple;
+import jav.simpledb.storage.TupleBatch;
+import jav.simpledb.storage.TupleDesc;
+import jav.simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * RowBatchAdapter reads an OpIterator that only produces rows, such as Join
+ * or Insert, through the batch protocol, by appending its tuples to a
+ * batch. It is how a batch operator composes with any child.
+ * <p>
+ * The adapter does not own the iterator it wraps: opening, rewinding and
+ * closing the adapter do the same to the iterator, but an operator that has
+ * opened its child already may wrap it and just read batches from it.
+ */
+public class RowBatchAdapter implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator child;
+    private transient TupleBatch batch;
+
+    public RowBatchAdapter(OpIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return it itself if it implements the batch protocol, it wrapped in
+     *   a RowBatchAdapter otherwise
+     */
+    public static BatchOpIterator of(OpIterator it) {
+        if (it instanceof BatchOpIterator) {
+            return (BatchOpIterator) it;
+        }
+        return new RowBatchAdapter(it);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null) {
+            batch = new TupleBatch(child.getTupleDesc());
+        }
+        batch.clear();
+        while (!batch.isFull() && child.hasNext()) {
+            batch.appendRow(child.next());
+        }
+        return batch.size() > 0 ? batch : null;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return child.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        return child.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -3,9 +3,14 @@ package jav.simpledb.execution;
 import jav.simpledb.common.Database;
 import jav.simpledb.common.DbException;
 import jav.simpledb.common.Type;
+import jav.simpledb.storage.BufferPool;
+import jav.simpledb.storage.BufferRing;
+import jav.simpledb.storage.ColumnarFile;
 import jav.simpledb.storage.DbFile;
 import jav.simpledb.storage.DbFileIterator;
+import jav.simpledb.storage.HeapFile;
 import jav.simpledb.storage.Tuple;
+import jav.simpledb.storage.TupleBatch;
 import jav.simpledb.storage.TupleDesc;
 import jav.simpledb.transaction.TransactionAbortedException;
 import jav.simpledb.transaction.TransactionId;
@@ -17,7 +22,7 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements OpIterator {
+public class SeqScan implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -29,6 +34,11 @@ public class SeqScan implements OpIterator {
 
     private DbFileIterator iterator;
 
+    private transient TupleBatch batch;
+
+    /** The fields the plan looks at, or null for all of them. */
+    private BitSet fields;
+
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -92,10 +102,36 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Tell the scan that the operators above it only look at the given
+     * fields, so that a table stored by column reads only those. The other
+     * fields of the tuples returned may then be null.
+     *
+     * @param fields the indexes of the fields to read, or null for all
+     * @see DbFile#iterator(TransactionId, BitSet)
+     */
+    public void setProjection(BitSet fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * Opens the scan. A heap or columnar file with more pages than the
+     * BufferPool can hold is read through a private {@link BufferRing}, so
+     * the scan does not flush the pages other queries are working on out of
+     * the pool.
+     */
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
         DbFile table = Database.getCatalog().getDatabaseFile(tableId);
-        iterator = table.iterator(tid);
+        BufferPool pool = Database.getBufferPool();
+        int ringPages = Math.max(1, Math.min(BufferRing.DEFAULT_RING_PAGES, pool.getNumPages() / 4));
+        if (table instanceof HeapFile && ((HeapFile) table).numPages() > pool.getNumPages()) {
+            iterator = ((HeapFile) table).iterator(tid, new BufferRing(ringPages));
+        } else if (table instanceof ColumnarFile && ((ColumnarFile) table).numPages() > pool.getNumPages()) {
+            iterator = ((ColumnarFile) table).iterator(tid, fields, new BufferRing(ringPages));
+        } else {
+            iterator = fields == null ? table.iterator(tid) : table.iterator(tid, fields);
+        }
         iterator.open();
     }
 
@@ -151,6 +187,23 @@ public class SeqScan implements OpIterator {
 
     }
 
+    /**
+     * Returns the next batch of tuples, filled by the table's iterator: a
+     * ColumnarFile copies the values of its column pages straight into the
+     * batch.
+     *
+     * @see DbFileIterator#nextBatch
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (iterator == null) {
+            throw new IllegalStateException("scan not open");
+        }
+        if (batch == null) {
+            batch = new TupleBatch(getTupleDesc());
+        }
+        return iterator.nextBatch(batch) ? batch : null;
+    }
+
     public void close() {
          this.iterator.close();
     }
@@ -0,0 +1,193 @@
+package jav.simpledb.execution;
+
+import jav.simpledb.common.DbException;
+import jav.simpledb.common.Type;
+import jav.simpledb.storage.CompactTuple;
+import jav.simpledb.storage.Field;
+import jav.simpledb.storage.StringField;
+import jav.simpledb.storage.Tuple;
+import jav.simpledb.storage.TupleDesc;
+import jav.simpledb.transaction.TransactionAbortedException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * A temporary file of rows, which an operator that runs out of memory
+ * writes rows to, and then reads back, as many times as it needs, through
+ * {@link #scan}. Each row is stored as a bitmap of its fields that are not
+ * set, followed by the others: ints in four bytes, strings in modified
+ * UTF-8. The file is removed by {@link #delete}, or else when the JVM exits.
+ */
+final class SpillFile {
+
+    private static final int BUFFER = 1 << 16;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int rows;
+
+    SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            file = File.createTempFile("simpledb-", ".spill");
+            file.deleteOnExit();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER));
+        } catch (IOException e) {
+            throw new DbException("could not create a spill file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Append t, which must have the schema of this file, to it. Rows can
+     * only be appended until the file is first scanned.
+     */
+    void add(Tuple t) throws DbException {
+        if (out == null) {
+            throw new IllegalStateException("spill file already read");
+        }
+        int n = td.numFields();
+        try {
+            for (int i = 0; i < n; i += 8) {
+                int bits = 0;
+                for (int j = i; j < Math.min(n, i + 8); j++) {
+                    if (t.isNull(j)) {
+                        bits |= 1 << (j - i);
+                    }
+                }
+                out.writeByte(bits);
+            }
+            for (int i = 0; i < n; i++) {
+                if (t.isNull(i)) {
+                    continue;
+                }
+                if (td.getFieldType(i) == Type.INT_TYPE) {
+                    out.writeInt(t.getInt(i));
+                } else {
+                    out.writeUTF(((StringField) t.getField(i)).getValue());
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("could not write a spill file: " + e.getMessage());
+        }
+        rows++;
+    }
+
+    /**
+     * @return the number of rows in this file
+     */
+    int size() {
+        return rows;
+    }
+
+    /**
+     * @return an iterator over the rows of this file, in the order they
+     *   were added, which can be opened, rewound and closed as any other
+     */
+    OpIterator scan() throws DbException {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new DbException("could not write a spill file: " + e.getMessage());
+            }
+            out = null;
+        }
+        return new Scan();
+    }
+
+    /**
+     * Remove the file; its scans must be closed.
+     */
+    void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    private final class Scan extends Operator {
+        private static final long serialVersionUID = 1L;
+
+        private transient DataInputStream in;
+        private transient int read;
+        private final byte[] nulls = new byte[(td.numFields() + 7) / 8];
+
+        public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER));
+            } catch (IOException e) {
+                throw new DbException("could not read a spill file: " + e.getMessage());
+            }
+            read = 0;
+            super.open();
+        }
+
+        protected Tuple fetchNext() throws DbException {
+            if (read == rows) {
+                return null;
+            }
+            int n = td.numFields();
+            CompactTuple t = new CompactTuple(td);
+            try {
+                in.readFully(nulls);
+                for (int i = 0; i < n; i++) {
+                    if ((nulls[i >> 3] >>> (i & 7) & 1) != 0) {
+                        continue;
+                    }
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        t.setInt(i, in.readInt());
+                    } else {
+                        Field f = new StringField(in.readUTF(), Type.STRING_LEN, td.getFieldType(i));
+                        t.setField(i, f);
+                    }
+                }
+            } catch (IOException e) {
+                throw new DbException("could not read a spill file: " + e.getMessage());
+            }
+            read++;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+                in = null;
+            }
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        @Override
+        public OpIterator[] getChildren() {
+            return new OpIterator[0];
+        }
+
+        @Override
+        public void setChildren(OpIterator[] children) {
+        }
+    }
+}
@@ -1,15 +1,37 @@
 package jav.simpledb.execution;
 
 import jav.simpledb.common.Type;
+import jav.simpledb.storage.CompactTuple;
 import jav.simpledb.storage.Tuple;
+import jav.simpledb.storage.TupleBatch;
+import jav.simpledb.storage.TupleDesc;
+import jav.simpledb.storage.TupleIterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
+ * <p>
+ * The groups are numbered by a {@link GroupTable}, and their counts kept in
+ * an int[] by group number, so counting a row of an int group-by field
+ * creates no objects.
  */
 public class StringAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
+    private final int gbfield;
+    private final Type gbfieldtype;
+
+    /** The number of each group, or null if there is no grouping. */
+    private final GroupTable groups;
+
+    /** The count of each group, by group number. */
+    private int[] counts = new int[16];
+    private int numGroups = 0;
+
     /**
      * Aggregate constructor
      * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
@@ -20,7 +42,12 @@ public class StringAggregator implements Aggregator {
      */
 
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-        // some code goes here
+        if (what != Op.COUNT) {
+            throw new IllegalArgumentException("unsupported aggregate over strings " + what);
+        }
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+        this.groups = gbfield == NO_GROUPING ? null : new GroupTable(gbfieldtype == Type.INT_TYPE);
     }
 
     /**
@@ -28,7 +55,43 @@ public class StringAggregator implements Aggregator {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        // some code goes here
+        int g = 0;
+        if (gbfield != NO_GROUPING) {
+            g = gbfieldtype == Type.INT_TYPE ? groups.group(tup.getInt(gbfield)) : groups.group(tup.getField(gbfield));
+        }
+        add(g, 1);
+    }
+
+    /** Add n to the count of group g, starting it if g is new. */
+    private void add(int g, int n) {
+        if (g == numGroups) {
+            if (g == counts.length) {
+                counts = Arrays.copyOf(counts, g * 2);
+            }
+            counts[g] = 0;
+            numGroups++;
+        }
+        counts[g] += n;
+    }
+
+    /**
+     * Merge the selected rows of batch; without grouping, that is adding
+     * their number to the count, and with an int group-by field, counting
+     * them in one loop over its column.
+     */
+    @Override
+    public void mergeBatchIntoGroups(TupleBatch batch) {
+        if (gbfield == NO_GROUPING) {
+            add(0, batch.numSelected());
+        } else if (gbfieldtype == Type.INT_TYPE && !batch.hasNulls(gbfield)) {
+            int[] sel = batch.selection();
+            int[] keys = batch.getInts(gbfield);
+            for (int k = 0; k < batch.numSelected(); k++) {
+                add(groups.group(keys[sel[k]]), 1);
+            }
+        } else {
+            Aggregator.super.mergeBatchIntoGroups(batch);
+        }
     }
 
     /**
@@ -40,8 +103,21 @@ public class StringAggregator implements Aggregator {
      *   aggregate specified in the constructor.
      */
     public OpIterator iterator() {
-        // some code goes here
-        throw new UnsupportedOperationException("please implement me for lab2");
+        TupleDesc td = gbfield == NO_GROUPING
+                ? new TupleDesc(new Type[] {Type.INT_TYPE})
+                : new TupleDesc(new Type[] {gbfieldtype, Type.INT_TYPE});
+        List<Tuple> results = new ArrayList<>(numGroups);
+        for (int g = 0; g < numGroups; g++) {
+            CompactTuple t = new CompactTuple(td);
+            if (gbfield == NO_GROUPING) {
+                t.setInt(0, counts[g]);
+            } else {
+                groups.setKey(t, 0, g);
+                t.setInt(1, counts[g]);
+            }
+            results.add(t);
+        }
+        return new TupleIterator(td, results);
     }
 
 }
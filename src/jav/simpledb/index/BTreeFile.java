@@ -12,6 +12,7 @@ import jav.simpledb.transaction.TransactionId;
 
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import java.util.*;
 
@@ -34,6 +35,7 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private final int keyField;
+	private final DbFileChannel channel;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -48,6 +50,7 @@ public class BTreeFile implements DbFile {
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.channel = new DbFileChannel(f);
 	}
 
 	/**
@@ -89,49 +92,110 @@ public class BTreeFile implements DbFile {
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
-            if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-                byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BTreeRootPtrPage.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                return new BTreeRootPtrPage(id, pageBuf);
-            } else {
-                byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BufferPool.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
-                } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
-                } else { // id.pgcateg() == BTreePageId.HEADER
-                    return new BTreeHeaderPage(id, pageBuf);
-                }
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        // Close the file on success or error
-        // Ignore failures closing the file
-    }
+		try {
+			if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+				return readRootPtrPage(id);
+			} else {
+				byte[] pageBuf = new byte[BufferPool.getPageSize()];
+				readPageData(pageBuf, pageOffset(id.getPageNumber()));
+				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+				return toPage(id, pageBuf);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private BTreeRootPtrPage readRootPtrPage(BTreePageId id) throws IOException {
+		byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
+		readPageData(pageBuf, 0);
+		Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+		return new BTreeRootPtrPage(id, pageBuf);
+	}
+
+	/**
+	 * Read a batch of pages from disk, merging runs of adjacent page numbers
+	 * into single contiguous reads. Internal, leaf and header pages share one
+	 * sequence of page numbers, so pages of different categories can be
+	 * merged too. The root pointer page is read on its own. The pages do not
+	 * go through readPage, so a subclass that overrides readPage should
+	 * override this too.
+	 * 
+	 * @param pids - the ids of the pages to read, in any order
+	 * @return the pages, in the same order as pids
+	 * @see DbFileChannel#readPages
+	 */
+	@Override
+	public List<Page> readPages(List<PageId> pids) {
+		Page[] pages = new Page[pids.size()];
+		List<Integer> batch = new ArrayList<>();
+		try {
+			for (int i = 0; i < pages.length; i++) {
+				BTreePageId id = (BTreePageId) pids.get(i);
+				if (id.pgcateg() == BTreePageId.ROOT_PTR)
+					pages[i] = readRootPtrPage(id);
+				else
+					batch.add(i);
+			}
+			int[] pageNos = new int[batch.size()];
+			for (int k = 0; k < pageNos.length; k++) {
+				pageNos[k] = pids.get(batch.get(k)).getPageNumber();
+			}
+			// page p starts at pageOffset(p) = pageOffset(0) + p * pageSize
+			byte[][] images = channel.readPages(pageNos, pageOffset(0), BufferPool.getPageSize());
+			for (int k = 0; k < images.length; k++) {
+				if (images[k] == null) {
+					throw new IllegalArgumentException("Read past end of table");
+				}
+				BTreePageId id = (BTreePageId) pids.get(batch.get(k));
+				Debug.log(1, "BTreeFile.readPages: read page %d", id.getPageNumber());
+				pages[batch.get(k)] = toPage(id, images[k]);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return Arrays.asList(pages);
+	}
+
+	/**
+	 * Build an internal, leaf or header page from its image on disk.
+	 */
+	private Page toPage(BTreePageId id, byte[] pageBuf) throws IOException {
+		if (id.pgcateg() == BTreePageId.INTERNAL) {
+			return new BTreeInternalPage(id, pageBuf, keyField);
+		} else if (id.pgcateg() == BTreePageId.LEAF) {
+			return new BTreeLeafPage(id, pageBuf, keyField);
+		} else { // id.pgcateg() == BTreePageId.HEADER
+			return new BTreeHeaderPage(id, pageBuf);
+		}
+	}
+
+	/**
+	 * Fill pageBuf from the given offset with a positional read on the
+	 * file's long-lived channel.
+	 */
+	private void readPageData(byte[] pageBuf, long offset) {
+		int retval;
+		try {
+			retval = channel.read(pageBuf, offset);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		if (retval == -1) {
+			throw new IllegalArgumentException("Read past end of table");
+		}
+		if (retval < pageBuf.length) {
+			throw new IllegalArgumentException("Unable to read "
+					+ pageBuf.length + " bytes from BTreeFile");
+		}
+	}
+
+	/**
+	 * Returns the file offset of a non-root-pointer page.
+	 */
+	private static long pageOffset(int pageNo) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pageNo - 1) * BufferPool.getPageSize();
+	}
 
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
@@ -142,18 +206,22 @@ public class BTreeFile implements DbFile {
 	public void writePage(Page page) throws IOException {
 		BTreePageId id = (BTreePageId) page.getId();
 		
-		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
+		ByteBuffer data = page.getPageBuffer();
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+			channel.write(data, 0);
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			channel.write(data, pageOffset(page.getId().getPageNumber()));
 		}
 	}
+
+	/**
+	 * Close the file handle this BTreeFile reads and writes through. It is
+	 * reopened if the file is accessed again.
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
 	
 	/**
 	 * Returns the number of pages in this BTreeFile.
@@ -931,10 +999,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		channel.write(BTreePage.createEmptyPageData(), pageOffset(emptyPageNo));
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -3,30 +3,42 @@ package jav.simpledb.index;
 import jav.simpledb.common.Database;
 import jav.simpledb.common.DbException;
 import jav.simpledb.common.Debug;
-import jav.simpledb.common.Type;
 import jav.simpledb.storage.Field;
 import jav.simpledb.common.Catalog;
 import jav.simpledb.execution.Predicate;
 import jav.simpledb.storage.BufferPool;
-import jav.simpledb.storage.IntField;
+import jav.simpledb.storage.Page;
 import jav.simpledb.storage.RecordId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * The page keeps its serialized image and applies every change to it
+ * directly, so getPageData is a plain copy. Keys are decoded from the image
+ * the first time they are asked for and cached.
  *
  * @see BTreeFile
  * @see BufferPool
  *
  */
 public class BTreeInternalPage extends BTreePage {
-	private final byte[] header;
+	private static final int CATEGORY_OFFSET = INDEX_SIZE;
+	private static final int HEADER_OFFSET = INDEX_SIZE + 1;
+
+	// the bytes of this page, always up to date
+	private final byte[] image;
+	private final ByteBuffer buf;
+	// keys decoded so far; null for empty slots and keys not decoded yet
 	private final Field[] keys;
-	private final int[] children;
 	private final int numSlots;
+	private final int keySize;
+	private final int keyOffset;
+	private final int childOffset;
 	
 	private int childCategory; // either leaf or internal
 
@@ -73,45 +85,18 @@ public class BTreeInternalPage extends BTreePage {
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
 		super(id, key);
 		this.numSlots = getMaxEntries() + 1;
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-		// Read the parent pointer
-		try {
-			Field f = Type.INT_TYPE.parse(dis);
-			this.parent = ((IntField) f).getValue();
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-		}
-
-		// read the child page category
-		childCategory = dis.readByte();
+		this.image = Arrays.copyOf(data, BufferPool.getPageSize());
+		this.buf = ByteBuffer.wrap(image);
+		this.keySize = td.getFieldType(keyField).getLen();
+		// the first key slot is not stored, since a node with m keys has m+1 pointers
+		this.keyOffset = HEADER_OFFSET + getHeaderSize() - keySize;
+		this.childOffset = keyOffset + keySize * numSlots;
 
-		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
+		// Read the parent pointer and the child page category
+		this.parent = buf.getInt(0);
+		this.childCategory = image[CATEGORY_OFFSET];
 
 		keys = new Field[numSlots];
-		try{
-			// allocate and read the keys of this page
-			// start from 1 because the first key slot is not used
-			// since a node with m keys has m+1 pointers
-			keys[0] = null;
-			for (int i=1; i<keys.length; i++)
-				keys[i] = readNextKey(dis,i);
-		}catch(NoSuchElementException e){
-			e.printStackTrace();
-		}
-
-		children = new int[numSlots];
-		try{
-			// allocate and read the child pointers of this page
-			for (int i=0; i<children.length; i++)
-				children[i] = readNextChild(dis,i);
-		}catch(NoSuchElementException e){
-			e.printStackTrace();
-		}
-		dis.close();
 
 		setBeforeImage();
 	}
@@ -161,67 +146,39 @@ public class BTreeInternalPage extends BTreePage {
 	public void setBeforeImage() {
 		synchronized(oldDataLock)
 		{
-			oldData = getPageData().clone();
+			oldData = image.clone();
 		}
 	}
 
 	/**
-	 * Read keys from the source file.
+	 * @return the key in slot i, which must be used, decoding it from the
+	 *   image the first time
 	 */
-	private Field readNextKey(DataInputStream dis, int slotId) throws NoSuchElementException {
-		// if associated bit is not set, read forward to the next key, and
-		// return null.
-		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getFieldType(keyField).getLen(); i++) {
-				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException("error reading empty key");
-				}
-			}
-			return null;
-		}
-
-		// read the key field
-		Field f = null;
-		try {
-			f = td.getFieldType(keyField).parse(dis);
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-			throw new NoSuchElementException("parsing error!");
+	private Field keyAt(int i) {
+		Field f = keys[i];
+		if (f == null) {
+			f = td.getFieldType(keyField).parse(buf, keyOffset + i * keySize);
+			keys[i] = f;
 		}
-
 		return f;
 	}
 
-	/**
-	 * Read child pointers from the source file.
-	 */
-	private int readNextChild(DataInputStream dis, int slotId) throws NoSuchElementException {
-		// if associated bit is not set, read forward to the next child pointer, and
-		// return -1.
-		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<INDEX_SIZE; i++) {
-				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException("error reading empty child pointer");
-				}
-			}
-			return -1;
-		}
+	private void setKey(int i, Field f) {
+		f.serialize(buf, keyOffset + i * keySize);
+		keys[i] = f;
+	}
 
-		// read child pointer
-		int child = -1;
-		try {
-			Field f = Type.INT_TYPE.parse(dis);
-			child = ((IntField) f).getValue();
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-			throw new NoSuchElementException("parsing error!");
-		}
+	private int childAt(int i) {
+		return buf.getInt(childOffset + i * INDEX_SIZE);
+	}
 
-		return child;
+	private void setChild(int i, int child) {
+		buf.putInt(childOffset + i * INDEX_SIZE, child);
+	}
+
+	private void setChildCategory(int category) {
+		childCategory = category;
+		image[CATEGORY_OFFSET] = (byte) category;
 	}
 
 	/**
@@ -236,105 +193,23 @@ public class BTreeInternalPage extends BTreePage {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
-
-		// write out the parent pointer
-		try {
-			dos.writeInt(parent);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		// write out the child page category
-		try {
-			dos.writeByte((byte) childCategory);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		// create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-		// create the keys
-		// start from 1 because the first key slot is not used
-		// since a node with m keys has m+1 pointers
-		for (int i=1; i<keys.length; i++) {
-
-			// empty slot
-			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getFieldType(keyField).getLen(); j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
-				continue;
-			}
-
-			// non-empty slot
-			try {
-				keys[i].serialize(dos);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-
-		}
-
-		// create the child pointers
-		for (int i=0; i<children.length; i++) {
-
-			// empty slot
-			if (!isSlotUsed(i)) {
-				for (int j=0; j<INDEX_SIZE; j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
-				continue;
-			}
-
-			// non-empty slot
-			try {
-				dos.writeInt(children[i]);
-
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
-
-		// padding
-		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
-		byte[] zeroes = new byte[zerolen];
-		try {
-			dos.write(zeroes, 0, zerolen);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		return image.clone();
+	}
 
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+	/**
+	 * Returns the image of this page without copying it.
+	 *
+	 * @see Page#getPageBuffer()
+	 */
+	@Override
+	public ByteBuffer getPageBuffer() {
+		return buf.asReadOnlyBuffer();
+	}
 
-		return baos.toByteArray();
+	@Override
+	public void setParentId(BTreePageId id) throws DbException {
+		super.setParentId(id);
+		buf.putInt(0, parent);
 	}
 
 	/**
@@ -362,7 +237,7 @@ public class BTreeInternalPage extends BTreePage {
 		else {
 			for(int i = rid.getTupleNumber() - 1; i >= 0; i--) {
 				if(isSlotUsed(i)) {
-					children[i] = children[rid.getTupleNumber()];
+					setChild(i, childAt(rid.getTupleNumber()));
 					markSlotUsed(rid.getTupleNumber(), false);
 					break;
 				}	
@@ -416,7 +291,7 @@ public class BTreeInternalPage extends BTreePage {
 		
 		for(int i = rid.getTupleNumber() + 1; i < numSlots; i++) {
 			if(isSlotUsed(i)) {
-				if(keys[i].compare(Predicate.Op.LESS_THAN, e.getKey())) {
+				if(keyAt(i).compare(Predicate.Op.LESS_THAN, e.getKey())) {
 					throw new DbException("attempt to update entry with invalid key " + e.getKey() +
 							" HINT: updated key must be less than or equal to keys on the right");
 				}
@@ -425,16 +300,16 @@ public class BTreeInternalPage extends BTreePage {
 		}
 		for(int i = rid.getTupleNumber() - 1; i >= 0; i--) {
 			if(isSlotUsed(i)) {
-				if(i > 0 && keys[i].compare(Predicate.Op.GREATER_THAN, e.getKey())) {
+				if(i > 0 && keyAt(i).compare(Predicate.Op.GREATER_THAN, e.getKey())) {
 					throw new DbException("attempt to update entry with invalid key " + e.getKey() +
 							" HINT: updated key must be greater than or equal to keys on the left");
 				}
-				children[i] = e.getLeftChild().getPageNumber();
+				setChild(i, e.getLeftChild().getPageNumber());
 				break;
 			}	
 		}
-		children[rid.getTupleNumber()] = e.getRightChild().getPageNumber();
-		keys[rid.getTupleNumber()] = e.getKey();
+		setChild(rid.getTupleNumber(), e.getRightChild().getPageNumber());
+		setKey(rid.getTupleNumber(), e.getKey());
 	}
 
 	/**
@@ -455,18 +330,18 @@ public class BTreeInternalPage extends BTreePage {
 			if(e.getLeftChild().pgcateg() != e.getRightChild().pgcateg())
 				throw new DbException("child page category mismatch in insertEntry");
 
-			childCategory = e.getLeftChild().pgcateg();
+			setChildCategory(e.getLeftChild().pgcateg());
 		}
 		else if(e.getLeftChild().pgcateg() != childCategory || e.getRightChild().pgcateg() != childCategory)
 			throw new DbException("child page category mismatch in insertEntry");
 
 		// if this is the first entry, add it and return
 		if(getNumEmptySlots() == getMaxEntries()) {
-			children[0] = e.getLeftChild().getPageNumber();
-			children[1] = e.getRightChild().getPageNumber();
-			keys[1] = e.getKey();
 			markSlotUsed(0, true);
 			markSlotUsed(1, true);
+			setChild(0, e.getLeftChild().getPageNumber());
+			setChild(1, e.getRightChild().getPageNumber());
+			setKey(1, e.getKey());
 			e.setRecordId(new RecordId(pid, 1));
 			return;
 		}
@@ -487,8 +362,8 @@ public class BTreeInternalPage extends BTreePage {
 		int lessOrEqKey = -1;
 		for (int i=0; i<numSlots; i++) {
 			if(isSlotUsed(i)) {
-				if(children[i] == e.getLeftChild().getPageNumber() || children[i] == e.getRightChild().getPageNumber()) {
-					if(i > 0 && keys[i].compare(Predicate.Op.GREATER_THAN, e.getKey())) {
+				if(childAt(i) == e.getLeftChild().getPageNumber() || childAt(i) == e.getRightChild().getPageNumber()) {
+					if(i > 0 && keyAt(i).compare(Predicate.Op.GREATER_THAN, e.getKey())) {
 						throw new DbException("attempt to insert invalid entry with left child " + 
 								e.getLeftChild().getPageNumber() + ", right child " +
 								e.getRightChild().getPageNumber() + " and key " + e.getKey() +
@@ -497,13 +372,13 @@ public class BTreeInternalPage extends BTreePage {
 								" left and right keys");
 					}
 					lessOrEqKey = i;
-					if(children[i] == e.getRightChild().getPageNumber()) {
-						children[i] = e.getLeftChild().getPageNumber();
+					if(childAt(i) == e.getRightChild().getPageNumber()) {
+						setChild(i, e.getLeftChild().getPageNumber());
 					}
 				}
 				else if(lessOrEqKey != -1) {
 					// validate that the next key is greater than or equal to the one we are inserting
-					if(keys[i].compare(Predicate.Op.LESS_THAN, e.getKey())) {
+					if(keyAt(i).compare(Predicate.Op.LESS_THAN, e.getKey())) {
 						throw new DbException("attempt to insert invalid entry with left child " + 
 								e.getLeftChild().getPageNumber() + ", right child " +
 								e.getRightChild().getPageNumber() + " and key " + e.getKey() +
@@ -544,8 +419,8 @@ public class BTreeInternalPage extends BTreePage {
 		// insert new entry into the correct spot in sorted order
 		markSlotUsed(goodSlot, true);
 		Debug.log(1, "BTreeLeafPage.insertEntry: new entry, tableId = %d pageId = %d slotId = %d", pid.getTableId(), pid.getPageNumber(), goodSlot);
-		keys[goodSlot] = e.getKey();
-		children[goodSlot] = e.getRightChild().getPageNumber();
+		setKey(goodSlot, e.getKey());
+		setChild(goodSlot, e.getRightChild().getPageNumber());
 		e.setRecordId(new RecordId(pid, goodSlot));
 	}
 
@@ -556,8 +431,9 @@ public class BTreeInternalPage extends BTreePage {
 	private void moveEntry(int from, int to) {
 		if(!isSlotUsed(to) && isSlotUsed(from)) {
 			markSlotUsed(to, true);
+			System.arraycopy(image, keyOffset + from * keySize, image, keyOffset + to * keySize, keySize);
 			keys[to] = keys[from];
-			children[to] = children[from];
+			setChild(to, childAt(from));
 			markSlotUsed(from, false);
 		}
 	}
@@ -573,13 +449,17 @@ public class BTreeInternalPage extends BTreePage {
 	 * Returns the number of empty slots on this page.
 	 */
 	public int getNumEmptySlots() {
-		int cnt = 0;
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
-		for(int i=1; i<numSlots; i++)
-			if(!isSlotUsed(i))
-				cnt++;
-		return cnt;
+		int used = 0;
+		for(int i=0; i<numSlots/8; i++)
+			used += Integer.bitCount(image[HEADER_OFFSET + i] & 0xFF);
+		for(int i=numSlots/8*8; i<numSlots; i++)
+			if(isSlotUsed(i))
+				used++;
+		if(isSlotUsed(0))
+			used--;
+		return numSlots - 1 - used;
 	}
 
 	/**
@@ -588,7 +468,7 @@ public class BTreeInternalPage extends BTreePage {
 	public boolean isSlotUsed(int i) {
 		int headerbit = i % 8;
 		int headerbyte = (i - headerbit) / 8;
-		return (header[headerbyte] & (1 << headerbit)) != 0;
+		return (image[HEADER_OFFSET + headerbyte] & (1 << headerbit)) != 0;
 	}
 
 	/**
@@ -600,9 +480,15 @@ public class BTreeInternalPage extends BTreePage {
 
 		Debug.log(1, "BTreeInternalPage.setSlot: setting slot %d to %b", i, value);
 		if(value)
-			header[headerbyte] |= 1 << headerbit;
-		else
-			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+			image[HEADER_OFFSET + headerbyte] |= 1 << headerbit;
+		else {
+			image[HEADER_OFFSET + headerbyte] &= (0xFF ^ (1 << headerbit));
+			// empty slots are kept zeroed in the image
+			if (i > 0)
+				Arrays.fill(image, keyOffset + i * keySize, keyOffset + (i + 1) * keySize, (byte) 0);
+			setChild(i, 0);
+			keys[i] = null;
+		}
 	}
 
 	/**
@@ -640,7 +526,7 @@ public class BTreeInternalPage extends BTreePage {
 			}
 
 			Debug.log(1, "BTreeInternalPage.getKey: returning key %d", i);
-			return keys[i];
+			return keyAt(i);
 
 		} catch (ArrayIndexOutOfBoundsException e) {
 			throw new NoSuchElementException();
@@ -655,7 +541,7 @@ public class BTreeInternalPage extends BTreePage {
 	 */
 	protected BTreePageId getChildId(int i) throws NoSuchElementException {
 
-		if (i < 0 || i >= children.length)
+		if (i < 0 || i >= numSlots)
 			throw new NoSuchElementException();
 
 		try {
@@ -665,7 +551,7 @@ public class BTreeInternalPage extends BTreePage {
 			}
 
 			Debug.log(1, "BTreeInternalPage.getChildId: returning child id %d", i);
-			return new BTreePageId(pid.getTableId(), children[i], childCategory);
+			return new BTreePageId(pid.getTableId(), childAt(i), childCategory);
 
 		} catch (ArrayIndexOutOfBoundsException e) {
 			throw new NoSuchElementException();
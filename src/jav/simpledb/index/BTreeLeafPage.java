@@ -3,26 +3,38 @@ package jav.simpledb.index;
 import jav.simpledb.common.Database;
 import jav.simpledb.common.DbException;
 import jav.simpledb.common.Debug;
-import jav.simpledb.common.Type;
 import jav.simpledb.storage.*;
 import jav.simpledb.common.Catalog;
 import jav.simpledb.execution.Predicate;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of BTreeLeafPage stores data for one page of a BTreeFile and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * The page keeps its serialized image and applies every change to it
+ * directly, so getPageData is a plain copy. Tuples are decoded from the image
+ * the first time they are asked for and cached.
  *
  * @see BTreeFile
  * @see BufferPool
  *
  */
 public class BTreeLeafPage extends BTreePage {
-	private final byte[] header;
+	private static final int LEFT_SIBLING_OFFSET = INDEX_SIZE;
+	private static final int RIGHT_SIBLING_OFFSET = 2 * INDEX_SIZE;
+	private static final int HEADER_OFFSET = 3 * INDEX_SIZE;
+
+	// the bytes of this page, always up to date
+	private final byte[] image;
+	private final ByteBuffer buf;
+	// tuples decoded so far; null for empty slots and slots not decoded yet
 	private final Tuple[] tuples;
 	private final int numSlots;
+	private final int tupleOffset;
 	
 	private int leftSibling; // leaf node or 0
 	private int rightSibling; // leaf node or 0
@@ -68,44 +80,16 @@ public class BTreeLeafPage extends BTreePage {
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
 		super(id, key);
 		this.numSlots = getMaxTuples();
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		this.image = Arrays.copyOf(data, BufferPool.getPageSize());
+		this.buf = ByteBuffer.wrap(image);
+		this.tupleOffset = HEADER_OFFSET + getHeaderSize();
 
 		// Read the parent and sibling pointers
-		try {
-			Field f = Type.INT_TYPE.parse(dis);
-			this.parent = ((IntField) f).getValue();
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			Field f = Type.INT_TYPE.parse(dis);
-			this.leftSibling = ((IntField) f).getValue();
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			Field f = Type.INT_TYPE.parse(dis);
-			this.rightSibling = ((IntField) f).getValue();
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-		}
-
-		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
+		this.parent = buf.getInt(0);
+		this.leftSibling = buf.getInt(LEFT_SIBLING_OFFSET);
+		this.rightSibling = buf.getInt(RIGHT_SIBLING_OFFSET);
 
 		tuples = new Tuple[numSlots];
-		try{
-			// allocate and read the actual records of this page
-			for (int i=0; i<tuples.length; i++)
-				tuples[i] = readNextTuple(dis,i);
-		}catch(NoSuchElementException e){
-			e.printStackTrace();
-		}
-		dis.close();
 
 		setBeforeImage();
 	}
@@ -152,44 +136,33 @@ public class BTreeLeafPage extends BTreePage {
 	public void setBeforeImage() {
 		synchronized(oldDataLock)
 		{
-			oldData = getPageData().clone();
+			oldData = image.clone();
 		}
 	}
 
 	/**
-	 * Read tuples from the source file.
+	 * Decode the tuple in slot i from the page image.
 	 */
-	private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-		// if associated bit is not set, read forward to the next tuple, and
-		// return null.
-		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getSize(); i++) {
-				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException("error reading empty tuple");
-				}
-			}
-			return null;
-		}
-
-		// read fields in the tuple
+	private Tuple readTuple(int slotId) {
 		Tuple t = new Tuple(td);
-		RecordId rid = new RecordId(pid, slotId);
-		t.setRecordId(rid);
-		try {
-			for (int j=0; j<td.numFields(); j++) {
-				Field f = td.getFieldType(j).parse(dis);
-				t.setField(j, f);
-			}
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-			throw new NoSuchElementException("parsing error!");
+		t.setRecordId(new RecordId(pid, slotId));
+		int offset = tupleOffset + slotId * td.getSize();
+		for (int j=0; j<td.numFields(); j++) {
+			t.setField(j, td.getFieldType(j).parse(buf, offset + td.getFieldOffset(j)));
 		}
-
 		return t;
 	}
 
+	/**
+	 * @return the key of the tuple in slot i, which must be used
+	 */
+	private Field keyAt(int i) {
+		Tuple t = tuples[i];
+		if (t != null)
+			return t.getField(keyField);
+		return td.getFieldType(keyField).parse(buf, tupleOffset + i * td.getSize() + td.getFieldOffset(keyField));
+	}
+
 	/**
 	 * Generates a byte array representing the contents of this page.
 	 * Used to serialize this page to disk.
@@ -202,84 +175,17 @@ public class BTreeLeafPage extends BTreePage {
 	 * @return A byte array corresponding to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
-
-		// write out the parent and sibling pointers
-		try {
-			dos.writeInt(parent);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			dos.writeInt(leftSibling);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			dos.writeInt(rightSibling);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		// create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-		// create the tuples
-		for (int i=0; i<tuples.length; i++) {
-
-			// empty slot
-			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getSize(); j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
-				continue;
-			}
-
-			// non-empty slot
-			for (int j=0; j<td.numFields(); j++) {
-				Field f = tuples[i].getField(j);
-				try {
-					f.serialize(dos);
-
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-		}
-
-		// padding
-		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
-		byte[] zeroes = new byte[zerolen];
-		try {
-			dos.write(zeroes, 0, zerolen);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		return image.clone();
+	}
 
-		return baos.toByteArray();
+	/**
+	 * Returns the image of this page without copying it.
+	 *
+	 * @see Page#getPageBuffer()
+	 */
+	@Override
+	public ByteBuffer getPageBuffer() {
+		return buf.asReadOnlyBuffer();
 	}
 
 	/**
@@ -330,7 +236,7 @@ public class BTreeLeafPage extends BTreePage {
 		Field key = t.getField(keyField);
 		for (int i=0; i<numSlots; i++) {
 			if(isSlotUsed(i)) {
-				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
+				if(keyAt(i).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
 					lessOrEqKey = i;
 				else
 					break;	
@@ -356,6 +262,10 @@ public class BTreeLeafPage extends BTreePage {
 		// insert new record into the correct spot in sorted order
 		markSlotUsed(goodSlot, true);
 		Debug.log(1, "BTreeLeafPage.insertTuple: new tuple, tableId = %d pageId = %d slotId = %d", pid.getTableId(), pid.getPageNumber(), goodSlot);
+		int offset = tupleOffset + goodSlot * td.getSize();
+		for (int j=0; j<td.numFields(); j++) {
+			t.getField(j).serialize(buf, offset + td.getFieldOffset(j));
+		}
 		RecordId rid = new RecordId(pid, goodSlot);
 		t.setRecordId(rid);
 		tuples[goodSlot] = t;
@@ -368,9 +278,10 @@ public class BTreeLeafPage extends BTreePage {
 	private void moveRecord(int from, int to) {
 		if(!isSlotUsed(to) && isSlotUsed(from)) {
 			markSlotUsed(to, true);
-			RecordId rid = new RecordId(pid, to);
+			System.arraycopy(image, tupleOffset + from * td.getSize(), image, tupleOffset + to * td.getSize(), td.getSize());
 			tuples[to] = tuples[from];
-			tuples[to].setRecordId(rid);
+			if (tuples[to] != null)
+				tuples[to].setRecordId(new RecordId(pid, to));
 			markSlotUsed(from, false);
 		}
 	}
@@ -415,6 +326,7 @@ public class BTreeLeafPage extends BTreePage {
 			}
 			leftSibling = id.getPageNumber();
 		}
+		buf.putInt(LEFT_SIBLING_OFFSET, leftSibling);
 	}
 
 	/**
@@ -435,6 +347,13 @@ public class BTreeLeafPage extends BTreePage {
 			}
 			rightSibling = id.getPageNumber();
 		}
+		buf.putInt(RIGHT_SIBLING_OFFSET, rightSibling);
+	}
+
+	@Override
+	public void setParentId(BTreePageId id) throws DbException {
+		super.setParentId(id);
+		buf.putInt(0, parent);
 	}
 
 	/**
@@ -448,11 +367,13 @@ public class BTreeLeafPage extends BTreePage {
 	 * Returns the number of empty slots on this page.
 	 */
 	public int getNumEmptySlots() {
-		int cnt = 0;
-		for(int i=0; i<numSlots; i++)
-			if(!isSlotUsed(i))
-				cnt++;
-		return cnt;
+		int used = 0;
+		for(int i=0; i<numSlots/8; i++)
+			used += Integer.bitCount(image[HEADER_OFFSET + i] & 0xFF);
+		for(int i=numSlots/8*8; i<numSlots; i++)
+			if(isSlotUsed(i))
+				used++;
+		return numSlots - used;
 	}
 
 	/**
@@ -461,7 +382,7 @@ public class BTreeLeafPage extends BTreePage {
 	public boolean isSlotUsed(int i) {
 		int headerbit = i % 8;
 		int headerbyte = (i - headerbit) / 8;
-		return (header[headerbyte] & (1 << headerbit)) != 0;
+		return (image[HEADER_OFFSET + headerbyte] & (1 << headerbit)) != 0;
 	}
 
 	/**
@@ -473,9 +394,14 @@ public class BTreeLeafPage extends BTreePage {
 
 		Debug.log(1, "BTreeLeafPage.setSlot: setting slot %d to %b", i, value);
 		if(value)
-			header[headerbyte] |= 1 << headerbit;
-		else
-			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+			image[HEADER_OFFSET + headerbyte] |= 1 << headerbit;
+		else {
+			image[HEADER_OFFSET + headerbyte] &= (0xFF ^ (1 << headerbit));
+			// empty slots are kept zeroed in the image
+			int offset = tupleOffset + i * td.getSize();
+			Arrays.fill(image, offset, offset + td.getSize(), (byte) 0);
+			tuples[i] = null;
+		}
 	}
 
 	/**
@@ -512,6 +438,8 @@ public class BTreeLeafPage extends BTreePage {
 			}
 
 			Debug.log(1, "BTreeLeafPage.getTuple: returning tuple %d", i);
+			if (tuples[i] == null)
+				tuples[i] = readTuple(i);
 			return tuples[i];
 
 		} catch (ArrayIndexOutOfBoundsException e) {
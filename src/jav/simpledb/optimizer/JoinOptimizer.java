@@ -3,6 +3,8 @@ package jav.simpledb.optimizer;
 import jav.simpledb.common.Database;
 import jav.simpledb.ParsingException;
 import jav.simpledb.execution.*;
+import jav.simpledb.index.BTreeFile;
+import jav.simpledb.storage.DbFile;
 
 import java.util.*;
 
@@ -48,6 +50,33 @@ public class JoinOptimizer {
      */
     public static OpIterator instantiateJoin(LogicalJoinNode lj,
                                              OpIterator plan1, OpIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, 0, 0, 0, 0);
+    }
+
+    /**
+     * Return the cheapest iterator for computing a given logical join, given
+     * estimates of the cardinality and cost of its subplans: a merge join
+     * when its sorts, if any, cost less than the repeated scans of a nested
+     * loops join or the hash table of a hash join. Where the estimates are
+     * unknown, 0, equality joins are hash joins and others nested loops.
+     *
+     * @param lj
+     *            The join being considered
+     * @param plan1
+     *            The left join node's child
+     * @param plan2
+     *            The right join node's child
+     * @param card1
+     *            Estimated cardinality of plan1
+     * @param card2
+     *            Estimated cardinality of plan2
+     * @param cost1
+     *            Estimated cost of running plan1
+     * @param cost2
+     *            Estimated cost of running plan2
+     */
+    public static OpIterator instantiateJoin(LogicalJoinNode lj, OpIterator plan1, OpIterator plan2,
+                                             int card1, int card2, double cost1, double cost2) throws ParsingException {
 
         int t1id = 0, t2id = 0;
         OpIterator j;
@@ -71,8 +100,13 @@ public class JoinOptimizer {
         }
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
+        boolean mergeable = plan1.getTupleDesc().getFieldType(t1id) == plan2.getTupleDesc().getFieldType(t2id);
+        int algorithm = cheapest(joinCosts(lj.p, card1, card2, cost1, cost2, mergeable,
+                MergeJoin.sortedOn(plan1, t1id), MergeJoin.sortedOn(plan2, t2id)));
 
-        if (lj.p == Predicate.Op.EQUALS) {
+        if (algorithm == MERGE) {
+            j = new MergeJoin(p, plan1, plan2);
+        } else if (algorithm == HASH) {
 
             try {
                 // dynamically load HashEquiJoin -- if it doesn't exist, just
@@ -125,11 +159,83 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            double[] costs = joinCosts(j.p, card1, card2, cost1, cost2, true,
+                    isKey(j.t1Alias, j.f1PureName), isKey(j.t2Alias, j.f2PureName));
+            return costs[cheapest(costs)];
+        }
+    }
+
+    /** The join algorithms, indexes into the costs of joinCosts; the first is preferred on a tie. */
+    static final int NESTED_LOOPS = 0, HASH = 1, MERGE = 2;
+
+    /**
+     * Estimate the cost of a join run with each algorithm, infinite for one
+     * that cannot run it. A predicate application, a hash table insert or
+     * lookup, and a comparison of a sort each cost 1.
+     * <ul>
+     * <li>nested loops: a scan of the right side per left row, and a
+     * predicate per pair of rows;</li>
+     * <li>hash, equality only: an insert per left row and a lookup per right
+     * row, plus writing and reading the rows of both sides that spill when
+     * the left side is larger than HashEquiJoin.MAP_SIZE rows;</li>
+     * <li>merge: sorting each side not sorted on its join field already,
+     * writing and reading the runs of sides larger than MAP_SIZE rows too,
+     * then a comparison per row, and, on an inequality, about half of all
+     * pairs of rows.</li>
+     * </ul>
+     */
+    static double[] joinCosts(Predicate.Op op, int card1, int card2, double cost1, double cost2,
+                              boolean mergeable, boolean sorted1, boolean sorted2) {
+        double[] costs = new double[3];
+        Arrays.fill(costs, Double.POSITIVE_INFINITY);
+        double scans = cost1 + cost2;
+        if (op == Predicate.Op.EQUALS) {
+            costs[HASH] = scans + 2.0 * card1 + card2;
+            if (card1 > HashEquiJoin.MAP_SIZE) {
+                costs[HASH] += 2 * (1 - (double) HashEquiJoin.MAP_SIZE / card1) * scans;
+            }
+        } else {
+            costs[NESTED_LOOPS] = cost1 + card1 * cost2 + (double) card1 * card2;
+        }
+        if (mergeable && MergeJoin.supports(op)) {
+            costs[MERGE] = scans + card1 + card2
+                    + (sorted1 ? 0 : sortCost(card1, cost1))
+                    + (sorted2 ? 0 : sortCost(card2, cost2))
+                    + (op == Predicate.Op.EQUALS ? 0 : (double) card1 * card2 / 2);
+        }
+        return costs;
+    }
+
+    private static double sortCost(int card, double cost) {
+        double c = card * (Math.log(Math.max(card, 2)) / Math.log(2));
+        return card > HashEquiJoin.MAP_SIZE ? c + 2 * cost : c;
+    }
+
+    /** @return the algorithm of the least cost */
+    private static int cheapest(double[] costs) {
+        int best = 0;
+        for (int i = 1; i < costs.length; i++) {
+            if (costs[i] < costs[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return whether the table of an alias is a B+ tree keyed on field,
+     *   which its scans return in order
+     */
+    private boolean isKey(String tableAlias, String field) {
+        Integer tableId = tableAlias == null ? null : p.getTableId(tableAlias);
+        if (tableId == null) {
+            return false;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        try {
+            return f instanceof BTreeFile && ((BTreeFile) f).keyField() == f.getTupleDesc().fieldNameToIndex(field);
+        } catch (NoSuchElementException e) {
+            return false;
         }
     }
 
@@ -274,8 +274,50 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Tell each scan which fields of its table the query refers to, so that
+     * tables stored by column read only those. A select list with * needs
+     * every field; names that no scan has, such as those of subqueries, are
+     * left to the checks of the rest of the plan.
+     */
+    private void projectScans(List<SeqScan> scans) {
+        List<String> names = new ArrayList<>();
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        names.add(aggField);
+        names.add(groupByField);
+        names.add(oByField);
+
+        List<BitSet> used = new ArrayList<>();
+        for (int i = 0; i < scans.size(); i++)
+            used.add(new BitSet());
+        for (String name : names) {
+            if (name == null)
+                continue;
+            if (name.equals("*") || name.endsWith(".*"))
+                return;
+            for (int i = 0; i < scans.size(); i++) {
+                try {
+                    used.get(i).set(scans.get(i).getTupleDesc().fieldNameToIndex(name));
+                } catch (NoSuchElementException e) {
+                    //the field is another table's
+                }
+            }
+        }
+        for (int i = 0; i < scans.size(); i++)
+            scans.get(i).setProjection(used.get(i));
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
+     *   Chains of filters and projections over a table scan, with or without an aggregate on top,
+     *   are run as a {@link CompiledPipeline}.
      *  @param t The transaction that the returned OpIterator will run as a part of
      *  @param baseTableStats a HashMap providing a {@link TableStats}
      *    object for each table used in the LogicalPlan.  This should
@@ -292,6 +334,8 @@ public class LogicalPlan {
         Map<String,String> equivMap = new HashMap<>();
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
+        List<SeqScan> scans = new ArrayList<>();
+        Map<String,SeqScan> scanOf = new HashMap<>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -303,12 +347,16 @@ public class LogicalPlan {
             }
             
             subplanMap.put(table.alias,ss);
+            scans.add(ss);
+            scanOf.put(table.alias, ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
         }
 
+        projectScans(scans);
+
         for (LogicalFilterNode lf : filters) {
             OpIterator subplan = subplanMap.get(lf.tableAlias);
             if (subplan == null) {
@@ -345,6 +393,28 @@ public class LogicalPlan {
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
         
+        // a table large enough is scanned in parallel, with its filters;
+        // a lone table with an aggregate is split up at the aggregate, and
+        // equality joins of a table scanned in parallel are partitioned, below
+        int dop = Exchange.getParallelism();
+        boolean aggregateInWorkers = hasAgg && joins.isEmpty();
+        for (Map.Entry<String,SeqScan> e : scanOf.entrySet()) {
+            int tableId = getTableId(e.getKey());
+            if (!aggregateInWorkers && isParallel(tableId, dop)) {
+                OpIterator subplan = subplanMap.get(e.getKey());
+                subplanMap.put(e.getKey(), new Gather(workerPlans(subplan, e.getValue(), t, tableId, dop)));
+            }
+        }
+
+        // the estimated number of rows and cost of each subplan, or 0 if unknown
+        Map<String,Integer> cardOf = new HashMap<>();
+        Map<String,Double> costOf = new HashMap<>();
+        for (String alias : scanOf.keySet()) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(getTableId(alias)));
+            cardOf.put(alias, s == null ? 0 : s.estimateTableCardinality(filterSelectivities.get(alias)));
+            costOf.put(alias, s == null ? 0 : s.estimateScanCost());
+        }
+
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
@@ -381,8 +451,19 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
 
             OpIterator j;
-            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            int card1 = cardOf.getOrDefault(t1name, 0);
+            int card2 = isSubqueryJoin ? 0 : cardOf.getOrDefault(t2name, 0);
+            double cost1 = costOf.getOrDefault(t1name, 0.0);
+            double cost2 = isSubqueryJoin ? 0 : costOf.getOrDefault(t2name, 0.0);
+            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2, card1, card2, cost1, cost2);
+            if (j instanceof HashEquiJoin && (plan1 instanceof Gather || plan2 instanceof Gather)) {
+                // a side read in parallel is joined in parallel, partition by partition
+                j = HashEquiJoin.partitioned(((HashEquiJoin) j).getJoinPredicate(),
+                        fragments(plan1), fragments(plan2), dop, card1);
+            }
             subplanMap.put(t1name, j);
+            cardOf.put(t1name, jo.estimateJoinCardinality(lj, card1, card2, false, false, statsMap));
+            costOf.put(t1name, jo.estimateJoinCost(lj, card1, card2, cost1, cost2));
 
             if (!isSubqueryJoin) {
                 subplanMap.remove(t2name);
@@ -469,13 +550,85 @@ public class LogicalPlan {
                 throw new ParsingException(e);
             }
             node = aggNode;
+            if (aggregateInWorkers) {
+                Map.Entry<String,SeqScan> scan = scanOf.entrySet().iterator().next();
+                int tableId = getTableId(scan.getKey());
+                if (isParallel(tableId, dop)) {
+                    node = parallelAggregate(aggNode, scan.getValue(), t, tableId, dop);
+                }
+            }
         }
 
         if (hasOrderBy) {
             node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
         }
 
-        return new Project(outFields, outTypes, node);
+        return CompiledPipeline.compile(new Project(outFields, outTypes, node));
+    }
+
+    /** Tables of fewer pages than this are always scanned on one thread;
+    the number can be set with the simpledb.parallel.pages system property. */
+    public static final int MIN_PARALLEL_PAGES = Integer.getInteger("simpledb.parallel.pages", 64);
+
+    /** Whether a scan of the table is worth splitting among dop workers. */
+    private static boolean isParallel(int tableId, int dop) {
+        if (dop < 2) {
+            return false;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        return f instanceof HeapFile && ((HeapFile) f).numPages() >= MIN_PARALLEL_PAGES;
+    }
+
+    /** Copies of plan, a chain of filters over scan, one over each worker of a parallel scan. */
+    private static List<OpIterator> workerPlans(OpIterator plan, SeqScan scan, TransactionId t, int tableId, int dop) {
+        List<OpIterator> plans = new ArrayList<>(dop);
+        for (ParallelSeqScan worker : ParallelSeqScan.workers(t, tableId, scan.getAlias(), dop)) {
+            plans.add(copy(plan, scan, worker));
+        }
+        return plans;
+    }
+
+    private static OpIterator copy(OpIterator plan, SeqScan scan, OpIterator leaf) {
+        if (plan == scan) {
+            return leaf;
+        }
+        if (!(plan instanceof Filter)) {
+            throw new IllegalStateException("cannot run " + plan.getClass().getSimpleName() + " in parallel");
+        }
+        Filter f = (Filter) plan;
+        // predicates cache state, so each worker gets its own
+        Predicate p = f.getPredicate();
+        return new Filter(new Predicate(p.getField(), p.getOp(), p.getOperand()),
+                copy(f.getChildren()[0], scan, leaf));
+    }
+
+    /** The fragments plan runs in parallel, or plan itself if it runs on one thread. */
+    private static List<OpIterator> fragments(OpIterator plan) {
+        if (plan instanceof Gather) {
+            return Arrays.asList(((Gather) plan).getChildren());
+        }
+        return Collections.singletonList(plan);
+    }
+
+    /**
+     * Aggregate a table scanned in parallel in two stages: each worker
+     * computes a partial aggregate over its morsels; without grouping the
+     * partial results are gathered and merged, and with grouping they are
+     * repartitioned by group, merged by each worker, and gathered.
+     */
+    private static OpIterator parallelAggregate(Aggregate agg, SeqScan scan, TransactionId t, int tableId, int dop) {
+        List<OpIterator> partials = new ArrayList<>(dop);
+        for (OpIterator worker : workerPlans(agg.getChildren()[0], scan, t, tableId, dop)) {
+            partials.add(agg.partial(worker));
+        }
+        if (agg.groupField() == Aggregator.NO_GROUPING) {
+            return agg.merge(new Gather(partials));
+        }
+        List<OpIterator> merged = new ArrayList<>(dop);
+        for (Repartition partition : Repartition.of(partials, 0, dop)) {
+            merged.add(agg.merge(partition));
+        }
+        return new Gather(merged);
     }
 
     public static void main(String[] argv) {
@@ -19,7 +19,7 @@ public class TableStats {
 
     private static final ConcurrentMap<String, TableStats> statsMap = new ConcurrentHashMap<>();
 
-    static final int IOCOSTPERPAGE = 1000;
+    public static final int IOCOSTPERPAGE = 1000;
 
     public static TableStats getTableStats(String tablename) {
         return statsMap.get(tablename);
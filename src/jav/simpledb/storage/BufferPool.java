@@ -7,7 +7,15 @@ import jav.simpledb.transaction.TransactionAbortedException;
 import jav.simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -17,6 +25,12 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The page table is keyed by PageId and latched in stripes: a miss only
+ * latches the stripe of the page it loads, and concurrent misses on the same
+ * page wait for a single in-flight read instead of reading it twice.
+ * Flushing and discarding pages latch the stripe of each page in turn, so
+ * they do not hold up misses on the rest of the pool.
  * 
  * @Threadsafe, all fields are final
  */
@@ -31,19 +45,118 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    private ConcurrentHashMap<Integer, Page> pages;
+    /** Replacement policy used when none is given to the constructor; can be
+    overridden with the simpledb.eviction system property (clock, lru-k, 2q). */
+    public static final EvictionPolicy.Kind DEFAULT_POLICY =
+            EvictionPolicy.Kind.parse(System.getProperty("simpledb.eviction", "clock"));
+
+    /** Whether pools built without saying so keep pages off-heap; set with the
+    simpledb.offheap system property. */
+    public static final boolean DEFAULT_OFF_HEAP = Boolean.getBoolean("simpledb.offheap");
+
+    /** Number of latch stripes guarding the page table. */
+    private static final int NUM_STRIPES = 64;
+
+    /** Background I/O threads shared by every BufferPool for read-ahead. They
+    mostly wait on the disk, so there are more of them than cores; the number
+    can be set with the simpledb.prefetch.threads system property. */
+    private static final ExecutorService PREFETCHER = Executors.newFixedThreadPool(
+            Integer.getInteger("simpledb.prefetch.threads", 8), r -> {
+                Thread t = new Thread(r, "simpledb-prefetch");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private final ConcurrentHashMap<PageId, Page> pages;
+
+    /** Disk reads in progress; later misses on the same page wait on them. */
+    private final ConcurrentHashMap<PageId, CompletableFuture<Page>> inFlight;
+
+    private final Object[] stripes;
+
+    /** Frames that are resident or reserved for an in-flight read. */
+    private final AtomicInteger usedFrames;
 
     int numPages;
 
+    private final EvictionPolicy policy;
+
+    /** Pages that were loaded through a BufferRing and not touched since by anyone else. */
+    private final ConcurrentHashMap<PageId, BufferRing> ringPages;
+
+    private final AtomicLong prefetchHits;
+    private final AtomicLong prefetchMisses;
+
+    /** Off-heap frames of the pool, or null if pages live on the heap. */
+    private final FrameArena arena;
+    /** The frame each page loaded into the arena occupies. */
+    private final ConcurrentHashMap<PageId, PageFrame> frames;
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, DEFAULT_POLICY);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and replaces
+     * pages according to the given policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param kind the page replacement policy to use
+     */
+    public BufferPool(int numPages, EvictionPolicy.Kind kind) {
+        this(numPages, kind, DEFAULT_OFF_HEAP);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, replaces pages
+     * according to the given policy, and optionally keeps page contents in
+     * preallocated off-heap frames.
+     * <p>
+     * Off-heap, the pool allocates numPages direct frames up front and asks
+     * each DbFile to load pages straight into them with
+     * {@link DbFile#readPageInto}; files that cannot do so still get an
+     * on-heap page. The resident data then stays out of the garbage collected
+     * heap, which keeps collections short for very large pools.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param kind the page replacement policy to use
+     * @param offHeap true to keep page contents in off-heap frames
+     */
+    public BufferPool(int numPages, EvictionPolicy.Kind kind, boolean offHeap) {
         // some code goes here
         pages = new ConcurrentHashMap<>();
+        inFlight = new ConcurrentHashMap<>();
+        stripes = new Object[NUM_STRIPES];
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+        usedFrames = new AtomicInteger(0);
         this.numPages = numPages;
+        this.policy = kind.newPolicy(numPages);
+        this.ringPages = new ConcurrentHashMap<>();
+        this.prefetchHits = new AtomicLong();
+        this.prefetchMisses = new AtomicLong();
+        this.arena = offHeap ? new FrameArena(numPages, pageSize) : null;
+        this.frames = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return true if this pool keeps page contents in off-heap frames
+     */
+    public boolean isOffHeap() {
+        return arena != null;
+    }
+
+    /**
+     * @return the maximum number of pages in this buffer pool
+     */
+    public int getNumPages() {
+        return numPages;
     }
     
     public static int getPageSize() {
@@ -76,21 +189,445 @@ public class BufferPool {
      * @param perm the requested permissions on the page
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage(TransactionId, PageId, Permissions)},
+     * but load it through the given bulk-read ring on a miss.
+     * <p>
+     * A page already in the pool is returned as usual. A page that has to be
+     * read from disk takes the next slot of the ring, and the frame of the
+     * page that held that slot before is reused if nobody else touched that
+     * page in the meantime. A large scan therefore occupies at most
+     * ring.size() frames of its own and does not push out other pages.
+     * Rings are only used for READ_ONLY access.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the ring to load the page through, or null for the shared pool
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        if(!pages.containsKey(pid.hashCode())){
-            if(numPages > pages.size()){//如果缓冲池还没有满
-                //1.获取对应的数据库文件
-                DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-                //2.在文件中找到Pid对应的page
-                Page page = dbFile.readPage(pid);
-                pages.put(pid.hashCode(), page);
-            }else {
-                throw new DbException("buffer pool is full");
+        if (perm != Permissions.READ_ONLY) {
+            ring = null;
+        }
+        Page page = pages.get(pid);
+        if (page != null) {
+            pageHit(pid, ring);
+            return page;
+        }
+        CompletableFuture<Page> load;
+        boolean loader = false;
+        synchronized (stripeOf(pid)) {
+            page = pages.get(pid);
+            if (page != null) {
+                pageHit(pid, ring);
+                return page;
             }
+            load = inFlight.get(pid);
+            if (load == null) {
+                load = new CompletableFuture<>();
+                inFlight.put(pid, load);
+                loader = true;
+            }
+        }
+        if (!loader) {//其他线程正在读这一页，等待它读完
+            return awaitLoad(pid, load);
+        }
+        try {
+            page = readIntoPool(pid, ring);
+        } catch (DbException | RuntimeException e) {
+            synchronized (stripeOf(pid)) {
+                inFlight.remove(pid);
+            }
+            load.completeExceptionally(e);
+            throw e;
+        }
+        load.complete(page);
+        return page;
+    }
+
+    /**
+     * Retrieve a batch of pages, like calling {@link #getPage} for each of
+     * them. The pages are locked and looked up in (table, page number) order,
+     * which gives concurrent batches a consistent lock order. Pages that are
+     * not resident are read with {@link DbFile#readPages}, so adjacent pages
+     * of a table are fetched with one contiguous read.
+     * <p>
+     * At most a quarter of the pool is loaded per read, so a batch larger
+     * than the pool still completes, but its early pages may have been
+     * evicted again by the time it returns.
+     *
+     * @param tid the ID of the transaction requesting the pages
+     * @param pids the IDs of the requested pages, in any order
+     * @param perm the requested permissions on the pages
+     * @return the pages, in the same order as pids
+     */
+    public List<Page> getPages(TransactionId tid, List<PageId> pids, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPages(tid, pids, perm, null);
+    }
+
+    /**
+     * Retrieve a batch of pages like {@link #getPages(TransactionId, List, Permissions)},
+     * loading misses through the given bulk-read ring.
+     *
+     * @see #getPage(TransactionId, PageId, Permissions, BufferRing)
+     */
+    public List<Page> getPages(TransactionId tid, List<PageId> pids, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
+        if (perm != Permissions.READ_ONLY) {
+            ring = null;
+        }
+        List<PageId> ordered = new ArrayList<>(new LinkedHashSet<>(pids));
+        ordered.sort(Comparator.comparingInt(PageId::getTableId).thenComparingInt(PageId::getPageNumber));
+
+        Map<PageId, Page> found = new HashMap<>();
+        Map<PageId, CompletableFuture<Page>> waiting = new LinkedHashMap<>();
+        Map<PageId, CompletableFuture<Page>> loading = new LinkedHashMap<>();
+        for (PageId pid : ordered) {
+            Page page = pages.get(pid);
+            if (page != null) {
+                pageHit(pid, ring);
+                found.put(pid, page);
+                continue;
+            }
+            synchronized (stripeOf(pid)) {
+                page = pages.get(pid);
+                if (page != null) {
+                    pageHit(pid, ring);
+                    found.put(pid, page);
+                    continue;
+                }
+                CompletableFuture<Page> load = inFlight.get(pid);
+                if (load != null) {
+                    waiting.put(pid, load);
+                } else {
+                    load = new CompletableFuture<>();
+                    inFlight.put(pid, load);
+                    loading.put(pid, load);
+                }
+            }
+        }
 
+        // read the pages this call claimed, one table and chunk at a time
+        List<PageId> claimed = new ArrayList<>(loading.keySet());
+        int chunk = Math.max(1, Math.min(DbFileChannel.MAX_READ_PAGES, numPages / 4));
+        int start = 0;
+        while (start < claimed.size()) {
+            int tableId = claimed.get(start).getTableId();
+            int end = start;
+            while (end < claimed.size() && end - start < chunk && claimed.get(end).getTableId() == tableId) {
+                end++;
+            }
+            List<PageId> batch = claimed.subList(start, end);
+            try {
+                List<Page> read = readBatchIntoPool(tableId, batch, ring);
+                for (int i = 0; i < batch.size(); i++) {
+                    found.put(batch.get(i), read.get(i));
+                    loading.get(batch.get(i)).complete(read.get(i));
+                }
+            } catch (DbException | RuntimeException e) {
+                // give up on everything this call claimed but has not read yet
+                for (PageId pid : claimed.subList(start, claimed.size())) {
+                    synchronized (stripeOf(pid)) {
+                        inFlight.remove(pid);
+                    }
+                    loading.get(pid).completeExceptionally(e);
+                }
+                throw e;
+            }
+            start = end;
+        }
+        for (Map.Entry<PageId, CompletableFuture<Page>> w : waiting.entrySet()) {
+            found.put(w.getKey(), awaitLoad(w.getKey(), w.getValue()));
+        }
+
+        List<Page> result = new ArrayList<>(pids.size());
+        for (PageId pid : pids) {
+            result.add(found.get(pid));
+        }
+        return result;
+    }
+
+    /**
+     * Read pages of one table that are not resident into free frames with a
+     * single {@link DbFile#readPages} call and publish them in the page table.
+     */
+    private List<Page> readBatchIntoPool(int tableId, List<PageId> batch, BufferRing ring) throws DbException {
+        int reserved = 0;
+        List<Page> read;
+        try {
+            for (PageId pid : batch) {
+                if (ring != null) {
+                    reclaimRingSlot(ring.advance(pid), ring);
+                }
+                reserveFrame(reserved);
+                reserved++;
+            }
+            DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+            if (arena == null) {
+                read = file.readPages(batch);
+            } else {
+                // frames are loaded one at a time
+                read = new ArrayList<>(batch.size());
+                for (PageId pid : batch) {
+                    read.add(load(file, pid));
+                }
+            }
+        } catch (DbException | RuntimeException e) {
+            for (PageId pid : batch) {
+                releaseFrame(pid);
+            }
+            usedFrames.addAndGet(-reserved);
+            throw e;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            PageId pid = batch.get(i);
+            synchronized (stripeOf(pid)) {
+                pages.put(pid, read.get(i));
+                inFlight.remove(pid);
+                policy.pageAdmitted(pid);
+                if (ring != null) {
+                    ringPages.put(pid, ring);
+                }
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Read a page that is not resident into a free frame, evicting a page if
+     * the pool is full, and publish it in the page table.
+     */
+    private Page readIntoPool(PageId pid, BufferRing ring) throws DbException {
+        if (ring != null) {//复用环中最旧的一页
+            reclaimRingSlot(ring.advance(pid), ring);
+        }
+        reserveFrame(0);
+        Page page;
+        try {
+            //1.获取对应的数据库文件
+            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            //2.在文件中找到Pid对应的page
+            page = load(dbFile, pid);
+        } catch (RuntimeException e) {
+            usedFrames.decrementAndGet();
+            throw e;
+        }
+        synchronized (stripeOf(pid)) {
+            pages.put(pid, page);
+            inFlight.remove(pid);
+            policy.pageAdmitted(pid);
+            if (ring != null) {
+                ringPages.put(pid, ring);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Read a page from file, into a frame of the arena if the pool is
+     * off-heap and the file supports it.
+     */
+    private Page load(DbFile file, PageId pid) {
+        if (arena == null) {
+            return file.readPage(pid);
+        }
+        PageFrame frame = arena.allocate();
+        if (frame == null) {
+            return file.readPage(pid);
+        }
+        Page page;
+        try {
+            page = file.readPageInto(pid, frame);
+        } catch (RuntimeException e) {
+            arena.release(frame);
+            throw e;
+        }
+        if (page == null) {
+            arena.release(frame);
+            return file.readPage(pid);
+        }
+        frames.put(pid, frame);
+        return page;
+    }
+
+    /** Give the frame of a page that left the pool back to the arena. */
+    private void releaseFrame(PageId pid) {
+        if (arena != null) {
+            PageFrame frame = frames.remove(pid);
+            if (frame != null) {
+                arena.release(frame);
+            }
+        }
+    }
+
+    /** Wait for another thread's read of pid to finish and return its result. */
+    private Page awaitLoad(PageId pid, CompletableFuture<Page> load) throws DbException {
+        try {
+            Page page = load.get();
+            policy.pageAccessed(pid);
+            return page;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while waiting for page " + pid.getPageNumber());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DbException)
+                throw (DbException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new DbException("failed to read page " + pid.getPageNumber() + ": " + cause);
+        }
+    }
+
+    /**
+     * Take a frame for a page about to be read, evicting a page when every
+     * frame is in use. Frames reserved by reads still in flight cannot be
+     * evicted yet, so if those are all that is left, wait for them to be
+     * published; frames the caller reserved itself do not count.
+     *
+     * @param ownReserved the number of frames the caller has reserved and
+     *   not yet published
+     */
+    private void reserveFrame(int ownReserved) throws DbException {
+        while (true) {
+            int used = usedFrames.get();
+            if (used < numPages) {
+                if (usedFrames.compareAndSet(used, used + 1)) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                evictPage();
+            } catch (DbException e) {
+                // frames discarded in the meantime can be taken after all
+                used = usedFrames.get();
+                if (used >= numPages && used - pages.size() <= ownReserved) {
+                    throw e;
+                }
+                Thread.yield();
+            }
+        }
+    }
+
+    private Object stripeOf(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return stripes[(h & 0x7fffffff) % NUM_STRIPES];
+    }
+
+    private void pageHit(PageId pid, BufferRing ring) {
+        policy.pageAccessed(pid);
+        // a page another caller wants is no longer the ring's to recycle
+        if (!ringPages.isEmpty() && ringPages.get(pid) != ring) {
+            ringPages.remove(pid);
+        }
+    }
+
+    /**
+     * Give the frame of a page that was loaded through ring back to the ring,
+     * provided it is still owned by the ring and clean.
+     */
+    private void reclaimRingSlot(PageId old, BufferRing ring) {
+        if (old == null) {
+            return;
+        }
+        synchronized (stripeOf(old)) {
+            if (!ringPages.remove(old, ring)) {
+                return;
+            }
+            Page p = pages.get(old);
+            if (p == null || p.isDirty() != null) {
+                return;
+            }
+            pages.remove(old);
+            policy.pageRemoved(old);
+            releaseFrame(old);
+        }
+        usedFrames.decrementAndGet();
+    }
+
+    /**
+     * Start reading a page into the pool in the background, unless it is
+     * already resident or being read. The page is loaded exactly as a
+     * READ_ONLY {@link #getPage} would load it.
+     *
+     * @param tid the transaction the read-ahead is done for
+     * @param pid the page to read ahead
+     * @param ring the ring to load the page through, or null for the shared pool
+     * @return a future that completes when the page is resident
+     */
+    public CompletableFuture<Page> prefetchPage(TransactionId tid, PageId pid, BufferRing ring) {
+        Page page = pages.get(pid);
+        if (page != null) {
+            return CompletableFuture.completedFuture(page);
+        }
+        CompletableFuture<Page> load = inFlight.get(pid);
+        if (load != null) {
+            return load;
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return getPage(tid, pid, Permissions.READ_ONLY, ring);
+            } catch (DbException | TransactionAbortedException e) {
+                throw new CompletionException(e);
+            }
+        }, PREFETCHER);
+    }
+
+    /**
+     * Start reading a batch of pages into the pool in the background with a
+     * single {@link #getPages} call, so that adjacent pages are read together.
+     *
+     * @param tid the transaction the read-ahead is done for
+     * @param pids the pages to read ahead
+     * @param ring the ring to load the pages through, or null for the shared pool
+     * @return a future for the pages, in the order of pids
+     */
+    public CompletableFuture<List<Page>> prefetchPages(TransactionId tid, List<PageId> pids, BufferRing ring) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return getPages(tid, pids, Permissions.READ_ONLY, ring);
+            } catch (DbException | TransactionAbortedException e) {
+                throw new CompletionException(e);
+            }
+        }, PREFETCHER);
+    }
+
+    /** @return true if pid is resident in the pool right now */
+    public boolean isResident(PageId pid) {
+        return pages.containsKey(pid);
+    }
+
+    /**
+     * @return the number of pages a sequential scan found already read ahead
+     *   when it got to them
+     */
+    public long getPrefetchHits() {
+        return prefetchHits.get();
+    }
+
+    /**
+     * @return the number of pages a sequential scan had to wait for, because
+     *   they were not read ahead, still being read, or evicted before use
+     */
+    public long getPrefetchMisses() {
+        return prefetchMisses.get();
+    }
+
+    void recordPrefetch(boolean hit) {
+        if (hit) {
+            prefetchHits.incrementAndGet();
+        } else {
+            prefetchMisses.incrementAndGet();
         }
-        return pages.get(pid.hashCode());
     }
 
     /**
@@ -154,7 +691,10 @@ public class BufferPool {
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        // not necessary for lab1
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        for (Page p : file.insertTuple(tid, t)) {
+            cacheDirtyPage(tid, p);
+        }
     }
 
     /**
@@ -173,7 +713,36 @@ public class BufferPool {
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        // not necessary for lab1
+        DbFile file = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+        for (Page p : file.deleteTuple(tid, t)) {
+            cacheDirtyPage(tid, p);
+        }
+    }
+
+    /**
+     * Mark a page changed by tid dirty and make it the pool's version of the
+     * page, taking a frame for it if the pool did not hold the page.
+     */
+    private void cacheDirtyPage(TransactionId tid, Page p) throws DbException {
+        p.markDirty(true, tid);
+        PageId pid = p.getId();
+        if (pages.get(pid) == p) {
+            return;
+        }
+        reserveFrame(0);
+        Page old;
+        synchronized (stripeOf(pid)) {
+            old = pages.put(pid, p);
+            ringPages.remove(pid);
+            if (old != null) {
+                releaseFrame(pid);
+            } else {
+                policy.pageAdmitted(pid);
+            }
+        }
+        if (old != null) {
+            usedFrames.decrementAndGet();
+        }
     }
 
     /**
@@ -181,10 +750,22 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
-        // not necessary for lab1
+        Set<Integer> written = new HashSet<>();
+        for (Page p : pages.values()) {
+            if (flushPage(p.getId())) {
+                written.add(p.getId().getTableId());
+            }
+        }
+        pagesFlushed(written);
+    }
 
+    /** Tell each of the given tables that a batch of its pages was written. */
+    private void pagesFlushed(Set<Integer> tableIds) throws IOException {
+        for (int tableId : tableIds) {
+            Database.getCatalog().getDatabaseFile(tableId).pagesFlushed();
+        }
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -195,34 +776,105 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
-        // not necessary for lab1
+        synchronized (stripeOf(pid)) {
+            if (pages.remove(pid) == null) {
+                return;
+            }
+            policy.pageRemoved(pid);
+            ringPages.remove(pid);
+            releaseFrame(pid);
+        }
+        usedFrames.decrementAndGet();
     }
 
     /**
      * Flushes a certain page to disk
+     * <p>
+     * Only the page's stripe is latched, inside the log file's lock: the log
+     * takes that lock before flushing pages at a checkpoint, so taking them
+     * in the same order here cannot deadlock with it.
+     *
      * @param pid an ID indicating the page to flush
+     * @return true if the page was dirty and written
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private boolean flushPage(PageId pid) throws IOException {
         // some code goes here
-        // not necessary for lab1
+        LogFile log = Database.getLogFile();
+        synchronized (log) {
+            synchronized (stripeOf(pid)) {
+                Page p = pages.get(pid);
+                if (p == null) {
+                    return false;
+                }
+                TransactionId dirtier = p.isDirty();
+                if (dirtier != null) {
+                    log.logWrite(dirtier, p.getBeforeImage(), p);
+                    log.force();
+                    Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(p);
+                    p.markDirty(false, null);
+                    return true;
+                }
+                return false;
+            }
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
-        // not necessary for lab1|lab2
+        Set<Integer> written = new HashSet<>();
+        for (Page p : pages.values()) {
+            if (tid.equals(p.isDirty()) && flushPage(p.getId())) {
+                written.add(p.getId().getTableId());
+            }
+        }
+        pagesFlushed(written);
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * <p>
+     * The victim is chosen by the replacement policy. Under NO-STEAL a page
+     * dirtied by a running transaction is never chosen, so there is nothing
+     * to write back; if every resident page is dirty the pool cannot make
+     * room and a DbException is thrown.
+     * <p>
+     * Only the victim's stripe is latched, so concurrent misses on other
+     * stripes can evict in parallel.
      */
-    private synchronized  void evictPage() throws DbException {
+    private void evictPage() throws DbException {
         // some code goes here
-        // not necessary for lab1
+        while (true) {
+            PageId victim = policy.evict(pid -> {
+                Page p = pages.get(pid);
+                return p == null || p.isDirty() == null;
+            });
+            if (victim == null) {
+                throw new DbException("all pages in the buffer pool are dirty, cannot evict under NO-STEAL");
+            }
+            synchronized (stripeOf(victim)) {
+                Page p = pages.get(victim);
+                if (p != null && p.isDirty() != null) {
+                    // dirtied after the policy picked it; keep it and look again
+                    policy.pageAdmitted(victim);
+                    continue;
+                }
+                ringPages.remove(victim);
+                if (p == null || !pages.remove(victim, p)) {
+                    continue;
+                }
+                // the page may have been discarded and read back in, and so
+                // readmitted, since the policy picked it
+                policy.pageRemoved(victim);
+                releaseFrame(victim);
+            }
+            usedFrames.decrementAndGet();
+            return;
+        }
     }
 
 }
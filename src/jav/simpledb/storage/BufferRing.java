@@ -0,0 +1,59 @@
+package jav.simpledb.storage;
+
+/**
+ * A BufferRing is a bulk-read access strategy, modelled on PostgreSQL's
+ * buffer rings. A large sequential scan that reads through a ring recycles a
+ * small, fixed set of frames for the pages it brings in instead of competing
+ * for the whole BufferPool, so the hot pages of other queries stay resident.
+ * <p>
+ * The ring only records which pages it loaded. When the ring wraps around,
+ * the BufferPool gives the frame of the oldest ring page back to the ring,
+ * unless another caller has since accessed that page or it has been
+ * dirtied; such pages are left to the pool's replacement policy.
+ * <p>
+ * A ring is used by one iterator at a time; its background read-ahead may
+ * load pages through it concurrently, so advancing the ring is synchronized.
+ *
+ * @see BufferPool#getPage(jav.simpledb.transaction.TransactionId, PageId, jav.simpledb.common.Permissions, BufferRing)
+ */
+public class BufferRing {
+
+    /** Default number of frames in a ring (64 KB with the default page size). */
+    public static final int DEFAULT_RING_PAGES = 16;
+
+    private final PageId[] slots;
+    private int cursor;
+
+    /** Create a ring with the default number of frames. */
+    public BufferRing() {
+        this(DEFAULT_RING_PAGES);
+    }
+
+    /**
+     * @param numPages the number of frames the ring may recycle
+     */
+    public BufferRing(int numPages) {
+        if (numPages < 1)
+            throw new IllegalArgumentException("a ring needs at least one page");
+        slots = new PageId[numPages];
+        cursor = 0;
+    }
+
+    /** @return the number of frames in this ring */
+    public int size() {
+        return slots.length;
+    }
+
+    /**
+     * Record that pid is being loaded through this ring, taking the next
+     * slot.
+     *
+     * @return the page that previously occupied the slot, or null
+     */
+    synchronized PageId advance(PageId pid) {
+        PageId old = slots[cursor];
+        slots[cursor] = pid;
+        cursor = (cursor + 1) % slots.length;
+        return old;
+    }
+}
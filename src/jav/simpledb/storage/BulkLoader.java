@@ -0,0 +1,152 @@
+package jav.simpledb.storage;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.DbException;
+import jav.simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * BulkLoader appends the rows of a delimited text file to a HeapFile
+ * without going through the BufferPool or logging each page.
+ * <p>
+ * The input is read in chunks of whole lines. Each chunk is parsed on a
+ * worker thread straight into the images of full HeapPages, and the images
+ * are written, in input order, past the end of the file with one large
+ * write per chunk. When all pages are on disk the file is forced and a
+ * single BULK_LOAD record naming the new page range is written to the log,
+ * so the load is logged by its extent rather than by page images.
+ * <p>
+ * Pages of a chunk are packed full; only the last page of each chunk may
+ * have free slots, and those are offered to later inserts through the
+ * file's free space map. If the load fails, the file is truncated back to
+ * its old length.
+ * <p>
+ * The input format is the one HeapFileEncoder reads.
+ *
+ * @see HeapFileEncoder
+ * @see LogFile#logBulkLoad
+ */
+public class BulkLoader {
+
+    /** Bytes of input handed to a worker at a time, by default. */
+    public static final int CHUNK_BYTES = DelimitedPageEncoder.CHUNK_BYTES;
+
+    /**
+     * Change the bytes of input handed to a worker at a time, by both
+     * BulkLoader and HeapFileEncoder.
+     */
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void setChunkBytes(int chunkBytes) {
+        DelimitedPageEncoder.setChunkBytes(chunkBytes);
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void resetChunkBytes() {
+        DelimitedPageEncoder.setChunkBytes(CHUNK_BYTES);
+    }
+
+    private final HeapFile file;
+    private final int threads;
+    private final int pageSize;
+    private final DelimitedPageEncoder encoder;
+
+    /**
+     * Create a loader for a comma separated file that parses on as many
+     * threads as there are processors.
+     *
+     * @param file the table to append to
+     */
+    public BulkLoader(HeapFile file) {
+        this(file, ',', Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param file the table to append to
+     * @param separator the character between fields of a line
+     * @param threads the number of threads to parse on
+     */
+    public BulkLoader(HeapFile file, char separator, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least one thread");
+        }
+        this.file = file;
+        this.threads = threads;
+        this.pageSize = BufferPool.getPageSize();
+        this.encoder = new DelimitedPageEncoder(file.getTupleDesc(), separator, pageSize, file.isPax());
+    }
+
+    /**
+     * Append every row of input to the table on behalf of tid.
+     *
+     * @return the number of tuples loaded
+     * @throws IOException if the input cannot be read, a line is malformed,
+     *   or the table cannot be written
+     */
+    public long load(TransactionId tid, File input) throws IOException, DbException {
+        try (InputStream in = new FileInputStream(input)) {
+            return load(tid, in);
+        }
+    }
+
+    /**
+     * Append every row read from in to the table on behalf of tid.
+     *
+     * @return the number of tuples loaded
+     * @see #load(TransactionId, File)
+     */
+    public long load(TransactionId tid, InputStream in) throws IOException, DbException {
+        DbFileChannel channel = file.channel();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "simpledb-bulkload");
+            t.setDaemon(true);
+            return t;
+        });
+        synchronized (file.appendLock()) {
+            int firstPage = file.numPages();
+            int[] nextPage = {firstPage};
+            // free slots of each page written, to file in the free space map
+            int[][] free = {new int[16]};
+            boolean done = false;
+            boolean mapped = false;
+            try {
+                long tuples = encoder.encode(in, workers, threads + 1, c -> {
+                    int at = nextPage[0] - firstPage;
+                    if (at + c.numPages > free[0].length) {
+                        free[0] = Arrays.copyOf(free[0], Math.max(at + c.numPages, free[0].length * 2));
+                    }
+                    if (c.numPages > 0) {
+                        // only the last page of a chunk may have room
+                        free[0][at + c.numPages - 1] = c.lastPageFree;
+                    }
+                    channel.write(c.pages, (long) nextPage[0] * pageSize);
+                    nextPage[0] += c.numPages;
+                });
+                int numPages = nextPage[0] - firstPage;
+                if (numPages > 0) {
+                    channel.force();
+                    file.getFreeSpaceMap().appended(firstPage, Arrays.copyOf(free[0], numPages));
+                    mapped = true;
+                    // logged last, once nothing else can fail, so the log
+                    // never records pages that were rolled back
+                    Database.getLogFile().logBulkLoad(tid, file.getId(), firstPage, numPages);
+                }
+                done = true;
+                return tuples;
+            } catch (InterruptedIOException e) {
+                throw new DbException("interrupted while bulk loading");
+            } finally {
+                workers.shutdownNow();
+                if (!done) {
+                    channel.truncate((long) firstPage * pageSize);
+                    if (mapped) {
+                        file.getFreeSpaceMap().truncated(firstPage);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package jav.simpledb.storage;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance) replacement. Frames are laid out on a circular
+ * array with one reference bit each; a hit sets the bit, and the clock hand
+ * clears bits as it sweeps until it finds an unreferenced page it may evict.
+ */
+public class ClockPolicy implements EvictionPolicy {
+
+    private final PageId[] frames;
+    private final boolean[] referenced;
+    private final Map<PageId, Integer> frameOf;
+    private final Deque<Integer> freeFrames;
+    private int hand;
+
+    /**
+     * @param numPages the number of frames in the BufferPool
+     */
+    public ClockPolicy(int numPages) {
+        int n = Math.max(1, numPages);
+        frames = new PageId[n];
+        referenced = new boolean[n];
+        frameOf = new HashMap<>();
+        freeFrames = new ArrayDeque<>();
+        for (int i = 0; i < n; i++)
+            freeFrames.add(i);
+        hand = 0;
+    }
+
+    public synchronized void pageAdmitted(PageId pid) {
+        Integer f = frameOf.get(pid);
+        if (f == null) {
+            if (freeFrames.isEmpty())
+                throw new IllegalStateException("clock has no free frame for " + pid);
+            f = freeFrames.poll();
+            frames[f] = pid;
+            frameOf.put(pid, f);
+        }
+        referenced[f] = true;
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        Integer f = frameOf.get(pid);
+        if (f != null)
+            referenced[f] = true;
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Integer f = frameOf.remove(pid);
+        if (f != null) {
+            frames[f] = null;
+            referenced[f] = false;
+            freeFrames.add(f);
+        }
+    }
+
+    public synchronized PageId evict(Predicate<PageId> evictable) {
+        // two full sweeps: the first may only clear reference bits
+        for (int step = 0; step < 2 * frames.length; step++) {
+            int f = hand;
+            hand = (hand + 1) % frames.length;
+            PageId pid = frames[f];
+            if (pid == null || !evictable.test(pid))
+                continue;
+            if (referenced[f]) {
+                referenced[f] = false;
+                continue;
+            }
+            pageRemoved(pid);
+            return pid;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,178 @@
+package jav.simpledb.storage;
+
+import jav.simpledb.common.Type;
+import jav.simpledb.execution.Predicate;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A ColumnDictionary maps the distinct values of a string column to small int
+ * codes, 0, 1, 2, ... in the order the values were first added. Columns of
+ * a {@link ColumnarFile} can be stored as codes into a dictionary, and are
+ * read back as {@link DictionaryField}s, which share the dictionary's
+ * strings instead of decoding a string per row.
+ * <p>
+ * A dictionary is kept in its own file, the values one after another, each
+ * as its length and its bytes. Values are only ever appended, so codes in
+ * existing tables stay valid when a dictionary shared by several tables
+ * grows. {@link #open} returns the same ColumnDictionary for the same file,
+ * so tables whose columns use one dictionary file share one object, and
+ * their fields compare and hash on codes.
+ *
+ * @Threadsafe
+ * @see DictionaryField
+ */
+public class ColumnDictionary {
+
+    /** Suffix of a dictionary file. */
+    public static final String SUFFIX = ".dict";
+
+    private static final Map<String, ColumnDictionary> OPEN = new ConcurrentHashMap<>();
+
+    private final File file;
+    private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[16];
+    private volatile int size;
+
+    private ColumnDictionary(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Open the dictionary kept in file, reading it on first use. A missing
+     * file is an empty dictionary.
+     *
+     * @throws IOException if the file cannot be read
+     */
+    public static ColumnDictionary open(File file) throws IOException {
+        String key = file.getCanonicalPath();
+        ColumnDictionary d = OPEN.get(key);
+        if (d != null) {
+            return d;
+        }
+        synchronized (OPEN) {
+            d = OPEN.get(key);
+            if (d == null) {
+                d = new ColumnDictionary(file);
+                d.load();
+                OPEN.put(key, d);
+            }
+            return d;
+        }
+    }
+
+    private void load() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int len;
+                try {
+                    len = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (len < 0 || len > Type.STRING_LEN) {
+                    throw new IOException("bad value length " + len + " in dictionary " + file);
+                }
+                byte[] b = new byte[len];
+                in.readFully(b);
+                encode(new String(b, StandardCharsets.ISO_8859_1));
+            }
+        }
+    }
+
+    /**
+     * @return the file the dictionary is kept in
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of values in the dictionary
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the value with the given code
+     * @throws IllegalArgumentException if there is no such code
+     */
+    public String value(int code) {
+        if (code < 0 || code >= size) {
+            throw new IllegalArgumentException("no code " + code + " in dictionary " + file);
+        }
+        return values[code];
+    }
+
+    /**
+     * @return the code of value, or -1 if it is not in the dictionary
+     */
+    public int code(String value) {
+        Integer c = codes.get(value);
+        return c == null ? -1 : c;
+    }
+
+    /**
+     * Return the code of value, adding it to the dictionary if it is not
+     * there yet. Added values are written out by {@link #save}.
+     */
+    synchronized int encode(String value) {
+        Integer c = codes.get(value);
+        if (c != null) {
+            return c;
+        }
+        String[] v = values;
+        if (size == v.length) {
+            v = Arrays.copyOf(v, v.length * 2);
+            values = v;
+        }
+        v[size] = value;
+        codes.put(value, size);
+        return size++;
+    }
+
+    /**
+     * Write the dictionary to its file.
+     */
+    synchronized void save() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            for (int c = 0; c < size; c++) {
+                byte[] b = values[c].getBytes(StandardCharsets.ISO_8859_1);
+                out.writeInt(b.length);
+                out.write(b);
+            }
+        }
+    }
+
+    /**
+     * Evaluate a predicate on the values of the dictionary rather than on
+     * every row: bit c of the result is set if the value with code c
+     * satisfies op against operand, for the codes below limit.
+     *
+     * @param limit the number of codes to evaluate, at most size()
+     * @see StringField#compare
+     */
+    public BitSet matching(Predicate.Op op, StringField operand, int limit) {
+        BitSet match = new BitSet(limit);
+        for (int c = 0; c < limit; c++) {
+            if (new StringField(values[c], Type.STRING_LEN).compare(op, operand)) {
+                match.set(c);
+            }
+        }
+        return match;
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnDictionary(" + file + ", " + size + " values)";
+    }
+}
@@ -0,0 +1,567 @@
+package jav.simpledb.storage;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.DbException;
+import jav.simpledb.common.Permissions;
+import jav.simpledb.common.Type;
+import jav.simpledb.transaction.TransactionAbortedException;
+import jav.simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * ColumnarFile is a DbFile that stores a table column by column, so that a
+ * query touching a few columns of a wide table reads only the pages of
+ * those columns.
+ * <p>
+ * The rows of the table are divided into row groups of up to
+ * {@link #ROWS_PER_GROUP} rows. Within a row group each column is stored as
+ * its own run of consecutive {@link ColumnarPage}s, column after column, the
+ * values packed at the fixed width of the column's type. A page of column c
+ * therefore holds <code>pageSize / c.getLen()</code> values, and row r of a
+ * group sits on page <code>r / valuesPerPage</code> of the column's run.
+ * <p>
+ * A compressed file (see {@link ColumnarFileEncoder#convert(File, File, int, Type[], char, boolean)})
+ * instead starts every page with a small header holding the number of
+ * values on it, and encodes each page of an int column with whichever of
+ * frame-of-reference, delta or run-length encoding fits the most values
+ * (see {@link IntColumnCodec}). Pages then hold varying numbers of rows,
+ * and a scan walks each column's run page by page, decoding a page's ints
+ * once, into an array, when the page is first read.
+ * <p>
+ * A string column can be dictionary-encoded: it is then stored as an int
+ * column of codes into a {@link ColumnDictionary}, compressed like any other int
+ * column, and read back as {@link DictionaryField}s. The dictionaries of a
+ * file are listed, one line per column and empty for other columns, in a
+ * sidecar file named after it with {@link #DICTIONARIES_SUFFIX}; a path in
+ * it is relative to the directory of the file.
+ * <p>
+ * The row-group directory follows the last row group, in as many pages as
+ * it needs: the number of row groups, the format flags, then for each group
+ * its row count, its first page and the number of pages of each column. The
+ * last int of the file is the number of directory pages, so a reader finds
+ * the directory from the end of the file.
+ * <p>
+ * Tuples are read through the BufferPool like any other table. An iterator
+ * asked for some of the fields (see {@link DbFile#iterator(TransactionId, BitSet)})
+ * only fetches the pages of those columns and leaves the other fields null;
+ * SeqScan passes on the fields its plan references. Fields are decoded from
+ * the pages on first access, as tuples of a HeapPage are.
+ * <p>
+ * Columnar files are written whole by {@link ColumnarFileEncoder} and are
+ * read-only: inserting or deleting tuples fails with a DbException.
+ *
+ * @see ColumnarFileEncoder
+ * @see ColumnarPage
+ */
+public class ColumnarFile implements DbFile {
+
+    /** The most rows a row group holds. */
+    public static final int ROWS_PER_GROUP = 8192;
+
+    /** The directory flag of a file with compressed pages. */
+    static final int COMPRESSED = 1;
+    /** The directory flag of a file with dictionary-encoded columns. */
+    static final int DICTIONARY = 2;
+
+    /** Suffix of the sidecar file listing the dictionaries of the columns. */
+    public static final String DICTIONARIES_SUFFIX = ".dicts";
+
+    private final File file;
+    private final TupleDesc td;
+    private final int tableId;
+    private final DbFileChannel channel;
+
+    /** The row groups of the file, read from its directory on first use. */
+    private volatile RowGroup[] groups;
+    private volatile boolean compressed;
+    /** The dictionary of each column, or null, and the type each column is stored as. */
+    private volatile ColumnDictionary[] dictionaries;
+    private volatile Type[] stored;
+
+    /**
+     * @param f the file holding the table, written by ColumnarFileEncoder
+     * @param td the schema of the table
+     */
+    public ColumnarFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        this.tableId = f.getAbsoluteFile().hashCode();
+        this.channel = new DbFileChannel(f);
+    }
+
+    /** A row group: its rows and where each of its column runs starts. */
+    private static final class RowGroup {
+        final int numRows;
+        final int[] firstPages;
+
+        RowGroup(int numRows, int[] firstPages) {
+            this.numRows = numRows;
+            this.firstPages = firstPages;
+        }
+    }
+
+    /**
+     * @return the number of values of type that fit on one uncompressed
+     *   page, or on one page of a compressed file if compressed is set
+     */
+    static int valuesPerPage(Type type, int pageSize, boolean compressed) {
+        return (pageSize - (compressed ? IntColumnCodec.HEADER_SIZE : 0)) / type.getLen();
+    }
+
+    /**
+     * @return the number of pages a run of rows values of type takes when
+     *   stored at the type's fixed width
+     */
+    static int columnPages(int rows, Type type, int pageSize, boolean compressed) {
+        int perPage = valuesPerPage(type, pageSize, compressed);
+        return (rows + perPage - 1) / perPage;
+    }
+
+    /**
+     * @return the number of pages the directory of numGroups row groups of
+     *   a table with numFields columns takes
+     */
+    static int directoryPages(int numGroups, int numFields, int pageSize) {
+        return (8 + 4 * (2 + numFields) * numGroups + 4 + pageSize - 1) / pageSize;
+    }
+
+    private RowGroup[] groups() throws IOException {
+        RowGroup[] g = groups;
+        if (g == null) {
+            synchronized (this) {
+                g = groups;
+                if (g == null) {
+                    g = readDirectory();
+                    groups = g;
+                }
+            }
+        }
+        return g;
+    }
+
+    private RowGroup[] readDirectory() throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        long size = channel.size();
+        if (size < pageSize) {
+            dictionaries = new ColumnDictionary[td.numFields()];
+            return new RowGroup[0];
+        }
+        byte[] last = new byte[4];
+        channel.readFully(last, size - 4);
+        int dirPages = ByteBuffer.wrap(last).getInt();
+        if (dirPages < 1 || (long) dirPages * pageSize > size) {
+            throw new IOException("bad row-group directory in " + file);
+        }
+        byte[] dir = new byte[dirPages * pageSize];
+        channel.readFully(dir, size - dir.length);
+        ByteBuffer b = ByteBuffer.wrap(dir);
+        RowGroup[] g = new RowGroup[b.getInt(0)];
+        int flags = b.getInt(4);
+        compressed = (flags & COMPRESSED) != 0;
+        dictionaries = (flags & DICTIONARY) != 0
+                ? readDictionaries() : new ColumnDictionary[td.numFields()];
+        Type[] types = new Type[td.numFields()];
+        for (int c = 0; c < types.length; c++) {
+            types[c] = dictionaries[c] != null ? Type.INT_TYPE : td.getFieldType(c);
+        }
+        stored = types;
+        int at = 8;
+        for (int i = 0; i < g.length; i++) {
+            int numRows = b.getInt(at);
+            int page = b.getInt(at + 4);
+            at += 8;
+            int[] firstPages = new int[td.numFields()];
+            for (int c = 0; c < firstPages.length; c++) {
+                firstPages[c] = page;
+                page += b.getInt(at);
+                at += 4;
+            }
+            g[i] = new RowGroup(numRows, firstPages);
+        }
+        return g;
+    }
+
+    private ColumnDictionary[] readDictionaries() throws IOException {
+        File list = new File(file.getPath() + DICTIONARIES_SUFFIX);
+        ColumnDictionary[] d = new ColumnDictionary[td.numFields()];
+        List<String> lines = Files.readAllLines(list.toPath());
+        for (int c = 0; c < d.length && c < lines.size(); c++) {
+            String path = lines.get(c).trim();
+            if (path.isEmpty()) {
+                continue;
+            }
+            if (!td.getFieldType(c).isString()) {
+                throw new IOException("column " + c + " of " + file + " is not a string column");
+            }
+            File f = new File(path);
+            d[c] = ColumnDictionary.open(
+                    f.isAbsolute() ? f : new File(file.getAbsoluteFile().getParentFile(), path));
+        }
+        return d;
+    }
+
+    /**
+     * @return the dictionary column i is encoded with, or null if it is not
+     *   dictionary-encoded
+     */
+    public ColumnDictionary getDictionary(int i) throws IOException {
+        groups();
+        return dictionaries[i];
+    }
+
+    /**
+     * Returns the File backing this ColumnarFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public int getId() {
+        return tableId;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the number of pages in this file, directory included.
+     */
+    public int numPages() {
+        return (int) (file.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * @return the number of rows in the table
+     */
+    public long numRows() throws IOException {
+        long rows = 0;
+        for (RowGroup g : groups()) {
+            rows += g.numRows;
+        }
+        return rows;
+    }
+
+    /**
+     * @return the number of row groups in the table
+     */
+    public int numRowGroups() throws IOException {
+        return groups().length;
+    }
+
+    /**
+     * @return true if the pages of the file are compressed
+     */
+    public boolean isCompressed() throws IOException {
+        groups();
+        return compressed;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pageNo = pid.getPageNumber();
+        int pageSize = BufferPool.getPageSize();
+        try {
+            byte[] data = new byte[pageSize];
+            if (channel.read(data, (long) pageNo * pageSize) < pageSize) {
+                throw new IllegalArgumentException("Page with pageNo: " + pageNo + " not found");
+            }
+            return new ColumnarPage(new HeapPageId(pid.getTableId(), pageNo), data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Page with pageNo: " + pageNo + " not found", e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        channel.write(page.getPageBuffer(), (long) page.getId().getPageNumber() * BufferPool.getPageSize());
+    }
+
+    /**
+     * Columnar files are read-only.
+     *
+     * @throws DbException always
+     */
+    public List<Page> insertTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("columnar table " + file.getName() + " is read-only");
+    }
+
+    /**
+     * Columnar files are read-only.
+     *
+     * @throws DbException always
+     */
+    public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("columnar table " + file.getName() + " is read-only");
+    }
+
+    /**
+     * Close the file handle this ColumnarFile reads through. It is reopened
+     * if the file is accessed again.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new ColumnarIterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator that fetches only the pages of the given fields.
+     *
+     * @see DbFile#iterator(TransactionId, BitSet)
+     */
+    @Override
+    public DbFileIterator iterator(TransactionId tid, BitSet fields) {
+        return new ColumnarIterator(tid, fields, null);
+    }
+
+    /**
+     * Returns an iterator that fetches only the pages of the given fields,
+     * reading pages it does not find in the BufferPool through ring.
+     *
+     * @param tid the transaction the scan runs as a part of
+     * @param fields the fields to read, or null for all of them
+     * @param ring the bulk-read ring to load pages through
+     * @see BufferRing
+     */
+    public DbFileIterator iterator(TransactionId tid, BitSet fields, BufferRing ring) {
+        return new ColumnarIterator(tid, fields, ring);
+    }
+
+    /**
+     * The column pages holding a range of rows of a row group, from which
+     * the tuples of those rows decode their fields. A window never changes,
+     * so tuples stay readable after the iterator has moved on.
+     */
+    private final class Window implements Tuple.Source {
+        final int firstPage;
+        final ColumnarPage[] pages;
+        final int[] pageNos;
+        /** The first row of the group each page holds, and how many it holds. */
+        final int[] firstRows;
+        final int[] counts;
+        /** One past the last row every page of the window holds. */
+        final int end;
+
+        Window(int firstPage, ColumnarPage[] pages, int[] pageNos, int[] firstRows, int[] counts, int end) {
+            this.firstPage = firstPage;
+            this.pages = pages;
+            this.pageNos = pageNos;
+            this.firstRows = firstRows;
+            this.counts = counts;
+            this.end = end;
+        }
+
+        @Override
+        public Field readField(int row, int i) {
+            ColumnarPage page = pages[i];
+            if (page == null) {
+                return null;
+            }
+            Type type = stored[i];
+            int index = row - firstRows[i];
+            Field f;
+            if (!compressed) {
+                f = page.getField(type, index);
+            } else if (type == Type.INT_TYPE) {
+                int v = page.getInts()[index];
+                if (dictionaries[i] != null) {
+                    return new DictionaryField(dictionaries[i], v);
+                }
+                return new IntField(v);
+            } else {
+                f = page.getField(type, index, IntColumnCodec.HEADER_SIZE);
+            }
+            if (dictionaries[i] != null) {
+                return new DictionaryField(dictionaries[i], ((IntField) f).getValue());
+            }
+            return f;
+        }
+
+        @Override
+        public int readInt(int row, int i) {
+            ColumnarPage page = pages[i];
+            if (page == null || dictionaries[i] != null || stored[i] != Type.INT_TYPE) {
+                return Tuple.Source.super.readInt(row, i);
+            }
+            int index = row - firstRows[i];
+            return compressed ? page.getInts()[index] : page.getInt(index);
+        }
+
+        @Override
+        public boolean isNull(int row, int i) {
+            return pages[i] == null;
+        }
+
+        @Override
+        public RecordId recordId(int row) {
+            return new RecordId(new HeapPageId(tableId, firstPage), row);
+        }
+    }
+
+    private class ColumnarIterator implements DbFileIterator {
+
+        private final TransactionId tid;
+        private final BitSet fields;
+        private final BufferRing ring;
+        private RowGroup[] groups;
+        private int groupNo;
+        private int row;
+        private Window window;
+
+        ColumnarIterator(TransactionId tid, BitSet fields, BufferRing ring) {
+            this.tid = tid;
+            this.fields = fields;
+            this.ring = ring;
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            try {
+                groups = groups();
+            } catch (IOException e) {
+                throw new DbException("could not read the row-group directory: " + e.getMessage());
+            }
+            groupNo = 0;
+            row = 0;
+            window = null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (groups == null) {
+                return false;
+            }
+            while (groupNo < groups.length && row >= groups[groupNo].numRows) {
+                groupNo++;
+                row = 0;
+                window = null;
+            }
+            return groupNo < groups.length;
+        }
+
+        @Override
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException("This is the last element");
+            }
+            if (window == null || row >= window.end) {
+                window = fetch(groupNo, row, window);
+            }
+            return new Tuple(td, window, row++);
+        }
+
+        /**
+         * Fill batch from the column pages directly: the ints of a page are
+         * copied in one run, only other fields are decoded row by row.
+         */
+        @Override
+        public boolean nextBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+            batch.clear();
+            while (!batch.isFull() && hasNext()) {
+                if (window == null || row >= window.end) {
+                    window = fetch(groupNo, row, window);
+                }
+                int n = Math.min(window.end - row, TupleBatch.CAPACITY - batch.size());
+                int at = batch.appendRows(n);
+                for (int c = 0; c < td.numFields(); c++) {
+                    ColumnarPage page = window.pages[c];
+                    if (page == null) {
+                        batch.setNull(c, at, at + n);
+                    } else if (stored[c] == Type.INT_TYPE && dictionaries[c] == null) {
+                        int index = row - window.firstRows[c];
+                        int[] out = batch.getInts(c);
+                        if (compressed) {
+                            System.arraycopy(page.getInts(), index, out, at, n);
+                        } else {
+                            for (int k = 0; k < n; k++) {
+                                out[at + k] = page.getInt(index + k);
+                            }
+                        }
+                    } else {
+                        for (int k = 0; k < n; k++) {
+                            batch.setField(c, at + k, window.readField(row + k, c));
+                        }
+                    }
+                }
+                row += n;
+            }
+            return batch.size() > 0;
+        }
+
+        /**
+         * Fetch the pages of the wanted columns that hold row of the group,
+         * keeping those of the previous window, from the same group, that
+         * still do. Rows are fetched in order, so a column whose page of the
+         * previous window is used up continues on the next page of its run.
+         */
+        private Window fetch(int groupNo, int row, Window previous)
+                throws DbException, TransactionAbortedException {
+            RowGroup g = groups[groupNo];
+            int pageSize = BufferPool.getPageSize();
+            int n = td.numFields();
+            ColumnarPage[] pages = new ColumnarPage[n];
+            int[] pageNos = new int[n];
+            int[] firstRows = new int[n];
+            int[] counts = new int[n];
+            int end = g.numRows;
+            for (int c = 0; c < n; c++) {
+                if (fields != null && !fields.get(c)) {
+                    continue;
+                }
+                int pageNo;
+                int firstRow;
+                if (!compressed) {
+                    int perPage = valuesPerPage(stored[c], pageSize, false);
+                    pageNo = g.firstPages[c] + row / perPage;
+                    firstRow = row / perPage * perPage;
+                    counts[c] = perPage;
+                } else if (previous == null) {
+                    pageNo = g.firstPages[c];
+                    firstRow = 0;
+                } else {
+                    pageNo = previous.pageNos[c];
+                    firstRow = previous.firstRows[c];
+                }
+                if (previous != null && previous.pageNos[c] == pageNo) {
+                    pages[c] = previous.pages[c];
+                    counts[c] = previous.counts[c];
+                }
+                while (pages[c] == null || row >= firstRow + counts[c]) {
+                    if (pages[c] != null) {
+                        firstRow += counts[c];
+                        pageNo++;
+                    }
+                    pages[c] = (ColumnarPage) Database.getBufferPool().getPage(tid,
+                            new HeapPageId(tableId, pageNo), Permissions.READ_ONLY, ring);
+                    if (compressed) {
+                        counts[c] = pages[c].getCount();
+                    }
+                }
+                pageNos[c] = pageNo;
+                firstRows[c] = firstRow;
+                end = Math.min(end, firstRow + counts[c]);
+            }
+            return new Window(g.firstPages[0], pages, pageNos, firstRows, counts, end);
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            groups = null;
+            window = null;
+        }
+    }
+}
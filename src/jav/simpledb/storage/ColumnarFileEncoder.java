@@ -0,0 +1,355 @@
+package jav.simpledb.storage;
+
+import jav.simpledb.common.DbException;
+import jav.simpledb.common.Type;
+import jav.simpledb.transaction.TransactionAbortedException;
+import jav.simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * ColumnarFileEncoder writes tables in the format of {@link ColumnarFile},
+ * either from a delimited text file, in the format HeapFileEncoder reads, or
+ * from the tuples of another table.
+ * <p>
+ * Rows are gathered one row group at a time, each column into its own
+ * buffer, and every full group is written out column by column; the
+ * row-group directory is written last. When compressing, int columns are
+ * gathered as arrays and cut into pages by {@link IntColumnCodec}, each
+ * page in whichever encoding fits the most of the values still to write.
+ * A dictionary-encoded string column is written as an int column of codes,
+ * the new values added to its {@link ColumnDictionary}, which is saved with the
+ * file.
+ *
+ * @see ColumnarFile
+ * @see HeapFileEncoder
+ */
+public class ColumnarFileEncoder {
+
+    private final TupleDesc td;
+    private final int pageSize;
+    private final File outFile;
+    private final OutputStream out;
+    private final boolean compress;
+    /** The dictionary of each column, or null, and the type each column is stored as. */
+    private final ColumnDictionary[] dictionaries;
+    private final Type[] stored;
+    /** The fixed-width columns of the current group, page by page. */
+    private final ByteBuffer[] columns;
+    /** The int columns of the current group, when compressing. */
+    private final int[][] ints;
+    private final ByteBuffer page;
+    private int rows;
+    private int nextPage;
+    /** Per group: its rows, its first page and the pages of each column. */
+    private int[] directory = new int[64];
+    private int numGroups;
+
+    private ColumnarFileEncoder(TupleDesc td, int pageSize, File outFile, OutputStream out, boolean compress,
+                                ColumnDictionary[] dictionaries) {
+        this.td = td;
+        this.pageSize = pageSize;
+        this.outFile = outFile;
+        this.out = out;
+        this.compress = compress;
+        this.dictionaries = dictionaries != null ? dictionaries.clone() : new ColumnDictionary[td.numFields()];
+        if (this.dictionaries.length != td.numFields()) {
+            throw new IllegalArgumentException("expected a dictionary or null for each of "
+                    + td.numFields() + " columns");
+        }
+        this.stored = new Type[td.numFields()];
+        this.columns = new ByteBuffer[td.numFields()];
+        this.ints = new int[td.numFields()][];
+        this.page = ByteBuffer.allocate(pageSize);
+        for (int c = 0; c < columns.length; c++) {
+            if (this.dictionaries[c] != null && !td.getFieldType(c).isString()) {
+                throw new IllegalArgumentException("column " + c + " is not a string column");
+            }
+            Type type = this.dictionaries[c] != null ? Type.INT_TYPE : td.getFieldType(c);
+            stored[c] = type;
+            if (ColumnarFile.valuesPerPage(type, pageSize, compress) < 1) {
+                throw new IllegalArgumentException("page size " + pageSize + " is too small for " + type);
+            }
+            if (compress && type == Type.INT_TYPE) {
+                ints[c] = new int[ColumnarFile.ROWS_PER_GROUP];
+            } else {
+                columns[c] = ByteBuffer.allocate(ColumnarFile.columnPages(
+                        ColumnarFile.ROWS_PER_GROUP, type, pageSize, compress) * pageSize);
+            }
+        }
+    }
+
+    /**
+     * Convert a delimited text file into a ColumnarFile. Blank lines are
+     * skipped; a line with the wrong number of fields or a bad int fails
+     * the conversion.
+     *
+     * @param inFile the text file to read
+     * @param outFile the file to write
+     * @param npagebytes the number of bytes per page in the output file
+     * @param typeAr the types of the fields of each line
+     * @param fieldSeparator the character between fields of a line
+     * @return the number of rows written
+     * @throws IOException if a file cannot be read or written, or a line is
+     *   malformed
+     */
+    public static long convert(File inFile, File outFile, int npagebytes, Type[] typeAr,
+                               char fieldSeparator) throws IOException {
+        return convert(inFile, outFile, npagebytes, typeAr, fieldSeparator, false);
+    }
+
+    /**
+     * Convert a delimited text file into a ColumnarFile, compressing the
+     * pages of its int columns if compress is set.
+     *
+     * @see #convert(File, File, int, Type[], char)
+     * @see IntColumnCodec
+     */
+    public static long convert(File inFile, File outFile, int npagebytes, Type[] typeAr,
+                               char fieldSeparator, boolean compress) throws IOException {
+        return convert(inFile, outFile, npagebytes, typeAr, fieldSeparator, compress, (ColumnDictionary[]) null);
+    }
+
+    /**
+     * Convert a delimited text file into a ColumnarFile, dictionary-encoding
+     * every string column if dictionary is set. Column c gets its own
+     * dictionary, in the file named after outFile with "." + c +
+     * {@link ColumnDictionary#SUFFIX}; an existing dictionary there is extended.
+     *
+     * @see #convert(File, File, int, Type[], char, boolean, ColumnDictionary[])
+     */
+    public static long convert(File inFile, File outFile, int npagebytes, Type[] typeAr,
+                               char fieldSeparator, boolean compress, boolean dictionary) throws IOException {
+        ColumnDictionary[] dictionaries = new ColumnDictionary[typeAr.length];
+        for (int c = 0; dictionary && c < typeAr.length; c++) {
+            if (typeAr[c].isString()) {
+                dictionaries[c] = ColumnDictionary.open(
+                        new File(outFile.getPath() + "." + c + ColumnDictionary.SUFFIX));
+            }
+        }
+        return convert(inFile, outFile, npagebytes, typeAr, fieldSeparator, compress, dictionaries);
+    }
+
+    /**
+     * Convert a delimited text file into a ColumnarFile, encoding string
+     * column c with dictionaries[c] unless that is null. Passing the same
+     * ColumnDictionary for columns of several tables lets joins and comparisons
+     * between them work on codes.
+     *
+     * @param dictionaries a dictionary or null for each column; values not
+     *   yet in a dictionary are added to it
+     * @see #convert(File, File, int, Type[], char)
+     */
+    public static long convert(File inFile, File outFile, int npagebytes, Type[] typeAr,
+                               char fieldSeparator, boolean compress, ColumnDictionary[] dictionaries)
+            throws IOException {
+        TupleDesc td = new TupleDesc(typeAr);
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(inFile), StandardCharsets.UTF_8));
+             OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile), 1 << 16)) {
+            ColumnarFileEncoder encoder = new ColumnarFileEncoder(td, npagebytes, outFile, os, compress,
+                    dictionaries);
+            Field[] row = new Field[typeAr.length];
+            String line;
+            long count = 0;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                parseLine(line, fieldSeparator, typeAr, row);
+                encoder.add(row);
+                count++;
+            }
+            encoder.finish();
+            return count;
+        }
+    }
+
+    /**
+     * Convert a delimited text file of ints into a ColumnarFile.
+     *
+     * @see #convert(File, File, int, Type[], char)
+     */
+    public static long convert(File inFile, File outFile, int npagebytes, int numFields) throws IOException {
+        Type[] ts = new Type[numFields];
+        Arrays.fill(ts, Type.INT_TYPE);
+        return convert(inFile, outFile, npagebytes, ts, ',');
+    }
+
+    /**
+     * Write every tuple of source, such as a HeapFile, into a ColumnarFile
+     * with the same schema.
+     *
+     * @param source the table to copy
+     * @param tid the transaction to read source as
+     * @param outFile the file to write
+     * @return the number of rows written
+     */
+    public static long convert(DbFile source, TransactionId tid, File outFile)
+            throws IOException, DbException, TransactionAbortedException {
+        return convert(source, tid, outFile, false);
+    }
+
+    /**
+     * Write every tuple of source into a ColumnarFile, compressing the pages
+     * of its int columns if compress is set.
+     *
+     * @see #convert(DbFile, TransactionId, File)
+     */
+    public static long convert(DbFile source, TransactionId tid, File outFile, boolean compress)
+            throws IOException, DbException, TransactionAbortedException {
+        TupleDesc td = source.getTupleDesc();
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile), 1 << 16)) {
+            ColumnarFileEncoder encoder = new ColumnarFileEncoder(td, BufferPool.getPageSize(), outFile, os,
+                    compress, null);
+            Field[] row = new Field[td.numFields()];
+            DbFileIterator it = source.iterator(tid);
+            it.open();
+            long count = 0;
+            try {
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = t.getField(i);
+                    }
+                    encoder.add(row);
+                    count++;
+                }
+            } finally {
+                it.close();
+            }
+            encoder.finish();
+            return count;
+        }
+    }
+
+    private static void parseLine(String line, char separator, Type[] types, Field[] row) throws IOException {
+        int start = 0;
+        for (int f = 0; f < types.length; f++) {
+            int end = line.indexOf(separator, start);
+            boolean last = f == types.length - 1;
+            if (last != (end < 0)) {
+                throw new IOException("expected " + types.length + " fields: " + line);
+            }
+            if (last) {
+                end = line.length();
+            }
+            String value = line.substring(start, end).trim();
+            if (types[f] == Type.INT_TYPE) {
+                try {
+                    row[f] = new IntField(Integer.parseInt(value));
+                } catch (NumberFormatException e) {
+                    throw new IOException("bad int " + value + " in: " + line);
+                }
+            } else {
+                row[f] = new StringField(value, Type.STRING_LEN, types[f]);
+            }
+            start = end + 1;
+        }
+    }
+
+    private void add(Field[] row) throws IOException {
+        int header = compress ? IntColumnCodec.HEADER_SIZE : 0;
+        for (int c = 0; c < columns.length; c++) {
+            Field f = row[c];
+            if (dictionaries[c] != null) {
+                f = new IntField(dictionaries[c].encode(((StringField) f).getValue()));
+            }
+            if (ints[c] != null) {
+                ints[c][rows] = ((IntField) f).getValue();
+                continue;
+            }
+            Type type = stored[c];
+            int perPage = ColumnarFile.valuesPerPage(type, pageSize, compress);
+            f.serialize(columns[c], rows / perPage * pageSize + header + rows % perPage * type.getLen());
+        }
+        if (++rows == ColumnarFile.ROWS_PER_GROUP) {
+            writeGroup();
+        }
+    }
+
+    private void writeGroup() throws IOException {
+        int entry = 2 + columns.length;
+        if ((numGroups + 1) * entry > directory.length) {
+            directory = Arrays.copyOf(directory, Math.max(directory.length * 2, (numGroups + 1) * entry));
+        }
+        int at = numGroups * entry;
+        directory[at] = rows;
+        directory[at + 1] = nextPage;
+        numGroups++;
+        for (int c = 0; c < columns.length; c++) {
+            int pages = ints[c] != null ? writeInts(ints[c]) : writeFixed(columns[c], stored[c]);
+            directory[at + 2 + c] = pages;
+            nextPage += pages;
+        }
+        rows = 0;
+    }
+
+    /** Write the fixed-width column of the group, returning its page count. */
+    private int writeFixed(ByteBuffer column, Type type) throws IOException {
+        int perPage = ColumnarFile.valuesPerPage(type, pageSize, compress);
+        int pages = (rows + perPage - 1) / perPage;
+        if (compress) {
+            for (int p = 0; p < pages; p++) {
+                column.putShort(p * pageSize + 2, (short) Math.min(perPage, rows - p * perPage));
+            }
+        }
+        byte[] data = column.array();
+        out.write(data, 0, pages * pageSize);
+        // the tail of the last page must be zero in the next group
+        Arrays.fill(data, 0, pages * pageSize, (byte) 0);
+        return pages;
+    }
+
+    /** Compress the int column of the group, returning its page count. */
+    private int writeInts(int[] values) throws IOException {
+        int pages = 0;
+        for (int from = 0; from < rows; pages++) {
+            Arrays.fill(page.array(), (byte) 0);
+            from += IntColumnCodec.encode(values, from, rows, page, pageSize);
+            out.write(page.array());
+        }
+        return pages;
+    }
+
+    private void finish() throws IOException {
+        if (rows > 0) {
+            writeGroup();
+        }
+        int dirPages = ColumnarFile.directoryPages(numGroups, columns.length, pageSize);
+        ByteBuffer dir = ByteBuffer.allocate(dirPages * pageSize);
+        dir.putInt(0, numGroups);
+        boolean coded = false;
+        for (ColumnDictionary d : dictionaries) {
+            coded |= d != null;
+        }
+        dir.putInt(4, (compress ? ColumnarFile.COMPRESSED : 0) | (coded ? ColumnarFile.DICTIONARY : 0));
+        for (int i = 0; i < numGroups * (2 + columns.length); i++) {
+            dir.putInt(8 + 4 * i, directory[i]);
+        }
+        dir.putInt(dir.capacity() - 4, dirPages);
+        out.write(dir.array());
+        if (coded) {
+            writeDictionaries();
+        }
+    }
+
+    /** Save the dictionaries and list them in the sidecar of the file. */
+    private void writeDictionaries() throws IOException {
+        File dir = outFile.getAbsoluteFile().getParentFile();
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(outFile.getPath() + ColumnarFile.DICTIONARIES_SUFFIX), StandardCharsets.UTF_8))) {
+            for (ColumnDictionary d : dictionaries) {
+                if (d != null) {
+                    d.save();
+                    File f = d.getFile().getAbsoluteFile();
+                    w.write(dir.equals(f.getParentFile()) ? f.getName() : f.getPath());
+                }
+                w.write("\n");
+            }
+        }
+    }
+}
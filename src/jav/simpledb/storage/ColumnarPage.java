@@ -0,0 +1,113 @@
+package jav.simpledb.storage;
+
+import jav.simpledb.common.Type;
+import jav.simpledb.transaction.TransactionId;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A page of a {@link ColumnarFile}: the values of one column for a run of
+ * consecutive rows of a row group, packed at the fixed width of the column's
+ * type with no header. Which rows and which column a page holds follows from
+ * the file's row-group directory, so the page itself is only bytes.
+ * <p>
+ * Pages of a compressed file start with a header giving the number of
+ * values on the page; int pages are encoded by {@link IntColumnCodec} and
+ * decoded whole by {@link #getInts}, once per page.
+ * <p>
+ * Columnar files are written once by {@link ColumnarFileEncoder} and never
+ * updated, so a page never changes and is its own before image.
+ *
+ * @see ColumnarFile
+ */
+public class ColumnarPage implements Page {
+
+    private final HeapPageId pid;
+    private final ByteBuffer data;
+    private volatile TransactionId dirtier;
+    private volatile int[] ints;
+
+    /**
+     * @param id the id of this page
+     * @param data the bytes of the page, which are not copied
+     */
+    public ColumnarPage(HeapPageId id, byte[] data) {
+        this.pid = id;
+        this.data = ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Decode the value at index of this page.
+     *
+     * @param type the type of the column the page belongs to
+     * @param index the position of the value among the values on the page
+     */
+    public Field getField(Type type, int index) {
+        return getField(type, index, 0);
+    }
+
+    /**
+     * Decode the value at index of a page whose values start at offset.
+     */
+    Field getField(Type type, int index, int offset) {
+        return type.parse(data, offset + index * type.getLen());
+    }
+
+    /**
+     * Read the int at index of an uncompressed page.
+     */
+    int getInt(int index) {
+        return data.getInt(index * 4);
+    }
+
+    /**
+     * @return the number of values on a page of a compressed file
+     */
+    public int getCount() {
+        return IntColumnCodec.count(data);
+    }
+
+    /**
+     * Decode the values of a compressed int page. The array is decoded on
+     * the first call and shared by later ones, so callers must not modify
+     * it.
+     */
+    public int[] getInts() {
+        int[] v = ints;
+        if (v == null) {
+            v = IntColumnCodec.decode(data);
+            ints = v;
+        }
+        return v;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public byte[] getPageData() {
+        byte[] copy = new byte[data.capacity()];
+        data.duplicate().get(copy);
+        return copy;
+    }
+
+    @Override
+    public ByteBuffer getPageBuffer() {
+        return data.duplicate();
+    }
+
+    public Page getBeforeImage() {
+        return this;
+    }
+
+    public void setBeforeImage() {
+    }
+}
@@ -0,0 +1,185 @@
+package jav.simpledb.storage;
+
+import jav.simpledb.common.Type;
+
+import java.io.ObjectStreamException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A Tuple that keeps its int fields in an int[] instead of IntField objects,
+ * for the tuples operators build, such as the output of Project, the joins
+ * and the aggregates.
+ * <p>
+ * {@link #copyField} copies an int field of another tuple by value, through
+ * {@link Tuple#getInt}, and any other field by reference to the tuple it
+ * comes from: a string field of a tuple backed by a page is only decoded
+ * from the page bytes if it is asked for, typically when the result is
+ * printed. Copying from another CompactTuple takes over its representation,
+ * so a chain of operators never nests references.
+ * <p>
+ * A CompactTuple behaves as any other Tuple: {@link #getField} creates the
+ * IntField of an int field when it is asked for. It is serialized as a plain
+ * Tuple.
+ */
+public class CompactTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    /** In refs, marks an int field whose value is in ints. */
+    private static final Object INT = new Object();
+
+    /**
+     * Per field: INT for an int held in ints; a Field; a Tuple whose field
+     * ints[i] this field is; or null for a field that is not set.
+     */
+    private final transient Object[] refs;
+    private final transient int[] ints;
+
+    private transient RecordId recordId;
+    /** The tuple whose RecordId this tuple takes, until it is asked for. */
+    private transient Tuple recordIdOf;
+
+    /**
+     * Create a tuple with the given schema and no fields set.
+     */
+    public CompactTuple(TupleDesc td) {
+        super(td, null, 0);
+        this.refs = new Object[td.numFields()];
+        this.ints = new int[td.numFields()];
+    }
+
+    /**
+     * Set int field i to value.
+     */
+    public void setInt(int i, int value) {
+        refs[i] = INT;
+        ints[i] = value;
+    }
+
+    /**
+     * Make field i of this tuple field j of from, without creating a Field
+     * where it can be avoided.
+     */
+    public void copyField(int i, Tuple from, int j) {
+        if (from instanceof CompactTuple) {
+            CompactTuple c = (CompactTuple) from;
+            refs[i] = c.refs[j];
+            ints[i] = c.ints[j];
+        } else if (getTupleDesc().getFieldType(i) == Type.INT_TYPE && !from.isNull(j)) {
+            setInt(i, from.getInt(j));
+        } else {
+            refs[i] = from;
+            ints[i] = j;
+        }
+    }
+
+    /**
+     * Give this tuple the RecordId of t, which is only looked up if it is
+     * asked for.
+     */
+    public void setRecordIdFrom(Tuple t) {
+        recordId = null;
+        recordIdOf = t;
+    }
+
+    @Override
+    public RecordId getRecordId() {
+        if (recordIdOf != null) {
+            recordId = recordIdOf.getRecordId();
+            recordIdOf = null;
+        }
+        return recordId;
+    }
+
+    @Override
+    public void setRecordId(RecordId rid) {
+        recordId = rid;
+        recordIdOf = null;
+    }
+
+    @Override
+    public void setField(int i, Field f) {
+        if (i < 0 || i >= refs.length) {
+            return;
+        }
+        if (f instanceof IntField) {
+            setInt(i, ((IntField) f).getValue());
+        } else {
+            refs[i] = f;
+        }
+    }
+
+    @Override
+    public Field getField(int i) {
+        if (i < 0 || i >= refs.length) {
+            return null;
+        }
+        Object r = refs[i];
+        if (r == INT) {
+            return new IntField(ints[i]);
+        }
+        if (r instanceof Tuple) {
+            return ((Tuple) r).getField(ints[i]);
+        }
+        return (Field) r;
+    }
+
+    @Override
+    public int getInt(int i) {
+        Object r = refs[i];
+        if (r == INT) {
+            return ints[i];
+        }
+        if (r instanceof Tuple) {
+            return ((Tuple) r).getInt(ints[i]);
+        }
+        return ((IntField) r).getValue();
+    }
+
+    @Override
+    public boolean isNull(int i) {
+        if (i < 0 || i >= refs.length) {
+            return true;
+        }
+        Object r = refs[i];
+        if (r instanceof Tuple) {
+            return ((Tuple) r).isNull(ints[i]);
+        }
+        return r == null;
+    }
+
+    @Override
+    public Iterator<Field> fields() {
+        List<Field> all = new ArrayList<>(refs.length);
+        for (int i = 0; i < refs.length; i++) {
+            all.add(getField(i));
+        }
+        return all.iterator();
+    }
+
+    /**
+     * Resolve the fields held by reference, whose tuples may be backed by a
+     * page that is about to change.
+     */
+    @Override
+    public void materialize() {
+        for (int i = 0; i < refs.length; i++) {
+            if (refs[i] instanceof Tuple) {
+                setField(i, ((Tuple) refs[i]).getField(ints[i]));
+            }
+        }
+        getRecordId();
+    }
+
+    /** Serialized, a CompactTuple is a plain Tuple with the same fields. */
+    private Object writeReplace() throws ObjectStreamException {
+        Tuple t = new Tuple(getTupleDesc());
+        for (int i = 0; i < refs.length; i++) {
+            t.setField(i, getField(i));
+        }
+        t.setRecordId(getRecordId());
+        return t;
+    }
+}
@@ -24,6 +24,43 @@ public interface DbFile {
      */
     Page readPage(PageId id);
 
+    /**
+     * Read the specified page into an off-heap BufferPool frame and return a
+     * page that is a view of the frame. Files that cannot do that return
+     * null, and the BufferPool falls back to {@link #readPage}.
+     *
+     * @param id the page to read
+     * @param frame the frame to read it into
+     * @return the page over frame, or null
+     * @throws IllegalArgumentException if the page does not exist in this file.
+     */
+    default Page readPageInto(PageId id, PageFrame frame) {
+        return null;
+    }
+
+    /**
+     * Read the specified pages from disk in one batch. Files that can should
+     * merge pages that are adjacent on disk into large contiguous reads; the
+     * default simply reads the pages one at a time with {@link #readPage}.
+     * <p>
+     * The BufferPool reads pages through both methods, and a file that
+     * merges reads does not go through readPage. readPage and readPages
+     * must therefore be overridden together: a subclass that overrides
+     * readPage to observe or change the pages read has to override
+     * readPages the same way, or it misses the batched reads.
+     *
+     * @param ids the pages to read, in any order
+     * @return the pages, in the same order as ids
+     * @throws IllegalArgumentException if a page does not exist in this file.
+     */
+    default List<Page> readPages(List<PageId> ids) {
+        List<Page> pages = new ArrayList<>(ids.size());
+        for (PageId id : ids) {
+            pages.add(readPage(id));
+        }
+        return pages;
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -33,6 +70,17 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Called by the BufferPool after it has written a batch of pages with
+     * {@link #writePage}, so a file that keeps bookkeeping about its pages
+     * can write it out once per batch rather than once per page. The default
+     * does nothing.
+     *
+     * @throws IOException if the write fails
+     */
+    default void pagesFlushed() throws IOException {
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -73,6 +121,20 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over all the tuples stored in this DbFile for a
+     * caller that only looks at the given fields. Files that store fields
+     * apart, such as {@link ColumnarFile}, read only those and leave the
+     * other fields of the tuples null; the default reads whole tuples.
+     *
+     * @param tid the transaction the scan runs as a part of
+     * @param fields the indexes of the fields to read, or null for all
+     * @return an iterator over all the tuples stored in this DbFile.
+     */
+    default DbFileIterator iterator(TransactionId tid, BitSet fields) {
+        return iterator(tid);
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -0,0 +1,233 @@
+package jav.simpledb.storage;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * DbFileChannel is the long-lived handle a DbFile reads and writes its pages
+ * through. The underlying FileChannel is opened on first use and kept open,
+ * so a page miss no longer opens, seeks and closes the file.
+ * <p>
+ * All I/O is positional ({@link FileChannel#read(ByteBuffer, long)} and
+ * {@link FileChannel#write(ByteBuffer, long)}): there is no shared file
+ * pointer, so any number of threads can read and write pages of the same
+ * file at once without racing on a seek.
+ * <p>
+ * A FileChannel is closed for everybody when a thread blocked in it is
+ * interrupted. The next caller then simply reopens it.
+ *
+ * @Threadsafe
+ */
+public class DbFileChannel {
+
+    /** Most pages merged into one contiguous read (256KB with 4KB pages). */
+    public static final int MAX_READ_PAGES = 64;
+
+    private final File file;
+    private volatile FileChannel channel;
+
+    /**
+     * @param file the file to read and write; it is not opened until it is
+     *             first accessed
+     */
+    public DbFileChannel(File file) {
+        this.file = file;
+    }
+
+    /** @return the channel, opening (or reopening) it if necessary */
+    private FileChannel channel() throws IOException {
+        FileChannel c = channel;
+        if (c != null && c.isOpen()) {
+            return c;
+        }
+        synchronized (this) {
+            c = channel;
+            if (c == null || !c.isOpen()) {
+                try {
+                    c = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                } catch (AccessDeniedException e) {
+                    // a read-only table file can still be scanned
+                    c = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                }
+                channel = c;
+            }
+            return c;
+        }
+    }
+
+    /**
+     * Read up to buf.length bytes starting at the given file offset.
+     *
+     * @return the number of bytes read, which is less than buf.length only if
+     *   the end of the file was reached, or -1 if position is at or past the
+     *   end of the file
+     */
+    public int read(byte[] buf, long position) throws IOException {
+        return read(ByteBuffer.wrap(buf), position);
+    }
+
+    /**
+     * Read into dst, from its position up to its limit, starting at the given
+     * file offset. The buffer may be direct, so a page can be read straight
+     * into off-heap memory.
+     *
+     * @return the number of bytes read, which is less than the space in dst
+     *   only if the end of the file was reached, or -1 if position is at or
+     *   past the end of the file
+     */
+    public int read(ByteBuffer dst, long position) throws IOException {
+        int start = dst.position();
+        boolean empty = !dst.hasRemaining();
+        while (true) {
+            FileChannel c = channel();
+            try {
+                while (dst.hasRemaining()) {
+                    int n = c.read(dst, position + dst.position() - start);
+                    if (n < 0) {
+                        break;
+                    }
+                }
+                int read = dst.position() - start;
+                return read == 0 && !empty ? -1 : read;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // closed under us by another thread's interrupt; reopen and retry
+            }
+        }
+    }
+
+    /**
+     * Read exactly buf.length bytes starting at the given file offset.
+     *
+     * @throws EOFException if the file ends first
+     */
+    public void readFully(byte[] buf, long position) throws IOException {
+        int n = read(buf, position);
+        if (n < buf.length) {
+            throw new EOFException("read " + Math.max(n, 0) + " of " + buf.length
+                    + " bytes at offset " + position + " of " + file);
+        }
+    }
+
+    /**
+     * Read a batch of equally sized pages, where page p starts at file offset
+     * base + p * pageSize. The page numbers are sorted and runs of adjacent
+     * pages are fetched with one contiguous read of up to
+     * {@link #MAX_READ_PAGES} pages each, instead of one read per page.
+     *
+     * @param pageNos the pages to read, in any order; duplicates are allowed
+     * @param base the offset page number 0 would start at
+     * @param pageSize the size of every page
+     * @return the page images, in the order of pageNos; an entry is null if
+     *   the file ends before that page does
+     */
+    public byte[][] readPages(int[] pageNos, long base, int pageSize) throws IOException {
+        byte[][] result = new byte[pageNos.length][];
+        int[] sorted = pageNos.clone();
+        Arrays.sort(sorted);
+        byte[][] images = new byte[sorted.length][];
+        int i = 0;
+        while (i < sorted.length) {
+            // extend the run while the next page is adjacent (or a duplicate)
+            int j = i + 1;
+            while (j < sorted.length && sorted[j] - sorted[j - 1] <= 1
+                    && sorted[j] - sorted[i] < MAX_READ_PAGES) {
+                j++;
+            }
+            int first = sorted[i];
+            int count = sorted[j - 1] - first + 1;
+            byte[] buf = new byte[count * pageSize];
+            int n = Math.max(0, read(buf, base + (long) first * pageSize));
+            for (int k = i; k < j; k++) {
+                int off = (sorted[k] - first) * pageSize;
+                if (off + pageSize <= n) {
+                    images[k] = count == 1 ? buf : Arrays.copyOfRange(buf, off, off + pageSize);
+                }
+            }
+            i = j;
+        }
+        for (int k = 0; k < pageNos.length; k++) {
+            result[k] = images[Arrays.binarySearch(sorted, pageNos[k])];
+        }
+        return result;
+    }
+
+    /**
+     * Write all of data starting at the given file offset, extending the file
+     * if necessary.
+     */
+    public void write(byte[] data, long position) throws IOException {
+        write(ByteBuffer.wrap(data), position);
+    }
+
+    /**
+     * Write the remaining bytes of src starting at the given file offset,
+     * extending the file if necessary. The buffer may be read-only, so a
+     * page can be written straight from its image without copying it.
+     */
+    public void write(ByteBuffer src, long position) throws IOException {
+        ByteBuffer bb = src.duplicate();
+        int start = bb.position();
+        while (true) {
+            FileChannel c = channel();
+            try {
+                while (bb.hasRemaining()) {
+                    c.write(bb, position + bb.position() - start);
+                }
+                return;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // closed under us by another thread's interrupt; reopen and retry
+            }
+        }
+    }
+
+    /** @return the current size of the file, in bytes */
+    public long size() throws IOException {
+        return channel().size();
+    }
+
+    /**
+     * Map a region of the file read-only into memory. The mapping stays valid
+     * after the channel is closed, and writes made through this channel are
+     * visible through it.
+     *
+     * @param position the file offset the region starts at
+     * @param size the length of the region, at most Integer.MAX_VALUE bytes
+     */
+    public MappedByteBuffer map(long position, long size) throws IOException {
+        return channel().map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    /** Cut the file down to size bytes, if it is longer. */
+    public void truncate(long size) throws IOException {
+        channel().truncate(size);
+    }
+
+    /** Force all writes through to the storage device. */
+    public void force() throws IOException {
+        channel().force(false);
+    }
+
+    /**
+     * Close the channel. It is reopened if the file is accessed again.
+     */
+    public synchronized void close() throws IOException {
+        FileChannel c = channel;
+        channel = null;
+        if (c != null) {
+            c.close();
+        }
+    }
+}
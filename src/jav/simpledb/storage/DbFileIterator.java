@@ -30,6 +30,23 @@ public interface DbFileIterator{
     Tuple next()
         throws DbException, TransactionAbortedException, NoSuchElementException;
 
+    /**
+     * Clears batch and fills it with the next tuples, as many as fit. The
+     * default appends one tuple at a time; a file that stores its tuples by
+     * column copies whole runs of values instead.
+     *
+     * @param batch the batch to fill, with the schema of the file's tuples
+     * @return false if there were no more tuples
+     * @see TupleBatch
+     */
+    default boolean nextBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (!batch.isFull() && hasNext()) {
+            batch.appendRow(next());
+        }
+        return batch.size() > 0;
+    }
+
     /**
      * Resets the iterator to the start.
      * @throws DbException When rewind is unsupported.
@@ -0,0 +1,391 @@
+package jav.simpledb.storage;
+
+import jav.simpledb.common.Type;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * DelimitedPageEncoder turns delimited text, one tuple per line, into the
+ * images of full HeapPages. It is the parser behind HeapFileEncoder and
+ * BulkLoader.
+ * <p>
+ * {@link #encode} streams the input in chunks of whole lines, encodes the
+ * chunks on an executor, and hands the encoded chunks to a sink one at a
+ * time in input order. At most a fixed window of chunks is in flight, so
+ * memory use does not depend on the size of the input.
+ * <p>
+ * Fields are separated by a single character. Ints are decimal and may be
+ * surrounded by whitespace; strings are trimmed and cut to Type.STRING_LEN
+ * bytes. Blank lines and carriage returns before a newline are skipped. A
+ * line with the wrong number of fields or a bad int is an IOException.
+ * Schemas with VARCHAR fields are encoded into slotted pages, each filled
+ * until the next record does not fit. Fixed-size schemas can also be
+ * encoded into PAX pages.
+ *
+ * @see PaxPage
+ */
+class DelimitedPageEncoder {
+
+    /** Bytes of input encoded as one chunk, unless changed for testing. */
+    static final int CHUNK_BYTES = 4 << 20;
+
+    private static volatile int chunkBytes = CHUNK_BYTES;
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    static void setChunkBytes(int chunkBytes) {
+        DelimitedPageEncoder.chunkBytes = chunkBytes;
+    }
+
+    /** The pages encoded from one chunk of input, back to back. */
+    static class Chunk {
+        final ByteBuffer pages;
+        final int numPages;
+        final int numTuples;
+        /** Empty slots of the last page; every other page is full. */
+        final int lastPageFree;
+
+        Chunk(ByteBuffer pages, int numPages, int numTuples, int lastPageFree) {
+            this.pages = pages;
+            this.numPages = numPages;
+            this.numTuples = numTuples;
+            this.lastPageFree = lastPageFree;
+        }
+    }
+
+    /** Receives the encoded chunks, in input order. */
+    interface Sink {
+        void accept(Chunk chunk) throws IOException;
+    }
+
+    private final TupleDesc td;
+    private final char separator;
+    private final int pageSize;
+    private final int slotsPerPage;
+    private final int headerSize;
+    private final boolean pax;
+
+    DelimitedPageEncoder(TupleDesc td, char separator, int pageSize) {
+        this(td, separator, pageSize, false);
+    }
+
+    /**
+     * @param pax whether to encode PAX pages rather than row-major ones
+     */
+    DelimitedPageEncoder(TupleDesc td, char separator, int pageSize, boolean pax) {
+        this.td = td;
+        this.separator = separator;
+        this.pageSize = pageSize;
+        this.slotsPerPage = HeapPage.numSlots(td, pageSize);
+        this.headerSize = HeapPage.headerSize(td, pageSize);
+        this.pax = pax;
+    }
+
+    /** @return the offset on a page of field f of the tuple in slot */
+    private int fieldOffset(int slot, int f) {
+        if (pax) {
+            return headerSize + slotsPerPage * td.getFieldOffset(f) + slot * td.getFieldType(f).getLen();
+        }
+        return headerSize + slot * td.getSize() + td.getFieldOffset(f);
+    }
+
+    /** @return the number of tuples on a full page */
+    int slotsPerPage() {
+        return slotsPerPage;
+    }
+
+    /**
+     * Encode all of in on the given executor, keeping at most window chunks
+     * in flight, and pass the chunks to sink in input order.
+     *
+     * @return the number of tuples encoded
+     */
+    long encode(InputStream in, ExecutorService executor, int window, Sink sink) throws IOException {
+        Deque<Future<Chunk>> inFlight = new ArrayDeque<>();
+        long tuples = 0;
+        int chunk = chunkBytes;
+        try {
+            byte[] carry = new byte[0];
+            byte[] text;
+            while ((text = readChunk(in, carry, chunk)) != null) {
+                // a short chunk is the end of the input, newline or not
+                int end = text.length < chunk ? text.length : lastLineEnd(text);
+                if (end < 0) {
+                    throw new IOException("line longer than " + chunk + " bytes");
+                }
+                carry = Arrays.copyOfRange(text, end, text.length);
+                final byte[] lines = text;
+                final int length = end;
+                inFlight.add(executor.submit(() -> encode(lines, length)));
+                if (inFlight.size() >= window) {
+                    Chunk c = await(inFlight.poll());
+                    sink.accept(c);
+                    tuples += c.numTuples;
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                Chunk c = await(inFlight.poll());
+                sink.accept(c);
+                tuples += c.numTuples;
+            }
+            return tuples;
+        } finally {
+            for (Future<Chunk> f : inFlight) {
+                f.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Read up to chunk bytes of input, starting with the carried over tail
+     * of the last chunk.
+     *
+     * @return the bytes read, or null at the end of the input with nothing
+     *   carried over
+     */
+    private static byte[] readChunk(InputStream in, byte[] carry, int chunk) throws IOException {
+        byte[] buf = Arrays.copyOf(carry, chunk);
+        int n = carry.length;
+        int r;
+        while (n < buf.length && (r = in.read(buf, n, buf.length - n)) > 0) {
+            n += r;
+        }
+        if (n == 0) {
+            return null;
+        }
+        return n == buf.length ? buf : Arrays.copyOf(buf, n);
+    }
+
+    /** @return the offset just past the last newline of text, or -1 */
+    private static int lastLineEnd(byte[] text) {
+        for (int i = text.length - 1; i >= 0; i--) {
+            if (text[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static Chunk await(Future<Chunk> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while encoding pages");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            // a fork-join pool wraps checked exceptions, maybe twice
+            for (Throwable t = cause; t != null; t = t.getCause()) {
+                if (t instanceof IOException) {
+                    throw (IOException) t;
+                }
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Encode the lines in text[0, length) into page images.
+     */
+    Chunk encode(byte[] text, int length) throws IOException {
+        if (td.hasVariableLength()) {
+            return encodeSlotted(text, length);
+        }
+        int lines = 1;
+        for (int i = 0; i < length; i++) {
+            if (text[i] == '\n') {
+                lines++;
+            }
+        }
+        int maxPages = (lines + slotsPerPage - 1) / slotsPerPage;
+        ByteBuffer out = ByteBuffer.allocate(maxPages * pageSize);
+        int tuples = 0;
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineEnd(text, lineStart, length);
+            int contentEnd = contentEnd(text, lineStart, lineEnd);
+            if (contentEnd > lineStart) {
+                int pageBase = (tuples / slotsPerPage) * pageSize;
+                int slot = tuples % slotsPerPage;
+                encodeLine(text, lineStart, contentEnd, out, pageBase, slot);
+                int header = pageBase + (slot >> 3);
+                out.put(header, (byte) (out.get(header) | (1 << (slot & 7))));
+                tuples++;
+            }
+            lineStart = lineEnd + 1;
+        }
+        int numPages = (tuples + slotsPerPage - 1) / slotsPerPage;
+        out.limit(numPages * pageSize);
+        return new Chunk(out, numPages, tuples, numPages * slotsPerPage - tuples);
+    }
+
+    /**
+     * Encode lines into slotted pages, filling each page until the next
+     * record does not fit.
+     *
+     * @see SlottedPageLayout
+     */
+    private Chunk encodeSlotted(byte[] text, int length) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(td.getSize());
+        ByteBuffer out = ByteBuffer.allocate((length / pageSize + 1) * pageSize);
+        int numPages = 0;
+        int tuples = 0;
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineEnd(text, lineStart, length);
+            int contentEnd = contentEnd(text, lineStart, lineEnd);
+            if (contentEnd > lineStart) {
+                int len = encodeLine(text, lineStart, contentEnd, record, 0, -1);
+                if (numPages == 0 || SlottedPageLayout.insert(out, (numPages - 1) * pageSize, pageSize,
+                        record.array(), len) < 0) {
+                    if ((numPages + 1) * pageSize > out.capacity()) {
+                        ByteBuffer bigger = ByteBuffer.allocate(out.capacity() * 2);
+                        bigger.put(out.array(), 0, numPages * pageSize);
+                        out = bigger;
+                    }
+                    numPages++;
+                    if (SlottedPageLayout.insert(out, (numPages - 1) * pageSize, pageSize,
+                            record.array(), len) < 0) {
+                        throw new IOException("record does not fit on an empty page: "
+                                + new String(text, lineStart, contentEnd - lineStart, StandardCharsets.UTF_8));
+                    }
+                }
+                tuples++;
+            }
+            lineStart = lineEnd + 1;
+        }
+        out.clear();
+        out.limit(numPages * pageSize);
+        int lastFree = numPages == 0 ? 0 : SlottedPageLayout.emptySlots(
+                SlottedPageLayout.freeSpace(out, (numPages - 1) * pageSize, pageSize), td);
+        return new Chunk(out, numPages, tuples, lastFree);
+    }
+
+    private static int lineEnd(byte[] text, int lineStart, int length) {
+        int lineEnd = lineStart;
+        while (lineEnd < length && text[lineEnd] != '\n') {
+            lineEnd++;
+        }
+        return lineEnd;
+    }
+
+    /** @return the end of the line without a trailing carriage return */
+    private static int contentEnd(byte[] text, int lineStart, int lineEnd) {
+        if (lineEnd > lineStart && text[lineEnd - 1] == '\r') {
+            return lineEnd - 1;
+        }
+        return lineEnd;
+    }
+
+    /**
+     * Encode the fields of the line text[lineStart, contentEnd) into out,
+     * either into the given slot of the page at base or, for a slot of -1,
+     * as a slotted page record at base: the fields one after another with
+     * VARCHARs only as long as their values.
+     *
+     * @return the number of bytes the fields take
+     */
+    private int encodeLine(byte[] text, int lineStart, int contentEnd, ByteBuffer out, int base,
+                           int slot) throws IOException {
+        boolean compact = slot < 0;
+        int numFields = td.numFields();
+        int fieldStart = lineStart;
+        int offset = base;
+        for (int f = 0; f < numFields; f++) {
+            int fieldEnd = fieldStart;
+            while (fieldEnd < contentEnd && text[fieldEnd] != separator) {
+                fieldEnd++;
+            }
+            boolean last = f == numFields - 1;
+            if (last != (fieldEnd == contentEnd)) {
+                throw new IOException("expected " + numFields + " fields: "
+                        + new String(text, lineStart, contentEnd - lineStart, StandardCharsets.UTF_8));
+            }
+            Type type = td.getFieldType(f);
+            if (!compact) {
+                offset = base + fieldOffset(slot, f);
+            }
+            if (type == Type.INT_TYPE) {
+                out.putInt(offset, parseInt(text, fieldStart, fieldEnd));
+                offset += type.getLen();
+            } else if (compact && type.isVariableLength()) {
+                offset += putVarchar(out, offset, text, fieldStart, fieldEnd);
+            } else {
+                putString(out, offset, text, fieldStart, fieldEnd);
+                offset += type.getLen();
+            }
+            fieldStart = fieldEnd + 1;
+        }
+        return compact ? offset - base : td.getSize();
+    }
+
+    private static int parseInt(byte[] text, int start, int end) throws IOException {
+        while (start < end && text[start] <= ' ') {
+            start++;
+        }
+        while (end > start && text[end - 1] <= ' ') {
+            end--;
+        }
+        boolean negative = start < end && text[start] == '-';
+        int i = negative || start < end && text[start] == '+' ? start + 1 : start;
+        long value = 0;
+        boolean ok = i < end;
+        for (; ok && i < end; i++) {
+            int d = text[i] - '0';
+            value = value * 10 + d;
+            ok = d >= 0 && d <= 9 && value <= (long) Integer.MAX_VALUE + 1;
+        }
+        value = negative ? -value : value;
+        if (!ok || value > Integer.MAX_VALUE) {
+            throw new IOException("bad int: '" + new String(text, start, end - start, StandardCharsets.UTF_8) + "'");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Write a VARCHAR the way a slotted page record holds it.
+     *
+     * @return the number of bytes written
+     */
+    private static int putVarchar(ByteBuffer out, int offset, byte[] text, int start, int end) {
+        while (start < end && text[start] <= ' ') {
+            start++;
+        }
+        while (end > start && text[end - 1] <= ' ') {
+            end--;
+        }
+        int len = Math.min(end - start, Type.STRING_LEN);
+        out.putShort(offset, (short) len);
+        for (int i = 0; i < len; i++) {
+            out.put(offset + 2 + i, text[start + i]);
+        }
+        return 2 + len;
+    }
+
+    /** Write a string field the way StringField.serialize lays it out. */
+    private static void putString(ByteBuffer out, int offset, byte[] text, int start, int end) {
+        while (start < end && text[start] <= ' ') {
+            start++;
+        }
+        while (end > start && text[end - 1] <= ' ') {
+            end--;
+        }
+        int len = Math.min(end - start, Type.STRING_LEN);
+        out.putInt(offset, len);
+        for (int i = 0; i < len; i++) {
+            out.put(offset + 4 + i, text[start + i]);
+        }
+    }
+}
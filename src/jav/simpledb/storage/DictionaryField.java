@@ -0,0 +1,84 @@
+package jav.simpledb.storage;
+
+import jav.simpledb.common.Type;
+import jav.simpledb.execution.Predicate;
+
+import java.io.ObjectStreamException;
+
+/**
+ * A StringField read from a dictionary-encoded column: the code of the
+ * value in its {@link ColumnDictionary}, with the value itself shared with the
+ * dictionary rather than decoded for every row.
+ * <p>
+ * Two DictionaryFields of the same dictionary are equal exactly when their
+ * codes are, so equality, EQUALS and NOT_EQUALS between them compare ints,
+ * and hashing uses the dictionary string's cached hash. Against any other
+ * StringField a DictionaryField behaves as the plain string it stands for.
+ */
+public class DictionaryField extends StringField {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient ColumnDictionary dictionary;
+    private final int code;
+
+    /**
+     * @param dictionary the dictionary of the column
+     * @param code the code of the value in dictionary
+     * @throws IllegalArgumentException if dictionary has no such code
+     */
+    public DictionaryField(ColumnDictionary dictionary, int code) {
+        super(dictionary.value(code), Type.STRING_LEN);
+        this.dictionary = dictionary;
+        this.code = code;
+    }
+
+    /**
+     * @return the dictionary the value is coded in
+     */
+    public ColumnDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * @return the code of the value in its dictionary
+     */
+    public int getCode() {
+        return code;
+    }
+
+    private boolean sameDictionary(Object field) {
+        return field instanceof DictionaryField && ((DictionaryField) field).dictionary == dictionary;
+    }
+
+    @Override
+    public boolean equals(Object field) {
+        if (sameDictionary(field)) {
+            return ((DictionaryField) field).code == code;
+        }
+        return super.equals(field);
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    @Override
+    public boolean compare(Predicate.Op op, Field val) {
+        if (sameDictionary(val)) {
+            if (op == Predicate.Op.EQUALS) {
+                return ((DictionaryField) val).code == code;
+            }
+            if (op == Predicate.Op.NOT_EQUALS) {
+                return ((DictionaryField) val).code != code;
+            }
+        }
+        return super.compare(op, val);
+    }
+
+    /** Serialized, the field is the plain string; dictionaries stay local. */
+    private Object writeReplace() throws ObjectStreamException {
+        return new StringField(getValue(), Type.STRING_LEN, getType());
+    }
+}
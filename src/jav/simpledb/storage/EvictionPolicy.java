@@ -0,0 +1,80 @@
+package jav.simpledb.storage;
+
+import java.util.function.Predicate;
+
+/**
+ * EvictionPolicy decides which resident page the BufferPool gives up when it
+ * needs a free frame. The BufferPool tells the policy about every page it
+ * admits, every hit on a resident page and every page it discards; the policy
+ * only ever sees PageIds, never the pages themselves.
+ * <p>
+ * The BufferPool passes a filter to {@link #evict} so that the policy can skip
+ * pages that must stay resident (for instance pages dirtied by a running
+ * transaction under NO-STEAL).
+ *
+ * @Threadsafe implementations synchronize internally
+ */
+public interface EvictionPolicy {
+
+    /** The replacement policies shipped with SimpleDB. */
+    enum Kind {
+        CLOCK, LRU_K, TWO_Q;
+
+        /**
+         * Create a fresh policy of this kind for a pool of the given size.
+         *
+         * @param numPages the number of frames in the BufferPool
+         */
+        public EvictionPolicy newPolicy(int numPages) {
+            switch (this) {
+                case LRU_K:
+                    return new LruKPolicy(numPages, LruKPolicy.DEFAULT_K);
+                case TWO_Q:
+                    return new TwoQPolicy(numPages);
+                default:
+                    return new ClockPolicy(numPages);
+            }
+        }
+
+        /**
+         * Parse a policy name such as "clock", "lru-k" or "2q".
+         *
+         * @throws IllegalArgumentException if the name is unknown
+         */
+        public static Kind parse(String name) {
+            String n = name.trim().toUpperCase().replace('-', '_');
+            if (n.equals("2Q"))
+                return TWO_Q;
+            if (n.equals("LRU2") || n.equals("LRU_2"))
+                return LRU_K;
+            return Kind.valueOf(n);
+        }
+    }
+
+    /**
+     * Called after a page has been read into the pool.
+     * @param pid the page that became resident
+     */
+    void pageAdmitted(PageId pid);
+
+    /**
+     * Called on every hit on a resident page.
+     * @param pid the page that was accessed
+     */
+    void pageAccessed(PageId pid);
+
+    /**
+     * Called when a page leaves the pool for a reason other than
+     * {@link #evict} (e.g. {@link BufferPool#discardPage}).
+     * @param pid the page that is no longer resident
+     */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Choose a victim among the resident pages, forget it and return it.
+     *
+     * @param evictable returns true for the pages that may be evicted
+     * @return the evicted page, or null if no resident page may be evicted
+     */
+    PageId evict(Predicate<PageId> evictable);
+}
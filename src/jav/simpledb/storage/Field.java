@@ -4,6 +4,7 @@ import jav.simpledb.execution.Predicate;
 import jav.simpledb.common.Type;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for values of fields in tuples in SimpleDB.
@@ -17,6 +18,15 @@ public interface Field extends Serializable{
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field into buf at the given absolute
+     * offset, exactly as {@link #serialize(DataOutputStream)} would write
+     * them, without moving the buffer's position.
+     * @param buf The buffer to write to.
+     * @param offset The position in buf to write the field at.
+     */
+    void serialize(ByteBuffer buf, int offset);
+
     /**
      * Compare the value of this field object to the passed in value.
      * @param op The operator
@@ -26,7 +36,7 @@ public interface Field extends Serializable{
     boolean compare(Predicate.Op op, Field value);
 
     /**
-     * Returns the type of this field (see {@link Type#INT_TYPE} or {@link Type#STRING_TYPE}
+     * Returns the type of this field (see {@link Type#INT_TYPE}, {@link Type#STRING_TYPE} or {@link Type#VARCHAR_TYPE}
      * @return type of this field
      */
     Type getType();
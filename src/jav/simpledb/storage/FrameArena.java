@@ -0,0 +1,114 @@
+package jav.simpledb.storage;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * FrameArena is the preallocated, off-heap memory of a BufferPool running in
+ * off-heap mode. It is carved into fixed-size page frames held in direct
+ * ByteBuffers, so the contents of resident pages live outside the garbage
+ * collected heap no matter how large the pool is.
+ * <p>
+ * A single direct ByteBuffer cannot exceed 2GB, so the arena is allocated
+ * in chunks of at most CHUNK_BYTES.
+ * <p>
+ * Every frame carries a generation number that is bumped when the frame is
+ * released. A page built over a frame remembers the generation it was loaded
+ * in; once the number has moved on, the frame holds some other page and the
+ * old page must not read it any more.
+ *
+ * @Threadsafe
+ * @see PageFrame
+ */
+public class FrameArena {
+
+    /** Bytes per direct buffer chunk. */
+    static final int CHUNK_BYTES = 1 << 30;
+
+    private final int pageSize;
+    private final int framesPerChunk;
+    private final ByteBuffer[] chunks;
+    private final AtomicLongArray generations;
+
+    /** Free frame numbers, used as a stack. */
+    private final int[] free;
+    private int freeCount;
+
+    /**
+     * Allocate an arena of numFrames frames of pageSize bytes each.
+     */
+    public FrameArena(int numFrames, int pageSize) {
+        this.pageSize = pageSize;
+        this.framesPerChunk = Math.max(1, CHUNK_BYTES / pageSize);
+        int numChunks = (numFrames + framesPerChunk - 1) / framesPerChunk;
+        chunks = new ByteBuffer[numChunks];
+        for (int i = 0; i < numChunks; i++) {
+            int frames = Math.min(framesPerChunk, numFrames - i * framesPerChunk);
+            chunks[i] = ByteBuffer.allocateDirect(frames * pageSize);
+        }
+        generations = new AtomicLongArray(numFrames);
+        free = new int[numFrames];
+        for (int i = 0; i < numFrames; i++) {
+            free[i] = numFrames - 1 - i;
+        }
+        freeCount = numFrames;
+    }
+
+    /** @return the number of frames in the arena */
+    public int numFrames() {
+        return free.length;
+    }
+
+    /** @return the size of every frame */
+    public int pageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Take a free frame.
+     *
+     * @return the frame, or null if every frame is in use
+     */
+    public PageFrame allocate() {
+        int frame;
+        synchronized (free) {
+            if (freeCount == 0) {
+                return null;
+            }
+            frame = free[--freeCount];
+        }
+        return new PageFrame(this, frame, generations.get(frame));
+    }
+
+    /**
+     * Give a frame back. Pages still built over it see their frame go stale.
+     */
+    public void release(PageFrame f) {
+        if (f.arena != this || !generations.compareAndSet(f.frame, f.generation, f.generation + 1)) {
+            return; // already released
+        }
+        synchronized (free) {
+            free[freeCount++] = f.frame;
+        }
+    }
+
+    /** @return the number of frames not in use */
+    public int freeFrames() {
+        synchronized (free) {
+            return freeCount;
+        }
+    }
+
+    boolean isCurrent(int frame, long generation) {
+        return generations.get(frame) == generation;
+    }
+
+    /** @return a buffer covering exactly the given frame */
+    ByteBuffer buffer(int frame) {
+        ByteBuffer b = chunks[frame / framesPerChunk].duplicate();
+        int offset = (frame % framesPerChunk) * pageSize;
+        b.position(offset);
+        b.limit(offset + pageSize);
+        return b.slice();
+    }
+}
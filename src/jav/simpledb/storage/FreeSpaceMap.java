@@ -0,0 +1,343 @@
+package jav.simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FreeSpaceMap tells HeapFile inserts which pages have room, so an insert
+ * does not have to walk the file from the first page.
+ * <p>
+ * Every page is filed under one of NUM_BUCKETS buckets by how many of its
+ * slots are free: bucket 0 holds full pages, the last bucket the emptiest
+ * ones. Each bucket keeps its pages in an array with a back index, so moving
+ * a page between buckets and picking a page from a bucket are both O(1).
+ * {@link #findPage()} picks a random page of the emptiest non-empty bucket,
+ * which spreads concurrent inserters over the pages that have room.
+ * <p>
+ * The map is a hint. Inserts check the page they are handed, and a page the
+ * map was wrong about is simply refiled. It is kept on disk in a sidecar
+ * file next to the heap file, one bucket byte per page. The buckets of flushed
+ * pages are collected in memory and written in one go by {@link #sync}, which
+ * HeapFile calls after the BufferPool has flushed a batch of pages, so a page
+ * flush costs no extra I/O. The sidecar starts with a header holding the number of pages it
+ * covers and the heap file's modification time as of its last write; if the
+ * sidecar is missing, or its header does not match the heap file, as when
+ * the file was rewritten by something else or replaced by another of the
+ * same size, it is rebuilt from the page headers.
+ *
+ * @Threadsafe
+ * @see HeapFile#insertTuple
+ */
+public class FreeSpaceMap {
+
+    /** Number of free space buckets. */
+    public static final int NUM_BUCKETS = 8;
+
+    /** Suffix of the sidecar file, appended to the heap file's name. */
+    public static final String SUFFIX = ".fsm";
+
+    /** Size of the sidecar's header: MAGIC, the number of pages, the heap file's modification time. */
+    public static final int HEADER_SIZE = 16;
+    private static final int MAGIC = 0x46534d31;
+
+    private final int slotsPerPage;
+    private final File heapFile;
+    private final DbFileChannel sidecar;
+    /** The number of pages the sidecar covers; guarded by sidecar. */
+    private int persistedPages;
+    /** The buckets of the flushed pages, as the sidecar should hold them; guarded by sidecar. */
+    private byte[] flushed;
+    /** The range of pages flushed since the last sync; guarded by sidecar. */
+    private int dirtyFrom = Integer.MAX_VALUE, dirtyTo = -1;
+    /** False if the sidecar could not be written, in which case it is not kept up. */
+    private volatile boolean persistent = true;
+
+    private int numPages;
+    /** Bucket of each page. */
+    private byte[] bucketOf;
+    /** Position of each page in its bucket's array. */
+    private int[] indexInBucket;
+    private final int[][] members;
+    private final int[] sizes;
+
+    private FreeSpaceMap(File heapFile, int slotsPerPage) {
+        this.slotsPerPage = slotsPerPage;
+        this.heapFile = heapFile;
+        this.sidecar = new DbFileChannel(sidecarOf(heapFile));
+        this.flushed = new byte[16];
+        this.bucketOf = new byte[16];
+        this.indexInBucket = new int[16];
+        this.members = new int[NUM_BUCKETS][16];
+        this.sizes = new int[NUM_BUCKETS];
+    }
+
+    /**
+     * @return the sidecar file of the free space map of a heap file
+     */
+    public static File sidecarOf(File heapFile) {
+        return new File(heapFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * Load the free space map of a heap file from its sidecar, rebuilding the
+     * sidecar from the page headers if it does not match the file.
+     *
+     * @param file the heap file's channel
+     * @param heapFile the heap file, whose name the sidecar is named after
+     * @param td the schema of the table
+     */
+    static FreeSpaceMap load(DbFileChannel file, File heapFile, TupleDesc td) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int slots = HeapPage.numSlots(td, pageSize);
+        FreeSpaceMap fsm = new FreeSpaceMap(heapFile, slots);
+        int pages = (int) (file.size() / pageSize);
+        byte[] stored = fsm.readSidecar(pages);
+        if (stored != null) {
+            for (int i = 0; i < pages; i++) {
+                fsm.file(i, Math.max(0, Math.min(stored[i], NUM_BUCKETS - 1)));
+            }
+            fsm.persistedPages = pages;
+            fsm.flushed = stored;
+        } else {
+            // scan the headers of all pages and write the sidecar afresh
+            int headerSize = HeapPage.headerSize(td, pageSize);
+            ByteBuffer header = ByteBuffer.allocate(headerSize);
+            stored = new byte[pages];
+            for (int i = 0; i < pages; i++) {
+                header.clear();
+                file.read(header, (long) i * pageSize);
+                stored[i] = (byte) fsm.bucket(HeapPage.numEmptySlots(td, pageSize, header));
+                fsm.file(i, stored[i]);
+            }
+            fsm.flushed = stored;
+            try {
+                sidecarOf(heapFile).createNewFile();
+                synchronized (fsm.sidecar) {
+                    fsm.sidecar.truncate(0);
+                    fsm.sidecar.write(stored, HEADER_SIZE);
+                    fsm.persistedPages = pages;
+                    fsm.stamp();
+                }
+            } catch (IOException e) {
+                // the map still works, it just has to be rebuilt next time
+                fsm.persistent = false;
+            }
+        }
+        return fsm;
+    }
+
+    /**
+     * @return the buckets of the first pages pages stored in the sidecar, or
+     *   null if it is missing or its header does not match the heap file
+     */
+    private byte[] readSidecar(int pages) throws IOException {
+        if (sidecarOf(heapFile).length() != HEADER_SIZE + (long) pages) {
+            return null;
+        }
+        byte[] stored = new byte[HEADER_SIZE + pages];
+        sidecar.readFully(stored, 0);
+        ByteBuffer header = ByteBuffer.wrap(stored, 0, HEADER_SIZE);
+        if (header.getInt() != MAGIC || header.getInt() != pages || header.getLong() != modified()) {
+            return null;
+        }
+        return Arrays.copyOfRange(stored, HEADER_SIZE, stored.length);
+    }
+
+    /** @return the modification time of the heap file, as precisely as the file system keeps it */
+    private long modified() throws IOException {
+        return Files.getLastModifiedTime(heapFile.toPath()).to(TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Write the header of the sidecar, once its buckets are written, so that
+     * it records the heap file as it is now. Called holding sidecar.
+     */
+    private void stamp() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(persistedPages).putLong(modified());
+        sidecar.write(header.array(), 0);
+    }
+
+    /**
+     * @return the bucket a page with freeSlots free slots belongs in: 0 if
+     *   it is full, otherwise 1 to NUM_BUCKETS - 1 by the fraction free
+     */
+    public int bucket(int freeSlots) {
+        if (freeSlots <= 0) {
+            return 0;
+        }
+        return 1 + (int) ((long) (freeSlots - 1) * (NUM_BUCKETS - 1) / slotsPerPage);
+    }
+
+    /**
+     * @return the number of a page with at least one free slot, chosen at
+     *   random among the emptiest pages, or -1 if every page is full
+     */
+    public synchronized int findPage() {
+        for (int b = NUM_BUCKETS - 1; b > 0; b--) {
+            if (sizes[b] > 0) {
+                return members[b][ThreadLocalRandom.current().nextInt(sizes[b])];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Record how many slots of a page are free. Pages past the end of the map
+     * are added to it.
+     */
+    public synchronized void update(int pageNo, int freeSlots) {
+        int bucket = bucket(freeSlots);
+        if (pageNo < numPages && bucketOf[pageNo] == bucket) {
+            return;
+        }
+        // pages between the old end and pageNo are new, so they are empty
+        while (numPages < pageNo) {
+            file(numPages, bucket(slotsPerPage));
+        }
+        file(pageNo, bucket);
+    }
+
+    /** @return the bucket of a page, or -1 if the map does not cover it */
+    public synchronized int bucketOf(int pageNo) {
+        return pageNo < numPages ? bucketOf[pageNo] : -1;
+    }
+
+    /** @return the number of pages the map covers */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * Note the bucket of a page that was just flushed, to be written to the
+     * sidecar by the next {@link #sync}.
+     */
+    void persist(int pageNo, int freeSlots) {
+        if (!persistent) {
+            return;
+        }
+        synchronized (sidecar) {
+            if (pageNo >= flushed.length) {
+                flushed = Arrays.copyOf(flushed, Math.max(pageNo + 1, flushed.length * 2));
+            }
+            flushed[pageNo] = (byte) bucket(freeSlots);
+            dirtyFrom = Math.min(dirtyFrom, pageNo);
+            dirtyTo = Math.max(dirtyTo, pageNo);
+        }
+    }
+
+    /**
+     * Write the buckets of the pages flushed since the last sync to the
+     * sidecar with a single write, and restamp its header. If the process
+     * dies before this, the header no longer matches the heap file and the
+     * sidecar is rebuilt on the next load.
+     */
+    void sync() throws IOException {
+        if (!persistent) {
+            return;
+        }
+        synchronized (sidecar) {
+            if (dirtyTo < 0) {
+                return;
+            }
+            sidecar.write(Arrays.copyOfRange(flushed, dirtyFrom, dirtyTo + 1), HEADER_SIZE + (long) dirtyFrom);
+            persistedPages = Math.max(persistedPages, dirtyTo + 1);
+            dirtyFrom = Integer.MAX_VALUE;
+            dirtyTo = -1;
+            stamp();
+        }
+    }
+
+    /**
+     * Record a run of pages appended to the file at once, and write their
+     * buckets to the sidecar with a single write.
+     *
+     * @param firstPage the number of the first page appended
+     * @param freeSlots the number of free slots of each page appended
+     */
+    void appended(int firstPage, int[] freeSlots) throws IOException {
+        byte[] buckets = new byte[freeSlots.length];
+        synchronized (this) {
+            for (int i = 0; i < freeSlots.length; i++) {
+                buckets[i] = (byte) bucket(freeSlots[i]);
+                update(firstPage + i, freeSlots[i]);
+            }
+        }
+        if (persistent) {
+            synchronized (sidecar) {
+                int end = firstPage + buckets.length;
+                if (end > flushed.length) {
+                    flushed = Arrays.copyOf(flushed, Math.max(end, flushed.length * 2));
+                }
+                System.arraycopy(buckets, 0, flushed, firstPage, buckets.length);
+                sidecar.write(buckets, HEADER_SIZE + (long) firstPage);
+                persistedPages = Math.max(persistedPages, firstPage + freeSlots.length);
+                stamp();
+            }
+        }
+    }
+
+    /**
+     * Forget the pages from the given number on, which were cut off the end
+     * of the heap file, in the map and in the sidecar.
+     *
+     * @param pages the number of pages the heap file has left
+     */
+    void truncated(int pages) throws IOException {
+        synchronized (this) {
+            while (numPages > pages) {
+                unfile(--numPages);
+            }
+        }
+        if (persistent) {
+            synchronized (sidecar) {
+                sidecar.truncate(HEADER_SIZE + (long) pages);
+                persistedPages = Math.min(persistedPages, pages);
+                dirtyTo = Math.min(dirtyTo, pages - 1);
+                if (dirtyTo < dirtyFrom) {
+                    dirtyFrom = Integer.MAX_VALUE;
+                    dirtyTo = -1;
+                }
+                stamp();
+            }
+        }
+    }
+
+    void close() throws IOException {
+        sync();
+        sidecar.close();
+    }
+
+    /** Put pageNo, which is either new or filed elsewhere, in the given bucket. */
+    private void file(int pageNo, int bucket) {
+        if (pageNo >= numPages) {
+            if (pageNo >= bucketOf.length) {
+                int n = Math.max(pageNo + 1, bucketOf.length * 2);
+                bucketOf = Arrays.copyOf(bucketOf, n);
+                indexInBucket = Arrays.copyOf(indexInBucket, n);
+            }
+            numPages = pageNo + 1;
+        } else {
+            unfile(pageNo);
+        }
+        if (sizes[bucket] == members[bucket].length) {
+            members[bucket] = Arrays.copyOf(members[bucket], sizes[bucket] * 2);
+        }
+        bucketOf[pageNo] = (byte) bucket;
+        indexInBucket[pageNo] = sizes[bucket];
+        members[bucket][sizes[bucket]++] = pageNo;
+    }
+
+    /** Swap pageNo out of its bucket. */
+    private void unfile(int pageNo) {
+        int old = bucketOf[pageNo];
+        int last = members[old][--sizes[old]];
+        members[old][indexInBucket[pageNo]] = last;
+        indexInBucket[last] = indexInBucket[pageNo];
+    }
+}
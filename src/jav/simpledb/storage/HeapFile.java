@@ -7,6 +7,7 @@ import jav.simpledb.common.DbException;
 import jav.simpledb.common.Permissions;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -23,14 +24,26 @@ public class HeapFile implements DbFile {
 
     private int tableId;
 
-    private int tuplesPerPage;
-
-    private int headerBytes;
-
     private File file;
 
     private TupleDesc tupleDesc;
 
+    private final DbFileChannel channel;
+
+    private final boolean memoryMapped;
+
+    /** Whether the pages of this file have the PAX layout. */
+    private final boolean pax;
+
+    /** The mapping of a memory-mapped HeapFile, created on first read. */
+    private volatile MappedFile mapping;
+
+    /** Where inserts look for room, loaded on first use. */
+    private volatile FreeSpaceMap freeSpace;
+
+    /** Held while a page is appended, so concurrent inserters add one at a time. */
+    private final Object appendLock = new Object();
+
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -39,13 +52,69 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td){
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally in
+     * memory-mapped mode. A memory-mapped HeapFile maps the file read-only
+     * and builds each page directly over its slice of the mapping instead of
+     * reading it into a byte[], leaving caching of the file to the OS. It is
+     * meant for large tables that are rarely updated: writes still go
+     * through the file channel, and the mapping is extended when the file
+     * grows.
+     *
+     * @param f the file that stores the on-disk backing store for this heap
+     *          file.
+     * @param td the schema of the table
+     * @param memoryMapped whether to read pages through a memory mapping
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped){
+        this(f, td, memoryMapped, false);
+    }
+
+    /**
+     * Constructs a heap file whose pages optionally have the PAX layout,
+     * which stores the values of each field together on the page.
+     *
+     * @param f the file that stores the on-disk backing store for this heap
+     *          file.
+     * @param td the schema of the table
+     * @param memoryMapped whether to read pages through a memory mapping
+     * @param pax whether the pages are {@link PaxPage}s
+     * @throws IllegalArgumentException if pax is set and td has a
+     *   variable-length field
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped, boolean pax){
         // some code goes here
+        if (pax && td.hasVariableLength()) {
+            throw new IllegalArgumentException("PAX pages need fixed-size fields");
+        }
         tableId = f.getAbsoluteFile().hashCode();
-        int tupleSize = td.getSize();
-        int pageSize = BufferPool.getPageSize();
-        tuplesPerPage = (int) Math.floor((pageSize * 8) / (tupleSize * 8 + 1));
-        this.headerBytes = (int) Math.ceil(tuplesPerPage / 8);
+        this.tupleDesc = td;
         this.file = f;
+        this.channel = new DbFileChannel(f);
+        this.memoryMapped = memoryMapped;
+        this.pax = pax;
+    }
+
+    /**
+     * @return true if this HeapFile reads its pages through a memory mapping
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * @return true if the pages of this HeapFile have the PAX layout
+     */
+    public boolean isPax() {
+        return pax;
+    }
+
+    /** @return a page of this file's layout over data */
+    private HeapPage newPage(HeapPageId id, byte[] data) throws IOException {
+        return pax ? new PaxPage(id, data) : new HeapPage(id, data);
     }
 
     /**
@@ -86,39 +155,175 @@ public class HeapFile implements DbFile {
     public Page readPage(PageId pid) {
         // some code goes here
         int pageNo = pid.getPageNumber();
-        HeapPage heapPage = null;
-        RandomAccessFile raf = null;
+        int pageSize = BufferPool.getPageSize();
         try {
-            raf = new RandomAccessFile(file, "r");
-            //skip the pages before
-            raf.seek((long) pageNo * tuplesPerPage);
-            byte[] data = new byte[tuplesPerPage + headerBytes];
-            for (int i = 0; i < headerBytes; i++) {
-                //initialize the headers by 1
-                data[i] = (byte) 255;
-            }
-            if(raf.read(data, headerBytes, tuplesPerPage) == -1){
-                return null;
-            }
-            heapPage = new HeapPage(new HeapPageId(pid.getTableId(), pageNo), data);
-        } catch (FileNotFoundException e) {
-            throw new IllegalArgumentException("file not found");
-        }catch (IOException e){
-            throw new IllegalArgumentException("Page with pageNo: " + pageNo + " not found");
-        }finally {
-            try {
-                raf.close();
-            }catch (IOException e){
-                e.printStackTrace();
+            if (memoryMapped) {
+                return readMappedPage(pid.getTableId(), pageNo);
             }
+            byte[] data = new byte[pageSize];
+            //按页的大小定位，用positional read，不移动共享的文件指针
+            if (channel.read(data, (long) pageNo * pageSize) < pageSize) {
+                throw new IllegalArgumentException("Page with pageNo: " + pageNo + " not found");
+            }
+            return newPage(new HeapPageId(pid.getTableId(), pageNo), data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Page with pageNo: " + pageNo + " not found", e);
+        }
+    }
+
+    /**
+     * Read a page straight into an off-heap frame, from the file or from the
+     * mapping of a memory-mapped HeapFile, and return a HeapPage that is a
+     * view of the frame. The page does not go through readPage, so a
+     * subclass that overrides readPage should override this too.
+     *
+     * @see DbFile#readPageInto
+     * @see HeapPage#HeapPage(HeapPageId, PageFrame)
+     */
+    @Override
+    public Page readPageInto(PageId pid, PageFrame frame) {
+        int pageNo = pid.getPageNumber();
+        ByteBuffer buf = frame.buffer();
+        try {
+            if (memoryMapped) {
+                ByteBuffer data = mapping().page(pageNo);
+                if (data == null) {
+                    throw new IllegalArgumentException("Page with pageNo: " + pageNo + " not found");
+                }
+                buf.put(data);
+            } else if (channel.read(buf, (long) pageNo * BufferPool.getPageSize()) < buf.capacity()) {
+                throw new IllegalArgumentException("Page with pageNo: " + pageNo + " not found");
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Page with pageNo: " + pageNo + " not found", e);
+        }
+        HeapPageId id = new HeapPageId(pid.getTableId(), pageNo);
+        return pax ? new PaxPage(id, frame) : new HeapPage(id, frame);
+    }
+
+    /**
+     * Read a batch of pages, merging runs of adjacent page numbers into
+     * single contiguous reads. The pages do not go through readPage, so a
+     * subclass that overrides readPage should override this too.
+     *
+     * @see DbFile#readPages
+     * @see DbFileChannel#readPages
+     */
+    @Override
+    public List<Page> readPages(List<PageId> pids) {
+        if (memoryMapped) {//映射模式下逐页取切片，本来就没有系统调用
+            return DbFile.super.readPages(pids);
         }
-        return heapPage;
+        int[] pageNos = new int[pids.size()];
+        for (int i = 0; i < pageNos.length; i++) {
+            pageNos[i] = pids.get(i).getPageNumber();
+        }
+        List<Page> result = new ArrayList<>(pageNos.length);
+        try {
+            byte[][] images = channel.readPages(pageNos, 0, BufferPool.getPageSize());
+            for (int i = 0; i < images.length; i++) {
+                if (images[i] == null) {
+                    throw new IllegalArgumentException("Page with pageNo: " + pageNos[i] + " not found");
+                }
+                result.add(newPage(new HeapPageId(pids.get(i).getTableId(), pageNos[i]), images[i]));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not read pages of table " + tableId, e);
+        }
+        return result;
+    }
+
+    private MappedFile mapping() {
+        MappedFile m = mapping;
+        if (m == null) {
+            synchronized (this) {
+                m = mapping;
+                if (m == null) {
+                    m = new MappedFile(channel, BufferPool.getPageSize());
+                    mapping = m;
+                }
+            }
+        }
+        return m;
+    }
+
+    private Page readMappedPage(int tableId, int pageNo) throws IOException {
+        ByteBuffer data = mapping().page(pageNo);
+        if (data == null) {
+            throw new IllegalArgumentException("Page with pageNo: " + pageNo + " not found");
+        }
+        HeapPageId id = new HeapPageId(tableId, pageNo);
+        return pax ? new PaxPage(id, data) : new HeapPage(id, data);
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
+        int pageSize = BufferPool.getPageSize();
+        int pageNo = page.getId().getPageNumber();
+        channel.write(page.getPageBuffer(), (long) pageNo * pageSize);
+        if (page instanceof HeapPage) {
+            int free = ((HeapPage) page).getNumEmptySlots();
+            FreeSpaceMap fsm = getFreeSpaceMap();
+            fsm.update(pageNo, free);
+            fsm.persist(pageNo, free);
+        }
+    }
+
+    /**
+     * Writes the buckets of the pages flushed since the last call to the
+     * free space map's sidecar.
+     *
+     * @see FreeSpaceMap#sync
+     */
+    @Override
+    public void pagesFlushed() throws IOException {
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm != null) {
+            fsm.sync();
+        }
+    }
+
+    /**
+     * Returns the free space map of this HeapFile, loading it from its
+     * sidecar file, or building it from the page headers, on first use.
+     */
+    public FreeSpaceMap getFreeSpaceMap() throws IOException {
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm == null) {
+            synchronized (this) {
+                fsm = freeSpace;
+                if (fsm == null) {
+                    fsm = FreeSpaceMap.load(channel, file, tupleDesc);
+                    freeSpace = fsm;
+                }
+            }
+        }
+        return fsm;
+    }
+
+    /** The channel pages are read and written through. */
+    DbFileChannel channel() {
+        return channel;
+    }
+
+    /** The lock held while pages are appended to the end of the file. */
+    Object appendLock() {
+        return appendLock;
+    }
+
+    /**
+     * Close the file handle this HeapFile reads and writes through. It is
+     * reopened if the file is accessed again.
+     */
+    public void close() throws IOException {
+        mapping = null;
+        channel.close();
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm != null) {
+            fsm.close();
+        }
     }
 
     /**
@@ -129,46 +334,137 @@ public class HeapFile implements DbFile {
         return (int) Math.floor(file.length() / BufferPool.getPageSize());
     }
 
-    // see DbFile.java for javadocs
+    /**
+     * Inserts the tuple on a page the free space map says has room, or on a
+     * new page appended to the file if none has.
+     *
+     * @see DbFile#insertTuple
+     * @see FreeSpaceMap
+     */
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        return null;
-        // not necessary for lab1
+        if (!tupleDesc.equals(t.getTupleDesc())) {
+            throw new DbException("type mismatch, in insertTuple");
+        }
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        while (true) {
+            int pageNo = fsm.findPage();
+            if (pageNo < 0) {
+                synchronized (appendLock) {
+                    pageNo = fsm.findPage();
+                    if (pageNo < 0) {
+                        //没有空闲页了，在文件末尾追加一个空页
+                        pageNo = numPages();
+                        writePage(newPage(new HeapPageId(tableId, pageNo), HeapPage.createEmptyPageData()));
+                    }
+                }
+            }
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(tableId, pageNo), Permissions.READ_WRITE);
+            synchronized (page) {
+                if (page.hasRoomFor(t)) {
+                    page.insertTuple(t);
+                    fsm.update(pageNo, page.getNumEmptySlots());
+                    return Collections.singletonList(page);
+                }
+            }
+            // the map was out of date; file the page as full and look again
+            fsm.update(pageNo, 0);
+        }
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
-        return null;
-        // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != tableId) {
+            throw new DbException("tuple is not in this table");
+        }
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        try {
+            FreeSpaceMap fsm = getFreeSpaceMap();
+            synchronized (page) {
+                page.deleteTuple(t);
+                fsm.update(page.getId().getPageNumber(), page.getNumEmptySlots());
+            }
+        } catch (IOException e) {
+            throw new DbException("could not load the free space map: " + e.getMessage());
+        }
+        return new ArrayList<>(Collections.singletonList(page));
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(tid);
+        return new HeapFileIterator(tid, null, 0, numPages());
+    }
+
+    /**
+     * Returns an iterator that reads pages it does not find in the BufferPool
+     * through the given ring, so that a scan of a large table does not evict
+     * the rest of the pool.
+     *
+     * @param tid the transaction the scan runs as a part of
+     * @param ring the bulk-read ring to load pages through
+     * @see BufferRing
+     */
+    public DbFileIterator iterator(TransactionId tid, BufferRing ring) {
+        return new HeapFileIterator(tid, ring, 0, numPages());
+    }
+
+    /**
+     * Returns an iterator over the tuples of pages [firstPage, endPage)
+     * only, so that several threads can each scan a range of the file.
+     *
+     * @param tid the transaction the scan runs as a part of
+     * @param firstPage the first page to read
+     * @param endPage the page after the last one to read
+     * @param ring the bulk-read ring to load pages through, or null
+     */
+    public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage, BufferRing ring) {
+        if (firstPage < 0 || endPage > numPages() || firstPage > endPage) {
+            throw new IllegalArgumentException("no pages [" + firstPage + ", " + endPage + ") in a file of "
+                    + numPages());
+        }
+        return new HeapFileIterator(tid, ring, firstPage, endPage);
     }
 
     private class HeapFileIterator implements DbFileIterator{
 
         private final TransactionId tid;
+        private final BufferRing ring;
+        private ReadAhead readAhead;
         private Iterator<Tuple> tupsIterator;
+        /** The current page, and the next slot of it for nextBatch. */
+        private HeapPage page;
+        private int slot;
         private final int tableId;
+        private final int firstPage;
         private final int numPages;
         private int pageNo;
 
-        public HeapFileIterator(TransactionId transactionId) {
+        public HeapFileIterator(TransactionId transactionId, BufferRing ring, int firstPage, int endPage) {
             this.tid = transactionId;
+            this.ring = ring;
             tableId = getId();
-            numPages = numPages();
+            this.firstPage = firstPage;
+            numPages = endPage;
         }
 
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            pageNo = 0;
+            pageNo = firstPage;
+            if (ReadAhead.ENABLED && numPages - firstPage > 1) {
+                readAhead = new ReadAhead(Database.getBufferPool(), tid, tableId, numPages, ring);
+            }
+            if (firstPage >= numPages) {//an empty file or range has no page to read
+                tupsIterator = Collections.emptyIterator();
+                page = null;
+                return;
+            }
             tupsIterator = getTuplesIterator(pageNo);
         }
 
@@ -183,7 +479,12 @@ public class HeapFile implements DbFile {
         private Iterator<Tuple> getTuplesIterator(int pageNumber) throws DbException, TransactionAbortedException {
             if(pageNumber >= 0 && pageNumber < numPages){
                 HeapPageId heapPageId = new HeapPageId(tableId,pageNumber);
-                HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_ONLY);
+                if (readAhead != null) {//让后台线程提前读后面的页
+                    readAhead.access(pageNumber);
+                }
+                HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_ONLY, ring);
+                page = heapPage;
+                slot = 0;
                 return heapPage.iterator();
             } else {
                 throw new DbException(String.format("heapFile %d does not contain page %d!",tableId, pageNumber));
@@ -196,17 +497,15 @@ public class HeapFile implements DbFile {
             if(tupsIterator == null){//hasn't opened
                 return false;
             }
-            if(!tupsIterator.hasNext()){//if the current page has been fully read
-                if(pageNo < (numPages-1)){
-                    pageNo++;//switch to next page and get the tupleIterator
-                    tupsIterator = getTuplesIterator(pageNo);
-                    return tupsIterator.hasNext();
-                }else {
+            //once the current page has been fully read, move on until a page has tuples
+            while (!tupsIterator.hasNext()) {
+                if (pageNo >= numPages - 1) {
                     return false;
                 }
-            } else {
-                return true;
+                pageNo++;
+                tupsIterator = getTuplesIterator(pageNo);
             }
+            return true;
         }
 
         @Override
@@ -217,6 +516,27 @@ public class HeapFile implements DbFile {
             return tupsIterator.next();
         }
 
+        /**
+         * Fill batch from the pages directly, reading ints from the page
+         * bytes rather than through a Tuple per field.
+         */
+        @Override
+        public boolean nextBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+            batch.clear();
+            if (page == null) {
+                return false;
+            }
+            while (true) {
+                slot = page.appendTo(batch, slot);
+                if (batch.isFull() || pageNo >= numPages - 1) {
+                    break;
+                }
+                pageNo++;
+                tupsIterator = getTuplesIterator(pageNo);
+            }
+            return batch.size() > 0;
+        }
+
         @Override
         public void rewind() throws DbException, TransactionAbortedException {
             close();
@@ -226,6 +546,8 @@ public class HeapFile implements DbFile {
         @Override
         public void close() {
             tupsIterator = null;
+            page = null;
+            readAhead = null;
         }
     }
 
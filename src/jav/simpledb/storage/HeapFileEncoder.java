@@ -4,8 +4,12 @@ import jav.simpledb.common.Type;
 import jav.simpledb.common.Utility;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -13,6 +17,8 @@ import java.util.List;
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
  * data file.
+ *
+ * @see DelimitedPageEncoder
  */
 
 public class HeapFileEncoder {
@@ -70,15 +76,20 @@ public class HeapFileEncoder {
 
    /** Convert the specified input text file into a binary
     * page file. <br>
-    * Assume format of the input file is (note that only integer fields are
-    * supported):<br>
+    * Assume format of the input file is:<br>
     * int,...,int\n<br>
     * int,...,int\n<br>
     * ...<br>
-    * where each row represents a tuple.<br>
+    * where each row represents a tuple, and string fields are trimmed and
+    * cut to Type.STRING_LEN bytes.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
     * HeapFile.
+    * <p>
+    * The input is streamed in chunks of whole lines that are encoded into
+    * pages on a fork-join pool with one thread per processor; encoded pages
+    * are written in order, a chunk at a time. Only a few chunks are held in
+    * memory at once, whatever the size of the input.
     *
     * @see HeapPage
     * @see HeapFile
@@ -92,136 +103,49 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator,
+              Runtime.getRuntime().availableProcessors());
+  }
 
-      int nrecbytes = 0;
-      for (int i = 0; i < numFields ; i++) {
-          nrecbytes += typeAr[i].getLen();
-      }
-      int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
-      
-    //  per record, we need one bit; there are nrecords per page, so we need
-    // nrecords bits, i.e., ((nrecords/32)+1) integers.
-    int nheaderbytes = (nrecords / 8);
-    if (nheaderbytes * 8 < nrecords)
-        nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
-
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
-
-    // our numbers probably won't be much larger than 1024 digits
-    char[] buf = new char[1024];
-
-    int curpos = 0;
-    int recordcount = 0;
-    int npages = 0;
-    int fieldNo = 0;
-
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
-
-    boolean done = false;
-    boolean first = true;
-    while (!done) {
-        int c = br.read();
-        
-        // Ignore Windows/Notepad special line endings
-        if (c == '\r')
-            continue;
+  /** Convert the specified input text file into a binary page file,
+   * encoding pages on the given number of threads.
+   *
+   * @see #convert(File, File, int, int, Type[], char)
+   * @param parallelism the number of threads to encode pages on
+   */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, int parallelism)
+      throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, parallelism, false);
+  }
 
-        if (c == '\n') {
-            if (first)
-                continue;
-            recordcount++;
-            first = true;
-        } else
-            first = false;
-        if (c == fieldSeparator || c == '\n' || c == '\r') {
-            String s = new String(buf, 0, curpos);
-            if (typeAr[fieldNo] == Type.INT_TYPE) {
-                try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
-                } catch (NumberFormatException e) {
-                    System.out.println ("BAD LINE : " + s);
-                }
-            }
-            else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    s  = s.substring(0,Type.STRING_LEN);
-                }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
-            }
-            curpos = 0;
-            if (c == '\n')
-                fieldNo = 0;
-            else
-                fieldNo++;
-            
-        } else if (c == -1) {
-            done = true;
-            
-        } else {
-            buf[curpos++] = (char)c;
-            continue;
-        }
-        
-        // if we wrote a full page of records, or if we're done altogether,
-        // write out the header of the page.
-        //
-        // in the header, write a 1 for bits that correspond to records we've
-        // written and 0 for empty slots.
-        //
-        // when we're done, also flush the page to disk, but only if it has
-        // records on it.  however, if this file is empty, do flush an empty
-        // page to disk.
-        if (recordcount >= nrecords
-            || done && recordcount > 0
-            || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
-                }
-            }
-            
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
-            
-            // pad the rest of the page with zeroes
-            
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
-            
-            // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
-            
-            recordcount = 0;
-            npages++;
-        }
-    }
-    br.close();
-    os.close();
+  /** Convert the specified input text file into a binary page file of
+   * row-major or PAX pages.
+   *
+   * @see #convert(File, File, int, int, Type[], char, int)
+   * @see PaxPage
+   * @param pax whether to write PAX pages
+   */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, int parallelism, boolean pax)
+      throws IOException {
+      DelimitedPageEncoder encoder = new DelimitedPageEncoder(
+              new TupleDesc(Arrays.copyOf(typeAr, numFields)), fieldSeparator, npagebytes, pax);
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      try (InputStream in = new FileInputStream(inFile);
+           FileChannel out = FileChannel.open(outFile.toPath(), StandardOpenOption.CREATE,
+                   StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+          long[] npages = {0};
+          encoder.encode(in, pool, parallelism + 1, c -> {
+              while (c.pages.hasRemaining())
+                  out.write(c.pages);
+              npages[0] += c.numPages;
+          });
+          // an empty input still gets one (empty) page
+          if (npages[0] == 0)
+              out.write(ByteBuffer.allocate(npagebytes));
+      } finally {
+          pool.shutdownNow();
+      }
   }
 }
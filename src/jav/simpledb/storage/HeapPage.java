@@ -3,14 +3,32 @@ package jav.simpledb.storage;
 import jav.simpledb.common.Catalog;
 import jav.simpledb.common.Database;
 import jav.simpledb.common.DbException;
+import jav.simpledb.common.Type;
 import jav.simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A HeapPage keeps the raw bytes of the page rather than decoded tuples. The
+ * tuples it hands out are backed by those bytes and decode a field, at its
+ * column offset from the TupleDesc, only when {@link Tuple#getField} asks for
+ * it; slots and fields nobody looks at are never decoded.
+ * <p>
+ * Tables with a variable-length field (see {@link Type#isVariableLength})
+ * use a slotted layout instead of the bitmap header and fixed-size slots:
+ * a slot directory at the front of the page and records packed at the
+ * back, each only as long as its values. See {@link SlottedPageLayout}.
+ * For these pages the number of slots and of empty slots are counted in
+ * records of the smallest possible size.
+ * <p>
+ * Where the fields of a slot lie on the page is decided by
+ * {@link #fieldOffset}; {@link PaxPage} overrides it to keep each column's
+ * values together.
  *
  * @see HeapFile
  * @see BufferPool
@@ -20,14 +38,58 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    //the bitmap indicating whether each tuple is being used
-    final byte[] header;
-    //the actual tuples
-    final Tuple[] tuples;
     final int numSlots;
+    final int headerSize;
+    /** Whether this page has the slotted layout of variable-length tables. */
+    final boolean slotted;
+
+    /** The bytes of the page: the header bitmap followed by the tuple slots.
+     * Inserts and deletes are applied to them directly, so they are always
+     * the page's current image. Null for a page over a frame. */
+    private ByteBuffer data;
+
+    /** Decodes the fields of this page's tuples for {@link Tuple}. */
+    private final Tuple.Source source = new Tuple.Source() {
+        @Override
+        public Field readField(int slot, int i) {
+            return decodeField(slot, i);
+        }
+
+        @Override
+        public RecordId recordId(int slot) {
+            return new RecordId(pid, slot);
+        }
+
+        @Override
+        public int readInt(int slot, int i) {
+            if (slotted) {
+                return Tuple.Source.super.readInt(slot, i);
+            }
+            int offset = fieldOffset(slot, i);
+            if (frame == null) {
+                return data.getInt(offset);
+            }
+            return readView(b -> b.getInt(offset));
+        }
+
+        @Override
+        public boolean isNull(int slot, int i) {
+            return false;
+        }
+    };
+
+    /** The off-heap frame this page is a view of, or null for an on-heap page;
+     * cleared when the page is first modified and takes a private copy. */
+    private volatile PageFrame frame;
+    /** The frame's memory; only read with absolute gets or through duplicates. */
+    private final ByteBuffer frameData;
+    /** A private copy of the page, taken once the frame has been reused. */
+    private volatile ByteBuffer detached;
 
     byte[] oldData;
-    private final Byte oldDataLock= (byte) 0;
+    private final Object oldDataLock = new Object();
+
+    private volatile TransactionId dirtier;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -46,27 +108,54 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(fullPage(data)), (PageFrame) null);
+        oldData = fullPage(data);
+    }
+
+    /** @return a copy of data, padded with zeroes if it is shorter than a page */
+    private static byte[] fullPage(byte[] data) {
+        return Arrays.copyOf(data, Math.max(data.length, BufferPool.getPageSize()));
+    }
+
+    /**
+     * Create a HeapPage directly over a read-only buffer holding the page,
+     * such as a slice of a memory-mapped HeapFile, without copying it. The
+     * buffer must not change while the page is in use; it also serves as the
+     * before image of the page, so none has to be copied either.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data.slice().asReadOnlyBuffer(), (PageFrame) null);
+    }
+
+    /**
+     * Create a HeapPage as a thin view of a BufferPool frame that already
+     * holds the page's bytes. Nothing is decoded up front: the header and the
+     * tuples are read from the frame when they are asked for, so the page
+     * costs next to nothing on the heap.
+     * <p>
+     * The BufferPool may reuse the frame once it has evicted the page, while
+     * an operator still holds on to it. Every read is therefore checked
+     * against the frame's generation; if the frame has moved on, the page
+     * takes a private copy of itself from disk (evicted pages are always
+     * clean) and reads that from then on.
+     *
+     * @see FrameArena
+     */
+    public HeapPage(HeapPageId id, PageFrame frame) {
+        this(id, null, frame);
+    }
+
+    private HeapPage(HeapPageId id, ByteBuffer data, PageFrame frame) {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.slotted = td.hasVariableLength();
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
-
-        setBeforeImage();
+        this.headerSize = getHeaderSize();
+        this.data = data;
+        this.frame = frame;
+        this.frameData = frame == null ? null : frame.buffer();
     }
 
     /** Retrieve the number of tuples on this page.
@@ -74,8 +163,38 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {        
         // some code goes here
-        int tupsPerPage = (int) Math.floor(BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
-        return tupsPerPage;
+        return numSlots(td, BufferPool.getPageSize());
+    }
+
+    /** @return the number of tuple slots on a page of the given schema */
+    static int numSlots(TupleDesc td, int pageSize) {
+        if (td.hasVariableLength()) {
+            return SlottedPageLayout.capacity(td, pageSize);
+        }
+        return (pageSize * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /** @return the number of header bytes on a page of the given schema */
+    static int headerSize(TupleDesc td, int pageSize) {
+        if (td.hasVariableLength()) {
+            return SlottedPageLayout.HEADER_SIZE;
+        }
+        return (numSlots(td, pageSize) + 7) / 8;
+    }
+
+    /**
+     * @return the number of empty slots of a page of the given schema, from
+     *   its first headerSize(td, pageSize) bytes
+     */
+    static int numEmptySlots(TupleDesc td, int pageSize, ByteBuffer header) {
+        if (td.hasVariableLength()) {
+            return SlottedPageLayout.emptySlots(SlottedPageLayout.freeSpace(header, 0, pageSize), td);
+        }
+        int used = 0;
+        for (int b = 0; b < headerSize(td, pageSize); b++) {
+            used += Integer.bitCount(header.get(b) & 0xff);
+        }
+        return numSlots(td, pageSize) - used;
     }
 
     /**
@@ -84,10 +203,87 @@ public class HeapPage implements Page {
      */
     private int getHeaderSize() {
         // some code goes here
-        return (int)Math.ceil(getNumTuples() * 1.0 / 8);
-                 
+        return headerSize(td, BufferPool.getPageSize());
     }
     
+    /** @return true if this page is a view of an off-heap frame */
+    public boolean isFrameView() {
+        return frame != null;
+    }
+
+    /**
+     * Run read against the bytes of a page over a frame: the frame while it
+     * still holds this page, otherwise the private copy.
+     */
+    private <T> T readView(java.util.function.Function<ByteBuffer, T> read) {
+        ByteBuffer copy = detached;
+        if (copy == null) {
+            try {
+                T result = read.apply(frameData);
+                if (frame.isCurrent()) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                if (frame.isCurrent()) {
+                    throw e;
+                }
+            }
+            copy = detach();
+        }
+        return read.apply(copy);
+    }
+
+    /** Run read against the current bytes of the page. */
+    <T> T read(java.util.function.Function<ByteBuffer, T> read) {
+        return frame == null ? read.apply(data) : readView(read);
+    }
+
+    private synchronized ByteBuffer detach() {
+        if (detached == null) {
+            //页框已经被别的页复用；被淘汰的页一定是干净的，所以磁盘上的就是最新内容
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            detached = ByteBuffer.wrap(file.readPage(pid).getPageData());
+        }
+        return detached;
+    }
+
+    /** Read byte i of the page. */
+    private byte byteAt(int i) {
+        if (frame == null) {
+            return data.get(i);
+        }
+        ByteBuffer copy = detached;
+        if (copy == null) {
+            byte b = frameData.get(i);
+            if (frame.isCurrent()) {
+                return b;
+            }
+            copy = detach();
+        }
+        return copy.get(i);
+    }
+
+    /**
+     * @return the offset on the page of field i of the tuple in the given
+     *   slot, for pages with fixed-size slots
+     */
+    int fieldOffset(int slot, int i) {
+        return headerSize + slot * td.getSize() + td.getFieldOffset(i);
+    }
+
+    /** Decode field i of the tuple in the given slot. */
+    private Field decodeField(int slot, int i) {
+        if (slotted) {
+            return read(b -> SlottedPageLayout.parseField(b, 0, SlottedPageLayout.recordOffset(b, 0, slot), td, i));
+        }
+        int offset = fieldOffset(slot, i);
+        Type type = td.getFieldType(i);
+        if (frame == null) {
+            return type.parse(data, offset);
+        }
+        return readView(b -> type.parse(b, offset));
+    }
+
     /** Return a view of this page before it was modified
         -- used by recovery */
     public HeapPage getBeforeImage(){
@@ -97,7 +293,11 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            if (oldDataRef == null) {
+                // only mapped pages and frame views that were never modified get here
+                return frame != null ? copyOf(getPageData()) : copyOf(data);
+            }
+            return copyOf(oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -106,10 +306,20 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /** @return a page of the same kind as this one over the given bytes */
+    HeapPage copyOf(byte[] image) throws IOException {
+        return new HeapPage(pid, image);
+    }
+
+    /** @return a page of the same kind as this one over the given bytes */
+    HeapPage copyOf(ByteBuffer image) throws IOException {
+        return new HeapPage(pid, image);
+    }
+
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = getPageData();
         }
     }
 
@@ -121,40 +331,6 @@ public class HeapPage implements Page {
         return this.pid;
     }
 
-    /**
-     * Suck up tuples from the source file.
-     */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
-
-        return t;
-    }
-
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -167,64 +343,34 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (frame != null) {
+            return readView(HeapPage::copyOut);
         }
+        return copyOut(data);
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Returns the current image of the page without copying it, unless the
+     * page is a view of a frame, which the BufferPool may reuse.
+     *
+     * @see Page#getPageBuffer()
+     */
+    @Override
+    public ByteBuffer getPageBuffer() {
+        if (frame != null) {
+            return ByteBuffer.wrap(getPageData()).asReadOnlyBuffer();
         }
+        ByteBuffer b = data.asReadOnlyBuffer();
+        b.clear();
+        return b;
+    }
 
-        return baos.toByteArray();
+    private static byte[] copyOut(ByteBuffer b) {
+        byte[] out = new byte[b.capacity()];
+        ByteBuffer dup = b.duplicate();
+        dup.clear();
+        dup.get(out);
+        return out;
     }
 
     /**
@@ -250,7 +396,20 @@ public class HeapPage implements Page {
      */
     public void deleteTuple(Tuple t) throws DbException {
         // some code goes here
-        // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("tried to delete tuple with null rid");
+        if (!pid.equals(rid.getPageId()))
+            throw new DbException("tried to delete tuple on invalid page or table");
+        int slot = rid.getTupleNumber();
+        if (slot < 0 || slot >= slotLimit() || !isSlotUsed(slot))
+            throw new DbException("tried to delete null tuple.");
+        // the caller may still read the tuple after its slot is cleared
+        t.materialize();
+        if (slotted)
+            SlottedPageLayout.delete(writableData(), 0, BufferPool.getPageSize(), slot);
+        else
+            markSlotUsed(slot, false);
     }
 
     /**
@@ -262,7 +421,65 @@ public class HeapPage implements Page {
      */
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
-        // not necessary for lab1
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("type mismatch, in insertTuple");
+        if (slotted) {
+            ByteBuffer record = ByteBuffer.allocate(td.getSize());
+            int length = SlottedPageLayout.encode(td, t, record);
+            if (!read(b -> SlottedPageLayout.hasRoom(b, 0, BufferPool.getPageSize(), length)))
+                throw new DbException("called insertTuple on page with no room for the tuple.");
+            int slot = SlottedPageLayout.insert(writableData(), 0, BufferPool.getPageSize(), record.array(), length);
+            t.setRecordId(new RecordId(pid, slot));
+            return;
+        }
+        int slot = -1;
+        for (int b = 0; b < headerSize && slot < 0; b++) {
+            int bits = byteAt(b) & 0xff;
+            if (bits != 0xff) {
+                int i = b * 8 + Integer.numberOfTrailingZeros(~bits);
+                if (i < numSlots)
+                    slot = i;
+            }
+        }
+        if (slot < 0)
+            throw new DbException("called insertTuple on page with no empty slots.");
+        ByteBuffer image = writableData();
+        for (int j = 0; j < td.numFields(); j++) {
+            t.getField(j).serialize(image, fieldOffset(slot, j));
+        }
+        markSlotUsed(slot, true);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * @return true if t would fit on this page. Every tuple of a fixed-size
+     *   schema fits as long as there is an empty slot; a tuple with
+     *   variable-length fields needs room for its own values.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        if (!slotted)
+            return getNumEmptySlots() > 0;
+        ByteBuffer record = ByteBuffer.allocate(td.getSize());
+        int length = SlottedPageLayout.encode(td, t, record);
+        return read(b -> SlottedPageLayout.hasRoom(b, 0, BufferPool.getPageSize(), length));
+    }
+
+    /**
+     * @return the page bytes, made private to this page first if they are a
+     *   mapped file or a BufferPool frame, which must not be written
+     */
+    private ByteBuffer writableData() {
+        if (frame == null && !data.isReadOnly()) {
+            return data;
+        }
+        synchronized (oldDataLock) {
+            if (oldData == null) {
+                oldData = getPageData();
+            }
+        }
+        data = ByteBuffer.wrap(getPageData());
+        frame = null;
+        return data;
     }
 
     /**
@@ -271,7 +488,7 @@ public class HeapPage implements Page {
      */
     public void markDirty(boolean dirty, TransactionId tid) {
         // some code goes here
-	// not necessary for lab1
+        this.dirtier = dirty ? tid : null;
     }
 
     /**
@@ -279,8 +496,7 @@ public class HeapPage implements Page {
      */
     public TransactionId isDirty() {
         // some code goes here
-	// Not necessary for lab1
-        return null;      
+        return dirtier;
     }
 
     /**
@@ -288,13 +504,20 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int ans = 0;
-        for (int i = 0; i < numSlots; i++) {
-            if(!isSlotUsed(i)){
-                ans++;
+        if (slotted) {
+            return read(b -> SlottedPageLayout.emptySlots(
+                    SlottedPageLayout.freeSpace(b, 0, BufferPool.getPageSize()), td));
+        }
+        int used = 0;
+        for (int i = 0; i < numSlots / 8; i++) {
+            used += Integer.bitCount(byteAt(i) & 0xff);
+        }
+        for (int i = numSlots / 8 * 8; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                used++;
             }
         }
-        return ans;
+        return numSlots - used;
     }
 
     /**
@@ -302,18 +525,85 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
+        if (slotted) {
+            return read(b -> SlottedPageLayout.recordOffset(b, 0, i) != 0);
+        }
         int index = i / 8;
         int offset = i % 8;
-        int bit = header[index]>>offset & 1;
+        int bit = byteAt(index)>>offset & 1;
         return bit == 1;
     }
 
+    /** @return one past the last slot that may be in use */
+    private int slotLimit() {
+        return slotted ? read(b -> SlottedPageLayout.slotCount(b, 0)) : numSlots;
+    }
+
     /**
      * Abstraction to fill or clear a slot on this page.
      */
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
-        // not necessary for lab1
+        ByteBuffer image = writableData();
+        int index = i / 8;
+        int bit = 1 << (i % 8);
+        if (value) {
+            image.put(index, (byte) (image.get(index) | bit));
+        } else {
+            image.put(index, (byte) (image.get(index) & ~bit));
+            // keep empty slots zeroed, as they have always been on disk
+            for (int j = 0; j < td.numFields(); j++) {
+                int offset = fieldOffset(i, j);
+                for (int k = 0; k < td.getFieldType(j).getLen(); k++) {
+                    image.put(offset + k, (byte) 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Append the tuples in the slots from the given one on to batch, as
+     * many as fit. Their ints are read straight from the page bytes; their
+     * other fields and RecordIds are read from the page if they are asked
+     * for.
+     *
+     * @return the slot to continue from, one past the last slot if the
+     *   page is done
+     */
+    int appendTo(TupleBatch batch, int from) {
+        int limit = slotLimit();
+        int slot = from;
+        if (slotted || frame != null) {
+            for (; slot < limit && !batch.isFull(); slot++) {
+                if (isSlotUsed(slot)) {
+                    batch.appendRow(new Tuple(td, source, slot));
+                }
+            }
+            return slot;
+        }
+        // field c of a slot sits at offsets[c] + slot * strides[c], in
+        // the row layout of heap pages as in the minipages of PAX pages
+        int numInts = 0;
+        int[] offsets = new int[td.numFields()];
+        int[] strides = new int[td.numFields()];
+        int[][] columns = new int[td.numFields()][];
+        for (int c = 0; c < td.numFields(); c++) {
+            if (td.getFieldType(c) == Type.INT_TYPE) {
+                offsets[numInts] = fieldOffset(0, c);
+                strides[numInts] = fieldOffset(1, c) - offsets[numInts];
+                columns[numInts++] = batch.getInts(c);
+            }
+        }
+        for (; slot < limit && !batch.isFull(); slot++) {
+            if ((data.get(slot >> 3) >> (slot & 7) & 1) == 0) {
+                continue;
+            }
+            int row = batch.appendSlot(td, source, slot);
+            for (int k = 0; k < numInts; k++) {
+                columns[k][row] = data.getInt(offsets[k] + slot * strides[k]);
+            }
+        }
+        return slot;
     }
 
     /**
@@ -322,24 +612,33 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        return new Iterator<Tuple>(){
+        return new Iterator<Tuple>() {
+
+            // the slots in use when the iteration started
+            final int limit = slotLimit();
+
+            int next = advance(0);
 
-            int i = 0;
+            private int advance(int from) {
+                while (from < limit && !isSlotUsed(from)) {
+                    from++;
+                }
+                return from;
+            }
 
             @Override
             public boolean hasNext() {
-                return i < getNumTuples() - getNumEmptySlots();
+                return next < limit;
             }
 
             @Override
             public Tuple next() {
-                if(!hasNext()){
+                if (!hasNext()) {
                     throw new NoSuchElementException();
                 }
-                while(!isSlotUsed(i)){
-                    i++;
-                }
-                return tuples[i++];
+                int slot = next;
+                next = advance(slot + 1);
+                return new Tuple(td, source, slot);
             }
 
             @Override
@@ -347,8 +646,6 @@ public class HeapPage implements Page {
                 throw new UnsupportedOperationException();
             }
         };
-
     }
 
 }
-
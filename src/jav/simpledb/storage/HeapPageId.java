@@ -1,5 +1,7 @@
 package jav.simpledb.storage;
 
+import java.util.Objects;
+
 /** Unique identifier for HeapPage objects. */
 public class HeapPageId implements PageId {
 
@@ -42,8 +44,7 @@ public class HeapPageId implements PageId {
      * @see BufferPool
      */
     public int hashCode() {
-        String s = tableId + "#" + pageNo;
-        return s.hashCode();
+        return Objects.hash(tableId, pageNo);
     }
 
     /**
@@ -58,7 +59,7 @@ public class HeapPageId implements PageId {
             return false;
         }else {
             HeapPageId that = (HeapPageId) o;
-            return this.hashCode() == that.hashCode() || (this.tableId == that.tableId && this.pageNo == that.pageNo);
+            return this.tableId == that.tableId && this.pageNo == that.pageNo;
         }
     }
 
@@ -0,0 +1,286 @@
+package jav.simpledb.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * IntColumnCodec encodes a run of int values into one compressed page of a
+ * {@link ColumnarFile}, choosing for each page the encoding that fits the
+ * most values:
+ * <ul>
+ * <li>PLAIN: the values, 4 bytes each;</li>
+ * <li>FOR (frame of reference): the minimum, then each value minus the
+ * minimum, bit-packed at the width of the largest difference;</li>
+ * <li>DELTA: the first value, then the differences between neighbouring
+ * values, frame-of-reference encoded;</li>
+ * <li>RLE: pairs of a value and the number of times it repeats.</li>
+ * </ul>
+ * Every page starts with an 8-byte header: a byte for the encoding, a byte
+ * for the bit width, an unsigned short count of values and an int base
+ * value (the minimum for FOR, the first value for DELTA). DELTA pages add
+ * the minimum difference as another int. Non-int columns of a compressed
+ * file use the same header with the PLAIN encoding.
+ * <p>
+ * A page is always decoded whole, in one tight loop per encoding.
+ */
+final class IntColumnCodec {
+
+    static final int PLAIN = 0;
+    static final int FOR = 1;
+    static final int DELTA = 2;
+    static final int RLE = 3;
+
+    /** Bytes before the values of a page. */
+    static final int HEADER_SIZE = 8;
+
+    private static final int DELTA_HEADER_SIZE = HEADER_SIZE + 4;
+    private static final int RUN_SIZE = 6;
+
+    private IntColumnCodec() {
+    }
+
+    /** @return the bits needed to hold range, an unsigned difference */
+    private static int width(long range) {
+        return 64 - Long.numberOfLeadingZeros(range);
+    }
+
+    private static int packedBytes(int n, int width) {
+        return (int) (((long) n * width + 7) / 8);
+    }
+
+    /** @return how many of values[from, to) a PLAIN page holds */
+    static int plainCount(int from, int to, int pageSize) {
+        return Math.min(to - from, (pageSize - HEADER_SIZE) / 4);
+    }
+
+    private static int forCount(int[] values, int from, int to, int pageSize) {
+        int min = values[from];
+        int max = min;
+        int n = 1;
+        while (from + n < to) {
+            int v = values[from + n];
+            int lo = Math.min(min, v);
+            int hi = Math.max(max, v);
+            if (HEADER_SIZE + packedBytes(n + 1, width((long) hi - lo)) > pageSize) {
+                break;
+            }
+            min = lo;
+            max = hi;
+            n++;
+        }
+        return n;
+    }
+
+    private static int deltaCount(int[] values, int from, int to, int pageSize) {
+        int n = 1;
+        int min = 0;
+        int max = 0;
+        while (from + n < to) {
+            int d = values[from + n] - values[from + n - 1];
+            int lo = n == 1 ? d : Math.min(min, d);
+            int hi = n == 1 ? d : Math.max(max, d);
+            if (DELTA_HEADER_SIZE + packedBytes(n, width((long) hi - lo)) > pageSize) {
+                break;
+            }
+            min = lo;
+            max = hi;
+            n++;
+        }
+        return n;
+    }
+
+    private static int rleCount(int[] values, int from, int to, int pageSize) {
+        int maxRuns = (pageSize - HEADER_SIZE) / RUN_SIZE;
+        int runs = 1;
+        int n = 1;
+        while (from + n < to) {
+            if (values[from + n] != values[from + n - 1]) {
+                if (runs == maxRuns) {
+                    break;
+                }
+                runs++;
+            }
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Encode as many of values[from, to) as fit into page, with whichever
+     * encoding fits the most. The page must be zeroed.
+     *
+     * @return the number of values encoded
+     */
+    static int encode(int[] values, int from, int to, ByteBuffer page, int pageSize) {
+        to = Math.min(to, from + 0xffff);
+        int best = PLAIN;
+        int n = plainCount(from, to, pageSize);
+        int c = forCount(values, from, to, pageSize);
+        if (c > n) {
+            best = FOR;
+            n = c;
+        }
+        c = deltaCount(values, from, to, pageSize);
+        if (c > n) {
+            best = DELTA;
+            n = c;
+        }
+        c = rleCount(values, from, to, pageSize);
+        if (c > n) {
+            best = RLE;
+            n = c;
+        }
+        page.put(0, (byte) best);
+        page.putShort(2, (short) n);
+        switch (best) {
+            case PLAIN:
+                for (int i = 0; i < n; i++) {
+                    page.putInt(HEADER_SIZE + 4 * i, values[from + i]);
+                }
+                break;
+            case FOR: {
+                int min = values[from];
+                int max = min;
+                for (int i = 1; i < n; i++) {
+                    min = Math.min(min, values[from + i]);
+                    max = Math.max(max, values[from + i]);
+                }
+                int w = width((long) max - min);
+                int base = min;
+                page.put(1, (byte) w);
+                page.putInt(4, base);
+                pack(page, HEADER_SIZE, w, n, i -> (long) values[from + i] - base);
+                break;
+            }
+            case DELTA: {
+                int min = 0;
+                int max = 0;
+                for (int i = 1; i < n; i++) {
+                    int d = values[from + i] - values[from + i - 1];
+                    min = i == 1 ? d : Math.min(min, d);
+                    max = i == 1 ? d : Math.max(max, d);
+                }
+                int w = width((long) max - min);
+                int minDelta = min;
+                page.put(1, (byte) w);
+                page.putInt(4, values[from]);
+                page.putInt(HEADER_SIZE, minDelta);
+                pack(page, DELTA_HEADER_SIZE, w, n - 1,
+                        i -> (long) (values[from + i + 1] - values[from + i]) - minDelta);
+                break;
+            }
+            default: {
+                int at = HEADER_SIZE;
+                int i = 0;
+                while (i < n) {
+                    int v = values[from + i];
+                    int run = 1;
+                    while (i + run < n && values[from + i + run] == v) {
+                        run++;
+                    }
+                    page.putInt(at, v);
+                    page.putShort(at + 4, (short) run);
+                    at += RUN_SIZE;
+                    i += run;
+                }
+            }
+        }
+        return n;
+    }
+
+    private interface Offsets {
+        long get(int i);
+    }
+
+    private static void pack(ByteBuffer page, int at, int width, int n, Offsets offsets) {
+        if (width == 0) {
+            return;
+        }
+        long acc = 0;
+        int bits = 0;
+        for (int i = 0; i < n; i++) {
+            acc |= offsets.get(i) << bits;
+            bits += width;
+            while (bits >= 8) {
+                page.put(at++, (byte) acc);
+                acc >>>= 8;
+                bits -= 8;
+            }
+        }
+        if (bits > 0) {
+            page.put(at, (byte) acc);
+        }
+    }
+
+    /** @return the number of values on a compressed page */
+    static int count(ByteBuffer page) {
+        return page.getShort(2) & 0xffff;
+    }
+
+    /**
+     * Decode every value of a compressed int page.
+     */
+    static int[] decode(ByteBuffer page) {
+        int n = count(page);
+        int w = page.get(1) & 0xff;
+        int[] out = new int[n];
+        switch (page.get(0)) {
+            case PLAIN:
+                for (int i = 0; i < n; i++) {
+                    out[i] = page.getInt(HEADER_SIZE + 4 * i);
+                }
+                break;
+            case FOR:
+                unpack(page, HEADER_SIZE, w, out, 0, n, page.getInt(4));
+                break;
+            case DELTA:
+                if (n > 0) {
+                    unpack(page, DELTA_HEADER_SIZE, w, out, 1, n - 1, page.getInt(HEADER_SIZE));
+                    int v = page.getInt(4);
+                    out[0] = v;
+                    for (int i = 1; i < n; i++) {
+                        v += out[i];
+                        out[i] = v;
+                    }
+                }
+                break;
+            case RLE: {
+                int at = HEADER_SIZE;
+                int i = 0;
+                while (i < n) {
+                    int v = page.getInt(at);
+                    int end = i + (page.getShort(at + 4) & 0xffff);
+                    while (i < end) {
+                        out[i++] = v;
+                    }
+                    at += RUN_SIZE;
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("unknown int page encoding " + page.get(0));
+        }
+        return out;
+    }
+
+    /** Unpack n width-bit offsets at byte at into out[to...], each plus base. */
+    private static void unpack(ByteBuffer page, int at, int width, int[] out, int to, int n, int base) {
+        if (width == 0) {
+            for (int i = 0; i < n; i++) {
+                out[to + i] = base;
+            }
+            return;
+        }
+        long mask = width == 64 ? -1L : (1L << width) - 1;
+        long acc = 0;
+        int bits = 0;
+        for (int i = 0; i < n; i++) {
+            while (bits < width) {
+                acc |= (long) (page.get(at++) & 0xff) << bits;
+                bits += 8;
+            }
+            out[to + i] = (int) (base + (acc & mask));
+            acc >>>= width;
+            bits -= width;
+        }
+    }
+}
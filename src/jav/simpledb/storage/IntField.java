@@ -4,6 +4,7 @@ import jav.simpledb.common.Type;
 import jav.simpledb.execution.Predicate;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single integer.
@@ -44,6 +45,10 @@ public class IntField implements Field {
         dos.writeInt(value);
     }
 
+    public void serialize(ByteBuffer buf, int offset) {
+        buf.putInt(offset, value);
+    }
+
     /**
      * Compare the specified field to the value of this Field.
      * Return semantics are as specified by Field.compare
@@ -55,20 +60,30 @@ public class IntField implements Field {
 
         IntField iVal = (IntField) val;
 
+        return compare(op, value, iVal.value);
+    }
+
+    /**
+     * Compare two int values the way IntFields holding them compare, for
+     * callers that read ints without creating IntFields.
+     *
+     * @see Tuple#getInt
+     */
+    public static boolean compare(Predicate.Op op, int value, int other) {
         switch (op) {
             case EQUALS:
             case LIKE:
-                return value == iVal.value;
+                return value == other;
             case NOT_EQUALS:
-                return value != iVal.value;
+                return value != other;
             case GREATER_THAN:
-                return value > iVal.value;
+                return value > other;
             case GREATER_THAN_OR_EQ:
-                return value >= iVal.value;
+                return value >= other;
             case LESS_THAN:
-                return value < iVal.value;
+                return value < other;
             case LESS_THAN_OR_EQ:
-                return value <= iVal.value;
+                return value <= other;
         }
 
         return false;
@@ -7,6 +7,7 @@ import jav.simpledb.transaction.TransactionId;
 
 import java.io.*;
 import java.util.*;
+import java.nio.ByteBuffer;
 import java.lang.reflect.*;
 
 /*
@@ -55,8 +56,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, and BULK_LOAD
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -71,6 +72,11 @@ of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
 for each active transaction.
 
+<li> BULK_LOAD records consist of an integer table id, the integer number
+of the first page appended to the table, and the integer number of pages
+appended.  The pages themselves are not logged; they are forced to disk
+before the record is written.
+
 </ul>
 */
 public class LogFile {
@@ -84,6 +90,7 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int BULK_LOAD_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -220,6 +227,31 @@ public class LogFile {
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
+    /** Write a BULK_LOAD record for pages appended to a table by tid,
+        and force the log to disk. The pages must already be on disk.
+
+        @param tid The transaction loading the table
+        @param tableId The table the pages were appended to
+        @param firstPage The number of the first page appended
+        @param numPages The number of pages appended
+
+        @see BulkLoader
+    */
+    public synchronized void logBulkLoad(TransactionId tid, int tableId,
+                                         int firstPage, int numPages)
+        throws IOException {
+        preAppend();
+        Debug.log("BULK LOAD " + tid.getId() + ", table " + tableId);
+        raf.writeInt(BULK_LOAD_RECORD);
+        raf.writeLong(tid.getId());
+        raf.writeInt(tableId);
+        raf.writeInt(firstPage);
+        raf.writeInt(numPages);
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+        force();
+    }
+
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
         PageId pid = p.getId();
         int[] pageInfo = pid.serialize();
@@ -242,9 +274,13 @@ public class LogFile {
         for (int j : pageInfo) {
             raf.writeInt(j);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        // write the page image straight from the page; the channel shares
+        // the file pointer of raf
+        ByteBuffer pageData = p.getPageBuffer();
+        raf.writeInt(pageData.remaining());
+        while (pageData.hasRemaining()) {
+            raf.getChannel().write(pageData);
+        }
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
@@ -422,6 +458,11 @@ public class LogFile {
                 case BEGIN_RECORD:
                     tidToFirstLogRecord.put(record_tid,newStart);
                     break;
+                case BULK_LOAD_RECORD:
+                    logNew.writeInt(raf.readInt());
+                    logNew.writeInt(raf.readInt());
+                    logNew.writeInt(raf.readInt());
+                    break;
                 }
 
                 //all xactions finish with a pointer
@@ -535,6 +576,14 @@ public class LogFile {
                     System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
 
                     break;
+                case BULK_LOAD_RECORD:
+                    System.out.println(" (BULK LOAD)");
+                    System.out.println(raf.getFilePointer() + ": TABLE ID: " + raf.readInt());
+                    System.out.println(raf.getFilePointer() + ": FIRST PAGE: " + raf.readInt());
+                    System.out.println(raf.getFilePointer() + ": NUMBER OF PAGES: " + raf.readInt());
+                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    break;
+
                 case UPDATE_RECORD:
                     System.out.println(" (UPDATE)");
 
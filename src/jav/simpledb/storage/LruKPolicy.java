@@ -0,0 +1,115 @@
+package jav.simpledb.storage;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). Each page remembers the
+ * times of its last K references; the victim is the page whose K-th most
+ * recent reference is the oldest. Pages referenced fewer than K times have an
+ * infinite backward K-distance and go first, oldest last reference first, so a
+ * single sequential scan cannot push out pages that are referenced repeatedly.
+ * <p>
+ * The history of evicted pages is retained for a bounded number of pages so a
+ * page that comes back soon after eviction keeps its earlier references.
+ */
+public class LruKPolicy implements EvictionPolicy {
+
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private final Map<PageId, History> resident;
+    private final TreeSet<History> byDistance;
+    private final LinkedHashMap<PageId, long[]> retained;
+    private long clock;
+    private long seq;
+
+    /** Reference history of one resident page. */
+    private static class History {
+        final PageId pid;
+        final long[] refs; // refs[0] is the most recent reference, 0 means none
+        long tiebreak;
+
+        History(PageId pid, long[] refs) {
+            this.pid = pid;
+            this.refs = refs;
+        }
+
+        long kth() {
+            return refs[refs.length - 1];
+        }
+
+        long last() {
+            return refs[0];
+        }
+    }
+
+    /**
+     * @param numPages the number of frames in the BufferPool
+     * @param k the number of references to remember per page (at least 1)
+     */
+    public LruKPolicy(int numPages, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this.k = k;
+        final int retainedPages = Math.max(1, numPages);
+        resident = new HashMap<>();
+        byDistance = new TreeSet<>(Comparator.comparingLong(History::kth)
+                .thenComparingLong(History::last)
+                .thenComparingLong(h -> h.tiebreak));
+        retained = new LinkedHashMap<PageId, long[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+                return size() > retainedPages;
+            }
+        };
+    }
+
+    private void reference(History h) {
+        System.arraycopy(h.refs, 0, h.refs, 1, h.refs.length - 1);
+        h.refs[0] = ++clock;
+        h.tiebreak = ++seq;
+    }
+
+    public synchronized void pageAdmitted(PageId pid) {
+        History h = resident.get(pid);
+        if (h != null) {
+            pageAccessed(pid);
+            return;
+        }
+        long[] refs = retained.remove(pid);
+        h = new History(pid, refs != null ? refs : new long[k]);
+        reference(h);
+        resident.put(pid, h);
+        byDistance.add(h);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        History h = resident.get(pid);
+        if (h == null)
+            return;
+        byDistance.remove(h);
+        reference(h);
+        byDistance.add(h);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        History h = resident.remove(pid);
+        if (h != null)
+            byDistance.remove(h);
+    }
+
+    public synchronized PageId evict(Predicate<PageId> evictable) {
+        for (History h : byDistance) {
+            if (evictable.test(h.pid)) {
+                byDistance.remove(h);
+                resident.remove(h.pid);
+                retained.put(h.pid, h.refs);
+                return h.pid;
+            }
+        }
+        return null;
+    }
+}
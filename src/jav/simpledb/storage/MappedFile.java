@@ -0,0 +1,84 @@
+package jav.simpledb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
+
+/**
+ * MappedFile is the read-only memory mapping of a HeapFile opened in
+ * memory-mapped mode. Pages are handed out as read-only slices of the
+ * mapping, so reading a page copies nothing and caching is left to the OS
+ * page cache.
+ * <p>
+ * A single MappedByteBuffer cannot exceed 2GB, so the file is mapped in
+ * segments of SEGMENT_BYTES. When a page beyond the mapped region is asked
+ * for (the file has grown since it was mapped), the last segment is mapped
+ * again at its new length and new segments are added as needed.
+ *
+ * @Threadsafe
+ */
+class MappedFile {
+
+    /** Bytes per mapped segment; a multiple of any sensible page size. */
+    static final long SEGMENT_BYTES = 1L << 30;
+
+    private final DbFileChannel channel;
+    private final int pageSize;
+    private final int pagesPerSegment;
+
+    private volatile MappedByteBuffer[] segments;
+    private volatile long mappedPages;
+
+    MappedFile(DbFileChannel channel, int pageSize) {
+        this.channel = channel;
+        this.pageSize = pageSize;
+        this.pagesPerSegment = (int) (SEGMENT_BYTES / pageSize);
+        this.segments = new MappedByteBuffer[0];
+        this.mappedPages = 0;
+    }
+
+    /**
+     * @return a read-only view of page pageNo, or null if the file has no
+     *   such page
+     */
+    ByteBuffer page(int pageNo) throws IOException {
+        if (pageNo < 0) {
+            return null;
+        }
+        if (pageNo >= mappedPages && !remap(pageNo)) {
+            return null;
+        }
+        ByteBuffer seg = segments[pageNo / pagesPerSegment].duplicate();
+        int offset = (pageNo % pagesPerSegment) * pageSize;
+        seg.position(offset);
+        seg.limit(offset + pageSize);
+        return seg.slice();
+    }
+
+    /**
+     * Extend the mapping to the current end of the file.
+     *
+     * @return true if page pageNo is mapped afterwards
+     */
+    private synchronized boolean remap(int pageNo) throws IOException {
+        if (pageNo < mappedPages) {
+            return true;
+        }
+        long pages = channel.size() / pageSize;
+        if (pageNo >= pages) {
+            return false;
+        }
+        int count = (int) ((pages + pagesPerSegment - 1) / pagesPerSegment);
+        MappedByteBuffer[] grown = Arrays.copyOf(segments, count);
+        // the old last segment may be partial, so it is mapped again
+        for (int i = Math.max(0, segments.length - 1); i < count; i++) {
+            long start = i * SEGMENT_BYTES;
+            long length = Math.min(SEGMENT_BYTES, pages * pageSize - start);
+            grown[i] = channel.map(start, length);
+        }
+        segments = grown;
+        mappedPages = pages;
+        return true;
+    }
+}
@@ -2,6 +2,8 @@ package jav.simpledb.storage;
 
 import jav.simpledb.transaction.TransactionId;
 
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are resident in the
  * BufferPool.  Typically, DbFiles will read and write pages from disk.
@@ -48,6 +50,19 @@ public interface Page {
 
   byte[] getPageData();
 
+  /**
+   * Returns the bytes of this page like {@link #getPageData()}, but without
+   * copying them when the page keeps its serialized image. The buffer is
+   * read-only and runs from position 0 to the page size; it reflects later
+   * changes to the page, so the caller must be done with it before the page
+   * is modified again, which holding the page's lock guarantees.
+   *
+   * @return a read-only buffer over the bytes of this page
+   */
+  default ByteBuffer getPageBuffer() {
+      return ByteBuffer.wrap(getPageData()).asReadOnlyBuffer();
+  }
+
     /** Provide a representation of this page before any modifications were made
         to it.  Used by recovery.
     */
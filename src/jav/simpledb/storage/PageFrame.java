@@ -0,0 +1,35 @@
+package jav.simpledb.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A PageFrame is one frame of a {@link FrameArena}, handed to a DbFile to
+ * load a page into. It stays valid until the BufferPool releases it, after
+ * which {@link #isCurrent()} is false and the memory may already hold a
+ * different page.
+ */
+public final class PageFrame {
+
+    final FrameArena arena;
+    final int frame;
+    final long generation;
+
+    PageFrame(FrameArena arena, int frame, long generation) {
+        this.arena = arena;
+        this.frame = frame;
+        this.generation = generation;
+    }
+
+    /**
+     * @return a new buffer over the frame, positioned at 0 with the page
+     *   size as its limit
+     */
+    public ByteBuffer buffer() {
+        return arena.buffer(frame);
+    }
+
+    /** @return true while the frame has not been released */
+    public boolean isCurrent() {
+        return arena.isCurrent(frame, generation);
+    }
+}
@@ -0,0 +1,149 @@
+package jav.simpledb.storage;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.DbException;
+import jav.simpledb.common.Permissions;
+import jav.simpledb.common.Type;
+import jav.simpledb.transaction.TransactionAbortedException;
+import jav.simpledb.transaction.TransactionId;
+
+import java.util.NoSuchElementException;
+
+/**
+ * PaxColumnIterator scans a HeapFile of PAX pages a page at a time and
+ * hands out the requested fields of each page's tuples as arrays, one per
+ * field: int fields as int[], others as Field[]. Entry j of every array
+ * belongs to the same tuple. The arrays are reused from page to page, so a
+ * caller copies what it needs to keep before moving on.
+ * <p>
+ * Pages are read through the BufferPool, like any other scan.
+ *
+ * @see PaxPage
+ */
+public class PaxColumnIterator {
+
+    private final TransactionId tid;
+    private final HeapFile file;
+    private final int[] fields;
+    private final int[][] ints;
+    private final Field[][] others;
+    private final int[] slots;
+    private int pageNo;
+    private int numPages;
+    private int size;
+    private HeapPageId current;
+
+    /**
+     * @param tid the transaction the scan runs as a part of
+     * @param file the table to scan, which must have PAX pages
+     * @param fields the indexes of the fields to return
+     * @throws IllegalArgumentException if file does not have PAX pages
+     */
+    public PaxColumnIterator(TransactionId tid, HeapFile file, int[] fields) {
+        if (!file.isPax()) {
+            throw new IllegalArgumentException("table " + file.getId() + " does not have PAX pages");
+        }
+        this.tid = tid;
+        this.file = file;
+        this.fields = fields.clone();
+        TupleDesc td = file.getTupleDesc();
+        int capacity = HeapPage.numSlots(td, BufferPool.getPageSize());
+        this.ints = new int[fields.length][];
+        this.others = new Field[fields.length][];
+        for (int k = 0; k < fields.length; k++) {
+            if (td.getFieldType(fields[k]) == Type.INT_TYPE) {
+                ints[k] = new int[capacity];
+            } else {
+                others[k] = new Field[capacity];
+            }
+        }
+        this.slots = new int[capacity];
+        this.pageNo = -1;
+    }
+
+    /** Start the scan at the first page of the file. */
+    public void open() {
+        pageNo = 0;
+        numPages = file.numPages();
+        size = 0;
+        current = null;
+    }
+
+    /**
+     * Move to the next page that holds tuples and fill the arrays with its
+     * fields.
+     *
+     * @return false if there are no more pages
+     */
+    public boolean next() throws DbException, TransactionAbortedException {
+        if (pageNo < 0) {
+            throw new DbException("iterator not open");
+        }
+        while (pageNo < numPages) {
+            HeapPageId pid = new HeapPageId(file.getId(), pageNo++);
+            PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            size = page.getSlots(slots);
+            if (size == 0) {
+                continue;
+            }
+            for (int k = 0; k < fields.length; k++) {
+                if (ints[k] != null) {
+                    page.getInts(fields[k], ints[k]);
+                } else {
+                    page.getFields(fields[k], others[k]);
+                }
+            }
+            current = pid;
+            return true;
+        }
+        size = 0;
+        current = null;
+        return false;
+    }
+
+    /** @return the number of tuples on the current page */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the values of the k-th requested field of the tuples on the
+     *   current page, in the first size() entries
+     * @throws IllegalArgumentException if that field is not an int
+     */
+    public int[] getInts(int k) {
+        if (ints[k] == null) {
+            throw new IllegalArgumentException("field " + fields[k] + " is not an int");
+        }
+        return ints[k];
+    }
+
+    /**
+     * @return the k-th requested field of the tuples on the current page,
+     *   in the first size() entries
+     * @throws IllegalArgumentException if that field is an int
+     */
+    public Field[] getFields(int k) {
+        if (others[k] == null) {
+            throw new IllegalArgumentException("field " + fields[k] + " is an int; use getInts");
+        }
+        return others[k];
+    }
+
+    /**
+     * @return the RecordId of the j-th tuple of the current page
+     */
+    public RecordId getRecordId(int j) {
+        if (current == null || j >= size) {
+            throw new NoSuchElementException();
+        }
+        return new RecordId(current, slots[j]);
+    }
+
+    /** End the scan. */
+    public void close() {
+        pageNo = -1;
+        size = 0;
+        current = null;
+    }
+}
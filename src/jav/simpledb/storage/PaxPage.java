@@ -0,0 +1,162 @@
+package jav.simpledb.storage;
+
+import jav.simpledb.common.Type;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A HeapPage in the PAX (Partition Attributes Across) layout. The page has
+ * the same header bitmap and the same number of slots as a HeapPage of the
+ * table, but after the header the values are grouped by column: one
+ * minipage per field, holding that field for every slot, in slot order.
+ * Field i of slot s is at
+ * <pre>headerSize + numSlots * td.getFieldOffset(i) + s * len(i)</pre>
+ * <p>
+ * A page still holds whole rows, so inserts, deletes, locking, logging and
+ * the free space map work as for any HeapPage, but the values of one
+ * column are contiguous. {@link #getInts} copies an int column of the
+ * tuples on the page into an array in one pass over its minipage, and
+ * {@link PaxColumnIterator} does so page after page for a whole table.
+ * <p>
+ * PAX pages need fixed-size fields; tables with a VARCHAR cannot use them.
+ *
+ * @see HeapFile#HeapFile(java.io.File, TupleDesc, boolean, boolean)
+ */
+public class PaxPage extends HeapPage {
+
+    /**
+     * Create a PAX page from the bytes of the page.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, byte[])
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+        checkFixedSize();
+    }
+
+    /**
+     * Create a PAX page directly over a read-only buffer holding the page.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    public PaxPage(HeapPageId id, ByteBuffer data) throws IOException {
+        super(id, data);
+        checkFixedSize();
+    }
+
+    /**
+     * Create a PAX page as a view of a BufferPool frame.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, PageFrame)
+     */
+    public PaxPage(HeapPageId id, PageFrame frame) {
+        super(id, frame);
+        checkFixedSize();
+    }
+
+    private void checkFixedSize() {
+        if (slotted) {
+            throw new IllegalArgumentException("PAX pages need fixed-size fields");
+        }
+    }
+
+    /** @return the offset of the minipage of field i */
+    private int minipage(int i) {
+        return headerSize + numSlots * td.getFieldOffset(i);
+    }
+
+    @Override
+    int fieldOffset(int slot, int i) {
+        return minipage(i) + slot * td.getFieldType(i).getLen();
+    }
+
+    @Override
+    HeapPage copyOf(byte[] image) throws IOException {
+        return new PaxPage(pid, image);
+    }
+
+    @Override
+    HeapPage copyOf(ByteBuffer image) throws IOException {
+        return new PaxPage(pid, image);
+    }
+
+    /**
+     * Copy the slot numbers of the tuples on this page, in slot order, into
+     * dst, which must have room for every slot.
+     *
+     * @return the number of tuples on the page
+     */
+    public int getSlots(int[] dst) {
+        return read(b -> {
+            int n = 0;
+            for (int h = 0; h < headerSize; h++) {
+                int bits = b.get(h) & 0xff;
+                while (bits != 0) {
+                    int slot = h * 8 + Integer.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    if (slot < numSlots) {
+                        dst[n++] = slot;
+                    }
+                }
+            }
+            return n;
+        });
+    }
+
+    /**
+     * Copy int field i of the tuples on this page, in slot order, into dst,
+     * which must have room for every slot.
+     *
+     * @return the number of values copied, the number of tuples on the page
+     * @throws IllegalArgumentException if field i is not an INT_TYPE
+     */
+    public int getInts(int i, int[] dst) {
+        if (td.getFieldType(i) != Type.INT_TYPE) {
+            throw new IllegalArgumentException("field " + i + " is not an int");
+        }
+        int base = minipage(i);
+        return read(b -> {
+            int n = 0;
+            for (int h = 0; h < headerSize; h++) {
+                int bits = b.get(h) & 0xff;
+                if (bits == 0xff && h * 8 + 8 <= numSlots) {
+                    // a full header byte: eight values in a row
+                    int at = base + h * 32;
+                    for (int k = 0; k < 8; k++) {
+                        dst[n++] = b.getInt(at + 4 * k);
+                    }
+                    continue;
+                }
+                while (bits != 0) {
+                    int slot = h * 8 + Integer.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    if (slot < numSlots) {
+                        dst[n++] = b.getInt(base + 4 * slot);
+                    }
+                }
+            }
+            return n;
+        });
+    }
+
+    /**
+     * Decode field i of the tuples on this page, in slot order, into dst,
+     * which must have room for every slot.
+     *
+     * @return the number of fields decoded
+     */
+    public int getFields(int i, Field[] dst) {
+        Type type = td.getFieldType(i);
+        int base = minipage(i);
+        int len = type.getLen();
+        int[] slots = new int[numSlots];
+        int n = getSlots(slots);
+        return read(b -> {
+            for (int k = 0; k < n; k++) {
+                dst[k] = type.parse(b, base + slots[k] * len);
+            }
+            return n;
+        });
+    }
+}
@@ -0,0 +1,178 @@
+package jav.simpledb.storage;
+
+import jav.simpledb.transaction.TransactionId;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * ReadAhead keeps the next pages of a sequential scan coming in from disk
+ * while the scan is still busy with the current one. The iterator tells it
+ * which page it is about to read; while pages are read in order (a scan that
+ * starts at page 0 is in order from the start), ReadAhead asks the
+ * BufferPool to prefetch the next window of pages on its background I/O
+ * threads.
+ * <p>
+ * The window adapts to how fast the consumer drains pages. If the consumer
+ * reaches a page that is still being read (or was never read ahead), I/O is
+ * the bottleneck and the window doubles. If it reaches a page whose prefetch
+ * finished while later prefetches in the window had finished too, the
+ * consumer is the bottleneck and the window shrinks by one page, so a slow
+ * scan does not tie up frames it will not need for a while. A prefetched
+ * page that was evicted before the consumer got to it also shrinks the
+ * window. A non-sequential access resets it.
+ * <p>
+ * Each time the window moves, the pages that enter it are prefetched with a
+ * single batched read. Every page a sequential scan reaches is counted by the
+ * BufferPool as a prefetch hit or miss.
+ *
+ * @see BufferPool#prefetchPages
+ * @see BufferPool#getPrefetchHits
+ */
+public class ReadAhead {
+
+    /** Smallest window, in pages. */
+    public static final int MIN_WINDOW = 2;
+
+    /** Largest window, in pages, before the pool and ring limits apply. */
+    public static final int MAX_WINDOW = 32;
+
+    /** Read-ahead can be turned off with -Dsimpledb.readahead=false. */
+    public static final boolean ENABLED =
+            Boolean.parseBoolean(System.getProperty("simpledb.readahead", "true"));
+
+    private final BufferPool bufferPool;
+    private final TransactionId tid;
+    private final int tableId;
+    private final int numPages;
+    private final BufferRing ring;
+    private final int maxWindow;
+
+    /** Outstanding prefetches, oldest (lowest page number) first. */
+    private final Deque<Prefetch> pending;
+
+    private int window;
+    private int lastPage;
+    private int nextToPrefetch;
+
+    private static class Prefetch {
+        final int pageNo;
+        final CompletableFuture<Page> load;
+
+        Prefetch(int pageNo, CompletableFuture<Page> load) {
+            this.pageNo = pageNo;
+            this.load = load;
+        }
+    }
+
+    /**
+     * @param bufferPool the pool to prefetch into
+     * @param tid the transaction the scan runs as a part of
+     * @param tableId the table being scanned
+     * @param numPages the number of pages in the table
+     * @param ring the ring the scan reads through, or null
+     */
+    public ReadAhead(BufferPool bufferPool, TransactionId tid, int tableId, int numPages, BufferRing ring) {
+        this.bufferPool = bufferPool;
+        this.tid = tid;
+        this.tableId = tableId;
+        this.numPages = numPages;
+        this.ring = ring;
+        // never hold more than a quarter of the pool, or half of the ring, in
+        // pages the consumer has not reached yet
+        int limit = Math.min(MAX_WINDOW, Math.max(1, bufferPool.getNumPages() / 4));
+        if (ring != null) {
+            limit = Math.min(limit, Math.max(1, ring.size() / 2));
+        }
+        this.maxWindow = limit;
+        this.pending = new ArrayDeque<>();
+        reset(-1);
+    }
+
+    /** @return the current window, in pages */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Called by the iterator right before it reads page pageNo through the
+     * BufferPool.
+     */
+    public void access(int pageNo) {
+        if (pageNo != lastPage + 1) {
+            reset(pageNo);
+            return;
+        }
+        lastPage = pageNo;
+        Prefetch head = pending.peekFirst();
+        while (head != null && head.pageNo < pageNo) {
+            pending.pollFirst();
+            head = pending.peekFirst();
+        }
+        if (head != null && head.pageNo == pageNo) {
+            pending.pollFirst();
+            adapt(head);
+        } else if (pageNo > 0) {
+            // sequential, but this page was never read ahead
+            bufferPool.recordPrefetch(false);
+            grow();
+        }
+        issue(pageNo);
+    }
+
+    private void adapt(Prefetch p) {
+        boolean ready = p.load.isDone() && !p.load.isCompletedExceptionally();
+        boolean resident = ready && bufferPool.isResident(new HeapPageId(tableId, p.pageNo));
+        bufferPool.recordPrefetch(resident);
+        if (!ready) {
+            grow();
+        } else if (!resident) {
+            shrink();
+        } else {
+            Prefetch last = pending.peekLast();
+            if (last != null && last.load.isDone()) {
+                shrink();
+            }
+        }
+    }
+
+    private void grow() {
+        window = Math.min(maxWindow, window * 2);
+    }
+
+    private void shrink() {
+        window = Math.max(Math.min(MIN_WINDOW, maxWindow), window - 1);
+    }
+
+    /** Prefetch so that the pages after pageNo up to the window are on their way. */
+    private void issue(int pageNo) {
+        if (nextToPrefetch <= pageNo) {
+            nextToPrefetch = pageNo + 1;
+        }
+        int end = Math.min(numPages, pageNo + 1 + window);
+        if (nextToPrefetch >= end) {
+            return;
+        }
+        // the new part of the window is one run of adjacent pages, read in one go
+        List<PageId> pids = new ArrayList<>();
+        for (int p = nextToPrefetch; p < end; p++) {
+            pids.add(new HeapPageId(tableId, p));
+        }
+        CompletableFuture<List<Page>> batch = bufferPool.prefetchPages(tid, pids, ring);
+        for (int i = 0; i < pids.size(); i++) {
+            final int idx = i;
+            pending.addLast(new Prefetch(nextToPrefetch + i, batch.thenApply(pages -> pages.get(idx))));
+        }
+        nextToPrefetch = end;
+    }
+
+    private void reset(int pageNo) {
+        pending.clear();
+        window = Math.min(MIN_WINDOW, maxWindow);
+        lastPage = pageNo;
+        nextToPrefetch = pageNo + 1;
+    }
+}
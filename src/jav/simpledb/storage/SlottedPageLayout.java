@@ -0,0 +1,215 @@
+package jav.simpledb.storage;
+
+import jav.simpledb.common.Type;
+
+import java.nio.ByteBuffer;
+
+/**
+ * SlottedPageLayout reads and writes the slotted layout HeapPage uses for
+ * tables with variable-length fields. All offsets are relative to the start
+ * of the page, at base in the buffer.
+ * <p>
+ * A slotted page starts with a 2-byte count of slot directory entries and
+ * the 2-byte offset where the record area starts (0 standing for the end of
+ * the page, so an all-zero page is a valid empty page). The slot directory
+ * follows: a 2-byte record offset and a 2-byte record length per slot, with
+ * an offset of 0 marking an empty slot. Records are packed at the end of the
+ * page and grow towards the directory; the space between the two is free.
+ * <p>
+ * A record stores its fields in order: VARCHARs as a 2-byte length followed
+ * by that many bytes, other types in their fixed width. Deleting a record
+ * slides the records below it up over the hole, so the free space is always
+ * one contiguous gap, and trailing empty directory entries are dropped.
+ * Slot numbers, and so RecordIds, never change while a record lives.
+ * <p>
+ * All values are unsigned shorts, which limits pages to 64KB.
+ */
+final class SlottedPageLayout {
+
+    /** Bytes before the slot directory. */
+    static final int HEADER_SIZE = 4;
+
+    /** Bytes per slot directory entry. */
+    static final int ENTRY_SIZE = 4;
+
+    private SlottedPageLayout() {
+    }
+
+    private static int u16(ByteBuffer b, int i) {
+        return b.getShort(i) & 0xffff;
+    }
+
+    private static void putU16(ByteBuffer b, int i, int v) {
+        b.putShort(i, (short) v);
+    }
+
+    /** @return the number of slot directory entries */
+    static int slotCount(ByteBuffer b, int base) {
+        return u16(b, base);
+    }
+
+    /** @return the offset where the record area starts */
+    static int recordsStart(ByteBuffer b, int base, int pageSize) {
+        int start = u16(b, base + 2);
+        return start == 0 ? pageSize : start;
+    }
+
+    /** @return the number of free bytes between the directory and the records */
+    static int freeSpace(ByteBuffer b, int base, int pageSize) {
+        return recordsStart(b, base, pageSize) - HEADER_SIZE - ENTRY_SIZE * slotCount(b, base);
+    }
+
+    /** @return the offset of the record in slot, or 0 if the slot is empty */
+    static int recordOffset(ByteBuffer b, int base, int slot) {
+        if (slot >= slotCount(b, base)) {
+            return 0;
+        }
+        return u16(b, base + HEADER_SIZE + ENTRY_SIZE * slot);
+    }
+
+    /** @return true if a record of the given length fits on the page */
+    static boolean hasRoom(ByteBuffer b, int base, int pageSize, int length) {
+        int free = freeSpace(b, base, pageSize);
+        if (length + ENTRY_SIZE <= free) {
+            return true;
+        }
+        return length <= free && freeSlot(b, base) >= 0;
+    }
+
+    private static int freeSlot(ByteBuffer b, int base) {
+        int n = slotCount(b, base);
+        for (int i = 0; i < n; i++) {
+            if (u16(b, base + HEADER_SIZE + ENTRY_SIZE * i) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Add record[0, length) to the page.
+     *
+     * @return the slot the record went in, or -1 if it does not fit
+     */
+    static int insert(ByteBuffer b, int base, int pageSize, byte[] record, int length) {
+        if (!hasRoom(b, base, pageSize, length)) {
+            return -1;
+        }
+        int slot = freeSlot(b, base);
+        if (slot < 0) {
+            slot = slotCount(b, base);
+            putU16(b, base, slot + 1);
+        }
+        int offset = recordsStart(b, base, pageSize) - length;
+        for (int i = 0; i < length; i++) {
+            b.put(base + offset + i, record[i]);
+        }
+        putU16(b, base + 2, offset);
+        putU16(b, base + HEADER_SIZE + ENTRY_SIZE * slot, offset);
+        putU16(b, base + HEADER_SIZE + ENTRY_SIZE * slot + 2, length);
+        return slot;
+    }
+
+    /**
+     * Remove the record in slot and close the gap it leaves.
+     */
+    static void delete(ByteBuffer b, int base, int pageSize, int slot) {
+        int entry = base + HEADER_SIZE + ENTRY_SIZE * slot;
+        int offset = u16(b, entry);
+        int length = u16(b, entry + 2);
+        int start = recordsStart(b, base, pageSize);
+        // slide the records between the record area start and the hole up
+        for (int i = offset - 1; i >= start; i--) {
+            b.put(base + i + length, b.get(base + i));
+        }
+        for (int i = start; i < start + length; i++) {
+            b.put(base + i, (byte) 0);
+        }
+        int n = slotCount(b, base);
+        for (int s = 0; s < n; s++) {
+            int e = base + HEADER_SIZE + ENTRY_SIZE * s;
+            int o = u16(b, e);
+            if (o != 0 && o < offset) {
+                putU16(b, e, o + length);
+            }
+        }
+        putU16(b, entry, 0);
+        putU16(b, entry + 2, 0);
+        start += length;
+        putU16(b, base + 2, start == pageSize ? 0 : start);
+        while (n > 0 && u16(b, base + HEADER_SIZE + ENTRY_SIZE * (n - 1)) == 0) {
+            n--;
+        }
+        putU16(b, base, n);
+    }
+
+    /** @return the size of the smallest record of the schema */
+    static int minRecordSize(TupleDesc td) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            Type type = td.getFieldType(i);
+            size += type.isVariableLength() ? 2 : type.getLen();
+        }
+        return size;
+    }
+
+    /**
+     * @return how many of the smallest records the free space of the page
+     *   holds; what HeapPage reports as its empty slots
+     */
+    static int emptySlots(int freeSpace, TupleDesc td) {
+        return Math.max(0, freeSpace) / (minRecordSize(td) + ENTRY_SIZE);
+    }
+
+    /** @return the number of the smallest records an empty page holds */
+    static int capacity(TupleDesc td, int pageSize) {
+        return emptySlots(pageSize - HEADER_SIZE, td);
+    }
+
+    /**
+     * Encode the fields of t as a record.
+     *
+     * @return the length of the record
+     */
+    static int encode(TupleDesc td, Tuple t, ByteBuffer out) {
+        int offset = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            Type type = td.getFieldType(i);
+            Field f = t.getField(i);
+            if (type.isVariableLength()) {
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                out.putShort(offset, (short) len);
+                for (int j = 0; j < len; j++) {
+                    out.put(offset + 2 + j, (byte) s.charAt(j));
+                }
+                offset += 2 + len;
+            } else {
+                f.serialize(out, offset);
+                offset += type.getLen();
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Decode field i of the record at offset.
+     */
+    static Field parseField(ByteBuffer b, int base, int offset, TupleDesc td, int i) {
+        int at = base + offset;
+        for (int j = 0; j < i; j++) {
+            Type type = td.getFieldType(j);
+            at += type.isVariableLength() ? 2 + u16(b, at) : type.getLen();
+        }
+        Type type = td.getFieldType(i);
+        if (!type.isVariableLength()) {
+            return type.parse(b, at);
+        }
+        int len = u16(b, at);
+        byte[] bs = new byte[len];
+        for (int j = 0; j < len; j++) {
+            bs[j] = b.get(at + 2 + j);
+        }
+        return new StringField(new String(bs), Type.STRING_LEN, type);
+    }
+}
@@ -4,9 +4,11 @@ import jav.simpledb.common.Type;
 import jav.simpledb.execution.Predicate;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
- * Instance of Field that stores a single String of a fixed length.
+ * Instance of Field that stores a single String of a fixed length, the
+ * value of a STRING_TYPE or a VARCHAR_TYPE field.
  */
 public class StringField implements Field {
 
@@ -14,6 +16,7 @@ public class StringField implements Field {
 
 	private final String value;
 	private final int maxSize;
+	private final Type type;
 
 	public String getValue() {
 		return value;
@@ -28,7 +31,25 @@ public class StringField implements Field {
 	 *            The maximum size of this string
 	 */
 	public StringField(String s, int maxSize) {
+		this(s, maxSize, Type.STRING_TYPE);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param s
+	 *            The value of this field.
+	 * @param maxSize
+	 *            The maximum size of this string
+	 * @param type
+	 *            The type of the field this is the value of, STRING_TYPE or
+	 *            VARCHAR_TYPE
+	 */
+	public StringField(String s, int maxSize, Type type) {
+		if (!type.isString())
+			throw new IllegalArgumentException("not a string type: " + type);
 		this.maxSize = maxSize;
+		this.type = type;
 
 		if (s.length() > maxSize)
 			value = s.substring(0, maxSize);
@@ -69,6 +90,17 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	/**
+	 * Write this string into buf at offset, in the same maxSize + 4 byte
+	 * layout as {@link #serialize(DataOutputStream)}.
+	 */
+	public void serialize(ByteBuffer buf, int offset) {
+		int len = Math.min(value.length(), maxSize);
+		buf.putInt(offset, len);
+		for (int i = 0; i < maxSize; i++)
+			buf.put(offset + 4 + i, i < len ? (byte) value.charAt(i) : 0);
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
@@ -113,6 +145,6 @@ public class StringField implements Field {
 	 */
 	public Type getType() {
 
-		return Type.STRING_TYPE;
+		return type;
 	}
 }
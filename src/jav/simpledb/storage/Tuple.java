@@ -1,5 +1,7 @@
 package jav.simpledb.storage;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -9,6 +11,16 @@ import java.util.List;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * A tuple read from a page may instead be backed by the page: each field is
+ * decoded from the page bytes the first time it is asked for, so fields that
+ * are never looked at cost nothing.
+ * <p>
+ * {@link #getInt} reads an int field without creating an IntField: from
+ * the page bytes for a tuple backed by a page, so a scan that only tests and
+ * sums int fields allocates nothing per row beyond the Tuple itself.
+ * Operators build their output as {@link CompactTuple}s, which keep int
+ * fields in an int[].
  */
 public class Tuple implements Serializable {
 
@@ -19,13 +31,36 @@ public class Tuple implements Serializable {
 
     private RecordId recordId;
 
-    //the fields of a tuple
+    //the fields of a tuple; null for a tuple backed by a page
     private List<Field> fields;
 
-    {
-        fields = new ArrayList<>();
+    /** Where the fields of a tuple backed by a page are decoded from. */
+    interface Source {
+        /** Decode field i of the tuple in the given slot. */
+        Field readField(int slot, int i);
+
+        /** @return the RecordId of the tuple in the given slot */
+        RecordId recordId(int slot);
+
+        /** Read int field i of the tuple in the given slot. */
+        default int readInt(int slot, int i) {
+            return ((IntField) readField(slot, i)).getValue();
+        }
+
+        /** @return true if field i of the tuple in the given slot is null */
+        default boolean isNull(int slot, int i) {
+            return readField(slot, i) == null;
+        }
     }
 
+    //the page a lazily decoded tuple comes from, and its slot on that page
+    private transient Source source;
+    private int slot;
+    //whether recordId holds the RecordId, rather than it being derived from the slot
+    private boolean recordIdSet;
+    //fields of a lazily decoded tuple decoded or set so far
+    private Field[] decoded;
+
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -36,6 +71,16 @@ public class Tuple implements Serializable {
     public Tuple(TupleDesc td) {
         // some code goes here
         this.tupleDesc = td;
+        this.fields = new ArrayList<>();
+    }
+
+    /**
+     * Create a tuple whose fields are decoded from source on demand.
+     */
+    Tuple(TupleDesc td, Source source, int slot) {
+        this.tupleDesc = td;
+        this.source = source;
+        this.slot = slot;
     }
 
     /**
@@ -52,6 +97,10 @@ public class Tuple implements Serializable {
      */
     public RecordId getRecordId() {
         // some code goes here
+        if (!this.recordIdSet && this.source != null) {
+            this.recordId = source.recordId(slot);
+            this.recordIdSet = true;
+        }
         return this.recordId;
     }
 
@@ -64,6 +113,7 @@ public class Tuple implements Serializable {
     public void setRecordId(RecordId rid) {
         // some code goes here
         this.recordId = rid;
+        this.recordIdSet = true;
     }
 
     /**
@@ -76,6 +126,12 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
+        if (this.fields == null) {
+            if (i >= 0 && i < tupleDesc.numFields()) {
+                decodedFields()[i] = f;
+            }
+            return;
+        }
         //check index range first
         int len = this.fields.size();
         if(i < 0 || i > len)return;
@@ -94,12 +150,61 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
+        if (this.fields == null) {
+            if (i < 0 || i >= tupleDesc.numFields()) return null;
+            Field[] d = decodedFields();
+            Field f = d[i];
+            if (f == null && source != null) {
+                f = source.readField(slot, i);
+                d[i] = f;
+            }
+            return f;
+        }
         //check index range first
         int len = this.fields.size();
         if(i < 0 || i > len)return null;
         return this.fields.get(i);
     }
 
+    /**
+     * Return the value of int field i without creating an IntField for it
+     * where possible.
+     *
+     * @param i index of an INT_TYPE field that is set
+     * @throws NullPointerException if the field is not set
+     * @throws ClassCastException if the field is not an IntField
+     */
+    public int getInt(int i) {
+        if (this.fields == null) {
+            Field f = decoded == null ? null : decoded[i];
+            if (f == null && source != null) {
+                return source.readInt(slot, i);
+            }
+            return ((IntField) f).getValue();
+        }
+        return ((IntField) this.fields.get(i)).getValue();
+    }
+
+    /**
+     * @return true if field i is not set, as getField(i) would return null,
+     *   without decoding the field
+     */
+    public boolean isNull(int i) {
+        if (this.fields == null) {
+            if (i < 0 || i >= tupleDesc.numFields()) return true;
+            if (decoded != null && decoded[i] != null) return false;
+            return source == null || source.isNull(slot, i);
+        }
+        return i < 0 || i >= this.fields.size() || this.fields.get(i) == null;
+    }
+
+    private Field[] decodedFields() {
+        if (decoded == null) {
+            decoded = new Field[tupleDesc.numFields()];
+        }
+        return decoded;
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -111,8 +216,9 @@ public class Tuple implements Serializable {
     public String toString() {
         // some code goes here
         StringBuilder sb = new StringBuilder();
-        for (Field field: fields) {
-            sb.append(field.toString()).append("\t");
+        Iterator<Field> it = fields();
+        while (it.hasNext()) {
+            sb.append(it.next().toString()).append("\t");
         }
         return sb.toString();
 //        throw new UnsupportedOperationException("Implement this");
@@ -124,6 +230,13 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields()
     {
+        if (this.fields == null) {
+            List<Field> all = new ArrayList<>(tupleDesc.numFields());
+            for (int i = 0; i < tupleDesc.numFields(); i++) {
+                all.add(getField(i));
+            }
+            return all.iterator();
+        }
         return this.fields.iterator();
         // some code goes here
     }
@@ -136,4 +249,27 @@ public class Tuple implements Serializable {
         // some code goes here
         this.tupleDesc = td;
     }
+
+    /**
+     * Decode every remaining field of a tuple backed by a page and cut it
+     * loose from the page, whose bytes change once its slot is reused by an
+     * insert. Operators that hold on to the tuples of their child, such as
+     * the joins and sorts, call this on each tuple they keep.
+     */
+    public void materialize() {
+        if (source != null) {
+            for (int i = 0; i < tupleDesc.numFields(); i++) {
+                getField(i);
+            }
+            getRecordId();
+            source = null;
+        }
+    }
+
+    /** Decode every field and the RecordId before a lazily decoded tuple is
+     * serialized, since the page it reads from is not sent along. */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        materialize();
+        out.defaultWriteObject();
+    }
 }
@@ -0,0 +1,382 @@
+package jav.simpledb.storage;
+
+import jav.simpledb.common.Type;
+
+import java.util.BitSet;
+
+/**
+ * A TupleBatch holds up to {@link #CAPACITY} rows of a schema column by
+ * column, the unit operators exchange through the batch protocol (see
+ * jav.simpledb.execution.BatchOpIterator): int columns as an int[], other
+ * columns as a Field[], and a selection vector listing the rows that are
+ * still part of the result.
+ * <p>
+ * A filter narrows the selection vector in place instead of copying rows,
+ * so an operator reads a batch as
+ * <pre>
+ * int[] sel = batch.selection();
+ * for (int k = 0; k &lt; batch.numSelected(); k++) {
+ *     int row = sel[k];
+ *     ...
+ * }
+ * </pre>
+ * A row appended from a Tuple keeps that tuple as its source: its ints are
+ * copied, through {@link Tuple#getInt}, but its other fields are only read
+ * from the tuple when they are asked for, so strings of tuples backed by
+ * pages are never decoded by operators that do not look at them.
+ * {@link #getTuple} hands back the source itself where it can.
+ * <p>
+ * A batch, and the arrays it hands out, are reused from one call to the
+ * next by whoever filled them: a caller copies (or takes {@link #getTuple})
+ * whatever it needs to keep.
+ */
+public class TupleBatch {
+
+    /** The number of rows in a batch. */
+    public static final int CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int[][] ints;
+    private final Field[][] fields;
+    /** Per int column, the rows whose value is null; allocated on first use. */
+    private final BitSet[] nulls;
+    /** Per column, the index of the column in the source tuples. */
+    private final int[] columnOf;
+    private final Tuple[] sources;
+    /** For rows appended from a page slot: the page, the slot and the schema. */
+    private final Tuple.Source[] pageSources;
+    private final int[] slots;
+    private TupleDesc sourceTd;
+    private final int[] selection;
+    /** Whether this batch shows some of another batch's columns. */
+    private final boolean view;
+    private int size;
+    private int numSelected;
+
+    /**
+     * Create an empty batch of CAPACITY rows of the given schema.
+     */
+    public TupleBatch(TupleDesc td) {
+        int n = td.numFields();
+        this.td = td;
+        this.ints = new int[n][];
+        this.fields = new Field[n][];
+        this.nulls = new BitSet[n];
+        this.columnOf = new int[n];
+        for (int c = 0; c < n; c++) {
+            if (td.getFieldType(c) == Type.INT_TYPE) {
+                ints[c] = new int[CAPACITY];
+            } else {
+                fields[c] = new Field[CAPACITY];
+            }
+            columnOf[c] = c;
+        }
+        this.sources = new Tuple[CAPACITY];
+        this.pageSources = new Tuple.Source[CAPACITY];
+        this.slots = new int[CAPACITY];
+        this.selection = new int[CAPACITY];
+        this.view = false;
+    }
+
+    private TupleBatch(TupleBatch base, TupleDesc td, int[] columns) {
+        int n = columns.length;
+        this.td = td;
+        this.ints = new int[n][];
+        this.fields = new Field[n][];
+        this.nulls = new BitSet[n];
+        this.columnOf = new int[n];
+        for (int c = 0; c < n; c++) {
+            int from = columns[c];
+            ints[c] = base.ints[from];
+            fields[c] = base.fields[from];
+            nulls[c] = base.nulls[from];
+            columnOf[c] = base.columnOf[from];
+        }
+        this.sources = base.sources;
+        this.pageSources = base.pageSources;
+        this.slots = base.slots;
+        this.sourceTd = base.sourceTd;
+        this.selection = base.selection;
+        this.view = true;
+        this.size = base.size;
+        this.numSelected = base.numSelected;
+    }
+
+    /**
+     * @return the schema of the rows
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of rows in the batch, selected or not
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if no more rows can be appended
+     */
+    public boolean isFull() {
+        return size == CAPACITY;
+    }
+
+    /**
+     * @return the selection vector: its first numSelected() entries are the
+     *   selected rows, in increasing order
+     */
+    public int[] selection() {
+        return selection;
+    }
+
+    /**
+     * @return the number of selected rows
+     */
+    public int numSelected() {
+        return numSelected;
+    }
+
+    /**
+     * Keep only the first n entries of the selection vector, after writing
+     * the rows to keep into them.
+     */
+    public void setNumSelected(int n) {
+        if (n < 0 || n > numSelected) {
+            throw new IllegalArgumentException("cannot select " + n + " of " + numSelected + " rows");
+        }
+        numSelected = n;
+    }
+
+    /**
+     * Empty the batch, to fill it again.
+     *
+     * @throws IllegalStateException if this batch is a view of another
+     */
+    public void clear() {
+        if (view) {
+            throw new IllegalStateException("a projection of a batch cannot be refilled");
+        }
+        for (int r = 0; r < size; r++) {
+            sources[r] = null;
+            pageSources[r] = null;
+        }
+        for (int c = 0; c < fields.length; c++) {
+            if (fields[c] != null) {
+                for (int r = 0; r < size; r++) {
+                    fields[c][r] = null;
+                }
+            }
+            if (nulls[c] != null) {
+                nulls[c].clear();
+            }
+        }
+        size = 0;
+        numSelected = 0;
+    }
+
+    /**
+     * Append n rows, selected, whose values the caller then sets through
+     * the arrays of {@link #getInts} and through {@link #setField}.
+     *
+     * @return the index of the first row appended
+     */
+    public int appendRows(int n) {
+        if (view) {
+            throw new IllegalStateException("a projection of a batch cannot be appended to");
+        }
+        if (size + n > CAPACITY) {
+            throw new IllegalArgumentException("batch has room for " + (CAPACITY - size) + " rows, not " + n);
+        }
+        int first = size;
+        for (int r = first; r < first + n; r++) {
+            selection[numSelected++] = r;
+        }
+        size += n;
+        return first;
+    }
+
+    /**
+     * Append t as a selected row. Its ints are copied; its other fields are
+     * read from t when they are asked for.
+     *
+     * @return the index of the row
+     */
+    public int appendRow(Tuple t) {
+        int row = appendRows(1);
+        sources[row] = t;
+        for (int c = 0; c < ints.length; c++) {
+            if (ints[c] != null) {
+                if (t.isNull(c)) {
+                    setNull(c, row, row + 1);
+                } else {
+                    ints[c][row] = t.getInt(c);
+                }
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Append the tuple in the given slot of a page as a selected row,
+     * without copying its ints, which the caller writes into the arrays of
+     * {@link #getInts} itself. The Tuple is only created if the row's other
+     * fields, RecordId or tuple are asked for.
+     *
+     * @return the index of the row
+     */
+    int appendSlot(TupleDesc td, Tuple.Source source, int slot) {
+        int row = appendRows(1);
+        pageSources[row] = source;
+        slots[row] = slot;
+        sourceTd = td;
+        return row;
+    }
+
+    /** @return the tuple row was appended from, or null */
+    private Tuple source(int row) {
+        Tuple t = sources[row];
+        if (t == null && pageSources[row] != null) {
+            t = new Tuple(sourceTd, pageSources[row], slots[row]);
+            sources[row] = t;
+        }
+        return t;
+    }
+
+    /**
+     * @return the values of int column c, indexed by row
+     * @throws IllegalArgumentException if column c is not an int column
+     */
+    public int[] getInts(int c) {
+        if (ints[c] == null) {
+            throw new IllegalArgumentException("column " + c + " is not an int column");
+        }
+        return ints[c];
+    }
+
+    /**
+     * @return whether some row of column c is null
+     */
+    public boolean hasNulls(int c) {
+        return ints[c] == null || (nulls[c] != null && !nulls[c].isEmpty());
+    }
+
+    /**
+     * Mark rows [from, to) of column c null.
+     */
+    public void setNull(int c, int from, int to) {
+        if (ints[c] == null) {
+            for (int r = from; r < to; r++) {
+                fields[c][r] = null;
+            }
+            return;
+        }
+        if (nulls[c] == null) {
+            nulls[c] = new BitSet(CAPACITY);
+        }
+        nulls[c].set(from, to);
+    }
+
+    /**
+     * @return the int value of column c of row, which must not be null
+     */
+    public int getInt(int c, int row) {
+        if (ints[c] != null) {
+            return ints[c][row];
+        }
+        return ((IntField) getField(c, row)).getValue();
+    }
+
+    /**
+     * Set column c of row to f, which may be null.
+     */
+    public void setField(int c, int row, Field f) {
+        if (ints[c] == null) {
+            fields[c][row] = f;
+        } else if (f == null) {
+            setNull(c, row, row + 1);
+        } else {
+            ints[c][row] = ((IntField) f).getValue();
+        }
+    }
+
+    /**
+     * @return column c of row, or null if it is null
+     */
+    public Field getField(int c, int row) {
+        if (ints[c] != null) {
+            if (nulls[c] != null && nulls[c].get(row)) {
+                return null;
+            }
+            return new IntField(ints[c][row]);
+        }
+        Field f = fields[c][row];
+        if (f == null) {
+            Tuple source = source(row);
+            if (source != null) {
+                f = source.getField(columnOf[c]);
+                fields[c][row] = f;
+            }
+        }
+        return f;
+    }
+
+    /**
+     * @return whether column c of row is null
+     */
+    public boolean isNull(int c, int row) {
+        if (ints[c] != null) {
+            return nulls[c] != null && nulls[c].get(row);
+        }
+        return getField(c, row) == null;
+    }
+
+    /**
+     * @return the RecordId of the tuple row was appended from, or null
+     */
+    public RecordId getRecordId(int row) {
+        Tuple source = source(row);
+        return source == null ? null : source.getRecordId();
+    }
+
+    /**
+     * @return row as a Tuple that stays valid once the batch is refilled:
+     *   the tuple it was appended from if the batch has all its columns, a
+     *   CompactTuple otherwise
+     */
+    public Tuple getTuple(int row) {
+        Tuple source = source(row);
+        if (source != null && !view) {
+            return source;
+        }
+        CompactTuple t = new CompactTuple(td);
+        for (int c = 0; c < ints.length; c++) {
+            if (ints[c] != null) {
+                if (nulls[c] == null || !nulls[c].get(row)) {
+                    t.setInt(c, ints[c][row]);
+                }
+            } else if (fields[c][row] != null || source == null) {
+                t.setField(c, fields[c][row]);
+            } else {
+                t.copyField(c, source, columnOf[c]);
+            }
+        }
+        if (source != null) {
+            t.setRecordIdFrom(source);
+        }
+        return t;
+    }
+
+    /**
+     * A batch showing the given columns of this one, with the same rows and
+     * selection, sharing its arrays rather than copying them. The view is
+     * only valid until this batch is refilled.
+     *
+     * @param td the schema of the projected columns
+     * @param columns the columns of this batch to show, in order
+     */
+    public TupleBatch project(TupleDesc td, int[] columns) {
+        return new TupleBatch(this, td, columns);
+    }
+}
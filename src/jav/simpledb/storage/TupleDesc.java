@@ -15,6 +15,9 @@ public class TupleDesc implements Serializable {
      */
     private List<TDItem> items;
 
+    /** Byte offset of each field within a tuple, followed by the tuple size. */
+    private int[] offsets;
+
     /**
      * A help class to facilitate organizing the information of each field
      * */
@@ -75,6 +78,7 @@ public class TupleDesc implements Serializable {
             String fa = fieldAr[i] == null ? "" : fieldAr[i];
             items.add(new TDItem(type, fa));
         }
+        computeOffsets();
     }
 
     /**
@@ -93,6 +97,14 @@ public class TupleDesc implements Serializable {
             Type type = typeAr[i];
             items.add(new TDItem(type, ""));
         }
+        computeOffsets();
+    }
+
+    private void computeOffsets() {
+        offsets = new int[items.size() + 1];
+        for (int i = 0; i < items.size(); i++) {
+            offsets[i + 1] = offsets[i] + items.get(i).fieldType.getLen();
+        }
     }
 
     /**
@@ -168,11 +180,39 @@ public class TupleDesc implements Serializable {
      */
     public int getSize() {
         // some code goes here
-        int res = 0;
-        for (int i = 0; i < items.size(); i++) {
-            res += items.get(i).fieldType.getLen();
+        return offsets[items.size()];
+    }
+
+    /**
+     * @return true if any field of these tuples is of a variable-length type,
+     *   in which case heap pages store them in a slotted layout
+     * @see Type#isVariableLength()
+     */
+    public boolean hasVariableLength() {
+        for (TDItem item : items) {
+            if (item.fieldType.isVariableLength()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the position of the ith field within the serialized form of a
+     * tuple, so a single field can be read without decoding those before it.
+     *
+     * @param i
+     *            index of the field to get the offset of. It must be a valid
+     *            index.
+     * @return the number of bytes preceding the ith field of a tuple
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+        if (i < 0 || i >= items.size()) {
+            throw new NoSuchElementException("the index is out of range");
         }
-        return res;
+        return offsets[i];
     }
 
     /**
@@ -0,0 +1,100 @@
+package jav.simpledb.storage;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Full 2Q replacement (Johnson and Shasha). New pages enter a FIFO queue
+ * A1in; pages evicted from A1in leave their id behind in a ghost queue A1out.
+ * A page that is missed again while its id is still in A1out has proven to be
+ * hot and is admitted into Am, which is managed as an LRU list. Pages that
+ * are touched only once (sequential scans) therefore never displace Am.
+ */
+public class TwoQPolicy implements EvictionPolicy {
+
+    private final int kin;
+    private final int kout;
+    private final LinkedHashSet<PageId> a1in;
+    private final LinkedHashSet<PageId> a1out;
+    private final LinkedHashSet<PageId> am;
+
+    /**
+     * Create a 2Q policy with the sizes recommended by the paper: A1in holds
+     * a quarter of the frames and A1out remembers half as many ids as there
+     * are frames.
+     *
+     * @param numPages the number of frames in the BufferPool
+     */
+    public TwoQPolicy(int numPages) {
+        this(numPages, Math.max(1, numPages / 4), Math.max(1, numPages / 2));
+    }
+
+    /**
+     * @param numPages the number of frames in the BufferPool
+     * @param kin the target size of A1in
+     * @param kout the number of ids remembered in A1out
+     */
+    public TwoQPolicy(int numPages, int kin, int kout) {
+        this.kin = kin;
+        this.kout = kout;
+        a1in = new LinkedHashSet<>();
+        a1out = new LinkedHashSet<>();
+        am = new LinkedHashSet<>();
+    }
+
+    public synchronized void pageAdmitted(PageId pid) {
+        if (a1in.contains(pid) || am.contains(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        if (a1out.remove(pid))
+            am.add(pid);
+        else
+            a1in.add(pid);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        // hits in A1in are deliberately ignored (correlated references)
+        if (am.remove(pid))
+            am.add(pid);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        a1in.remove(pid);
+        am.remove(pid);
+    }
+
+    public synchronized PageId evict(Predicate<PageId> evictable) {
+        PageId victim = null;
+        if (a1in.size() > kin || am.isEmpty()) {
+            victim = first(a1in, evictable);
+            if (victim == null)
+                victim = first(am, evictable);
+        } else {
+            victim = first(am, evictable);
+            if (victim == null)
+                victim = first(a1in, evictable);
+        }
+        if (victim == null)
+            return null;
+        if (a1in.remove(victim)) {
+            a1out.add(victim);
+            if (a1out.size() > kout) {
+                Iterator<PageId> it = a1out.iterator();
+                it.next();
+                it.remove();
+            }
+        } else {
+            am.remove(victim);
+        }
+        return victim;
+    }
+
+    private static PageId first(Collection<PageId> queue, Predicate<PageId> evictable) {
+        for (PageId pid : queue) {
+            if (evictable.test(pid))
+                return pid;
+        }
+        return null;
+    }
+}
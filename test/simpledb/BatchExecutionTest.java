@@ -0,0 +1,159 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.Supplier;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.Type;
+import jav.simpledb.common.Utility;
+import jav.simpledb.execution.*;
+import jav.simpledb.storage.*;
+import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class BatchExecutionTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    private static List<String> batches(BatchOpIterator it) throws Exception {
+        List<String> rows = new ArrayList<>();
+        it.open();
+        TupleBatch batch;
+        while ((batch = it.nextBatch()) != null) {
+            assertTrue(batch.numSelected() > 0);
+            assertTrue(batch.size() <= TupleBatch.CAPACITY);
+            int[] sel = batch.selection();
+            for (int k = 0; k < batch.numSelected(); k++) {
+                rows.add(batch.getTuple(sel[k]).toString());
+            }
+        }
+        it.close();
+        return rows;
+    }
+
+    /** Check that plan gives the same rows read by rows and by batches. */
+    private static void same(String name, Supplier<BatchOpIterator> plan, boolean sorted) throws Exception {
+        List<String> expected = TestUtil.rows(plan.get());
+        List<String> actual = batches(plan.get());
+        if (!sorted) {
+            Collections.sort(expected);
+            Collections.sort(actual);
+        }
+        assertTrue(name, expected.size() > 0);
+        assertEquals(name, expected, actual);
+    }
+
+    private static File csv(List<List<Integer>> tuples, int columns) throws IOException {
+        File in = File.createTempFile("batch", ".txt");
+        in.deleteOnExit();
+        try (Writer w = new BufferedWriter(new FileWriter(in))) {
+            for (List<Integer> t : tuples) {
+                for (int j = 0; j < columns; j++) {
+                    w.write(t.get(j) + (j < columns - 1 ? "," : "\n"));
+                }
+            }
+        }
+        return in;
+    }
+
+    private static File columnar(List<List<Integer>> tuples, int columns) throws IOException {
+        File out = File.createTempFile("batch", ".dat");
+        out.deleteOnExit();
+        ColumnarFileEncoder.convert(csv(tuples, columns), out, BufferPool.getPageSize(),
+                Utility.getTypes(columns), ',', true);
+        return out;
+    }
+
+    private static HeapFile pax(List<List<Integer>> tuples, int columns) throws IOException {
+        File out = File.createTempFile("batch", ".dat");
+        out.deleteOnExit();
+        HeapFileEncoder.convert(csv(tuples, columns), out, BufferPool.getPageSize(), columns,
+                Utility.getTypes(columns), ',', 1, true);
+        HeapFile hf = new HeapFile(out, Utility.getTupleDesc(columns), false, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /**
+     * Scans, filters, projections, joins, aggregates and sorts give the same
+     * results through batches as through rows, over HeapFiles of either
+     * page layout and ColumnarFiles, spanning several batches.
+     */
+    @Test public void batchesMatchRows() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null, tuples);
+        ColumnarFile cf = new ColumnarFile(columnar(tuples, 3), Utility.getTupleDesc(3));
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        HeapFile paxFile = pax(tuples, 3);
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 200, 100, null, null);
+        List<Type> twoInts = Arrays.asList(Type.INT_TYPE, Type.INT_TYPE);
+
+        for (int table : new int[] {heap.getId(), paxFile.getId(), cf.getId()}) {
+            same("scan", () -> new SeqScan(tid, table, "t"), true);
+            same("filter", () -> new Filter(new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(30)),
+                    new SeqScan(tid, table, "t")), true);
+            same("project", () -> new Project(Arrays.asList(2, 0), twoInts,
+                    new Filter(new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(7)),
+                            new SeqScan(tid, table, "t"))), true);
+            same("join", () -> new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                    new SeqScan(tid, small.getId(), "s"), new SeqScan(tid, table, "t")), false);
+            same("aggregate", () -> new Aggregate(new SeqScan(tid, table, "t"), 2, 1, Aggregator.Op.AVG), false);
+            same("count", () -> new Aggregate(new Filter(new Predicate(2, Predicate.Op.GREATER_THAN,
+                    new IntField(50)), new SeqScan(tid, table, "t")), 0, Aggregator.NO_GROUPING,
+                    Aggregator.Op.COUNT), true);
+            same("orderby", () -> new OrderBy(0, false, new Project(Arrays.asList(1), Arrays.asList(Type.INT_TYPE),
+                    new SeqScan(tid, table, "t"))), true);
+        }
+    }
+
+    /**
+     * A row-only operator (a nested loops Join, here) below batch operators
+     * is read through a RowBatchAdapter, and batches of string fields keep
+     * their values.
+     */
+    @Test public void rowOperatorsCompose() throws Exception {
+        HeapFile a = SystemTestUtil.createRandomHeapFile(2, 300, 20, null, null);
+        HeapFile b = SystemTestUtil.createRandomHeapFile(2, 100, 20, null, null);
+        Supplier<BatchOpIterator> plan = () -> new Aggregate(
+                new Filter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(5)),
+                        new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                                new SeqScan(tid, a.getId(), "a"), new SeqScan(tid, b.getId(), "b"))),
+                3, 2, Aggregator.Op.SUM);
+        same("join", plan, false);
+        assertFalse(new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, a.getId(), "a"), new SeqScan(tid, b.getId(), "b")) instanceof BatchOpIterator);
+
+        TupleDesc td = new TupleDesc(new Type[] {Type.STRING_TYPE, Type.INT_TYPE});
+        List<Tuple> strings = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("s" + (i % 7), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            strings.add(t);
+        }
+        same("strings", () -> new Filter(new Predicate(0, Predicate.Op.EQUALS, new StringField("s3", Type.STRING_LEN)),
+                new TupleIterator(td, strings)), true);
+        same("string count", () -> new Aggregate(new TupleIterator(td, strings), 1, 0, Aggregator.Op.MAX), false);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchExecutionTest.class);
+    }
+}
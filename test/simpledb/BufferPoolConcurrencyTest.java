@@ -0,0 +1,200 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.Permissions;
+import jav.simpledb.index.BTreePageId;
+import jav.simpledb.storage.*;
+import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolConcurrencyTest extends SimpleDbTestBase {
+
+    private static final int TABLE = 3;
+
+    /** A StubPageFile whose reads take a while, so concurrent misses overlap. */
+    private static class SlowPageFile extends TestUtil.StubPageFile {
+        SlowPageFile(int tableid, int numPages) {
+            super(tableid, numPages);
+        }
+
+        @Override
+        public Page readPage(PageId id) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.readPage(id);
+        }
+    }
+
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Threads that miss on the same page at the same time must share a
+     * single disk read and get the same page object.
+     */
+    @Test public void concurrentMissesReadOnce() throws Exception {
+        SlowPageFile f = new SlowPageFile(TABLE, 4);
+        Database.getCatalog().addTable(f, "slow");
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CyclicBarrier start = new CyclicBarrier(threads);
+        List<Future<Page>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(pool.submit(() -> {
+                start.await();
+                return bp.getPage(new TransactionId(), new HeapPageId(TABLE, 1), Permissions.READ_ONLY);
+            }));
+        }
+        Page first = results.get(0).get();
+        for (Future<Page> r : results)
+            assertSame(first, r.get());
+        pool.shutdown();
+        assertEquals(1, f.reads(1));
+    }
+
+    /**
+     * Distinct pages whose ids hash alike must still be cached separately.
+     */
+    @Test public void pagesAreKeyedByPageId() throws Exception {
+        TestUtil.StubPageFile f = new TestUtil.StubPageFile(TABLE, 40000);
+        Database.getCatalog().addTable(f, "stub");
+        TransactionId tid = new TransactionId();
+        HeapPageId heap = new HeapPageId(TABLE, 31622);
+        BTreePageId btree = new BTreePageId(TABLE, 0, BTreePageId.LEAF);
+        assertEquals(heap.hashCode(), btree.hashCode());
+        Page a = bp.getPage(tid, heap, Permissions.READ_ONLY);
+        Page b = bp.getPage(tid, btree, Permissions.READ_ONLY);
+        assertNotSame(a, b);
+        assertEquals(heap, a.getId());
+        assertEquals(btree, b.getId());
+    }
+
+    /**
+     * Pages discarded while other threads read them back in must leave every
+     * policy tracking exactly the resident pages, so that no lookup fails
+     * for lack of a policy frame.
+     */
+    @Test public void discardRacesWithAdmit() throws Exception {
+        int frames = 8;
+        for (EvictionPolicy.Kind kind : EvictionPolicy.Kind.values()) {
+            BufferPool pool = Database.resetBufferPool(frames, kind);
+            TestUtil.StubPageFile f = new TestUtil.StubPageFile(TABLE, frames);
+            Database.getCatalog().addTable(f, "stub");
+            int threads = 8;
+            ExecutorService workers = Executors.newFixedThreadPool(threads);
+            CyclicBarrier start = new CyclicBarrier(threads);
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int seed = t;
+                results.add(workers.submit(() -> {
+                    Random r = new Random(seed);
+                    TransactionId tid = new TransactionId();
+                    start.await();
+                    for (int i = 0; i < 500000; i++) {
+                        HeapPageId pid = new HeapPageId(TABLE, r.nextInt(frames));
+                        if (seed % 2 == 0)
+                            assertEquals(pid, pool.getPage(tid, pid, Permissions.READ_ONLY).getId());
+                        else
+                            pool.discardPage(pid);
+                    }
+                    return null;
+                }));
+            }
+            try {
+                for (Future<?> r : results)
+                    r.get();
+            } finally {
+                workers.shutdown();
+            }
+            // with every page read back in, the policy must hold them all
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < frames; i++)
+                pool.getPage(tid, new HeapPageId(TABLE, i), Permissions.READ_ONLY);
+            for (int i = 0; i < frames; i++)
+                assertTrue(kind + " page " + i, pool.isResident(new HeapPageId(TABLE, i)));
+        }
+    }
+
+    /**
+     * Run random page lookups on table from the given number of threads,
+     * checking that each returns the page asked for, and return ops/sec.
+     */
+    static double readers(BufferPool bp, int table, int threads, int pagesInTable, int opsPerThread)
+            throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        AtomicLong done = new AtomicLong();
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            results.add(pool.submit(() -> {
+                Random r = new Random(seed);
+                TransactionId tid = new TransactionId();
+                start.await();
+                for (int i = 0; i < opsPerThread; i++) {
+                    HeapPageId pid = new HeapPageId(table, r.nextInt(pagesInTable));
+                    assertEquals(pid, bp.getPage(tid, pid, Permissions.READ_ONLY).getId());
+                }
+                done.addAndGet(opsPerThread);
+                return null;
+            }));
+        }
+        start.await();
+        long begin = System.nanoTime();
+        try {
+            for (Future<?> r : results)
+                r.get();
+        } finally {
+            pool.shutdown();
+        }
+        long elapsed = System.nanoTime() - begin;
+        assertEquals((long) threads * opsPerThread, done.get());
+        return done.get() / (elapsed / 1e9);
+    }
+
+    /**
+     * Random lookups over a table twice the size of the pool, so readers
+     * keep hitting and missing concurrently, from an increasing number of
+     * reader threads: every lookup gets its own page and the pool stays
+     * within its size. ReaderScalingBench reports the throughput.
+     */
+    @Test public void readerScaling() throws Exception {
+        int pagesInTable = 2 * BufferPool.DEFAULT_PAGES;
+        TestUtil.StubPageFile f = new TestUtil.StubPageFile(TABLE, pagesInTable);
+        Database.getCatalog().addTable(f, "stub");
+        for (int threads : new int[] {1, 2, 4, 8}) {
+            readers(bp, TABLE, threads, pagesInTable, 5000);
+            int resident = 0;
+            for (int i = 0; i < pagesInTable; i++) {
+                if (bp.isResident(new HeapPageId(TABLE, i)))
+                    resident++;
+            }
+            assertTrue(resident <= BufferPool.DEFAULT_PAGES);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+    }
+}
@@ -0,0 +1,90 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.Permissions;
+import jav.simpledb.storage.*;
+import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+
+public class BufferRingTest extends SimpleDbTestBase {
+
+    private static final int HOT_TABLE = 1;
+    private static final int BIG_TABLE = 2;
+    private static final int HOT_PAGES = 10;
+    private static final int BIG_PAGES = 500;
+
+    private TestUtil.StubPageFile hot;
+    private TestUtil.StubPageFile big;
+    private BufferPool bp;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hot = new TestUtil.StubPageFile(HOT_TABLE, HOT_PAGES);
+        big = new TestUtil.StubPageFile(BIG_TABLE, BIG_PAGES);
+        Database.getCatalog().addTable(hot, "hot");
+        Database.getCatalog().addTable(big, "big");
+        bp = Database.resetBufferPool(20);
+        tid = new TransactionId();
+    }
+
+    /**
+     * Scan the big table while running point lookups on the hot table and
+     * return how often hot pages had to be read again.
+     */
+    private int hotRereadsDuringScan(BufferRing ring) throws Exception {
+        for (int i = 0; i < HOT_PAGES; i++)
+            bp.getPage(tid, new HeapPageId(HOT_TABLE, i), Permissions.READ_ONLY);
+        for (int i = 0; i < BIG_PAGES; i++) {
+            bp.getPage(tid, new HeapPageId(BIG_TABLE, i), Permissions.READ_ONLY, ring);
+            bp.getPage(tid, new HeapPageId(HOT_TABLE, i % HOT_PAGES), Permissions.READ_ONLY);
+        }
+        return hot.totalReads() - HOT_PAGES;
+    }
+
+    /**
+     * Point lookups keep every hot page resident while a ring scan runs.
+     */
+    @Test public void ringProtectsHotPages() throws Exception {
+        assertEquals(0, hotRereadsDuringScan(new BufferRing(4)));
+        assertEquals(BIG_PAGES, big.totalReads());
+    }
+
+    /**
+     * Control: without a ring the same scan does evict hot pages.
+     */
+    @Test public void sharedScanEvictsHotPages() throws Exception {
+        assertTrue(hotRereadsDuringScan(null) > 0);
+    }
+
+    /**
+     * A page that another caller touches is no longer recycled by the ring.
+     */
+    @Test public void sharedPagesLeaveTheRing() throws Exception {
+        BufferRing ring = new BufferRing(2);
+        for (int i = 0; i < 2; i++)
+            bp.getPage(tid, new HeapPageId(BIG_TABLE, i), Permissions.READ_ONLY, ring);
+        bp.getPage(tid, new HeapPageId(BIG_TABLE, 0), Permissions.READ_ONLY);
+        for (int i = 2; i < 6; i++)
+            bp.getPage(tid, new HeapPageId(BIG_TABLE, i), Permissions.READ_ONLY, ring);
+
+        bp.getPage(tid, new HeapPageId(BIG_TABLE, 0), Permissions.READ_ONLY);
+        assertEquals(1, big.reads(0));
+        bp.getPage(tid, new HeapPageId(BIG_TABLE, 1), Permissions.READ_ONLY);
+        assertEquals(2, big.reads(1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
@@ -0,0 +1,206 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.Parser;
+import jav.simpledb.common.Database;
+import jav.simpledb.common.Type;
+import jav.simpledb.common.Utility;
+import jav.simpledb.storage.*;
+import jav.simpledb.transaction.Transaction;
+import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+
+    private File table;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = File.createTempFile("bulk", ".dat");
+        SystemTestUtil.deleteOnExit(table);
+    }
+
+    private static File writeCsv(List<List<Integer>> tuples, int rows, int columns, long seed) throws IOException {
+        File csv = File.createTempFile("bulk", ".txt");
+        csv.deleteOnExit();
+        Random r = new Random(seed);
+        try (Writer w = new BufferedWriter(new FileWriter(csv))) {
+            for (int i = 0; i < rows; i++) {
+                List<Integer> tuple = new ArrayList<>();
+                for (int j = 0; j < columns; j++) {
+                    int v = r.nextInt() >> r.nextInt(32);
+                    tuple.add(v);
+                    w.write(Integer.toString(v));
+                    w.write(j < columns - 1 ? ',' : '\n');
+                }
+                tuples.add(tuple);
+            }
+        }
+        return csv;
+    }
+
+    /**
+     * A load into an empty table produces exactly the pages HeapFileEncoder
+     * writes for the same input.
+     */
+    @Test public void sameImageAsEncoder() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        File csv = writeCsv(tuples, 5000, 3, 1);
+        HeapFile hf = Utility.openHeapFile(3, table);
+        assertEquals(5000, new BulkLoader(hf).load(new TransactionId(), csv));
+
+        File encoded = File.createTempFile("encoded", ".dat");
+        SystemTestUtil.deleteOnExit(encoded);
+        HeapFileEncoder.convert(csv, encoded, BufferPool.getPageSize(), 3);
+        assertArrayEquals(Files.readAllBytes(encoded.toPath()), Files.readAllBytes(table.toPath()));
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * A load of several chunks on several threads appends after the pages
+     * already in the table, in input order, and logs one record.
+     */
+    @Test public void appendsInOrder() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+        int oldPages = hf.numPages();
+        int rows = BulkLoader.CHUNK_BYTES / 8;
+        File csv = writeCsv(tuples, rows, 2, 2);
+        assertTrue(csv.length() > BulkLoader.CHUNK_BYTES);
+
+        Transaction t = new Transaction();
+        t.start();
+        int records = Database.getLogFile().getTotalRecords();
+        assertEquals(rows, new BulkLoader(hf, ',', 3).load(t.getId(), csv));
+        assertEquals(records + 1, Database.getLogFile().getTotalRecords());
+        t.commit();
+
+        assertTrue(hf.numPages() > oldPages);
+        HeapPage first = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), oldPages));
+        assertEquals(0, first.getNumEmptySlots());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * A malformed line fails the load and leaves the table as it was.
+     */
+    @Test public void badLineRollsBack() throws Exception {
+        HeapFile hf = Utility.createEmptyHeapFile(table.getPath(), 2);
+        byte[] before = Files.readAllBytes(table.toPath());
+        File csv = File.createTempFile("bulk", ".txt");
+        csv.deleteOnExit();
+        Files.write(csv.toPath(), "1,2\n3,4\n5,x\n".getBytes());
+        try {
+            new BulkLoader(hf).load(new TransactionId(), csv);
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        Files.write(csv.toPath(), "1,2\n3\n".getBytes());
+        try {
+            new BulkLoader(hf).load(new TransactionId(), csv);
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        assertArrayEquals(before, Files.readAllBytes(table.toPath()));
+    }
+
+    /**
+     * A load whose log record cannot be written is rolled back whole: the
+     * pages it wrote are cut off the file and out of the free space map.
+     */
+    @Test public void logFailureRollsBack() throws Exception {
+        HeapFile hf = Utility.createEmptyHeapFile(table.getPath(), 2);
+        byte[] before = Files.readAllBytes(table.toPath());
+        File csv = writeCsv(new ArrayList<>(), 5000, 2, 1);
+        Database.getLogFile().shutdown();
+        try {
+            new BulkLoader(hf).load(new TransactionId(), csv);
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        assertArrayEquals(before, Files.readAllBytes(table.toPath()));
+        assertEquals(1, hf.getFreeSpaceMap().numPages());
+        assertEquals(0, hf.getFreeSpaceMap().findPage());
+        assertEquals(FreeSpaceMap.HEADER_SIZE + 1, FreeSpaceMap.sidecarOf(table).length());
+    }
+
+    /**
+     * The parser's LOAD statement creates the table, registers it in the
+     * catalog and loads strings with another delimiter.
+     */
+    @Test public void parserLoad() throws Exception {
+        File csv = File.createTempFile("bulk", ".txt");
+        csv.deleteOnExit();
+        Files.write(csv.toPath(), "1| one\n2|two \r\n\n3|three".getBytes());
+        String name = "bulk" + Math.abs(new Random().nextInt());
+        File dat = new File(csv.getAbsoluteFile().getParentFile(), name + ".dat");
+        SystemTestUtil.deleteOnExit(dat);
+
+        new Parser().processNextStatement("load '" + csv.getPath() + "' into " + name
+                + " (id int, word string) delimiter '|';");
+        int tableId = Database.getCatalog().getTableId(name);
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        assertEquals(Type.STRING_TYPE, td.getFieldType(1));
+        assertEquals("word", td.getFieldName(1));
+
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(tableId).iterator(new TransactionId());
+        it.open();
+        List<String> words = new ArrayList<>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            words.add(t.getField(0) + ":" + ((StringField) t.getField(1)).getValue());
+        }
+        it.close();
+        assertEquals(Arrays.asList("1:one", "2:two", "3:three"), words);
+    }
+
+    /**
+     * A LOAD statement that fails leaves neither a table in the catalog nor
+     * a data file behind, so it can simply be retried.
+     */
+    @Test public void parserLoadFailure() throws Exception {
+        File csv = File.createTempFile("bulk", ".txt");
+        csv.deleteOnExit();
+        Files.write(csv.toPath(), "1,2\n3,x\n".getBytes());
+        String name = "bulk" + Math.abs(new Random().nextInt());
+        File dat = new File(csv.getAbsoluteFile().getParentFile(), name + ".dat");
+        SystemTestUtil.deleteOnExit(dat);
+        String load = "load '" + csv.getPath() + "' into " + name + " (a int, b int);";
+
+        new Parser().processNextStatement(load);
+        try {
+            Database.getCatalog().getTableId(name);
+            fail("expected NoSuchElementException");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        assertFalse(dat.exists());
+        assertFalse(FreeSpaceMap.sidecarOf(dat).exists());
+
+        Files.write(csv.toPath(), "1,2\n3,4\n".getBytes());
+        new Parser().processNextStatement(load);
+        HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+        SystemTestUtil.matchTuples(hf, Arrays.asList(Arrays.asList(1, 2), Arrays.asList(3, 4)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
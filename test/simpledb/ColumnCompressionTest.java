@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.function.IntUnaryOperator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.Type;
+import jav.simpledb.common.Utility;
+import jav.simpledb.storage.*;
+import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class ColumnCompressionTest extends SimpleDbTestBase {
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+    }
+
+    static File dat() throws IOException {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    /** The test datasets: one generator per column, from the row number. */
+    static final Map<String, IntUnaryOperator[]> DATASETS = new LinkedHashMap<>();
+    static {
+        Random r = new Random(6830);
+        int[] noise = new int[1 << 16];
+        for (int i = 0; i < noise.length; i++) {
+            noise[i] = r.nextInt();
+        }
+        // a sorted key, a small-range value and a low-cardinality status code
+        DATASETS.put("sorted/range/runs", new IntUnaryOperator[] {
+                i -> 1000000 + 3 * i, i -> Math.abs(noise[i & 0xffff]) % 1000, i -> i / 500 % 4});
+        // a timestamp with jitter, a constant and extreme values
+        DATASETS.put("jitter/const/extreme", new IntUnaryOperator[] {
+                i -> 60 * i + (noise[i & 0xffff] & 7), i -> 42,
+                i -> i % 2 == 0 ? Integer.MIN_VALUE : Integer.MAX_VALUE});
+        // random ints, which do not compress
+        DATASETS.put("random", new IntUnaryOperator[] {
+                i -> noise[i & 0xffff], i -> noise[(i * 7) & 0xffff], i -> noise[(i * 13) & 0xffff]});
+    }
+
+    static List<List<Integer>> tuples(IntUnaryOperator[] columns, int rows) {
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            List<Integer> t = new ArrayList<>();
+            for (IntUnaryOperator c : columns) {
+                t.add(c.applyAsInt(i));
+            }
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    static File csv(List<List<Integer>> tuples) throws IOException {
+        File csv = File.createTempFile("compressed", ".txt");
+        csv.deleteOnExit();
+        try (Writer w = new BufferedWriter(new FileWriter(csv))) {
+            for (List<Integer> t : tuples) {
+                for (int j = 0; j < t.size(); j++) {
+                    w.write(t.get(j) + (j < t.size() - 1 ? "," : "\n"));
+                }
+            }
+        }
+        return csv;
+    }
+
+    static ColumnarFile open(File f, Type[] types) {
+        ColumnarFile cf = new ColumnarFile(f, new TupleDesc(types));
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        return cf;
+    }
+
+    /**
+     * Every dataset, spanning several row groups, reads back as written from
+     * a compressed file, which takes fewer pages than an uncompressed one
+     * unless its values are random.
+     */
+    @Test public void roundTrip() throws Exception {
+        for (Map.Entry<String, IntUnaryOperator[]> d : DATASETS.entrySet()) {
+            List<List<Integer>> tuples = tuples(d.getValue(), 2 * ColumnarFile.ROWS_PER_GROUP + 77);
+            File in = csv(tuples);
+            File out = dat();
+            ColumnarFileEncoder.convert(in, out, BufferPool.getPageSize(), Utility.getTypes(3), ',', true);
+            ColumnarFile compressed = open(out, Utility.getTypes(3));
+            assertTrue(compressed.isCompressed());
+            assertEquals(3, compressed.numRowGroups());
+            SystemTestUtil.matchTuples(compressed, tuples);
+
+            File plainOut = dat();
+            ColumnarFileEncoder.convert(in, plainOut, BufferPool.getPageSize(), 3);
+            ColumnarFile plain = open(plainOut, Utility.getTypes(3));
+            assertFalse(plain.isCompressed());
+            if (d.getKey().equals("random")) {
+                // at worst a page more per column of each group, for the page headers
+                assertTrue(d.getKey(), compressed.numPages() <= plain.numPages() + 3 * 3);
+            } else {
+                assertTrue(d.getKey(), compressed.numPages() * 3 < plain.numPages());
+            }
+        }
+    }
+
+    /**
+     * Scans of a subset of the columns and of string columns work on
+     * compressed files, and the SimpleDb converter writes them.
+     */
+    @Test public void projectionAndStrings() throws Exception {
+        File in = File.createTempFile("compressed", ".txt");
+        in.deleteOnExit();
+        int rows = ColumnarFile.ROWS_PER_GROUP + 500;
+        try (Writer w = new BufferedWriter(new FileWriter(in))) {
+            for (int i = 0; i < rows; i++) {
+                w.write(i + ",s" + (i % 10) + "," + (i / 1000) + "\n");
+            }
+        }
+        Type[] types = {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE};
+        File out = dat();
+        ColumnarFileEncoder.convert(in, out, BufferPool.getPageSize(), types, ',', true);
+        ColumnarFile cf = open(out, types);
+
+        BitSet fields = new BitSet();
+        fields.set(1);
+        fields.set(2);
+        DbFileIterator it = cf.iterator(new TransactionId(), fields);
+        it.open();
+        for (int i = 0; i < rows; i++) {
+            assertTrue(it.hasNext());
+            Tuple t = it.next();
+            assertNull(t.getField(0));
+            assertEquals("s" + (i % 10), ((StringField) t.getField(1)).getValue());
+            assertEquals(i / 1000, ((IntField) t.getField(2)).getValue());
+        }
+        assertFalse(it.hasNext());
+        it.close();
+
+        File txt = new File(Files.createTempDirectory("compressed").toFile(), "t.txt");
+        txt.deleteOnExit();
+        Files.copy(in.toPath(), txt.toPath());
+        File dat = new File(txt.getParent(), "t.dat");
+        dat.deleteOnExit();
+        jav.simpledb.SimpleDb.main(new String[] {"convert", txt.getPath(), "3", "int,string,int", ",", "compressed"});
+        assertTrue(open(dat, types).isCompressed());
+        assertEquals(cf.numPages(), dat.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnCompressionTest.class);
+    }
+}
@@ -0,0 +1,173 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.DbException;
+import jav.simpledb.common.Type;
+import jav.simpledb.common.Utility;
+import jav.simpledb.execution.SeqScan;
+import jav.simpledb.storage.*;
+import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class ColumnarFileTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE};
+
+    private File out;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        out = File.createTempFile("columnar", ".dat");
+        out.deleteOnExit();
+    }
+
+    /** A ColumnarFile that records the pages read from disk. */
+    private static class CountingFile extends ColumnarFile {
+        final Set<Integer> read = new HashSet<>();
+
+        CountingFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            read.add(pid.getPageNumber());
+            return super.readPage(pid);
+        }
+    }
+
+    /** Write rows of (i, "s" + i, -i). */
+    private static File mixedRows(int rows, List<String> expected) throws IOException {
+        File f = File.createTempFile("columnar", ".txt");
+        f.deleteOnExit();
+        try (Writer w = new BufferedWriter(new FileWriter(f))) {
+            for (int i = 0; i < rows; i++) {
+                w.write(i + "| s" + i + " |" + (-i) + "\n");
+                if (expected != null)
+                    expected.add(i + " s" + i + " " + (-i));
+            }
+        }
+        return f;
+    }
+
+    private static List<String> rows(DbFileIterator it) throws Exception {
+        List<String> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            StringField s = (StringField) t.getField(1);
+            rows.add(t.getField(0) + " " + (s == null ? null : s.getValue()) + " " + t.getField(2));
+        }
+        it.close();
+        return rows;
+    }
+
+    /**
+     * A table of several row groups converted from text reads back as the
+     * rows written.
+     */
+    @Test public void convertAndScan() throws Exception {
+        List<String> expected = new ArrayList<>();
+        int numRows = 2 * ColumnarFile.ROWS_PER_GROUP + 100;
+        File in = mixedRows(numRows, expected);
+        assertEquals(numRows, ColumnarFileEncoder.convert(in, out, BufferPool.getPageSize(), TYPES, '|'));
+
+        ColumnarFile cf = new ColumnarFile(out, new TupleDesc(TYPES));
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        assertEquals(numRows, cf.numRows());
+        assertEquals(3, cf.numRowGroups());
+        assertEquals(expected, rows(cf.iterator(new TransactionId())));
+
+        // and an empty input is an empty table
+        File empty = File.createTempFile("columnar", ".txt");
+        empty.deleteOnExit();
+        ColumnarFileEncoder.convert(empty, out, BufferPool.getPageSize(), 3);
+        ColumnarFile none = new ColumnarFile(out, Utility.getTupleDesc(3));
+        Database.getCatalog().addTable(none, SystemTestUtil.getUUID());
+        assertEquals(1, none.numPages());
+        assertFalse(rows(none.iterator(new TransactionId())).iterator().hasNext());
+    }
+
+    /**
+     * A scan asked for some fields reads only the pages of those columns
+     * and leaves the other fields null.
+     */
+    @Test public void readsOnlyProjectedColumns() throws Exception {
+        File in = mixedRows(ColumnarFile.ROWS_PER_GROUP + 10, null);
+        ColumnarFileEncoder.convert(in, out, BufferPool.getPageSize(), TYPES, '|');
+        CountingFile cf = new CountingFile(out, new TupleDesc(TYPES));
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SeqScan scan = new SeqScan(new TransactionId(), cf.getId());
+        BitSet fields = new BitSet();
+        fields.set(2);
+        scan.setProjection(fields);
+        scan.open();
+        int i = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertNull(t.getField(0));
+            assertNull(t.getField(1));
+            assertEquals(new IntField(-i), t.getField(2));
+            i++;
+        }
+        scan.close();
+        assertEquals(ColumnarFile.ROWS_PER_GROUP + 10, i);
+
+        // two groups of one int column each
+        int perPage = BufferPool.getPageSize() / Type.INT_TYPE.getLen();
+        int expectedPages = (ColumnarFile.ROWS_PER_GROUP + perPage - 1) / perPage + 1;
+        assertEquals(expectedPages, cf.read.size());
+        assertTrue(cf.read.size() * 10 < cf.numPages());
+    }
+
+    /**
+     * A heap table copies into a columnar one, which the catalog opens with
+     * the columnar option and which refuses updates.
+     */
+    @Test public void fromHeapFileAndCatalog() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(4, 3000, null, tuples);
+        File dir = Files.createTempDirectory("columnar").toFile();
+        dir.deleteOnExit();
+        String name = "col" + Math.abs(new Random().nextInt());
+        File dat = new File(dir, name + ".dat");
+        dat.deleteOnExit();
+        assertEquals(3000, ColumnarFileEncoder.convert(hf, new TransactionId(), dat));
+
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        Files.write(schema.toPath(), (name + " (a int, b int, c int, d int) columnar\n").getBytes());
+        Database.getCatalog().loadSchema(schema.getPath());
+        DbFile table = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+        assertTrue(table instanceof ColumnarFile);
+        SystemTestUtil.matchTuples(table, tuples);
+
+        try {
+            table.insertTuple(new TransactionId(), Utility.getHeapTuple(1, 4));
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnarFileTest.class);
+    }
+}
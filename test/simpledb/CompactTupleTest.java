@@ -0,0 +1,193 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.Type;
+import jav.simpledb.common.Utility;
+import jav.simpledb.execution.*;
+import jav.simpledb.storage.*;
+import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class CompactTupleTest extends SimpleDbTestBase {
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+    }
+
+    /**
+     * A CompactTuple reads back the fields copied or set into it, through
+     * both getField and getInt, and serializes as a plain Tuple.
+     */
+    @Test public void fieldsAndInts() throws Exception {
+        TupleDesc src = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE});
+        Tuple t = new Tuple(src);
+        t.setField(0, new IntField(7));
+        t.setField(1, new StringField("seven", Type.STRING_LEN));
+        t.setRecordId(new RecordId(new HeapPageId(1, 2), 3));
+
+        TupleDesc out = new TupleDesc(new Type[] {Type.STRING_TYPE, Type.INT_TYPE, Type.INT_TYPE});
+        CompactTuple c = new CompactTuple(out);
+        assertTrue(c.isNull(0));
+        c.copyField(0, t, 1);
+        c.copyField(1, t, 0);
+        c.setInt(2, -5);
+        c.setRecordIdFrom(t);
+        assertEquals(new StringField("seven", Type.STRING_LEN), c.getField(0));
+        assertEquals(7, c.getInt(1));
+        assertEquals(new IntField(7), c.getField(1));
+        assertEquals(-5, c.getInt(2));
+        assertEquals(t.getRecordId(), c.getRecordId());
+        assertEquals("seven\t7\t-5\t", c.toString());
+
+        CompactTuple d = new CompactTuple(src);
+        d.copyField(0, c, 2);
+        d.copyField(1, c, 0);
+        d.setField(0, new IntField(11));
+        assertEquals(11, d.getInt(0));
+        assertEquals("seven", ((StringField) d.getField(1)).getValue());
+
+        // page ids are not serializable
+        c.setRecordId(null);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream o = new ObjectOutputStream(bytes)) {
+            o.writeObject(c);
+        }
+        Object read = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(Tuple.class, read.getClass());
+        assertEquals(c.toString(), read.toString());
+    }
+
+    /**
+     * getInt reads the ints of tuples straight from HeapFile and ColumnarFile
+     * pages, and agrees with getField.
+     */
+    @Test public void getIntFromPages() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(3, 2000, null, tuples);
+        File in = File.createTempFile("compact", ".txt");
+        in.deleteOnExit();
+        try (Writer w = new BufferedWriter(new FileWriter(in))) {
+            for (List<Integer> t : tuples) {
+                w.write(t.get(0) + "," + t.get(1) + "," + t.get(2) + "\n");
+            }
+        }
+        File out = File.createTempFile("compact", ".dat");
+        out.deleteOnExit();
+        ColumnarFileEncoder.convert(in, out, BufferPool.getPageSize(), Utility.getTypes(3), ',', true);
+        ColumnarFile columnar = new ColumnarFile(out, Utility.getTupleDesc(3));
+        Database.getCatalog().addTable(columnar, SystemTestUtil.getUUID());
+
+        for (DbFile f : new DbFile[] {heap, columnar}) {
+            DbFileIterator it = f.iterator(new TransactionId());
+            it.open();
+            int row = 0;
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                for (int i = 0; i < 3; i++) {
+                    assertEquals(((IntField) t.getField(i)).getValue(), t.getInt(i));
+                }
+                row++;
+            }
+            it.close();
+            assertEquals(tuples.size(), row);
+        }
+    }
+
+    /**
+     * Filters, joins, projections, ordering and aggregates over int columns,
+     * all of which use getInt, give the results computed directly.
+     */
+    @Test public void operators() throws Exception {
+        List<List<Integer>> left = new ArrayList<>();
+        HeapFile l = SystemTestUtil.createRandomHeapFile(2, 500, 50, null, left);
+        List<List<Integer>> right = new ArrayList<>();
+        HeapFile r = SystemTestUtil.createRandomHeapFile(2, 300, 50, null, right);
+        TransactionId tid = new TransactionId();
+
+        OpIterator join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new Filter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(10)),
+                        new SeqScan(tid, l.getId(), "l")),
+                new SeqScan(tid, r.getId(), "r"));
+        OpIterator project = new Project(Arrays.asList(3, 1), new Type[] {Type.INT_TYPE, Type.INT_TYPE}, join);
+        OpIterator sorted = new OrderBy(0, false, project);
+        Aggregate sum = new Aggregate(sorted, 1, 0, Aggregator.Op.SUM);
+
+        Map<Integer, Integer> expected = new TreeMap<>();
+        for (List<Integer> a : left) {
+            for (List<Integer> b : right) {
+                if (a.get(1) > 10 && a.get(0).equals(b.get(0))) {
+                    expected.merge(b.get(1), a.get(1), Integer::sum);
+                }
+            }
+        }
+        Map<Integer, Integer> actual = new TreeMap<>();
+        List<Integer> order = new ArrayList<>();
+        sum.open();
+        while (sum.hasNext()) {
+            Tuple t = sum.next();
+            assertNull(actual.put(t.getInt(0), t.getInt(1)));
+            order.add(t.getInt(0));
+        }
+        sum.close();
+        assertEquals(expected, actual);
+        List<Integer> descending = new ArrayList<>(expected.keySet());
+        Collections.reverse(descending);
+        assertEquals(descending, order);
+    }
+
+    /**
+     * Many int groups, spread over positive and negative values, are each
+     * aggregated and counted on their own and returned in the order they
+     * were first seen.
+     */
+    @Test public void manyIntGroups() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        IntegerAggregator sums = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+        StringAggregator counts = new StringAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+        Map<Integer, Integer> expectedSums = new LinkedHashMap<>();
+        Map<Integer, Integer> expectedCounts = new LinkedHashMap<>();
+        Random rnd = new Random(19);
+        for (int i = 0; i < 50000; i++) {
+            int key = (rnd.nextInt(5000) - 2500) * 65536;
+            CompactTuple t = new CompactTuple(td);
+            t.setInt(0, key);
+            t.setInt(1, i);
+            sums.mergeTupleIntoGroup(t);
+            counts.mergeTupleIntoGroup(t);
+            expectedSums.merge(key, i, Integer::sum);
+            expectedCounts.merge(key, 1, Integer::sum);
+        }
+        assertEquals(new ArrayList<>(expectedSums.entrySet()), groups(sums.iterator()));
+        assertEquals(new ArrayList<>(expectedCounts.entrySet()), groups(counts.iterator()));
+    }
+
+    /** @return the (group, value) rows of an aggregate, in order */
+    private static List<Map.Entry<Integer, Integer>> groups(OpIterator it) throws Exception {
+        List<Map.Entry<Integer, Integer>> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            rows.add(new AbstractMap.SimpleEntry<>(t.getInt(0), t.getInt(1)));
+        }
+        it.close();
+        return rows;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompactTupleTest.class);
+    }
+}
@@ -0,0 +1,149 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.Type;
+import jav.simpledb.execution.*;
+import jav.simpledb.storage.*;
+import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class CompiledPipelineTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    private static Filter filter(int field, Predicate.Op op, int value, OpIterator child) {
+        return new Filter(new Predicate(field, op, new IntField(value)), child);
+    }
+
+    /** Check that plan compiles to a pipeline giving the rows it gives. */
+    private static void same(String name, OpIterator plan, boolean sorted) throws Exception {
+        List<String> expected = TestUtil.rows(plan);
+        OpIterator compiled = CompiledPipeline.compile(plan);
+        assertTrue(name, compiled instanceof CompiledPipeline);
+        assertTrue(name, ((CompiledPipeline) compiled).isCompiled());
+        assertEquals(name, plan.getTupleDesc(), compiled.getTupleDesc());
+        List<String> actual = TestUtil.rows(compiled);
+        if (!sorted) {
+            Collections.sort(expected);
+            Collections.sort(actual);
+        }
+        assertEquals(name, expected, actual);
+        compiled.open();
+        compiled.rewind();
+        List<String> again = new ArrayList<>();
+        while (compiled.hasNext()) {
+            again.add(compiled.next().toString());
+        }
+        compiled.close();
+        if (!sorted) {
+            Collections.sort(again);
+        }
+        assertEquals(name, expected, again);
+    }
+
+    /**
+     * Pipelines of filters, including folded ranges, empty ranges and
+     * inequalities, projections and aggregates give the rows of the
+     * operators they replace.
+     */
+    @Test public void pipelinesMatchOperators() throws Exception {
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null, null);
+        List<Type> twoInts = Arrays.asList(Type.INT_TYPE, Type.INT_TYPE);
+        int t = heap.getId();
+
+        for (Predicate.Op op : Predicate.Op.values()) {
+            same(op.toString(), filter(1, op, 40, new SeqScan(tid, t, "t")), true);
+        }
+        same("range", filter(0, Predicate.Op.LESS_THAN, 60, filter(0, Predicate.Op.GREATER_THAN_OR_EQ, 20,
+                filter(2, Predicate.Op.NOT_EQUALS, 3, new SeqScan(tid, t, "t")))), true);
+        same("empty", filter(0, Predicate.Op.LESS_THAN, 20, filter(0, Predicate.Op.GREATER_THAN, 30,
+                new SeqScan(tid, t, "t"))), true);
+        same("bounds", filter(0, Predicate.Op.LESS_THAN_OR_EQ, Integer.MAX_VALUE,
+                filter(1, Predicate.Op.GREATER_THAN_OR_EQ, Integer.MIN_VALUE, new SeqScan(tid, t, "t"))), true);
+        assertTrue(TestUtil.rows(CompiledPipeline.compile(filter(0, Predicate.Op.GREATER_THAN, Integer.MAX_VALUE,
+                new SeqScan(tid, t, "t")))).isEmpty());
+        assertTrue(TestUtil.rows(CompiledPipeline.compile(filter(0, Predicate.Op.LESS_THAN, Integer.MIN_VALUE,
+                new SeqScan(tid, t, "t")))).isEmpty());
+
+        // a filter above a projection is on the projected fields
+        same("project", filter(0, Predicate.Op.LESS_THAN, 50, new Project(Arrays.asList(2, 0), twoInts,
+                filter(1, Predicate.Op.EQUALS, 7, new SeqScan(tid, t, "t")))), true);
+        same("group", new Aggregate(filter(0, Predicate.Op.LESS_THAN, 30, new Project(Arrays.asList(2, 1), twoInts,
+                new SeqScan(tid, t, "t"))), 0, 1, Aggregator.Op.SUM), false);
+        for (Aggregator.Op op : new Aggregator.Op[] {Aggregator.Op.MIN, Aggregator.Op.AVG, Aggregator.Op.COUNT}) {
+            same(op.toString(), new Aggregate(filter(2, Predicate.Op.GREATER_THAN, 50,
+                    new SeqScan(tid, t, "t")), 1, Aggregator.NO_GROUPING, op), true);
+        }
+
+        TupleDesc td = new TupleDesc(new Type[] {Type.STRING_TYPE, Type.INT_TYPE});
+        File in = File.createTempFile("pipeline", ".txt");
+        in.deleteOnExit();
+        try (Writer w = new BufferedWriter(new FileWriter(in))) {
+            for (int i = 0; i < 2000; i++) {
+                w.write("s" + (i % 7) + "," + i + "\n");
+            }
+        }
+        File out = File.createTempFile("pipeline", ".dat");
+        out.deleteOnExit();
+        HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), 2, new Type[] {Type.STRING_TYPE, Type.INT_TYPE});
+        HeapFile strings = new HeapFile(out, td);
+        Database.getCatalog().addTable(strings, SystemTestUtil.getUUID());
+        same("strings", filter(1, Predicate.Op.GREATER_THAN, 500, new Filter(new Predicate(0, Predicate.Op.EQUALS,
+                new StringField("s3", Type.STRING_LEN)), new SeqScan(tid, strings.getId(), "s"))), true);
+        same("string groups", new Aggregate(filter(1, Predicate.Op.LESS_THAN, 1500,
+                new SeqScan(tid, strings.getId(), "s")), 1, 0, Aggregator.Op.COUNT), false);
+    }
+
+    /**
+     * Only whole chains over a scan are compiled: the inputs of a join are,
+     * the join is not, and a pipeline given a plan it cannot compile runs
+     * that plan as it is.
+     */
+    @Test public void compilesSupportedChains() throws Exception {
+        HeapFile a = SystemTestUtil.createRandomHeapFile(2, 300, 20, null, null);
+        HeapFile b = SystemTestUtil.createRandomHeapFile(2, 100, 20, null, null);
+        SeqScan right = new SeqScan(tid, b.getId(), "b");
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                filter(1, Predicate.Op.GREATER_THAN, 5, new SeqScan(tid, a.getId(), "a")), right);
+        Aggregate sum = new Aggregate(join, 3, 0, Aggregator.Op.SUM);
+        List<String> expected = TestUtil.rows(sum);
+        Collections.sort(expected);
+
+        assertSame(sum, CompiledPipeline.compile(sum));
+        assertTrue(join.getChildren()[0] instanceof CompiledPipeline);
+        assertSame(right, join.getChildren()[1]);
+        List<String> actual = TestUtil.rows(sum);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+
+        CompiledPipeline p = (CompiledPipeline) join.getChildren()[0];
+        p.setChildren(new OpIterator[] {new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, a.getId(), "a"), new SeqScan(tid, b.getId(), "b"))});
+        assertFalse(p.isCompiled());
+        assertEquals(expected.size() > 0, !TestUtil.rows(p).isEmpty());
+        assertSame(right, CompiledPipeline.compile(right));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompiledPipelineTest.class);
+    }
+}
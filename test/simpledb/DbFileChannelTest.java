@@ -0,0 +1,107 @@
+package simpledb;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class DbFileChannelTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private int pageSize;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+        pageSize = BufferPool.getPageSize();
+    }
+
+    /** Read a page the way HeapFile used to: open, seek, read, close. */
+    static byte[] readWithFreshHandle(File f, int pageNo, int pageSize) throws Exception {
+        byte[] data = new byte[pageSize];
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            raf.seek((long) pageNo * pageSize);
+            raf.readFully(data);
+        }
+        return data;
+    }
+
+    /**
+     * readPage must return page pageNo from offset pageNo * page size.
+     */
+    @Test public void readPageUsesPageOffsets() throws Exception {
+        assertTrue(hf.numPages() > 2);
+        for (int i = 0; i < hf.numPages(); i++) {
+            Page p = hf.readPage(new HeapPageId(hf.getId(), i));
+            assertArrayEquals(readWithFreshHandle(hf.getFile(), i, pageSize), p.getPageData());
+        }
+    }
+
+    /**
+     * A page written with writePage is read back unchanged, and its
+     * neighbours are untouched.
+     */
+    @Test public void writePageRoundTrip() throws Exception {
+        byte[] page1 = hf.readPage(new HeapPageId(hf.getId(), 1)).getPageData();
+        byte[] page2 = hf.readPage(new HeapPageId(hf.getId(), 2)).getPageData();
+        hf.writePage(new HeapPage(new HeapPageId(hf.getId(), 0), page1));
+        assertArrayEquals(page1, hf.readPage(new HeapPageId(hf.getId(), 0)).getPageData());
+        assertArrayEquals(page2, hf.readPage(new HeapPageId(hf.getId(), 2)).getPageData());
+        assertArrayEquals(page1, readWithFreshHandle(hf.getFile(), 0, pageSize));
+    }
+
+    /**
+     * Reading past the last page is an error, not a short page.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void readPastEnd() {
+        hf.readPage(new HeapPageId(hf.getId(), hf.numPages()));
+    }
+
+    /**
+     * Many threads reading pages of the same file at once must all get the
+     * right bytes, since there is no shared file pointer to race on.
+     */
+    @Test public void concurrentPositionalReads() throws Exception {
+        int numPages = hf.numPages();
+        List<byte[]> expected = new ArrayList<>();
+        for (int i = 0; i < numPages; i++)
+            expected.add(readWithFreshHandle(hf.getFile(), i, pageSize));
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            results.add(pool.submit(() -> {
+                Random r = new Random(seed);
+                for (int i = 0; i < 500; i++) {
+                    int pg = r.nextInt(numPages);
+                    assertArrayEquals(expected.get(pg),
+                            hf.readPage(new HeapPageId(hf.getId(), pg)).getPageData());
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : results)
+            f.get();
+        pool.shutdown();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DbFileChannelTest.class);
+    }
+}
@@ -0,0 +1,176 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.Type;
+import jav.simpledb.execution.*;
+import jav.simpledb.storage.*;
+import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class DictionaryEncodingTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE};
+    private static final String[] COUNTRIES = {"france", "germany", "japan", "kenya", "peru", "canada"};
+    private static final String[] STATUS = {"open", "closed", "pending"};
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+    }
+
+    private static File temp(String suffix) throws IOException {
+        File f = File.createTempFile("dict", suffix);
+        f.deleteOnExit();
+        new File(f.getPath() + ColumnarFile.DICTIONARIES_SUFFIX).deleteOnExit();
+        for (int c = 0; c < TYPES.length; c++) {
+            new File(f.getPath() + "." + c + ColumnDictionary.SUFFIX).deleteOnExit();
+        }
+        return f;
+    }
+
+    /** Write rows of (i, country, status). */
+    private static File rows(int rows, int seed) throws IOException {
+        File f = temp(".txt");
+        Random r = new Random(seed);
+        try (Writer w = new BufferedWriter(new FileWriter(f))) {
+            for (int i = 0; i < rows; i++) {
+                w.write(i + "," + COUNTRIES[r.nextInt(COUNTRIES.length)] + "," + STATUS[r.nextInt(STATUS.length)] + "\n");
+            }
+        }
+        return f;
+    }
+
+    private static ColumnarFile open(File f) {
+        ColumnarFile cf = new ColumnarFile(f, new TupleDesc(TYPES));
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        return cf;
+    }
+
+    private static List<String> scan(OpIterator it) throws Exception {
+        List<String> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            rows.add(it.next().toString());
+        }
+        it.close();
+        return rows;
+    }
+
+    /**
+     * Encoded string columns read back as the strings written, from codes
+     * into one dictionary file per column, and take a fraction of the pages.
+     */
+    @Test public void roundTrip() throws Exception {
+        File in = rows(20000, 1);
+        File plainOut = temp(".dat");
+        ColumnarFileEncoder.convert(in, plainOut, BufferPool.getPageSize(), TYPES, ',', true);
+        File out = temp(".dat");
+        ColumnarFileEncoder.convert(in, out, BufferPool.getPageSize(), TYPES, ',', true, true);
+        ColumnarFile plain = open(plainOut);
+        ColumnarFile coded = open(out);
+
+        assertNull(coded.getDictionary(0));
+        ColumnDictionary countries = coded.getDictionary(1);
+        assertEquals(COUNTRIES.length, countries.size());
+        assertEquals(STATUS.length, coded.getDictionary(2).size());
+        assertTrue(new File(out.getPath() + ".1" + ColumnDictionary.SUFFIX).exists());
+        assertTrue(coded.numPages() * 20 < plain.numPages());
+
+        TransactionId tid = new TransactionId();
+        assertEquals(scan(new SeqScan(tid, plain.getId(), "p")), scan(new SeqScan(tid, coded.getId(), "c")));
+        DbFileIterator it = coded.iterator(tid);
+        it.open();
+        Tuple t = it.next();
+        DictionaryField f = (DictionaryField) t.getField(1);
+        assertEquals(f.getValue(), countries.value(f.getCode()));
+        assertEquals(new StringField(f.getValue(), Type.STRING_LEN), f);
+        assertEquals(f, new StringField(f.getValue(), Type.STRING_LEN));
+        it.close();
+    }
+
+    /**
+     * EQUALS, LIKE and range predicates on an encoded column select the same
+     * rows as on plain strings.
+     */
+    @Test public void predicates() throws Exception {
+        File in = rows(5000, 2);
+        File plainOut = temp(".dat");
+        ColumnarFileEncoder.convert(in, plainOut, BufferPool.getPageSize(), TYPES, ',');
+        File out = temp(".dat");
+        ColumnarFileEncoder.convert(in, out, BufferPool.getPageSize(), TYPES, ',', false, true);
+        ColumnarFile plain = open(plainOut);
+        ColumnarFile coded = open(out);
+        TransactionId tid = new TransactionId();
+
+        Predicate[] predicates = {
+                new Predicate(1, Predicate.Op.EQUALS, new StringField("japan", Type.STRING_LEN)),
+                new Predicate(1, Predicate.Op.LIKE, new StringField("an", Type.STRING_LEN)),
+                new Predicate(2, Predicate.Op.NOT_EQUALS, new StringField("open", Type.STRING_LEN)),
+                new Predicate(1, Predicate.Op.GREATER_THAN, new StringField("japan", Type.STRING_LEN)),
+                new Predicate(1, Predicate.Op.EQUALS, new StringField("chile", Type.STRING_LEN)),
+        };
+        for (Predicate p : predicates) {
+            List<String> expected = scan(new Filter(p, new SeqScan(tid, plain.getId(), "p")));
+            assertEquals(p.toString(), expected, scan(new Filter(p, new SeqScan(tid, coded.getId(), "c"))));
+        }
+    }
+
+    /**
+     * A hash join between columns encoded with one shared dictionary, and
+     * between an encoded and a plain column, finds the same pairs as one
+     * between plain columns.
+     */
+    @Test public void joinOnSharedDictionary() throws Exception {
+        File sharedFile = temp(ColumnDictionary.SUFFIX);
+        sharedFile.delete();
+        ColumnDictionary shared = ColumnDictionary.open(sharedFile);
+        ColumnDictionary[] dicts = {null, shared, null};
+        File leftIn = rows(300, 3);
+        File rightIn = rows(200, 4);
+        File left = temp(".dat");
+        File right = temp(".dat");
+        ColumnarFileEncoder.convert(leftIn, left, BufferPool.getPageSize(), TYPES, ',', true, dicts);
+        ColumnarFileEncoder.convert(rightIn, right, BufferPool.getPageSize(), TYPES, ',', true, dicts);
+        File plainRight = temp(".dat");
+        ColumnarFileEncoder.convert(rightIn, plainRight, BufferPool.getPageSize(), TYPES, ',');
+        File plainLeft = temp(".dat");
+        ColumnarFileEncoder.convert(leftIn, plainLeft, BufferPool.getPageSize(), TYPES, ',');
+        ColumnarFile l = open(left);
+        ColumnarFile r = open(right);
+        ColumnarFile pl = open(plainLeft);
+        ColumnarFile pr = open(plainRight);
+        assertSame(l.getDictionary(1), r.getDictionary(1));
+
+        TransactionId tid = new TransactionId();
+        JoinPredicate on = new JoinPredicate(1, Predicate.Op.EQUALS, 1);
+        List<String> expected = scan(new HashEquiJoin(on,
+                new SeqScan(tid, pl.getId(), "l"), new SeqScan(tid, pr.getId(), "r")));
+        Collections.sort(expected);
+        assertTrue(expected.size() > 0);
+        List<String> coded = scan(new HashEquiJoin(on,
+                new SeqScan(tid, l.getId(), "l"), new SeqScan(tid, r.getId(), "r")));
+        Collections.sort(coded);
+        assertEquals(expected, coded);
+        List<String> mixed = scan(new HashEquiJoin(on,
+                new SeqScan(tid, l.getId(), "l"), new SeqScan(tid, pr.getId(), "r")));
+        Collections.sort(mixed);
+        assertEquals(expected, mixed);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DictionaryEncodingTest.class);
+    }
+}
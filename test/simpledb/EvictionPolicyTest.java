@@ -0,0 +1,187 @@
+package simpledb;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.DbException;
+import jav.simpledb.common.Permissions;
+import jav.simpledb.storage.*;
+import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static final int TABLE = 7;
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(TABLE, pgNo);
+    }
+
+    /**
+     * Unit test for ClockPolicy: a referenced page gets a second chance.
+     */
+    @Test public void clockSecondChance() {
+        EvictionPolicy p = new ClockPolicy(3);
+        p.pageAdmitted(pid(0));
+        p.pageAdmitted(pid(1));
+        p.pageAdmitted(pid(2));
+        // first sweep clears every bit, so page 0 goes first
+        assertEquals(pid(0), p.evict(x -> true));
+        p.pageAdmitted(pid(3));
+        p.pageAccessed(pid(1));
+        assertEquals(pid(2), p.evict(x -> true));
+    }
+
+    /**
+     * Unit test for LruKPolicy: pages referenced fewer than K times go first.
+     */
+    @Test public void lruKPrefersCorrelatedPages() {
+        EvictionPolicy p = new LruKPolicy(3, 2);
+        p.pageAdmitted(pid(0));
+        p.pageAccessed(pid(0));
+        p.pageAdmitted(pid(1));
+        p.pageAdmitted(pid(2));
+        p.pageAccessed(pid(2));
+        // page 1 has an infinite backward 2-distance
+        assertEquals(pid(1), p.evict(x -> true));
+        // page 0's second-to-last reference is older than page 2's
+        assertEquals(pid(0), p.evict(x -> true));
+    }
+
+    /**
+     * Unit test for TwoQPolicy: a page missed again after eviction from A1in
+     * is promoted to Am and survives a scan.
+     */
+    @Test public void twoQPromotesFromGhostQueue() {
+        EvictionPolicy p = new TwoQPolicy(4, 1, 4);
+        p.pageAdmitted(pid(0));
+        p.pageAdmitted(pid(1));
+        assertEquals(pid(0), p.evict(x -> true));
+        p.pageAdmitted(pid(0)); // remembered in A1out, goes to Am
+        for (int i = 10; i < 20; i++) {
+            p.pageAdmitted(pid(i));
+            assertNotEquals(pid(0), p.evict(x -> true));
+        }
+    }
+
+    /**
+     * Every policy must honour the filter and give up when nothing qualifies.
+     */
+    @Test public void evictRespectsFilter() {
+        for (EvictionPolicy.Kind kind : EvictionPolicy.Kind.values()) {
+            EvictionPolicy p = kind.newPolicy(4);
+            for (int i = 0; i < 4; i++)
+                p.pageAdmitted(pid(i));
+            assertEquals(kind.toString(), pid(2), p.evict(x -> x.getPageNumber() == 2));
+            assertNull(kind.toString(), p.evict(x -> false));
+        }
+    }
+
+    /**
+     * BufferPool must evict instead of failing once it is full, and must
+     * never evict a page dirtied by a running transaction (NO-STEAL).
+     */
+    @Test public void bufferPoolEvictsCleanPagesOnly() throws Exception {
+        for (EvictionPolicy.Kind kind : EvictionPolicy.Kind.values()) {
+            Database.reset();
+            TestUtil.StubPageFile f = new TestUtil.StubPageFile(TABLE, 10);
+            Database.getCatalog().addTable(f, "stub");
+            BufferPool bp = Database.resetBufferPool(3, kind);
+            TransactionId tid = new TransactionId();
+
+            Page dirty = bp.getPage(tid, pid(0), Permissions.READ_WRITE);
+            dirty.markDirty(true, tid);
+            for (int i = 1; i < 10; i++)
+                bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+            // the dirty page was never evicted, so it is still the same object
+            assertSame(kind.toString(), dirty, bp.getPage(tid, pid(0), Permissions.READ_ONLY));
+            assertEquals(kind.toString(), 1, f.reads(0));
+
+            // with every frame dirty there is nothing left to evict
+            bp.getPage(tid, pid(1), Permissions.READ_WRITE).markDirty(true, tid);
+            bp.getPage(tid, pid(2), Permissions.READ_WRITE).markDirty(true, tid);
+            try {
+                bp.getPage(tid, pid(5), Permissions.READ_ONLY);
+                fail(kind + ": expected DbException when every page is dirty");
+            } catch (DbException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Replays a reference string against a policy and returns the hit ratio.
+     */
+    static double hitRatio(EvictionPolicy.Kind kind, int frames, int[] trace) {
+        EvictionPolicy p = kind.newPolicy(frames);
+        Set<Integer> resident = new HashSet<>();
+        int hits = 0;
+        for (int pg : trace) {
+            if (resident.contains(pg)) {
+                hits++;
+                p.pageAccessed(pid(pg));
+                continue;
+            }
+            if (resident.size() >= frames)
+                resident.remove(p.evict(x -> true).getPageNumber());
+            resident.add(pg);
+            p.pageAdmitted(pid(pg));
+        }
+        return (double) hits / trace.length;
+    }
+
+    /** Skewed point lookups: 80% of the references go to a small hot set. */
+    static int[] pointLookupTrace(Random r, int pages, int hot, int length) {
+        int[] trace = new int[length];
+        for (int i = 0; i < length; i++)
+            trace[i] = r.nextInt(10) < 8 ? r.nextInt(hot) : hot + r.nextInt(pages - hot);
+        return trace;
+    }
+
+    /** Point lookups on a hot set, interleaved with repeated full-table scans. */
+    static int[] scanHeavyTrace(Random r, int hot, int scanPages, int length) {
+        int[] trace = new int[length];
+        int scanPos = 0;
+        for (int i = 0; i < length; i++) {
+            if (i % 3 == 0) {
+                trace[i] = r.nextInt(hot);
+            } else {
+                trace[i] = hot + scanPos;
+                scanPos = (scanPos + 1) % scanPages;
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * Every policy keeps the hot set of a point-lookup workload, and the
+     * scan-resistant ones do at least as well as CLOCK when scans compete
+     * with a hot set. EvictionBench reports the ratios on longer traces.
+     */
+    @Test public void scanResistance() {
+        int frames = 100;
+        int[] point = pointLookupTrace(new Random(1), 2000, 60, 20000);
+        int[] scan = scanHeavyTrace(new Random(2), 80, 5000, 20000);
+
+        Map<EvictionPolicy.Kind, Double> scanRatios = new EnumMap<>(EvictionPolicy.Kind.class);
+        for (EvictionPolicy.Kind kind : EvictionPolicy.Kind.values()) {
+            assertTrue(kind + " point lookups should hit the hot set", hitRatio(kind, frames, point) > 0.5);
+            scanRatios.put(kind, hitRatio(kind, frames, scan));
+        }
+        assertTrue(scanRatios.get(EvictionPolicy.Kind.LRU_K) >= scanRatios.get(EvictionPolicy.Kind.CLOCK));
+        assertTrue(scanRatios.get(EvictionPolicy.Kind.TWO_Q) >= scanRatios.get(EvictionPolicy.Kind.CLOCK));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
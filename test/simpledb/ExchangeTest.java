@@ -0,0 +1,290 @@
+package simpledb;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.DbException;
+import jav.simpledb.common.Type;
+import jav.simpledb.execution.*;
+import jav.simpledb.optimizer.LogicalPlan;
+import jav.simpledb.optimizer.TableStats;
+import jav.simpledb.storage.*;
+import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+    private static final int WORKERS = 4;
+
+    private TransactionId tid;
+    private int parallelism;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        parallelism = Exchange.getParallelism();
+    }
+
+    @After public void tearDown() {
+        Exchange.setParallelism(parallelism);
+    }
+
+    private static List<String> expected(List<List<Integer>> tuples, java.util.function.Predicate<List<Integer>> keep) {
+        List<String> rows = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (keep.test(t)) {
+                StringBuilder sb = new StringBuilder();
+                for (int v : t) {
+                    sb.append(v).append('\t');
+                }
+                rows.add(sb.toString());
+            }
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
+    private List<OpIterator> filtered(HeapFile f, int below) {
+        List<OpIterator> plans = new ArrayList<>();
+        for (ParallelSeqScan w : ParallelSeqScan.workers(tid, f.getId(), "t", WORKERS)) {
+            plans.add(new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(below)), w));
+        }
+        return plans;
+    }
+
+    /**
+     * The workers of a parallel scan, read by rows or by batches, together
+     * return every tuple exactly once, and once all of them are closed they
+     * read the table again.
+     */
+    @Test public void morselsCoverTable() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 20000, 1000, null, tuples);
+        assertTrue(f.numPages() > 2 * ParallelSeqScan.MORSEL_PAGES);
+        List<String> all = expected(tuples, t -> true);
+        List<ParallelSeqScan> workers = ParallelSeqScan.workers(tid, f.getId(), "t", 3);
+        for (int run = 0; run < 2; run++) {
+            List<String> seen = new ArrayList<>();
+            for (ParallelSeqScan w : workers) {
+                w.open();
+            }
+            boolean more = true;
+            while (more) {
+                more = false;
+                for (int i = 0; i < workers.size(); i++) {
+                    ParallelSeqScan w = workers.get(i);
+                    if (i == 0) {
+                        TupleBatch b = w.nextBatch();
+                        if (b != null) {
+                            more = true;
+                            for (int k = 0; k < b.numSelected(); k++) {
+                                seen.add(b.getTuple(b.selection()[k]).toString());
+                            }
+                        }
+                    } else if (w.hasNext()) {
+                        more = true;
+                        seen.add(w.next().toString());
+                    }
+                }
+            }
+            for (ParallelSeqScan w : workers) {
+                w.close();
+            }
+            Collections.sort(seen);
+            assertEquals(all, seen);
+        }
+    }
+
+    /**
+     * Gathering filters, projections and compiled pipelines run over the
+     * workers gives the rows run on one thread gives, every time it is run,
+     * even after a run closed early.
+     */
+    @Test public void gatherMatchesSerial() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 30000, 1000, null, tuples);
+        Gather gather = new Gather(filtered(f, 300));
+        assertEquals(f.getTupleDesc(), gather.getTupleDesc());
+        List<String> want = expected(tuples, t -> t.get(1) < 300);
+        assertEquals(want, TestUtil.sortedRows(gather));
+        assertEquals(want, TestUtil.sortedRows(gather));
+
+        gather.open();
+        assertTrue(gather.hasNext());
+        gather.next();
+        gather.close();
+        assertEquals(want, TestUtil.sortedRows(gather));
+
+        OpIterator compiled = CompiledPipeline.compile(gather);
+        assertSame(gather, compiled);
+        assertTrue(gather.getChildren()[0] instanceof CompiledPipeline);
+        assertEquals(want, TestUtil.sortedRows(gather));
+
+        List<OpIterator> projected = new ArrayList<>();
+        for (OpIterator p : filtered(f, 100)) {
+            projected.add(new Project(Arrays.asList(2), new Type[] {Type.INT_TYPE}, p));
+        }
+        List<String> values = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(1) < 100) {
+                values.add(t.get(2) + "\t");
+            }
+        }
+        Collections.sort(values);
+        Gather g = new Gather(projected);
+        List<String> batched = new ArrayList<>();
+        g.open();
+        TupleBatch b;
+        while ((b = g.nextBatch()) != null) {
+            for (int k = 0; k < b.numSelected(); k++) {
+                batched.add(b.getTuple(b.selection()[k]).toString());
+            }
+        }
+        g.close();
+        Collections.sort(batched);
+        assertEquals(values, batched);
+    }
+
+    /**
+     * Partial aggregates over the workers, merged after a gather or after
+     * repartitioning by group, give the aggregates computed on one thread,
+     * with the same schema; each group comes out of one partition only.
+     */
+    @Test public void partialAggregates() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 30000, 1000, null, null);
+        for (Aggregator.Op op : new Aggregator.Op[] {Aggregator.Op.SUM, Aggregator.Op.COUNT,
+                Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG}) {
+            for (int group : new int[] {Aggregator.NO_GROUPING, 0}) {
+                Aggregate serial = new Aggregate(new Filter(new Predicate(1, Predicate.Op.LESS_THAN,
+                        new IntField(500)), new SeqScan(tid, f.getId(), "t")), 2, group, op);
+                List<OpIterator> partials = new ArrayList<>();
+                for (OpIterator p : filtered(f, 500)) {
+                    partials.add(serial.partial(p));
+                }
+                OpIterator parallel;
+                if (group == Aggregator.NO_GROUPING) {
+                    parallel = serial.merge(new Gather(partials));
+                } else {
+                    List<OpIterator> merged = new ArrayList<>();
+                    for (Repartition r : Repartition.of(partials, 0, 3)) {
+                        merged.add(serial.merge(r));
+                    }
+                    parallel = new Gather(merged);
+                }
+                String name = op + " " + group;
+                assertEquals(name, serial.getTupleDesc().toString(), parallel.getTupleDesc().toString());
+                List<String> want = TestUtil.sortedRows(serial);
+                assertEquals(name, want, TestUtil.sortedRows(parallel));
+                assertEquals(name, want, TestUtil.sortedRows(CompiledPipeline.compile(parallel)));
+            }
+        }
+    }
+
+    /**
+     * A failure in a worker surfaces from the consumer.
+     */
+    @Test public void failuresReachConsumer() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1000, 10, null, null);
+        List<OpIterator> plans = new ArrayList<>();
+        for (ParallelSeqScan w : ParallelSeqScan.workers(tid, f.getId(), "t", 2)) {
+            plans.add(new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(1)), w) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected Tuple fetchNext() throws DbException {
+                    throw new DbException("worker failed");
+                }
+
+                @Override
+                public TupleBatch nextBatch() throws DbException {
+                    throw new DbException("worker failed");
+                }
+            });
+        }
+        Gather g = new Gather(plans);
+        g.open();
+        try {
+            g.hasNext();
+            fail("expected the worker's exception");
+        } catch (DbException e) {
+            assertEquals("worker failed", e.getMessage());
+        }
+        g.close();
+    }
+
+    /**
+     * physicalPlan scans a table of at least MIN_PARALLEL_PAGES pages in
+     * parallel once the degree of parallelism is above one, and gives the
+     * same rows as on one thread.
+     */
+    @Test public void physicalPlanInsertsExchanges() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 30000, 100, null, null, "c");
+        assertTrue(f.numPages() >= LogicalPlan.MIN_PARALLEL_PAGES);
+        HeapFile small = SystemTestUtil.createRandomHeapFile(3, 100, 100, null, null, "c");
+        Map<String, TableStats> stats = new HashMap<>();
+        for (HeapFile h : new HeapFile[] {f, small}) {
+            stats.put(Database.getCatalog().getTableName(h.getId()), new TableStats(h.getId(), 1000));
+        }
+
+        String[][] queries = {{"t.c0", null, null}, {"t.c2", "sum", null}, {"t.c2", "avg", "t.c0"}};
+        for (String[] q : queries) {
+            List<List<String>> results = new ArrayList<>();
+            List<Boolean> parallel = new ArrayList<>();
+            for (int dop : new int[] {1, WORKERS}) {
+                Exchange.setParallelism(dop);
+                LogicalPlan lp = new LogicalPlan();
+                lp.addScan(f.getId(), "t");
+                lp.addFilter("t.c1", Predicate.Op.GREATER_THAN, "30");
+                if (q[1] == null) {
+                    lp.addProjectField(q[0], null);
+                } else {
+                    if (q[2] != null) {
+                        lp.addProjectField(q[2], null);
+                    }
+                    lp.addProjectField(q[0], q[1]);
+                    lp.addAggregate(q[1], q[0], q[2]);
+                }
+                OpIterator plan = lp.physicalPlan(tid, stats, false);
+                parallel.add(contains(plan, Exchange.class));
+                results.add(TestUtil.sortedRows(plan));
+            }
+            assertEquals(Arrays.asList(false, true), parallel);
+            assertEquals(Arrays.toString(q), results.get(0), results.get(1));
+        }
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(small.getId(), "s");
+        lp.addProjectField("s.c0", null);
+        assertFalse(contains(lp.physicalPlan(tid, stats, false), Exchange.class));
+    }
+
+    private static boolean contains(OpIterator plan, Class<?> c) {
+        if (c.isInstance(plan)) {
+            return true;
+        }
+        if (plan instanceof Operator && ((Operator) plan).getChildren() != null) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (child != null && contains(child, c)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExchangeTest.class);
+    }
+}
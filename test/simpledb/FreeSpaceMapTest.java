@@ -0,0 +1,249 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.Utility;
+import jav.simpledb.storage.*;
+import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    private File f;
+    private HeapFile empty;
+    private int slots;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        f = File.createTempFile("fsm", ".dat");
+        SystemTestUtil.deleteOnExit(f);
+        empty = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        slots = ((HeapPage) empty.readPage(new HeapPageId(empty.getId(), 0))).getNumEmptySlots();
+    }
+
+    /**
+     * Full pages go in bucket 0, empty ones in the last bucket, and
+     * findPage prefers the emptiest pages.
+     */
+    @Test public void buckets() throws Exception {
+        FreeSpaceMap fsm = empty.getFreeSpaceMap();
+        assertEquals(0, fsm.bucket(0));
+        assertEquals(1, fsm.bucket(1));
+        assertEquals(FreeSpaceMap.NUM_BUCKETS - 1, fsm.bucket(slots));
+        assertEquals(1, fsm.numPages());
+        assertEquals(FreeSpaceMap.NUM_BUCKETS - 1, fsm.bucketOf(0));
+
+        fsm.update(0, 0);
+        assertEquals(-1, fsm.findPage());
+        fsm.update(3, 1);
+        assertEquals(4, fsm.numPages());
+        assertEquals(FreeSpaceMap.NUM_BUCKETS - 1, fsm.bucketOf(1));
+        assertEquals(1, fsm.bucketOf(3));
+        fsm.update(1, 0);
+        fsm.update(2, 0);
+        assertEquals(3, fsm.findPage());
+        fsm.update(3, 0);
+        assertEquals(-1, fsm.findPage());
+    }
+
+    /**
+     * Inserts fill the free slots of existing pages before the file grows,
+     * and a delete makes its page findable again.
+     */
+    @Test public void insertsReuseFreeSpace() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Tuple> inserted = new ArrayList<>();
+        for (int i = 0; i < slots; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] {i, i});
+            Database.getBufferPool().insertTuple(tid, empty.getId(), t);
+            inserted.add(t);
+        }
+        assertEquals(1, empty.numPages());
+        assertEquals(0, empty.getFreeSpaceMap().bucketOf(0));
+
+        Database.getBufferPool().deleteTuple(tid, inserted.get(5));
+        assertEquals(0, empty.getFreeSpaceMap().findPage());
+        Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(new int[] {-1, -1}));
+        assertEquals(1, empty.numPages());
+
+        Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(new int[] {-2, -2}));
+        assertEquals(2, empty.numPages());
+        assertEquals(1, empty.getFreeSpaceMap().findPage());
+    }
+
+    /**
+     * The sidecar written as pages are flushed is read back when the file is
+     * reopened, and rebuilt from the page headers when it is missing.
+     */
+    @Test public void sidecar() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, slots * 3, null, null);
+        File sidecar = FreeSpaceMap.sidecarOf(hf.getFile());
+        Database.getCatalog().addTable(hf, "t");
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (int i = 0; i < slots + 3; i++) {
+            assertTrue(it.hasNext());
+            Database.getBufferPool().deleteTuple(tid, it.next());
+        }
+        it.close();
+        Database.getBufferPool().flushAllPages();
+        assertEquals(FreeSpaceMap.HEADER_SIZE + hf.numPages(), sidecar.length());
+
+        HeapFile reopened = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        FreeSpaceMap fsm = reopened.getFreeSpaceMap();
+        assertEquals(FreeSpaceMap.NUM_BUCKETS - 1, fsm.bucketOf(0));
+        assertEquals(fsm.bucket(3), fsm.bucketOf(1));
+        assertEquals(0, fsm.bucketOf(2));
+        reopened.close();
+
+        assertTrue(sidecar.delete());
+        reopened = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        fsm = reopened.getFreeSpaceMap();
+        assertEquals(FreeSpaceMap.NUM_BUCKETS - 1, fsm.bucketOf(0));
+        assertEquals(fsm.bucket(3), fsm.bucketOf(1));
+        assertEquals(0, fsm.bucketOf(2));
+        assertEquals(FreeSpaceMap.HEADER_SIZE + hf.numPages(), sidecar.length());
+        reopened.close();
+    }
+
+    /**
+     * A page write only notes its bucket; the sidecar is written when the
+     * file is told a batch of pages was flushed.
+     */
+    @Test public void sidecarWrittenPerBatch() throws Exception {
+        File sidecar = FreeSpaceMap.sidecarOf(f);
+        empty.getFreeSpaceMap();
+        assertEquals(FreeSpaceMap.HEADER_SIZE + 1, sidecar.length());
+        for (int i = 1; i <= 3; i++) {
+            empty.writePage(new HeapPage(new HeapPageId(empty.getId(), i), HeapPage.createEmptyPageData()));
+        }
+        assertEquals(FreeSpaceMap.HEADER_SIZE + 1, sidecar.length());
+        empty.pagesFlushed();
+        assertEquals(FreeSpaceMap.HEADER_SIZE + 4, sidecar.length());
+
+        HeapFile reopened = new HeapFile(f, empty.getTupleDesc());
+        assertEquals(4, reopened.getFreeSpaceMap().numPages());
+        assertEquals(FreeSpaceMap.NUM_BUCKETS - 1, reopened.getFreeSpaceMap().bucketOf(3));
+        reopened.close();
+    }
+
+    /**
+     * A sidecar left behind by another file of the same name and number of
+     * pages, or by writes that did not go through the map, is not trusted.
+     */
+    @Test public void staleSidecarRebuilt() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, slots * 3, null, null);
+        File sidecar = FreeSpaceMap.sidecarOf(hf.getFile());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (int i = 0; i < slots; i++) {
+            Database.getBufferPool().deleteTuple(tid, it.next());
+        }
+        it.close();
+        Database.getBufferPool().flushAllPages();
+        assertEquals(FreeSpaceMap.NUM_BUCKETS - 1, hf.getFreeSpaceMap().bucketOf(0));
+        hf.close();
+
+        // a table of the same size, full to the last slot, replaces the file
+        List<List<Integer>> full = new ArrayList<>();
+        for (int i = 0; i < slots * 3; i++) {
+            full.add(Arrays.asList(i, i));
+        }
+        HeapFileEncoder.convert(full, hf.getFile(), BufferPool.getPageSize(), 2);
+        assertEquals(FreeSpaceMap.HEADER_SIZE + 3, sidecar.length());
+        HeapFile replaced = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        FreeSpaceMap fsm = replaced.getFreeSpaceMap();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, fsm.bucketOf(i));
+        }
+        assertEquals(-1, fsm.findPage());
+        replaced.close();
+    }
+
+    /**
+     * Pages emptied by deletes in the middle of a file, and of a page range,
+     * are skipped by scans, row by row and batch by batch, and an empty
+     * range can be opened.
+     */
+    @Test public void scansSkipEmptyPages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, slots * 5, null, null);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int row = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int page = row++ / slots;
+            if (page == 1 || page == 2 || page == 4) {
+                Database.getBufferPool().deleteTuple(tid, t);
+            }
+        }
+        it.close();
+        Database.getBufferPool().flushAllPages();
+        assertEquals(5, hf.numPages());
+
+        assertEquals(2 * slots, count(hf.iterator(tid), false));
+        assertEquals(2 * slots, count(hf.iterator(tid), true));
+        assertEquals(slots, count(hf.iterator(tid, 1, 5, null), false));
+        assertEquals(slots, count(hf.iterator(tid, 1, 5, null), true));
+        assertEquals(0, count(hf.iterator(tid, 1, 3, null), false));
+        assertEquals(0, count(hf.iterator(tid, 2, 2, null), false));
+        assertEquals(0, count(hf.iterator(tid, 2, 2, null), true));
+        assertEquals(0, count(empty.iterator(tid, 1, 1, null), false));
+    }
+
+    private static int count(DbFileIterator it, boolean batches) throws Exception {
+        int n = 0;
+        it.open();
+        if (batches) {
+            TupleBatch b = new TupleBatch(Utility.getTupleDesc(2));
+            while (it.nextBatch(b)) {
+                n += b.numSelected();
+            }
+        } else {
+            while (it.hasNext()) {
+                it.next();
+                n++;
+            }
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Inserts into a growing table fill every page before adding another,
+     * so a table of exactly full pages has no room left anywhere.
+     */
+    @Test public void insertsPackPages() throws Exception {
+        Database.resetBufferPool(1000);
+        TransactionId tid = new TransactionId();
+        int batch = slots * 5;
+        for (int round = 1; round <= 4; round++) {
+            for (int i = 0; i < batch; i++) {
+                Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(new int[] {i, round}));
+            }
+            Database.getBufferPool().flushAllPages();
+            assertEquals(round * 5, empty.numPages());
+            assertEquals(-1, empty.getFreeSpaceMap().findPage());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
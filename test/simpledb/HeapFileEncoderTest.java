@@ -0,0 +1,136 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.Type;
+import jav.simpledb.common.Utility;
+import jav.simpledb.storage.*;
+import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class HeapFileEncoderTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE};
+
+    private File out;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        out = File.createTempFile("encoded", ".dat");
+        out.deleteOnExit();
+    }
+
+    private static File temp(String contents) throws IOException {
+        File f = File.createTempFile("encoder", ".txt");
+        f.deleteOnExit();
+        Files.write(f.toPath(), contents.getBytes());
+        return f;
+    }
+
+    /** Write rows of (i, "s" + i, -i) until the file is at least bytes long. */
+    private static File mixedRows(long bytes) throws IOException {
+        File f = File.createTempFile("encoder", ".txt");
+        f.deleteOnExit();
+        try (Writer w = new BufferedWriter(new FileWriter(f))) {
+            long written = 0;
+            for (int i = 0; written < bytes; i++) {
+                String line = i + "| s" + i + " |" + (-i);
+                w.write(line);
+                w.write(i % 7 == 0 ? "\r\n" : "\n");
+                written += line.length() + 1;
+            }
+        }
+        return f;
+    }
+
+    /**
+     * Input of several chunks encodes to the same file on one thread as on
+     * several, and reads back as the rows written.
+     */
+    @Test public void parallelMatchesSerial() throws Exception {
+        File in = mixedRows(3L * (64 << 10));
+        BulkLoader.setChunkBytes(64 << 10);
+        try {
+            HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), 3, TYPES, '|', 1);
+            File parallel = File.createTempFile("encoded", ".dat");
+            parallel.deleteOnExit();
+            HeapFileEncoder.convert(in, parallel, BufferPool.getPageSize(), 3, TYPES, '|', 4);
+            assertEquals(out.length(), parallel.length());
+            try (DataInputStream a = new DataInputStream(new BufferedInputStream(new FileInputStream(out)));
+                 DataInputStream b = new DataInputStream(new BufferedInputStream(new FileInputStream(parallel)))) {
+                byte[] pa = new byte[BufferPool.getPageSize()];
+                byte[] pb = new byte[BufferPool.getPageSize()];
+                for (long p = 0; p < out.length() / pa.length; p++) {
+                    a.readFully(pa);
+                    b.readFully(pb);
+                    assertArrayEquals("page " + p, pa, pb);
+                }
+            }
+        } finally {
+            BulkLoader.resetChunkBytes();
+        }
+
+        HeapFile hf = new HeapFile(out, new TupleDesc(TYPES));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        int i = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(i, ((IntField) t.getField(0)).getValue());
+            assertEquals("s" + i, ((StringField) t.getField(1)).getValue());
+            assertEquals(-i, ((IntField) t.getField(2)).getValue());
+            i++;
+        }
+        it.close();
+        try (BufferedReader r = new BufferedReader(new FileReader(in))) {
+            assertEquals(r.lines().count(), i);
+        }
+    }
+
+    /**
+     * The last line need not end in a newline, and an empty input becomes
+     * one empty page.
+     */
+    @Test public void edges() throws Exception {
+        HeapFileEncoder.convert(temp("1,2\n\n3,4"), out, BufferPool.getPageSize(), 2);
+        List<List<Integer>> tuples = Arrays.asList(Arrays.asList(1, 2), Arrays.asList(3, 4));
+        HeapFile hf = Utility.openHeapFile(2, out);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        HeapFileEncoder.convert(temp(""), out, BufferPool.getPageSize(), 2);
+        assertArrayEquals(HeapPage.createEmptyPageData(), Files.readAllBytes(out.toPath()));
+    }
+
+    /**
+     * A line that is not a tuple of the schema fails the conversion.
+     */
+    @Test public void malformedLine() throws Exception {
+        for (String bad : new String[] {"1,2\n3\n", "1,2,3\n", "1,a\n", "1,99999999999\n"}) {
+            try {
+                HeapFileEncoder.convert(temp(bad), out, BufferPool.getPageSize(), 2);
+                fail("expected IOException for " + bad);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileEncoderTest.class);
+    }
+}
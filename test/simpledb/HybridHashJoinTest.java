@@ -0,0 +1,243 @@
+package simpledb;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.common.DbException;
+import jav.simpledb.common.Type;
+import jav.simpledb.common.Utility;
+import jav.simpledb.execution.*;
+import jav.simpledb.storage.*;
+import jav.simpledb.transaction.TransactionAbortedException;
+import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class HybridHashJoinTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    /** @return the rows of join, read a row at a time or a batch at a time */
+    private static List<String> rows(HashEquiJoin join, boolean batches) throws Exception {
+        if (!batches) {
+            return TestUtil.sortedRows(join);
+        }
+        List<String> rows = new ArrayList<>();
+        join.open();
+        TupleBatch b;
+        while ((b = join.nextBatch()) != null) {
+            for (int k = 0; k < b.numSelected(); k++) {
+                rows.add(TestUtil.format(b.getTuple(b.selection()[k])));
+            }
+        }
+        join.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /** @return the rows of left and right joined on fields f1 and f2, by nested loops */
+    private static List<String> expected(List<Tuple> left, int f1, List<Tuple> right, int f2) {
+        Map<Field, List<Tuple>> byKey = new HashMap<>();
+        for (Tuple r : right) {
+            if (!r.isNull(f2)) {
+                byKey.computeIfAbsent(r.getField(f2), k -> new ArrayList<>()).add(r);
+            }
+        }
+        List<String> rows = new ArrayList<>();
+        for (Tuple l : left) {
+            for (Tuple r : byKey.getOrDefault(l.getField(f1), Collections.emptyList())) {
+                rows.add(TestUtil.format(l) + TestUtil.format(r));
+            }
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
+    private static List<Tuple> tuples(TupleDesc td, List<List<Integer>> values) {
+        List<Tuple> out = new ArrayList<>();
+        for (List<Integer> v : values) {
+            CompactTuple t = new CompactTuple(td);
+            for (int i = 0; i < v.size(); i++) {
+                t.setInt(i, v.get(i));
+            }
+            out.add(t);
+        }
+        return out;
+    }
+
+    /** A scan that counts how often it is rewound. */
+    private static class CountingScan extends SeqScan {
+        private static final long serialVersionUID = 1L;
+        int rewinds;
+
+        CountingScan(TransactionId tid, int tableId, String alias) {
+            super(tid, tableId, alias);
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            rewinds++;
+            super.rewind();
+        }
+    }
+
+    /**
+     * A left child several times the memory budget is joined correctly,
+     * reading the right child once, by rows and by batches, and every spill
+     * file is deleted once the join is closed.
+     */
+    @Test public void spillsPartitions() throws Exception {
+        List<List<Integer>> lv = new ArrayList<>();
+        List<List<Integer>> rv = new ArrayList<>();
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 3 * HashEquiJoin.MAP_SIZE, 100000, null, lv);
+        HeapFile right = SystemTestUtil.createRandomHeapFile(3, 20000, 100000, null, rv);
+        List<String> want = expected(tuples(left.getTupleDesc(), lv), 0, tuples(right.getTupleDesc(), rv), 1);
+        assertTrue(want.size() > 1000);
+
+        int files = TestUtil.spillFiles();
+        for (boolean batches : new boolean[] {false, true}) {
+            CountingScan probe = new CountingScan(tid, right.getId(), "r");
+            HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                    new SeqScan(tid, left.getId(), "l"), probe);
+            assertEquals(want, rows(join, batches));
+            assertEquals(0, probe.rewinds);
+            assertEquals(files, TestUtil.spillFiles());
+
+            join.open();
+            join.rewind();
+            assertTrue(join.hasNext());
+            join.close();
+            assertEquals(files, TestUtil.spillFiles());
+        }
+    }
+
+    /**
+     * A key with more left rows than the memory budget, which no hash
+     * function can split, is joined MAP_SIZE rows at a time.
+     */
+    @Test public void skewedKey() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        List<List<Integer>> lv = new ArrayList<>();
+        for (int i = 0; i < 2 * HashEquiJoin.MAP_SIZE + 5; i++) {
+            lv.add(Arrays.asList(7, i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            lv.add(Arrays.asList(1000 + i, i));
+        }
+        List<List<Integer>> rv = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            rv.add(Arrays.asList(i, 7));
+        }
+        for (int i = 0; i < 500; i++) {
+            rv.add(Arrays.asList(i, 1000 + 2 * i));
+        }
+        List<Tuple> left = tuples(td, lv);
+        List<Tuple> right = tuples(td, rv);
+        List<String> want = expected(left, 0, right, 1);
+        assertEquals((2 * HashEquiJoin.MAP_SIZE + 5) * 3 + 500, want.size());
+        for (boolean batches : new boolean[] {false, true}) {
+            HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                    new TupleIterator(td, left), new TupleIterator(td, right));
+            assertEquals(want, rows(join, batches));
+        }
+    }
+
+    /** @return the partition a join at the given level hashes an int key into, as HashEquiJoin does */
+    private static int partition(int key, int level) {
+        int h = key ^ 0x9e3779b9 * (level + 1);
+        h ^= h >>> 16;
+        h *= 0x7feb352d;
+        h ^= h >>> 15;
+        h *= 0x846ca68b;
+        h ^= h >>> 16;
+        return h & 15;
+    }
+
+    /**
+     * Two keys that together exceed the memory budget and fall in the same
+     * partition are split by partitioning them again, rather than being
+     * joined in chunks as if they were one key.
+     */
+    @Test public void collidingKeys() throws Exception {
+        int a = 0;
+        int b = 1;
+        while (partition(a, 0) != partition(b, 0) || partition(a, 1) == partition(b, 1)) {
+            b++;
+        }
+        TupleDesc td = Utility.getTupleDesc(2);
+        List<List<Integer>> lv = new ArrayList<>();
+        for (int i = 0; i < 3 * HashEquiJoin.MAP_SIZE / 5; i++) {
+            lv.add(Arrays.asList(a, i));
+            lv.add(Arrays.asList(b, i));
+        }
+        List<List<Integer>> rv = Arrays.asList(Arrays.asList(0, a), Arrays.asList(1, b));
+        List<String> want = expected(tuples(td, lv), 0, tuples(td, rv), 1);
+        assertEquals(lv.size(), want.size());
+
+        int files = TestUtil.spillFiles();
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new TupleIterator(td, tuples(td, lv)), new TupleIterator(td, tuples(td, rv)));
+        join.open();
+        List<String> got = new ArrayList<>();
+        int mostFiles = 0;
+        while (join.hasNext()) {
+            got.add(TestUtil.format(join.next()));
+            if (got.size() % 100 == 0) {
+                mostFiles = Math.max(mostFiles, TestUtil.spillFiles() - files);
+            }
+        }
+        join.close();
+        Collections.sort(got);
+        assertEquals(want, got);
+        // the partition of both keys, and the partition of one of them again
+        assertEquals(4, mostFiles);
+        assertEquals(files, TestUtil.spillFiles());
+    }
+
+    /**
+     * Strings and fields that are not set survive being spilled.
+     */
+    @Test public void spillsStringsAndNulls() throws Exception {
+        TupleDesc ltd = new TupleDesc(new Type[] {Type.STRING_TYPE, Type.INT_TYPE}, new String[] {"k", "v"});
+        TupleDesc rtd = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE}, new String[] {"v", "k"});
+        List<Tuple> left = new ArrayList<>();
+        for (int i = 0; i < 2 * HashEquiJoin.MAP_SIZE; i++) {
+            CompactTuple t = new CompactTuple(ltd);
+            t.setField(0, new StringField("key " + i % 30000, Type.STRING_LEN));
+            if (i % 7 != 0) {
+                t.setInt(1, i);
+            }
+            left.add(t);
+        }
+        List<Tuple> right = new ArrayList<>();
+        for (int i = 0; i < 40000; i += 97) {
+            CompactTuple t = new CompactTuple(rtd);
+            t.setInt(0, i);
+            t.setField(1, new StringField("key " + i, Type.STRING_LEN));
+            right.add(t);
+        }
+        List<String> want = expected(left, 0, right, 1);
+        assertTrue(want.toString().contains("null"));
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new TupleIterator(ltd, left), new TupleIterator(rtd, right));
+        assertEquals(want, rows(join, false));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HybridHashJoinTest.class);
+    }
+}
@@ -0,0 +1,130 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.common.Type;
+import jav.simpledb.execution.OrderBy;
+import jav.simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class LazyTupleTest extends SimpleDbTestBase {
+
+    private static final int COLUMNS = 16;
+
+    private HeapFile hf;
+    private List<List<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        hf = SystemTestUtil.createRandomHeapFile(COLUMNS, 5000, null, tuples);
+    }
+
+    /**
+     * Field offsets follow the sizes of the fields before them.
+     */
+    @Test public void fieldOffsets() {
+        TupleDesc td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE});
+        assertEquals(0, td.getFieldOffset(0));
+        assertEquals(Type.INT_TYPE.getLen(), td.getFieldOffset(1));
+        assertEquals(Type.INT_TYPE.getLen() + Type.STRING_TYPE.getLen(), td.getFieldOffset(2));
+        assertEquals(td.getFieldOffset(2) + Type.INT_TYPE.getLen(), td.getSize());
+        try {
+            td.getFieldOffset(3);
+            fail("expected NoSuchElementException");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Fields of a tuple read from a page can be read in any order, set, and
+     * survive serialization.
+     */
+    @Test public void fieldsOnDemand() throws Exception {
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        Tuple t = page.iterator().next();
+        List<Integer> expected = tuples.get(0);
+        assertEquals(new IntField(expected.get(COLUMNS - 1)), t.getField(COLUMNS - 1));
+        assertEquals(new IntField(expected.get(3)), t.getField(3));
+        assertNull(t.getField(COLUMNS));
+        assertEquals(new RecordId(page.getId(), 0), t.getRecordId());
+        assertEquals(expected, SystemTestUtil.tupleToList(t));
+
+        t.setField(3, new IntField(-1));
+        assertEquals(new IntField(-1), t.getField(3));
+        t.setRecordId(null);
+        assertNull(t.getRecordId());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(t);
+        }
+        Tuple copy = (Tuple) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(t.toString(), copy.toString());
+    }
+
+    /**
+     * Every tuple of a page comes back, in slot order, with empty slots
+     * skipped wherever they are.
+     */
+    @Test public void iteratorSkipsEmptySlots() throws Exception {
+        HeapPage full = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        byte[] data = full.getPageData();
+        data[0] &= ~0x05; // free slots 0 and 2
+        HeapPage page = new HeapPage(full.getId(), data);
+        assertEquals(full.getNumEmptySlots() + 2, page.getNumEmptySlots());
+        Iterator<Tuple> it = page.iterator();
+        int count = 0;
+        for (int slot = 0; slot < tuples.size() && count < 4; slot++) {
+            if (slot == 0 || slot == 2)
+                continue;
+            Tuple t = it.next();
+            assertEquals(slot, t.getRecordId().getTupleNumber());
+            assertEquals(tuples.get(slot), SystemTestUtil.tupleToList(t));
+            count++;
+        }
+        assertArrayEquals(data, page.getPageData());
+    }
+
+    /**
+     * A tuple an operator has buffered keeps its values after its slot is
+     * freed and reused by an insert, as does the tuple that was deleted.
+     */
+    @Test public void slotReusedAfterDelete() throws Exception {
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        OrderBy sorted = new OrderBy(0, true,
+                new TupleIterator(hf.getTupleDesc(), Collections.singletonList(page.iterator().next())));
+        sorted.open();
+
+        Tuple deleted = page.iterator().next();
+        page.deleteTuple(deleted);
+        Tuple inserted = new Tuple(hf.getTupleDesc());
+        for (int i = 0; i < COLUMNS; i++) {
+            inserted.setField(i, new IntField(-1));
+        }
+        page.insertTuple(inserted);
+        assertEquals(0, inserted.getRecordId().getTupleNumber());
+
+        assertEquals(tuples.get(0), SystemTestUtil.tupleToList(deleted));
+        assertEquals(tuples.get(0), SystemTestUtil.tupleToList(sorted.next()));
+        assertEquals(Collections.nCopies(COLUMNS, -1), SystemTestUtil.tupleToList(page.iterator().next()));
+        sorted.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LazyTupleTest.class);
+    }
+}
@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.Utility;
+import jav.simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+
+    private File f;
+    private HeapFile plain;
+    private HeapFile mapped;
+    private List<List<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        f = SystemTestUtil.createRandomHeapFileUnopened(2, 20000, 1 << 16, null, tuples);
+        plain = Utility.openHeapFile(2, f);
+        mapped = new HeapFile(f, plain.getTupleDesc(), true);
+    }
+
+    /**
+     * A page built over the mapping is identical to one read into a byte[].
+     */
+    @Test public void mappedPagesMatch() throws Exception {
+        assertTrue(mapped.isMemoryMapped());
+        assertFalse(plain.isMemoryMapped());
+        for (int i = 0; i < plain.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(plain.getId(), i);
+            HeapPage p = (HeapPage) mapped.readPage(pid);
+            assertArrayEquals(plain.readPage(pid).getPageData(), p.getPageData());
+            assertArrayEquals(p.getPageData(), p.getBeforeImage().getPageData());
+        }
+    }
+
+    /**
+     * A scan through the BufferPool sees every tuple of a mapped table.
+     */
+    @Test public void mappedScan() throws Exception {
+        Database.getCatalog().addTable(mapped, "mapped");
+        SystemTestUtil.matchTuples(mapped, tuples);
+    }
+
+    /**
+     * Pages appended after the file was mapped are picked up by remapping,
+     * and pages past the end are still rejected.
+     */
+    @Test public void remapOnGrowth() throws Exception {
+        int n = mapped.numPages();
+        HeapPageId last = new HeapPageId(mapped.getId(), n - 1);
+        byte[] lastData = mapped.readPage(last).getPageData();
+        try {
+            mapped.readPage(new HeapPageId(mapped.getId(), n));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        mapped.writePage(new HeapPage(new HeapPageId(mapped.getId(), n), lastData));
+        assertEquals(n + 1, mapped.numPages());
+        assertArrayEquals(lastData, mapped.readPage(new HeapPageId(mapped.getId(), n)).getPageData());
+    }
+
+    /**
+     * The mmap option of the catalog schema file opens a table memory-mapped.
+     */
+    @Test public void schemaOption() throws Exception {
+        File dir = f.getParentFile();
+        File schema = File.createTempFile("catalog", ".txt", dir);
+        schema.deleteOnExit();
+        String name = f.getName().substring(0, f.getName().length() - ".dat".length());
+        try (PrintWriter w = new PrintWriter(schema)) {
+            w.println(name + " (a int, b int) mmap");
+        }
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+        assertTrue(hf.isMemoryMapped());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
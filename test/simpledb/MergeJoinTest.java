@@ -0,0 +1,306 @@
+package simpledb;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.common.Type;
+import jav.simpledb.execution.*;
+import jav.simpledb.index.BTreeFile;
+import jav.simpledb.index.BTreeScan;
+import jav.simpledb.index.BTreeUtility;
+import jav.simpledb.optimizer.JoinOptimizer;
+import jav.simpledb.optimizer.LogicalJoinNode;
+import jav.simpledb.optimizer.LogicalPlan;
+import jav.simpledb.storage.*;
+import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class MergeJoinTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = {Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+            Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ};
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    /** @return the rows of left and right whose fields f1 and f2 satisfy op, by nested loops */
+    private static List<String> expected(List<Tuple> left, int f1, Predicate.Op op, List<Tuple> right, int f2) {
+        List<String> rows = new ArrayList<>();
+        for (Tuple l : left) {
+            for (Tuple r : right) {
+                if (!l.isNull(f1) && !r.isNull(f2) && l.getField(f1).compare(op, r.getField(f2))) {
+                    rows.add(TestUtil.format(l) + TestUtil.format(r));
+                }
+            }
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /** @return rows of two int fields, the first drawn from keys, unset one time in ten */
+    private static List<Tuple> random(TupleDesc td, int n, int keys, Random rnd) {
+        List<Tuple> out = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            CompactTuple t = new CompactTuple(td);
+            if (rnd.nextInt(10) != 0) {
+                t.setInt(0, rnd.nextInt(keys));
+            }
+            t.setInt(1, i);
+            out.add(t);
+        }
+        return out;
+    }
+
+    /**
+     * Each supported predicate gives the rows of a nested loops join, with
+     * duplicate keys and keys that are not set, and again once rewound.
+     */
+    @Test public void matchesNestedLoops() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.INT_TYPE});
+        Random rnd = new Random(7);
+        List<Tuple> left = random(td, 300, 50, rnd);
+        List<Tuple> right = random(td, 200, 50, rnd);
+        for (Predicate.Op op : OPS) {
+            List<String> want = expected(left, 0, op, right, 0);
+            assertFalse(want.isEmpty());
+            MergeJoin join = new MergeJoin(new JoinPredicate(0, op, 0),
+                    new TupleIterator(td, left), new TupleIterator(td, right));
+            assertEquals(op.toString(), want, TestUtil.sortedRows(join));
+
+            join.open();
+            while (join.hasNext()) {
+                join.next();
+            }
+            join.rewind();
+            List<String> again = new ArrayList<>();
+            while (join.hasNext()) {
+                again.add(TestUtil.format(join.next()));
+            }
+            join.close();
+            Collections.sort(again);
+            assertEquals(want, again);
+        }
+    }
+
+    /**
+     * Strings are merged in the order a B+ tree keeps them.
+     */
+    @Test public void joinsStrings() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] {Type.STRING_TYPE, Type.INT_TYPE});
+        List<Tuple> left = new ArrayList<>();
+        List<Tuple> right = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            CompactTuple t = new CompactTuple(td);
+            t.setField(0, new StringField("key " + (i * 7) % 40, Type.STRING_LEN));
+            t.setInt(1, i);
+            (i % 2 == 0 ? left : right).add(t);
+        }
+        for (Predicate.Op op : OPS) {
+            MergeJoin join = new MergeJoin(new JoinPredicate(0, op, 0),
+                    new TupleIterator(td, left), new TupleIterator(td, right));
+            assertEquals(op.toString(), expected(left, 0, op, right, 0), TestUtil.sortedRows(join));
+        }
+    }
+
+    /**
+     * Inputs larger than the memory budget are sorted in runs spilled to
+     * disk, each of which is deleted once the join is closed.
+     */
+    @Test public void sortsExternally() throws Exception {
+        List<List<Integer>> lv = new ArrayList<>();
+        List<List<Integer>> rv = new ArrayList<>();
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 2 * HashEquiJoin.MAP_SIZE + 17, 200000, null, lv);
+        HeapFile right = SystemTestUtil.createRandomHeapFile(2, 20000, 200000, null, rv);
+        List<String> want = TestUtil.sortedRows(new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r")));
+        assertFalse(want.isEmpty());
+
+        int files = TestUtil.spillFiles();
+        MergeJoin join = new MergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r"));
+        join.open();
+        assertTrue(TestUtil.spillFiles() > files);
+        join.close();
+        assertEquals(files, TestUtil.spillFiles());
+        assertEquals(want, TestUtil.sortedRows(join));
+        assertEquals(files, TestUtil.spillFiles());
+    }
+
+    /**
+     * On an inequality of sorted inputs, more rows before the current one
+     * than the memory budget are spilled to disk and joined from there,
+     * before and after a rewind, and the spill files are deleted once the
+     * join is closed.
+     */
+    @Test public void spillsRowsBefore() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.INT_TYPE});
+        int n = 2 * HashEquiJoin.MAP_SIZE + 500;
+        List<Tuple> left = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            CompactTuple t = new CompactTuple(td);
+            t.setInt(0, (i * 7919) % n);
+            t.setInt(1, i);
+            left.add(t);
+        }
+        List<Tuple> right = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            CompactTuple t = new CompactTuple(td);
+            t.setInt(0, i * n / 5);
+            t.setInt(1, i);
+            right.add(t);
+        }
+        List<String> want = expected(left, 0, Predicate.Op.LESS_THAN, right, 0);
+        assertTrue(want.size() > 2 * HashEquiJoin.MAP_SIZE);
+
+        int files = TestUtil.spillFiles();
+        MergeJoin join = new MergeJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+                new OrderBy(0, true, new TupleIterator(td, left)), new OrderBy(0, true, new TupleIterator(td, right)));
+        join.open();
+        List<String> got = new ArrayList<>();
+        for (int pass = 0; pass < 2; pass++) {
+            got.clear();
+            while (join.hasNext()) {
+                got.add(TestUtil.format(join.next()));
+            }
+            assertTrue(TestUtil.spillFiles() > files);
+            Collections.sort(got);
+            assertEquals(want, got);
+            join.rewind();
+        }
+        join.close();
+        assertEquals(files, TestUtil.spillFiles());
+    }
+
+    /**
+     * On an equality, a run of right rows with one key longer than the
+     * memory budget is spilled to disk and joined from there with each left
+     * row of that key, before and after a rewind, and the spill files are
+     * deleted once the join is done with the run.
+     */
+    @Test public void spillsSkewedKey() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.INT_TYPE});
+        List<Tuple> right = new ArrayList<>();
+        for (int i = 0; i < 2 * HashEquiJoin.MAP_SIZE + 500; i++) {
+            CompactTuple t = new CompactTuple(td);
+            t.setInt(0, i < 10 ? 0 : i < 20 ? 2 : 1);
+            t.setInt(1, i);
+            right.add(t);
+        }
+        List<Tuple> left = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            CompactTuple t = new CompactTuple(td);
+            t.setInt(0, i < 3 ? 1 : i);
+            t.setInt(1, i);
+            left.add(t);
+        }
+        List<String> want = expected(left, 0, Predicate.Op.EQUALS, right, 0);
+        assertEquals(3 * (right.size() - 20), want.size());
+
+        int files = TestUtil.spillFiles();
+        MergeJoin join = new MergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new OrderBy(0, true, new TupleIterator(td, left)), new OrderBy(0, true, new TupleIterator(td, right)));
+        join.open();
+        List<String> got = new ArrayList<>();
+        for (int pass = 0; pass < 2; pass++) {
+            got.clear();
+            while (join.hasNext()) {
+                got.add(TestUtil.format(join.next()));
+                if (got.size() == 1) {
+                    assertTrue(TestUtil.spillFiles() > files);
+                }
+            }
+            Collections.sort(got);
+            assertEquals(want, got);
+            assertEquals(files, TestUtil.spillFiles());
+            join.rewind();
+        }
+        join.close();
+    }
+
+    /**
+     * A scan of a B+ tree keyed on the join field, and an ascending OrderBy
+     * on it, are known to be sorted already; other fields and scans are not.
+     */
+    @Test public void skipsSortOfOrderedInputs() throws Exception {
+        BTreeFile tree = BTreeUtility.createRandomBTreeFile(2, 5000, 1000, null, null, 0);
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(2, 3000, 1000, null, null);
+        BTreeScan treeScan = new BTreeScan(tid, tree.getId(), "t", null);
+        assertTrue(MergeJoin.sortedOn(treeScan, 0));
+        assertFalse(MergeJoin.sortedOn(treeScan, 1));
+        assertTrue(MergeJoin.sortedOn(new SeqScan(tid, tree.getId(), "t"), 0));
+        assertFalse(MergeJoin.sortedOn(new SeqScan(tid, heap.getId(), "h"), 0));
+        assertTrue(MergeJoin.sortedOn(new OrderBy(1, true, new SeqScan(tid, heap.getId(), "h")), 1));
+        assertFalse(MergeJoin.sortedOn(new OrderBy(1, false, new SeqScan(tid, heap.getId(), "h")), 1));
+
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 3000, 1000, null, null);
+        MergeJoin join = new MergeJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new OrderBy(1, true, new SeqScan(tid, heap.getId(), "h")), new SeqScan(tid, other.getId(), "o"));
+        List<String> want = TestUtil.sortedRows(new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, heap.getId(), "h"), new SeqScan(tid, other.getId(), "o")));
+        assertEquals(want, TestUtil.sortedRows(join));
+    }
+
+    /**
+     * instantiateJoin picks a merge join over a nested loops join for an
+     * inequality of large inputs, and over a hash join for an equality of
+     * inputs sorted already, but keeps the old choices without estimates.
+     */
+    @Test public void chosenOnCost() throws Exception {
+        TupleDesc ltd = new TupleDesc(new Type[] {Type.INT_TYPE, Type.INT_TYPE}, new String[] {"l.k", "l.v"});
+        TupleDesc rtd = new TupleDesc(new Type[] {Type.INT_TYPE, Type.INT_TYPE}, new String[] {"r.k", "r.v"});
+        OpIterator l = new TupleIterator(ltd, Collections.emptyList());
+        OpIterator r = new TupleIterator(rtd, Collections.emptyList());
+        LogicalJoinNode lt = new LogicalJoinNode("l", "r", "k", "k", Predicate.Op.LESS_THAN);
+        LogicalJoinNode eq = new LogicalJoinNode("l", "r", "k", "k", Predicate.Op.EQUALS);
+        LogicalJoinNode ne = new LogicalJoinNode("l", "r", "k", "k", Predicate.Op.NOT_EQUALS);
+
+        assertTrue(JoinOptimizer.instantiateJoin(lt, l, r) instanceof Join);
+        assertTrue(JoinOptimizer.instantiateJoin(eq, l, r) instanceof HashEquiJoin);
+        assertTrue(JoinOptimizer.instantiateJoin(lt, l, r, 10000, 10000, 1000, 1000) instanceof MergeJoin);
+        assertTrue(JoinOptimizer.instantiateJoin(ne, l, r, 10000, 10000, 1000, 1000) instanceof Join);
+        assertTrue(JoinOptimizer.instantiateJoin(eq, l, r, 10000, 10000, 1000, 1000) instanceof HashEquiJoin);
+        assertTrue(JoinOptimizer.instantiateJoin(eq, new OrderBy(0, true, l), new OrderBy(0, true, r),
+                10000, 10000, 1000, 1000) instanceof MergeJoin);
+    }
+
+    /**
+     * estimateJoinCost counts the sorts a merge join skips for tables that
+     * are B+ trees keyed on the join fields, and so prices an equality join
+     * of them below the same join of fields that are not keys.
+     */
+    @Test public void estimateCostOfKeyedTables() throws Exception {
+        BTreeFile a = BTreeUtility.createRandomBTreeFile(2, 10, null, null, 0);
+        BTreeFile b = BTreeUtility.createRandomBTreeFile(2, 10, null, null, 0);
+        BTreeFile ta = BTreeUtility.openBTreeFile(2, "a", a.getFile(), 0);
+        BTreeFile tb = BTreeUtility.openBTreeFile(2, "b", b.getFile(), 0);
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(ta.getId(), "ta");
+        lp.addScan(tb.getId(), "tb");
+        LogicalJoinNode keys = new LogicalJoinNode("ta", "tb", "a0", "b0", Predicate.Op.EQUALS);
+        LogicalJoinNode others = new LogicalJoinNode("ta", "tb", "a1", "b1", Predicate.Op.EQUALS);
+        JoinOptimizer jo = new JoinOptimizer(lp, Arrays.asList(keys, others));
+        double keyCost = jo.estimateJoinCost(keys, 100000, 100000, 5000, 5000);
+        double otherCost = jo.estimateJoinCost(others, 100000, 100000, 5000, 5000);
+        assertTrue(keyCost > 10000);
+        assertTrue(keyCost < otherCost);
+        assertEquals(5000 + 5000 + 100000 + 100000, keyCost, 1e-6);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MergeJoinTest.class);
+    }
+}
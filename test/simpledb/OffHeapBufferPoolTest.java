@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.Permissions;
+import jav.simpledb.storage.*;
+import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class OffHeapBufferPoolTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private List<List<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 20000, null, tuples);
+    }
+
+    /**
+     * Frames are handed out until the arena runs dry, and a released frame
+     * goes stale for whoever still holds it.
+     */
+    @Test public void arenaFrames() {
+        FrameArena arena = new FrameArena(2, BufferPool.getPageSize());
+        PageFrame a = arena.allocate();
+        PageFrame b = arena.allocate();
+        assertNotNull(a);
+        assertNotNull(b);
+        assertNull(arena.allocate());
+        assertEquals(BufferPool.getPageSize(), a.buffer().remaining());
+        assertTrue(a.isCurrent());
+        arena.release(a);
+        arena.release(a);
+        assertFalse(a.isCurrent());
+        assertEquals(1, arena.freeFrames());
+        PageFrame c = arena.allocate();
+        assertTrue(c.isCurrent());
+        assertFalse(a.isCurrent());
+    }
+
+    /**
+     * An off-heap pool hands out views of its frames, and a scan through it
+     * sees every tuple.
+     */
+    @Test public void offHeapScan() throws Exception {
+        Database.getCatalog().addTable(hf, "t");
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES, BufferPool.DEFAULT_POLICY, true);
+        assertTrue(bp.isOffHeap());
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage p = (HeapPage) bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+        assertTrue(p.isFrameView());
+        assertArrayEquals(hf.readPage(pid).getPageData(), p.getPageData());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * A page whose frame was reused for another page still returns its own
+     * data.
+     */
+    @Test public void evictedViewDetaches() throws Exception {
+        Database.getCatalog().addTable(hf, "t");
+        BufferPool bp = Database.resetBufferPool(2, BufferPool.DEFAULT_POLICY, true);
+        TransactionId tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage first = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+        Iterator<Tuple> it = first.iterator();
+        Tuple t0 = it.next();
+        for (int i = 1; i < hf.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        assertFalse(bp.isResident(pid));
+
+        HeapPage expected = (HeapPage) hf.readPage(pid);
+        assertArrayEquals(expected.getPageData(), first.getPageData());
+        Iterator<Tuple> want = expected.iterator();
+        assertEquals(want.next().toString(), t0.toString());
+        while (want.hasNext())
+            assertEquals(want.next().toString(), it.next().toString());
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OffHeapBufferPoolTest.class);
+    }
+}
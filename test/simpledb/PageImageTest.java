@@ -0,0 +1,181 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.Utility;
+import jav.simpledb.index.*;
+import jav.simpledb.storage.*;
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class PageImageTest extends SimpleDbTestBase {
+
+    private static final int TABLE = -1;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        Database.getCatalog().addTable(new SkeletonFile(TABLE, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    private static void assertSameImage(Page page) {
+        byte[] data = page.getPageData();
+        ByteBuffer buf = page.getPageBuffer();
+        assertTrue(buf.isReadOnly());
+        assertEquals(data.length, buf.remaining());
+        byte[] viewed = new byte[buf.remaining()];
+        buf.get(viewed);
+        assertArrayEquals(data, viewed);
+    }
+
+    /**
+     * Inserts and deletes on a HeapPage are applied to its image: a page built
+     * from getPageData has the same tuples, and deleting everything leaves an
+     * all-zero page.
+     */
+    @Test public void heapPageInPlace() throws Exception {
+        HeapPageId pid = new HeapPageId(TABLE, 0);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        List<Tuple> inserted = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] {i, -i});
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        for (int i = 0; i < 100; i += 3)
+            page.deleteTuple(inserted.get(i));
+        assertSameImage(page);
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < 100; i++) {
+            if (i % 3 == 0)
+                continue;
+            assertTrue(TestUtil.compareTuples(inserted.get(i), it.next()));
+        }
+        assertFalse(it.hasNext());
+
+        for (int i = 0; i < 100; i++)
+            if (i % 3 != 0)
+                page.deleteTuple(inserted.get(i));
+        assertArrayEquals(HeapPage.createEmptyPageData(), page.getPageData());
+    }
+
+    /**
+     * A deleted tuple keeps its values and its RecordId after its slot is
+     * cleared.
+     */
+    @Test public void deletedTupleKeepsValues() throws Exception {
+        HeapPageId pid = new HeapPageId(TABLE, 0);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(new int[] {7, 8}));
+        HeapPage reread = new HeapPage(pid, page.getPageData());
+        Tuple t = reread.iterator().next();
+        reread.deleteTuple(t);
+        assertEquals(new RecordId(pid, 0), t.getRecordId());
+        assertFalse(reread.iterator().hasNext());
+        assertEquals(new IntField(7), t.getField(0));
+        assertEquals(new IntField(8), t.getField(1));
+    }
+
+    /**
+     * Modifying a page read over a read-only buffer copies it first, and the
+     * before image is still the original.
+     */
+    @Test public void readOnlyPageCopiedOnWrite() throws Exception {
+        HeapPageId pid = new HeapPageId(TABLE, 0);
+        byte[] original = HeapPage.createEmptyPageData();
+        ByteBuffer ro = ByteBuffer.wrap(original).asReadOnlyBuffer();
+        HeapPage page = new HeapPage(pid, ro);
+        page.insertTuple(Utility.getHeapTuple(new int[] {1, 2}));
+        assertEquals(page.getNumEmptySlots() + 1, new HeapPage(pid, original).getNumEmptySlots());
+        assertArrayEquals(original, page.getBeforeImage().getPageData());
+        assertArrayEquals(HeapPage.createEmptyPageData(), original);
+    }
+
+    /**
+     * Inserts, deletes and pointer updates on a BTreeLeafPage are applied to
+     * its image.
+     */
+    @Test public void leafPageInPlace() throws Exception {
+        BTreePageId pid = new BTreePageId(TABLE, 2, BTreePageId.LEAF);
+        BTreeLeafPage page = new BTreeLeafPage(pid, BTreePage.createEmptyPageData(), 0);
+        List<Tuple> inserted = new ArrayList<>();
+        Random rand = new Random(7);
+        for (int i = 0; i < 150; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] {rand.nextInt(1000), i});
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        for (int i = 0; i < 150; i += 4)
+            page.deleteTuple(inserted.get(i));
+        page.setLeftSiblingId(new BTreePageId(TABLE, 1, BTreePageId.LEAF));
+        page.setRightSiblingId(new BTreePageId(TABLE, 3, BTreePageId.LEAF));
+        page.setParentId(new BTreePageId(TABLE, 9, BTreePageId.INTERNAL));
+        assertSameImage(page);
+
+        BTreeLeafPage copy = new BTreeLeafPage(pid, page.getPageData(), 0);
+        assertEquals(page.getLeftSiblingId(), copy.getLeftSiblingId());
+        assertEquals(page.getRightSiblingId(), copy.getRightSiblingId());
+        assertEquals(page.getParentId(), copy.getParentId());
+        Iterator<Tuple> a = page.iterator();
+        Iterator<Tuple> b = copy.iterator();
+        while (a.hasNext()) {
+            Tuple t = a.next();
+            Tuple u = b.next();
+            assertTrue(TestUtil.compareTuples(t, u));
+            assertEquals(t.getRecordId(), u.getRecordId());
+        }
+        assertFalse(b.hasNext());
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+    }
+
+    /**
+     * Inserts, deletes and updates on a BTreeInternalPage are applied to its
+     * image.
+     */
+    @Test public void internalPageInPlace() throws Exception {
+        BTreePageId pid = new BTreePageId(TABLE, 2, BTreePageId.INTERNAL);
+        BTreeInternalPage page = new BTreeInternalPage(pid, BTreePage.createEmptyPageData(), 0);
+        for (int[] entry : BTreeInternalPageTest.EXAMPLE_VALUES) {
+            page.insertEntry(new BTreeEntry(new IntField(entry[1]),
+                    new BTreePageId(TABLE, entry[0], BTreePageId.LEAF),
+                    new BTreePageId(TABLE, entry[2], BTreePageId.LEAF)));
+        }
+        Iterator<BTreeEntry> it = page.iterator();
+        BTreeEntry first = it.next();
+        page.deleteKeyAndRightChild(it.next());
+        first.setKey(new IntField(first.getKey().hashCode() - 1));
+        page.updateEntry(first);
+        assertSameImage(page);
+
+        BTreeInternalPage copy = new BTreeInternalPage(pid, page.getPageData(), 0);
+        Iterator<BTreeEntry> a = page.iterator();
+        Iterator<BTreeEntry> b = copy.iterator();
+        while (a.hasNext()) {
+            BTreeEntry e = a.next();
+            BTreeEntry f = b.next();
+            assertEquals(e.getKey(), f.getKey());
+            assertEquals(e.getLeftChild(), f.getLeftChild());
+            assertEquals(e.getRightChild(), f.getRightChild());
+        }
+        assertFalse(b.hasNext());
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageImageTest.class);
+    }
+}
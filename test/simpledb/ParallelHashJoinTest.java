@@ -0,0 +1,179 @@
+package simpledb;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.DbException;
+import jav.simpledb.execution.*;
+import jav.simpledb.optimizer.LogicalPlan;
+import jav.simpledb.optimizer.TableStats;
+import jav.simpledb.storage.HeapFile;
+import jav.simpledb.storage.TupleBatch;
+import jav.simpledb.transaction.TransactionAbortedException;
+import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class ParallelHashJoinTest extends SimpleDbTestBase {
+
+    private static final int WORKERS = 4;
+
+    private TransactionId tid;
+    private int parallelism;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        parallelism = Exchange.getParallelism();
+    }
+
+    @After public void tearDown() {
+        Exchange.setParallelism(parallelism);
+    }
+
+    private List<OpIterator> workers(HeapFile f, String alias) {
+        return new ArrayList<>(ParallelSeqScan.workers(tid, f.getId(), alias, WORKERS));
+    }
+
+    /**
+     * Joining the partitions of both sides gives the rows a serial hash join
+     * gives, whether both sides are read in parallel or one is read on one
+     * thread, and every time the join is run.
+     */
+    @Test public void partitionedMatchesSerial() throws Exception {
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 20000, 5000, null, null);
+        HeapFile right = SystemTestUtil.createRandomHeapFile(3, 20000, 5000, null, null);
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        List<String> want = TestUtil.sortedRows(new HashEquiJoin(p, new SeqScan(tid, left.getId(), "l"),
+                new SeqScan(tid, right.getId(), "r")));
+        assertTrue(want.size() > 20000);
+
+        Gather both = HashEquiJoin.partitioned(p, workers(left, "l"), workers(right, "r"), WORKERS, 20000);
+        assertEquals(WORKERS, both.getChildren().length);
+        assertEquals(want, TestUtil.sortedRows(both));
+        assertEquals(want, TestUtil.sortedRows(both));
+        assertEquals(want, TestUtil.sortedRows(CompiledPipeline.compile(both)));
+
+        Gather oneSide = HashEquiJoin.partitioned(p, Collections.singletonList(new SeqScan(tid, left.getId(), "l")),
+                workers(right, "r"), 3, 0);
+        assertEquals(want, TestUtil.sortedRows(oneSide));
+    }
+
+    /**
+     * Only an equality can be partitioned.
+     */
+    @Test(expected = IllegalArgumentException.class) public void needsEquality() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, 10, null, null);
+        HashEquiJoin.partitioned(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+                workers(f, "l"), workers(f, "r"), 2, 0);
+    }
+
+    /**
+     * The right child is never rewound, whether the left child fits in
+     * memory or not, so partitions of a Repartition can be probed.
+     */
+    @Test public void rightReadOnce() throws Exception {
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, HashEquiJoin.MAP_SIZE * 2, 50000, null, null);
+        HeapFile right = SystemTestUtil.createRandomHeapFile(2, 1000, 50000, null, null);
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        int[] rewinds = new int[1];
+        SeqScan probe = new SeqScan(tid, right.getId(), "r") {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                rewinds[0]++;
+                super.rewind();
+            }
+        };
+
+        HashEquiJoin spilling = new HashEquiJoin(p, new SeqScan(tid, left.getId(), "l"), probe);
+        List<String> want = TestUtil.sortedRows(spilling);
+        assertEquals(0, rewinds[0]);
+
+        HashEquiJoin whole = new HashEquiJoin(p, new SeqScan(tid, left.getId(), "l"), probe);
+        whole.setExpectedBuildRows(HashEquiJoin.MAP_SIZE * 2);
+        assertEquals(want, TestUtil.sortedRows(whole));
+        assertEquals(0, rewinds[0]);
+
+        List<String> batched = new ArrayList<>();
+        whole.open();
+        TupleBatch b;
+        while ((b = whole.nextBatch()) != null) {
+            for (int k = 0; k < b.numSelected(); k++) {
+                batched.add(b.getTuple(b.selection()[k]).toString());
+            }
+        }
+        whole.close();
+        Collections.sort(batched);
+        assertEquals(want, batched);
+        assertEquals(0, rewinds[0]);
+    }
+
+    /**
+     * physicalPlan partitions the equality joins of tables scanned in
+     * parallel, including with a small table and across two joins, and gives
+     * the rows it gives on one thread.
+     */
+    @Test public void physicalPlanPartitionsJoins() throws Exception {
+        HeapFile a = SystemTestUtil.createRandomHeapFile(3, 30000, 20000, null, null, "a");
+        HeapFile b = SystemTestUtil.createRandomHeapFile(2, 40000, 20000, null, null, "b");
+        HeapFile c = SystemTestUtil.createRandomHeapFile(2, 100, 20000, null, null, "c");
+        assertTrue(b.numPages() >= LogicalPlan.MIN_PARALLEL_PAGES);
+        Map<String, TableStats> stats = new HashMap<>();
+        for (HeapFile h : new HeapFile[] {a, b, c}) {
+            stats.put(Database.getCatalog().getTableName(h.getId()), new TableStats(h.getId(), 1000));
+        }
+
+        for (int tables = 2; tables <= 3; tables++) {
+            List<List<String>> results = new ArrayList<>();
+            for (int dop : new int[] {1, WORKERS}) {
+                Exchange.setParallelism(dop);
+                LogicalPlan lp = new LogicalPlan();
+                lp.addScan(a.getId(), "ta");
+                lp.addScan(b.getId(), "tb");
+                lp.addJoin("ta.a0", "tb.b1", Predicate.Op.EQUALS);
+                lp.addFilter("ta.a2", Predicate.Op.LESS_THAN, "15000");
+                if (tables == 3) {
+                    lp.addScan(c.getId(), "tc");
+                    lp.addJoin("tb.b0", "tc.c0", Predicate.Op.EQUALS);
+                }
+                lp.addProjectField("null.*", null);
+                OpIterator plan = lp.physicalPlan(tid, stats, false);
+                assertEquals(dop > 1, contains(plan, Repartition.class));
+                results.add(TestUtil.sortedRows(plan));
+            }
+            assertFalse(results.get(0).isEmpty());
+            assertEquals(results.get(0), results.get(1));
+        }
+    }
+
+    private static boolean contains(OpIterator plan, Class<?> c) {
+        if (c.isInstance(plan)) {
+            return true;
+        }
+        if (plan instanceof Operator && ((Operator) plan).getChildren() != null) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (child != null && contains(child, c)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelHashJoinTest.class);
+    }
+}
@@ -0,0 +1,190 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.Type;
+import jav.simpledb.common.Utility;
+import jav.simpledb.storage.*;
+import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class PaxPageTest extends SimpleDbTestBase {
+
+    private File table;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = File.createTempFile("pax", ".dat");
+        SystemTestUtil.deleteOnExit(table);
+    }
+
+    private static File csv(List<List<Integer>> tuples) throws IOException {
+        File csv = File.createTempFile("pax", ".txt");
+        csv.deleteOnExit();
+        try (Writer w = new BufferedWriter(new FileWriter(csv))) {
+            for (List<Integer> t : tuples) {
+                for (int j = 0; j < t.size(); j++) {
+                    w.write(t.get(j) + (j < t.size() - 1 ? "," : "\n"));
+                }
+            }
+        }
+        return csv;
+    }
+
+    private static List<List<Integer>> randomTuples(int rows, int columns) {
+        Random r = new Random(rows);
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            List<Integer> t = new ArrayList<>();
+            for (int j = 0; j < columns; j++) {
+                t.add(r.nextInt(1 << 16));
+            }
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    private HeapFile openPax(int columns, File f) {
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(columns), false, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /**
+     * The encoder writes each column of a page as one run of values, and
+     * the file reads back as the tuples written.
+     */
+    @Test public void layout() throws Exception {
+        List<List<Integer>> tuples = randomTuples(1000, 3);
+        HeapFileEncoder.convert(csv(tuples), table, BufferPool.getPageSize(), 3,
+                Utility.getTypes(3), ',', 1, true);
+        HeapFile hf = openPax(3, table);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        ByteBuffer page = ByteBuffer.wrap(Files.readAllBytes(table.toPath()));
+        int slots = (BufferPool.getPageSize() * 8) / (12 * 8 + 1);
+        int header = (slots + 7) / 8;
+        for (int s = 0; s < slots; s++) {
+            assertEquals((int) tuples.get(s).get(0), page.getInt(header + 4 * s));
+            assertEquals((int) tuples.get(s).get(2), page.getInt(header + slots * 8 + 4 * s));
+        }
+    }
+
+    /**
+     * Inserts and deletes through the BufferPool work on PAX pages, and a
+     * bulk load writes the same image as the encoder.
+     */
+    @Test public void insertDeleteAndLoad() throws Exception {
+        List<List<Integer>> tuples = randomTuples(600, 2);
+        File other = File.createTempFile("pax", ".dat");
+        SystemTestUtil.deleteOnExit(other);
+        HeapFileEncoder.convert(csv(tuples), other, BufferPool.getPageSize(), 2,
+                Utility.getTypes(2), ',', 1, true);
+        HeapFile loaded = openPax(2, table);
+        new BulkLoader(loaded).load(new TransactionId(), csv(tuples));
+        assertArrayEquals(Files.readAllBytes(other.toPath()), Files.readAllBytes(table.toPath()));
+
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, loaded.getId(), Utility.getHeapTuple(new int[] {-1, -2}));
+        tuples.add(Arrays.asList(-1, -2));
+        DbFileIterator it = loaded.iterator(tid);
+        it.open();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(it.hasNext());
+            Tuple t = it.next();
+            tuples.remove(SystemTestUtil.tupleToList(t));
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        it.close();
+        Database.getBufferPool().flushAllPages();
+        SystemTestUtil.matchTuples(loaded, tuples);
+
+        HeapPage first = (HeapPage) loaded.readPage(new HeapPageId(loaded.getId(), 0));
+        assertTrue(first instanceof PaxPage);
+        assertEquals(10, first.getNumEmptySlots());
+        FreeSpaceMap fsm = loaded.getFreeSpaceMap();
+        assertEquals(fsm.bucket(first.getNumEmptySlots()), fsm.bucketOf(0));
+    }
+
+    /**
+     * The column iterator returns the same values, page by page, as a row
+     * scan, and a catalog entry with the pax option opens a PAX table.
+     */
+    @Test public void columnIteratorAndCatalog() throws Exception {
+        List<List<Integer>> tuples = randomTuples(3000, 4);
+        File dir = Files.createTempDirectory("pax").toFile();
+        dir.deleteOnExit();
+        String name = "pax" + Math.abs(new Random().nextInt());
+        File dat = new File(dir, name + ".dat");
+        SystemTestUtil.deleteOnExit(dat);
+        HeapFileEncoder.convert(csv(tuples), dat, BufferPool.getPageSize(), 4,
+                Utility.getTypes(4), ',', 1, true);
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        Files.write(schema.toPath(), (name + " (a int, b int, c int, d int) pax\n").getBytes());
+        Database.getCatalog().loadSchema(schema.getPath());
+        HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+        assertTrue(hf.isPax());
+
+        PaxColumnIterator it = new PaxColumnIterator(new TransactionId(), hf, new int[] {3, 1});
+        it.open();
+        int row = 0;
+        while (it.next()) {
+            int[] d = it.getInts(0);
+            int[] b = it.getInts(1);
+            for (int j = 0; j < it.size(); j++, row++) {
+                assertEquals((int) tuples.get(row).get(3), d[j]);
+                assertEquals((int) tuples.get(row).get(1), b[j]);
+            }
+        }
+        it.close();
+        assertEquals(tuples.size(), row);
+    }
+
+    /**
+     * Strings are returned as fields, and tables with a VARCHAR cannot be
+     * PAX tables.
+     */
+    @Test public void stringsAndVarchar() throws Exception {
+        Type[] types = {Type.INT_TYPE, Type.STRING_TYPE};
+        File csv = File.createTempFile("pax", ".txt");
+        csv.deleteOnExit();
+        Files.write(csv.toPath(), "1,one\n2,two\n3,three\n".getBytes());
+        HeapFileEncoder.convert(csv, table, BufferPool.getPageSize(), 2, types, ',', 1, true);
+        HeapFile hf = new HeapFile(table, new TupleDesc(types), false, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        PaxColumnIterator it = new PaxColumnIterator(new TransactionId(), hf, new int[] {1});
+        it.open();
+        assertTrue(it.next());
+        assertEquals(3, it.size());
+        assertEquals(new StringField("three", Type.STRING_LEN), it.getFields(0)[2]);
+        assertFalse(it.next());
+        it.close();
+
+        try {
+            new HeapFile(table, new TupleDesc(new Type[] {Type.VARCHAR_TYPE}), false, true);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxPageTest.class);
+    }
+}
@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.Permissions;
+import jav.simpledb.storage.*;
+import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    private static final int TABLE = 5;
+    private static final int PAGES = 60;
+
+    /**
+     * A BufferPool that records the pages ReadAhead asks it to prefetch and
+     * holds back each prefetch's completion until the test finishes it, so
+     * the test decides which prefetches are done when the scan gets there.
+     */
+    private static class GatedBufferPool extends BufferPool {
+        final List<Integer> requested = new ArrayList<>();
+        private final List<CompletableFuture<List<Page>>> reads = new ArrayList<>();
+        private final List<CompletableFuture<List<Page>>> gates = new ArrayList<>();
+
+        GatedBufferPool(int numPages) {
+            super(numPages);
+        }
+
+        @Override
+        public CompletableFuture<List<Page>> prefetchPages(TransactionId tid, List<PageId> pids, BufferRing ring) {
+            for (PageId pid : pids)
+                requested.add(pid.getPageNumber());
+            reads.add(super.prefetchPages(tid, pids, ring));
+            CompletableFuture<List<Page>> gate = new CompletableFuture<>();
+            gates.add(gate);
+            return gate;
+        }
+
+        /** Wait for every prefetch issued so far to be read, then complete it. */
+        void finishPrefetches() {
+            for (int i = 0; i < gates.size(); i++)
+                gates.get(i).complete(reads.get(i).join());
+        }
+    }
+
+    private GatedBufferPool bp;
+    private TransactionId tid;
+    private TestUtil.StubPageFile f;
+    private ReadAhead ra;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = new GatedBufferPool(200);
+        tid = new TransactionId();
+        f = new TestUtil.StubPageFile(TABLE, PAGES);
+        Database.getCatalog().addTable(f, "stub");
+        ra = new ReadAhead(bp, tid, TABLE, PAGES, null);
+    }
+
+    /** Read page pg the way HeapFileIterator does. */
+    private void consume(int pg) throws Exception {
+        ra.access(pg);
+        bp.getPage(tid, new HeapPageId(TABLE, pg), Permissions.READ_ONLY);
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> pages = new ArrayList<>();
+        for (int i = from; i < to; i++)
+            pages.add(i);
+        return pages;
+    }
+
+    /**
+     * While the scan keeps reaching pages whose prefetch has not finished,
+     * I/O is the bottleneck: each such page is a miss, the window doubles,
+     * and the pages entering the window are requested in order.
+     */
+    @Test public void pendingPrefetchesGrowWindow() throws Exception {
+        consume(0);
+        assertEquals(ReadAhead.MIN_WINDOW, ra.getWindow());
+        assertEquals(range(1, 3), bp.requested);
+
+        int[] windows = {4, 8, 16};
+        for (int pg = 1; pg <= 3; pg++) {
+            consume(pg);
+            assertEquals(windows[pg - 1], ra.getWindow());
+            assertEquals(range(1, pg + 1 + windows[pg - 1]), bp.requested);
+        }
+        assertEquals(0, bp.getPrefetchHits());
+        assertEquals(3, bp.getPrefetchMisses());
+
+        bp.finishPrefetches();
+        for (int i = 0; i < PAGES; i++)
+            assertEquals(i < 20 ? 1 : 0, f.reads(i));
+    }
+
+    /**
+     * Once the scan only reaches pages whose prefetch, and every later one,
+     * has finished, the consumer is the bottleneck: each page is a hit and
+     * the window shrinks by one page down to the minimum.
+     */
+    @Test public void finishedPrefetchesShrinkWindow() throws Exception {
+        for (int pg = 0; pg <= 3; pg++)
+            consume(pg);
+        assertEquals(16, ra.getWindow());
+
+        int window = 16;
+        for (int pg = 4; pg < PAGES; pg++) {
+            bp.finishPrefetches();
+            consume(pg);
+            window = Math.max(ReadAhead.MIN_WINDOW, window - 1);
+            assertEquals(window, ra.getWindow());
+        }
+        assertEquals(PAGES - 4, bp.getPrefetchHits());
+        assertEquals(3, bp.getPrefetchMisses());
+        assertEquals(range(1, PAGES), bp.requested);
+        bp.finishPrefetches();
+        for (int i = 0; i < PAGES; i++)
+            assertEquals(1, f.reads(i));
+    }
+
+    /**
+     * Random access is not sequential, so nothing is read ahead.
+     */
+    @Test public void randomAccessIsNotPrefetched() throws Exception {
+        int[] pages = {40, 3, 17, 29, 8, 51, 22};
+        for (int pg : pages)
+            consume(pg);
+        assertEquals(Collections.emptyList(), bp.requested);
+        assertEquals(ReadAhead.MIN_WINDOW, ra.getWindow());
+        assertEquals(pages.length, f.totalReads());
+        assertEquals(0, bp.getPrefetchHits());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,254 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.Parser;
+import jav.simpledb.common.Database;
+import jav.simpledb.common.Type;
+import jav.simpledb.execution.Filter;
+import jav.simpledb.execution.OpIterator;
+import jav.simpledb.execution.Predicate;
+import jav.simpledb.execution.SeqScan;
+import jav.simpledb.storage.*;
+import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+
+    private TupleDesc td;
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.VARCHAR_TYPE}, new String[] {"id", "name"});
+        File f = File.createTempFile("slotted", ".dat");
+        SystemTestUtil.deleteOnExit(f);
+        hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(TupleDesc td, int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    private static String name(Tuple t) {
+        return ((StringField) t.getField(1)).getValue();
+    }
+
+    private static List<String> contents(HeapPage page) {
+        List<String> out = new ArrayList<>();
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            Tuple t = it.next();
+            out.add(t.getField(0) + ":" + name(t) + "@" + t.getRecordId().getTupleNumber());
+        }
+        return out;
+    }
+
+    /**
+     * Deleting a record closes its gap, keeps the other RecordIds, and its
+     * slot is reused by the next insert; the page survives a round trip
+     * through its bytes.
+     */
+    @Test public void insertDeleteReuse() throws Exception {
+        HeapPage page = new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+        int empty = page.getNumEmptySlots();
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Tuple t = tuple(td, i, "name" + "xyz".substring(0, i % 3) + i);
+            page.insertTuple(t);
+            assertEquals(i, t.getRecordId().getTupleNumber());
+            tuples.add(t);
+        }
+        assertTrue(page.getNumEmptySlots() < empty);
+
+        page.deleteTuple(tuples.get(1));
+        page.deleteTuple(tuples.get(3));
+        assertFalse(page.isSlotUsed(1));
+        assertEquals(Arrays.asList("0:name0@0", "2:namexy2@2", "4:namex4@4"), contents(page));
+
+        Tuple again = tuple(td, 9, "a much longer name than before");
+        page.insertTuple(again);
+        assertEquals(1, again.getRecordId().getTupleNumber());
+
+        HeapPage copy = new HeapPage(page.getId(), page.getPageData());
+        assertEquals(Arrays.asList("0:name0@0", "9:a much longer name than before@1", "2:namexy2@2",
+                "4:namex4@4"), contents(copy));
+
+        for (Tuple t : new Tuple[] {tuples.get(0), again, tuples.get(2), tuples.get(4)}) {
+            page.deleteTuple(t);
+        }
+        assertEquals(empty, page.getNumEmptySlots());
+        assertArrayEquals(HeapPage.createEmptyPageData(), page.getPageData());
+    }
+
+    /**
+     * A page of short VARCHARs holds several times the tuples of a page
+     * of fixed-width strings, and refuses a tuple only when it is full.
+     */
+    @Test public void density() throws Exception {
+        HeapPage page = new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple(td, n, "word" + n))) {
+            page.insertTuple(tuple(td, n, "word" + n));
+            n++;
+        }
+        try {
+            page.insertTuple(tuple(td, n, "word" + n));
+            fail("expected DbException");
+        } catch (jav.simpledb.common.DbException e) {
+            // expected
+        }
+        TupleDesc fixed = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE});
+        int fixedSlots = BufferPool.getPageSize() * 8 / (fixed.getSize() * 8 + 1);
+        assertTrue(n + " vs " + fixedSlots, n > 4 * fixedSlots);
+        assertEquals(n, contents(page).size());
+    }
+
+    /**
+     * Tuples inserted through the BufferPool scan back, and predicates on a
+     * VARCHAR compare its value.
+     */
+    @Test public void scanAndFilter() throws Exception {
+        TransactionId tid = new TransactionId();
+        int rows = 2000;
+        for (int i = 0; i < rows; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(td, i, i % 10 == 0 ? "ten" : "n" + i));
+        }
+        Database.getBufferPool().flushAllPages();
+        assertTrue(hf.numPages() > 1);
+
+        OpIterator scan = new Filter(new Predicate(1, Predicate.Op.EQUALS,
+                new StringField("ten", Type.STRING_LEN)), new SeqScan(tid, hf.getId()));
+        scan.open();
+        int found = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(0, ((IntField) t.getField(0)).getValue() % 10);
+            found++;
+        }
+        scan.close();
+        assertEquals(rows / 10, found);
+    }
+
+    /**
+     * The parser's LOAD statement bulk loads a varchar column into slotted
+     * pages, which read back trimmed.
+     */
+    @Test public void parserLoad() throws Exception {
+        File csv = File.createTempFile("slotted", ".txt");
+        csv.deleteOnExit();
+        Files.write(csv.toPath(), "1| one\n2|two \r\n\n3|".getBytes());
+        String name = "slotted" + Math.abs(new Random().nextInt());
+        File dat = new File(csv.getAbsoluteFile().getParentFile(), name + ".dat");
+        SystemTestUtil.deleteOnExit(dat);
+
+        new Parser().processNextStatement("load '" + csv.getPath() + "' into " + name
+                + " (id int, word varchar) delimiter '|';");
+        int tableId = Database.getCatalog().getTableId(name);
+        assertEquals(Type.VARCHAR_TYPE, Database.getCatalog().getTupleDesc(tableId).getFieldType(1));
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(tableId).iterator(new TransactionId());
+        it.open();
+        List<String> words = new ArrayList<>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            words.add(t.getField(0) + ":" + name(t));
+        }
+        it.close();
+        assertEquals(Arrays.asList("1:one", "2:two", "3:"), words);
+    }
+
+    /**
+     * The same string-heavy table takes far fewer pages with a VARCHAR
+     * column than with a fixed-width STRING column, and scans the same,
+     * each field reporting the type of its column.
+     */
+    @Test public void varcharTakesFewerPages() throws Exception {
+        int rows = 10000;
+        File csv = File.createTempFile("slotted", ".txt");
+        csv.deleteOnExit();
+        Random r = new Random(4);
+        try (Writer w = new BufferedWriter(new FileWriter(csv))) {
+            for (int i = 0; i < rows; i++) {
+                w.write(i + ",user" + r.nextInt(1000000) + "@example.com\n");
+            }
+        }
+        int[] pages = new int[2];
+        List<List<String>> scanned = new ArrayList<>();
+        Type[] types = {Type.STRING_TYPE, Type.VARCHAR_TYPE};
+        for (int k = 0; k < types.length; k++) {
+            TupleDesc desc = new TupleDesc(new Type[] {Type.INT_TYPE, types[k]});
+            File dat = File.createTempFile("slotted", ".dat");
+            SystemTestUtil.deleteOnExit(dat);
+            HeapFileEncoder.convert(csv, dat, BufferPool.getPageSize(), 2, new Type[] {Type.INT_TYPE, types[k]});
+            HeapFile file = new HeapFile(dat, desc);
+            Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+            pages[k] = file.numPages();
+            List<String> names = new ArrayList<>();
+            OpIterator scan = new SeqScan(new TransactionId(), file.getId());
+            scan.open();
+            while (scan.hasNext()) {
+                Tuple t = scan.next();
+                assertEquals(types[k], t.getField(1).getType());
+                names.add(name(t));
+            }
+            scan.close();
+            scanned.add(names);
+        }
+        assertEquals(rows, scanned.get(0).size());
+        assertEquals(scanned.get(0), scanned.get(1));
+        assertTrue(pages[0] + " STRING pages, " + pages[1] + " VARCHAR pages", pages[1] * 3 < pages[0]);
+    }
+
+    /**
+     * A line whose record does not fit on an empty page fails the
+     * conversion rather than being dropped.
+     */
+    @Test public void recordTooLargeForPage() throws Exception {
+        File csv = File.createTempFile("slotted", ".txt");
+        csv.deleteOnExit();
+        char[] longName = new char[100];
+        Arrays.fill(longName, 'x');
+        Files.write(csv.toPath(), ("1,short\n2," + new String(longName) + "\n").getBytes());
+        File dat = File.createTempFile("slotted", ".dat");
+        SystemTestUtil.deleteOnExit(dat);
+        try {
+            HeapFileEncoder.convert(csv, dat, 64, 2, new Type[] {Type.INT_TYPE, Type.VARCHAR_TYPE});
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(new String(longName)));
+        }
+    }
+
+    /**
+     * A VARCHAR stored padded, as on B+ tree pages, reads back as a VARCHAR.
+     */
+    @Test public void paddedVarcharKeepsType() throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(Type.VARCHAR_TYPE.getLen());
+        new StringField("padded", Type.STRING_LEN, Type.VARCHAR_TYPE).serialize(buf, 0);
+        Field f = Type.VARCHAR_TYPE.parse(buf, 0);
+        assertEquals(Type.VARCHAR_TYPE, f.getType());
+        assertEquals("padded", ((StringField) f).getValue());
+        assertEquals(Type.STRING_TYPE, Type.STRING_TYPE.parse(buf, 0).getType());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
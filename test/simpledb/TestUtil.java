@@ -5,6 +5,7 @@ import jav.simpledb.execution.OpIterator;
 import jav.simpledb.storage.*;
 import jav.simpledb.transaction.TransactionAbortedException;
 import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SystemTestUtil;
 
 import java.io.*;
 import java.util.*;
@@ -168,6 +169,53 @@ public class TestUtil {
         }
     }
 
+    /**
+     * @return the fields of t, each followed by a tab, as Tuple.toString
+     *   prints them, with "null" for a field that is not set
+     */
+    public static String format(Tuple t) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            sb.append(t.isNull(i) ? "null" : t.getField(i).toString()).append('\t');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Opens it, reads it to the end and closes it.
+     *
+     * @return the tuples it returned, formatted, in the order it returned them
+     */
+    public static List<String> rows(OpIterator it) throws Exception {
+        List<String> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            rows.add(format(it.next()));
+        }
+        it.close();
+        return rows;
+    }
+
+    /**
+     * @return the tuples it returns, formatted and sorted, for comparing
+     *   plans that return the same rows in different orders
+     */
+    public static List<String> sortedRows(OpIterator it) throws Exception {
+        List<String> rows = rows(it);
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * @return the number of operator spill files in the temporary
+     *   directory, to check that an operator deletes those it makes
+     */
+    public static int spillFiles() {
+        String[] names = new File(System.getProperty("java.io.tmpdir"))
+                .list((dir, name) -> name.startsWith("simpledb-") && name.endsWith(".spill"));
+        return names == null ? 0 : names.length;
+    }
+
     /**
      * @return a byte array containing the contents of the file 'path'
      */
@@ -241,6 +289,86 @@ public class TestUtil {
 		}
     }
 
+    /**
+     * Stub DbFile whose pages carry no data. Counts how many times each page
+     * is read from "disk", so buffer pool behaviour can be checked without
+     * a real HeapFile.
+     */
+    public static class StubPageFile extends SkeletonFile {
+        private final int numPages;
+        private final Map<Integer, Integer> reads = new HashMap<>();
+
+        public StubPageFile(int tableid, int numPages) {
+            super(tableid, Utility.getTupleDesc(1));
+            this.numPages = numPages;
+        }
+
+        @Override
+        public Page readPage(PageId id) {
+            if (id.getPageNumber() < 0 || id.getPageNumber() >= numPages)
+                throw new IllegalArgumentException("no page " + id.getPageNumber());
+            synchronized (reads) {
+                reads.merge(id.getPageNumber(), 1, Integer::sum);
+            }
+            return new StubPage(id);
+        }
+
+        @Override
+        public int numPages() {
+            return numPages;
+        }
+
+        /** @return the number of times page pgNo has been read */
+        public int reads(int pgNo) {
+            synchronized (reads) {
+                return reads.getOrDefault(pgNo, 0);
+            }
+        }
+
+        /** @return the total number of page reads */
+        public int totalReads() {
+            synchronized (reads) {
+                int total = 0;
+                for (int n : reads.values())
+                    total += n;
+                return total;
+            }
+        }
+    }
+
+    /** Page with no contents, handed out by {@link StubPageFile}. */
+    public static class StubPage implements Page {
+        private final PageId pid;
+        private volatile TransactionId dirtier;
+
+        public StubPage(PageId pid) {
+            this.pid = pid;
+        }
+
+        public PageId getId() {
+            return pid;
+        }
+
+        public TransactionId isDirty() {
+            return dirtier;
+        }
+
+        public void markDirty(boolean dirty, TransactionId tid) {
+            dirtier = dirty ? tid : null;
+        }
+
+        public byte[] getPageData() {
+            return new byte[BufferPool.getPageSize()];
+        }
+
+        public Page getBeforeImage() {
+            return this;
+        }
+
+        public void setBeforeImage() {
+        }
+    }
+
     /**
      * Mock SeqScan class for unit testing.
      */
@@ -377,7 +505,7 @@ public class TestUtil {
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            emptyFile.deleteOnExit();
+            SystemTestUtil.deleteOnExit(emptyFile);
         }
 
         protected void setUp() throws Exception {
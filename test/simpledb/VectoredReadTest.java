@@ -0,0 +1,174 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jav.simpledb.common.Database;
+import jav.simpledb.common.Permissions;
+import jav.simpledb.index.*;
+import jav.simpledb.storage.*;
+import jav.simpledb.transaction.TransactionId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class VectoredReadTest extends SimpleDbTestBase {
+
+    /** A DbFileChannel that counts the reads it issues. */
+    private static class CountingChannel extends DbFileChannel {
+        int reads;
+
+        CountingChannel(File f) {
+            super(f);
+        }
+
+        @Override
+        public int read(byte[] buf, long position) throws IOException {
+            reads++;
+            return super.read(buf, position);
+        }
+    }
+
+    private HeapFile hf;
+    private int pageSize;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+        pageSize = BufferPool.getPageSize();
+    }
+
+    private List<PageId> heapPages(int... pageNos) {
+        List<PageId> pids = new ArrayList<>();
+        for (int p : pageNos)
+            pids.add(new HeapPageId(hf.getId(), p));
+        return pids;
+    }
+
+    /**
+     * Adjacent page numbers are merged into one read, whatever their order.
+     */
+    @Test public void adjacentPagesAreMerged() throws Exception {
+        CountingChannel c = new CountingChannel(hf.getFile());
+        int[] pageNos = {5, 1, 2, 3, 9, 10, 2};
+        byte[][] images = c.readPages(pageNos, 0, pageSize);
+        assertEquals(3, c.reads); // 1-3, 5 and 9-10
+        for (int i = 0; i < pageNos.length; i++)
+            assertArrayEquals(hf.readPage(new HeapPageId(hf.getId(), pageNos[i])).getPageData(), images[i]);
+
+        c.reads = 0;
+        int[] all = new int[DbFileChannel.MAX_READ_PAGES + 1];
+        for (int i = 0; i < all.length; i++)
+            all[i] = i;
+        c.readPages(all, 0, pageSize);
+        assertEquals(2, c.reads);
+    }
+
+    /**
+     * Pages past the end of the file come back as null.
+     */
+    @Test public void pastEndIsNull() throws Exception {
+        CountingChannel c = new CountingChannel(hf.getFile());
+        int n = hf.numPages();
+        byte[][] images = c.readPages(new int[] {n - 1, n, n + 1}, 0, pageSize);
+        assertNotNull(images[0]);
+        assertNull(images[1]);
+        assertNull(images[2]);
+    }
+
+    /**
+     * HeapFile.readPages returns the same pages as readPage, in request order.
+     */
+    @Test public void heapFileReadPages() throws Exception {
+        List<PageId> pids = heapPages(7, 0, 1, 2, 6, 3);
+        List<Page> pages = hf.readPages(pids);
+        assertEquals(pids.size(), pages.size());
+        for (int i = 0; i < pids.size(); i++) {
+            assertEquals(pids.get(i), pages.get(i).getId());
+            assertArrayEquals(hf.readPage(pids.get(i)).getPageData(), pages.get(i).getPageData());
+        }
+    }
+
+    /**
+     * BTreeFile.readPages returns the same pages as readPage for every page
+     * of a tree, including the root pointer.
+     */
+    @Test public void bTreeFileReadPages() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 20000, null, null, 0);
+        List<PageId> pids = new ArrayList<>();
+        BTreePageId rootPtr = BTreeRootPtrPage.getId(bf.getId());
+        pids.add(rootPtr);
+        Deque<BTreePageId> todo = new ArrayDeque<>();
+        todo.add(((BTreeRootPtrPage) bf.readPage(rootPtr)).getRootId());
+        while (!todo.isEmpty()) {
+            BTreePageId id = todo.poll();
+            pids.add(id);
+            if (id.pgcateg() == BTreePageId.INTERNAL) {
+                Iterator<BTreeEntry> it = ((BTreeInternalPage) bf.readPage(id)).iterator();
+                BTreeEntry e = null;
+                while (it.hasNext()) {
+                    e = it.next();
+                    todo.add(e.getLeftChild());
+                }
+                todo.add(e.getRightChild());
+            }
+        }
+        assertTrue(pids.size() > 3);
+        Collections.reverse(pids);
+        List<Page> pages = bf.readPages(pids);
+        for (int i = 0; i < pids.size(); i++) {
+            assertEquals(pids.get(i), pages.get(i).getId());
+            assertArrayEquals(bf.readPage(pids.get(i)).getPageData(), pages.get(i).getPageData());
+        }
+    }
+
+    /**
+     * BufferPool.getPages loads the missing pages, returns them in request
+     * order, and leaves them resident.
+     */
+    @Test public void bufferPoolGetPages() throws Exception {
+        Database.getCatalog().addTable(hf, "t");
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        Page resident = bp.getPage(tid, new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+
+        List<PageId> pids = heapPages(4, 2, 3, 0, 4);
+        List<Page> pages = bp.getPages(tid, pids, Permissions.READ_ONLY);
+        for (int i = 0; i < pids.size(); i++)
+            assertEquals(pids.get(i), pages.get(i).getId());
+        assertSame(resident, pages.get(1));
+        assertSame(pages.get(0), pages.get(4));
+        for (int i = 0; i < pids.size(); i++)
+            assertSame(pages.get(i), bp.getPage(tid, pids.get(i), Permissions.READ_ONLY));
+    }
+
+    /**
+     * A batch bigger than the BufferPool is read in chunks instead of failing.
+     */
+    @Test public void batchLargerThanPool() throws Exception {
+        Database.getCatalog().addTable(hf, "t");
+        BufferPool bp = Database.resetBufferPool(8);
+        int n = hf.numPages();
+        int[] all = new int[n];
+        for (int i = 0; i < n; i++)
+            all[i] = i;
+        List<Page> pages = bp.getPages(new TransactionId(), heapPages(all), Permissions.READ_ONLY);
+        assertEquals(n, pages.size());
+        for (int i = 0; i < n; i++)
+            assertEquals(i, pages.get(i).getId().getPageNumber());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(VectoredReadTest.class);
+    }
+}
@@ -128,8 +128,10 @@ public class LogTest extends SimpleDbTestBase {
         // adds to the catalog.
         file1 = new File("simple1.db");
         file1.delete();
+        SystemTestUtil.deleteOnExit(file1);
         file2 = new File("simple2.db");
         file2.delete();
+        SystemTestUtil.deleteOnExit(file2);
         hf1 = Utility.createEmptyHeapFile(file1.getAbsolutePath(), 2);
         hf2 = Utility.createEmptyHeapFile(file2.getAbsolutePath(), 2);
     }
@@ -85,11 +85,20 @@ public class SystemTestUtil {
 
         // Convert the tuples list to a heap file and open it
         File temp = File.createTempFile("table", ".dat");
-        temp.deleteOnExit();
+        deleteOnExit(temp);
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return temp;
     }
 
+    /**
+     * Delete a heap file, and the sidecar of its free space map, when the
+     * JVM exits.
+     */
+    public static void deleteOnExit(File heapFile) {
+        heapFile.deleteOnExit();
+        FreeSpaceMap.sidecarOf(heapFile).deleteOnExit();
+    }
+
     public static List<Integer> tupleToList(Tuple tuple) {
         List<Integer> list = new ArrayList<>();
         for (int i = 0; i < tuple.getTupleDesc().numFields(); ++i) {